@@ -0,0 +1,93 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableList;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.CompactGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+/**
+ * Playouts per second of {@link MctsAi} searching MrX's first move on the standard map with 1, 2,
+ * 4, 8 and all available threads ({@code threads=0}), for both kinds of {@link MctsAi.Parallelism}.
+ * <br>
+ * Each operation is one {@link MctsAi#pickMove} with a fresh tree; the {@code playouts} counter
+ * is the figure to compare. Select a subset with for example
+ * {@code -Djmh.args="MctsScaling -p threads=1,4 -p parallelism=TREE"}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MctsScalingBenchmark {
+
+	private static final Pair<Long, TimeUnit> TIMEOUT = new Pair<>(250L, TimeUnit.MILLISECONDS);
+
+	@Param({"1", "2", "4", "8", "0"}) private int threads;
+	@Param({"ROOT", "TREE"}) private MctsAi.Parallelism parallelism;
+
+	private GameState state;
+	private MctsAi ai;
+
+	/**
+	 * Playouts counted over an iteration, reported per second
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long playouts;
+
+		@Setup(Level.Iteration) public void clear() { playouts = 0; }
+	}
+
+	@Setup public void setUp() throws IOException {
+		var setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+		var locations = ScotlandYard.generateDetectiveLocations(0, 5);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < 5; i++)
+			detectives.add(new Player(Detective.values()[i],
+					ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+		state = new CompactGameStateFactory().build(setup,
+				new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(),
+						ScotlandYard.generateMrXLocation(0)),
+				detectives.build());
+		int count = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+		ai = new MctsAi(new Random(0), count, parallelism);
+	}
+
+	@TearDown public void tearDown() { ai.onTerminate(); }
+
+	@Benchmark public Move search(Counters counters) {
+		ai.onStart();
+		Move move = ai.pickMove(state, TIMEOUT);
+		counters.playouts += ai.lastReport().iterations();
+		return move;
+	}
+
+}
@@ -0,0 +1,85 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * Traverses every edge of the standard 199 node map through {@link ImmutableValueGraph} and
+ * through {@link CompactGraph}, both over all edges and filtered by ticket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactGraphBenchmark {
+
+	private ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph;
+	private CompactGraph compact;
+
+	@Setup public void setUp() throws IOException {
+		graph = ScotlandYard.standardGraph();
+		compact = CompactGraph.of(graph);
+	}
+
+	@Benchmark public int guavaAllEdges() {
+		int sum = 0;
+		for (int node : graph.nodes())
+			for (int neighbour : graph.adjacentNodes(node))
+				for (Transport t : graph.edgeValueOrDefault(node, neighbour, ImmutableSet.of()))
+					sum += neighbour ^ t.ordinal();
+		return sum;
+	}
+
+	@Benchmark public int compactAllEdges() {
+		int sum = 0;
+		for (int node = 0; node < compact.nodeBound(); node++)
+			for (int edge = compact.begin(node); edge < compact.end(node); edge++) {
+				int transports = compact.transports(edge);
+				for (int t = 0; transports != 0; t++, transports >>>= 1)
+					if ((transports & 1) != 0) sum += compact.target(edge) ^ t;
+			}
+		return sum;
+	}
+
+	@Benchmark public int guavaByTicket() {
+		int sum = 0;
+		for (Ticket ticket : Ticket.values())
+			for (int node : graph.nodes())
+				for (int neighbour : graph.adjacentNodes(node)) {
+					var transports = graph.edgeValueOrDefault(node, neighbour, ImmutableSet.of());
+					boolean reachable = ticket == Ticket.SECRET && !transports.isEmpty();
+					for (Transport t : transports) reachable |= t.requiredTicket() == ticket;
+					if (reachable) sum += neighbour;
+				}
+		return sum;
+	}
+
+	@Benchmark public int compactByTicket() {
+		int sum = 0;
+		for (int ticket = 0; ticket < Ticket.values().length; ticket++)
+			for (int node = 0; node < compact.nodeBound(); node++)
+				for (int i = compact.begin(node, ticket); i < compact.end(node, ticket); i++)
+					sum += compact.target(ticket, i);
+		return sum;
+	}
+
+}
@@ -0,0 +1,64 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+
+/**
+ * MrX's move generation on the nodes of the standard map with the most moves, holding the
+ * default DOUBLE and SECRET tickets; 67, 153 and 128 have 368, 351 and 348 moves, nearly all of
+ * them double moves. A regression benchmark for the double move generation, compare with
+ * {@link #build()} to isolate the cost of generation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DoubleMoveBenchmark {
+
+	@Param({"my", "compact"}) public String factory;
+	@Param({"67", "153", "128"}) public int location;
+
+	private Factory<GameState> gameStateFactory;
+	private GameSetup setup;
+	private Player mrX;
+	private ImmutableList<Player> detectives;
+
+	@Setup public void setUp() {
+		gameStateFactory = Games.factory(factory);
+		setup = Games.standardSetup();
+		mrX = new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(), location);
+		// far from all three nodes, so no move is blocked
+		detectives = ImmutableList.of(new Player(Detective.RED,
+				ScotlandYard.defaultDetectiveTickets(), 199));
+	}
+
+	@Benchmark public GameState build() {
+		return gameStateFactory.build(setup, mrX, detectives);
+	}
+
+	@Benchmark public ImmutableSet<Move> mrXAvailableMoves() {
+		return gameStateFactory.build(setup, mrX, detectives).getAvailableMoves();
+	}
+
+}
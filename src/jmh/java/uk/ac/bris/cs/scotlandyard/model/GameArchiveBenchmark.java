@@ -0,0 +1,92 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+/**
+ * Reconstructing the last ply of archived games with {@link GameArchive#state(int, int)}, from
+ * the nearest checkpoint, against replaying the whole record through
+ * {@link MyGameStateFactory}.
+ * <br>
+ * The games are random games of the standard 24 round game, played to the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameArchiveBenchmark {
+
+	private static final int GAMES = 16;
+
+	private GameArchive archive;
+	private final GameRecord[] records = new GameRecord[GAMES];
+	private int next;
+
+	@Setup public void setUp() throws IOException {
+		Path directory = Files.createTempDirectory("archive");
+		Path data = directory.resolve("games");
+		var random = new Random(42);
+		try (var appender = new GameArchive.Appender(data, Games.standardSetup())) {
+			for (int seed = 0; seed < GAMES; seed++) {
+				var mrX = Games.mrX(seed, true);
+				var detectives = Games.detectives(seed);
+				var out = new ByteArrayOutputStream();
+				var writer = new GameRecord.Writer(Channels.newChannel(out),
+						Games.standardSetup(), mrX, detectives);
+				GameState state = new MyGameStateFactory().build(Games.standardSetup(), mrX,
+						detectives);
+				int turns = 0;
+				while (state.getWinner().isEmpty()) {
+					var available = state.getAvailableMoves().asList();
+					Move move = available.get(random.nextInt(available.size()));
+					if (move.commencedBy().isMrX() && turns++ == 11) break;
+					writer.append(move);
+					state = state.advance(move);
+				}
+				writer.finish();
+				records[seed] = new GameRecord.Reader(Channels.newChannel(
+						new ByteArrayInputStream(out.toByteArray()))).next();
+				appender.append(records[seed]);
+			}
+		}
+		archive = GameArchive.open(data, Games.standardSetup());
+		Files.delete(data);
+		Files.delete(GameArchive.indexOf(data));
+		Files.delete(directory);
+	}
+
+	@Benchmark public GameState fromCheckpoint() {
+		int game = next++ & (GAMES - 1);
+		return archive.state(game, archive.plies(game));
+	}
+
+	@Benchmark public GameState fromStart() {
+		GameState last = null;
+		for (GameState state : records[next++ & (GAMES - 1)]
+				.states(new MyGameStateFactory(), Games.standardSetup()))
+			last = state;
+		return last;
+	}
+
+}
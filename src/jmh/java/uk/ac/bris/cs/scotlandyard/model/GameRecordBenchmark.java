@@ -0,0 +1,107 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+/**
+ * Recording random games of the standard 24 round game with {@link GameRecord.Writer}, with
+ * eight threads sharing one channel that discards what it is given, and reading the records of
+ * 16 games back with {@link GameRecord.Reader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameRecordBenchmark {
+
+	private static final int GAMES = 16;
+
+	private final Player[] mrX = new Player[GAMES];
+	private final List<ImmutableList<Player>> detectives = new ArrayList<>();
+	private final List<ImmutableList<Move>> games = new ArrayList<>();
+	private byte[] records;
+
+	private final WritableByteChannel discard = new WritableByteChannel() {
+		@Override public int write(ByteBuffer source) {
+			int n = source.remaining();
+			source.position(source.limit());
+			return n;
+		}
+		@Override public boolean isOpen() { return true; }
+		@Override public void close() {}
+	};
+
+	@State(Scope.Thread)
+	public static class Next {
+		int game;
+	}
+
+	@Setup public void setUp() throws IOException {
+		var random = new Random(42);
+		var factory = new CompactGameStateFactory();
+		var out = new ByteArrayOutputStream();
+		var channel = Channels.newChannel(out);
+		for (int seed = 0; seed < GAMES; seed++) {
+			mrX[seed] = Games.mrX(seed, true);
+			detectives.add(Games.detectives(seed));
+			GameState state = factory.build(Games.standardSetup(), mrX[seed],
+					detectives.get(seed));
+			var writer = new GameRecord.Writer(channel, Games.standardSetup(), mrX[seed],
+					detectives.get(seed));
+			var moves = ImmutableList.<Move>builder();
+			while (state.getWinner().isEmpty()) {
+				var available = state.getAvailableMoves().asList();
+				Move move = available.get(random.nextInt(available.size()));
+				moves.add(move);
+				writer.append(move);
+				state = state.advance(move);
+			}
+			writer.finish();
+			games.add(moves.build());
+		}
+		records = out.toByteArray();
+	}
+
+	@Benchmark @Threads(8) public void write(Next next) throws IOException {
+		int game = next.game++ & (GAMES - 1);
+		var writer = new GameRecord.Writer(discard, Games.standardSetup(), mrX[game],
+				detectives.get(game));
+		for (Move move : games.get(game)) writer.append(move);
+		writer.finish();
+	}
+
+	@Benchmark public int read() {
+		var reader = new GameRecord.Reader(Channels.newChannel(
+				new ByteArrayInputStream(records)));
+		int moves = 0;
+		while (reader.hasNext()) moves += reader.next().moves().size();
+		return moves;
+	}
+
+}
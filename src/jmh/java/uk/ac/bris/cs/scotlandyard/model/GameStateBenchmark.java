@@ -0,0 +1,73 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+
+/**
+ * State construction and move generation at MrX's and at the detectives' turn.
+ * <br>
+ * Both {@link MyGameStateFactory} and {@link CompactGameStateFactory} cache available moves per
+ * state, so the move benchmarks include building (or advancing to) a fresh state; compare them
+ * with {@link #build()} and {@link #advance()} to isolate the cost of generation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+
+	@Param({"my", "compact"}) public String factory;
+	@Param({"true", "false"}) public boolean doubleAndSecret;
+
+	private Factory<GameState> gameStateFactory;
+	private GameSetup setup;
+	private Player mrX;
+	private ImmutableList<Player> detectives;
+	private GameState mrXTurn;
+	private Move mrXMove;
+
+	@Setup public void setUp() {
+		gameStateFactory = Games.factory(factory);
+		setup = Games.standardSetup();
+		mrX = Games.mrX(0, doubleAndSecret);
+		detectives = Games.detectives(0);
+		mrXTurn = gameStateFactory.build(setup, mrX, detectives);
+		mrXMove = mrXTurn.getAvailableMoves().iterator().next();
+	}
+
+	@Benchmark public GameState build() {
+		return gameStateFactory.build(setup, mrX, detectives);
+	}
+
+	@Benchmark public GameState advance() {
+		return mrXTurn.advance(mrXMove);
+	}
+
+	@Benchmark public ImmutableSet<Move> mrXAvailableMoves() {
+		return gameStateFactory.build(setup, mrX, detectives).getAvailableMoves();
+	}
+
+	@Benchmark public ImmutableSet<Move> detectiveAvailableMoves() {
+		return mrXTurn.advance(mrXMove).getAvailableMoves();
+	}
+
+}
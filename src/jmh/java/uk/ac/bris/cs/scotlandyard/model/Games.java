@@ -0,0 +1,93 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Shared fixtures for the benchmarks: the standard 24 round game with five detectives.
+ */
+final class Games {
+
+	private Games() {}
+
+	private static GameSetup standard;
+
+	/**
+	 * @return the standard 24 move setup, loaded once
+	 */
+	static synchronized GameSetup standardSetup() {
+		if (standard == null) {
+			try {
+				standard = new GameSetup(ScotlandYard.standardGraph(),
+						ScotlandYard.STANDARD24MOVES);
+			} catch (IOException e) { throw new UncheckedIOException(e); }
+		}
+		return standard;
+	}
+
+	/**
+	 * @param name {@code my} or {@code compact}
+	 * @return the named game state factory
+	 */
+	static Factory<GameState> factory(String name) {
+		switch (name) {
+			case "my": return new MyGameStateFactory();
+			case "compact": return new CompactGameStateFactory();
+			default: throw new IllegalArgumentException("Unknown factory " + name);
+		}
+	}
+
+	/**
+	 * @param seed the seed for the starting locations
+	 * @param doubleAndSecret whether MrX holds DOUBLE and SECRET tickets
+	 * @return MrX at a standard starting location
+	 */
+	static Player mrX(int seed, boolean doubleAndSecret) {
+		var tickets = doubleAndSecret
+				? ScotlandYard.defaultMrXTickets()
+				: ImmutableMap.of(Ticket.TAXI, 4, Ticket.BUS, 3, Ticket.UNDERGROUND, 3,
+						Ticket.DOUBLE, 0, Ticket.SECRET, 0);
+		return new Player(MrX.MRX, tickets, ScotlandYard.generateMrXLocation(seed));
+	}
+
+	/**
+	 * @param seed the seed for the starting locations
+	 * @return all five detectives at standard starting locations
+	 */
+	static ImmutableList<Player> detectives(int seed) {
+		var locations = ScotlandYard.generateDetectiveLocations(seed, 5);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < 5; i++)
+			detectives.add(new Player(Detective.values()[i],
+					ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+		return detectives.build();
+	}
+
+	/**
+	 * Plays random moves until the game is over.
+	 *
+	 * @param state the starting state
+	 * @param random the source of moves
+	 * @return the number of moves made
+	 */
+	static int playout(GameState state, Random random) {
+		int moves = 0;
+		while (state.getWinner().isEmpty()) {
+			var available = state.getAvailableMoves().asList();
+			state = state.advance(available.get(random.nextInt(available.size())));
+			moves++;
+		}
+		return moves;
+	}
+
+}
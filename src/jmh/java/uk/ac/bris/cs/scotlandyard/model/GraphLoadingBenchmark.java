@@ -0,0 +1,88 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.io.Resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * Loading the standard map and a 50000 node {@link SyntheticMap}, parsing the text format with
+ * {@link ScotlandYard#readGraph(String)} and memory mapping the binary format with
+ * {@link GraphFile#read(Path)}. The text is read once up front so only parsing and graph
+ * construction are measured; {@link #readGraphAndCompact()} includes the {@link CompactGraph}
+ * that {@link GraphFile#read(Path)} builds as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphLoadingBenchmark {
+
+	@Param({"standard", "synthetic"}) public String map;
+
+	private String content;
+	private Path binary;
+
+	@Setup public void setUp() throws IOException {
+		if (map.equals("standard")) {
+			content = Resources.toString(Resources.getResource("graph.txt"),
+					StandardCharsets.UTF_8);
+		} else content = text(SyntheticMap.generate(50000, 0));
+		binary = Files.createTempFile("graph", ".bin");
+		GraphFile.write(ScotlandYard.readGraph(content), binary);
+	}
+
+	@TearDown public void tearDown() throws IOException { Files.deleteIfExists(binary); }
+
+	// the format of graph.txt
+	private static String text(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		var builder = new StringBuilder();
+		int edges = graph.edges().stream().mapToInt(e -> graph.edgeValue(e).orElseThrow().size())
+				.sum();
+		builder.append(graph.nodes().size()).append(' ').append(edges).append('\n');
+		for (int node : graph.nodes()) builder.append(node).append('\n');
+		for (var edge : graph.edges())
+			for (Transport t : graph.edgeValue(edge).orElseThrow())
+				builder.append(edge.nodeU()).append(' ').append(edge.nodeV()).append(' ')
+						.append(t.name().charAt(0))
+						.append(t.name().substring(1).toLowerCase(Locale.ENGLISH)).append('\n');
+		return builder.toString();
+	}
+
+	@Benchmark public ImmutableValueGraph<Integer, ImmutableSet<Transport>> readGraph() {
+		return ScotlandYard.readGraph(content);
+	}
+
+	@Benchmark public CompactGraph readGraphAndCompact() {
+		return CompactGraph.of(ScotlandYard.readGraph(content));
+	}
+
+	@Benchmark public ImmutableValueGraph<Integer, ImmutableSet<Transport>> readBinary()
+			throws IOException {
+		return GraphFile.read(binary);
+	}
+
+}
@@ -0,0 +1,62 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+/**
+ * {@link MyModelFactory} replaying the first round of a fixed game (one MrX move and five
+ * detective moves) through {@link Model#chooseMove(Move)} with one registered observer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+	private ImmutableList<Move> moves;
+	private int notified;
+
+	@Setup public void setUp() {
+		var random = new Random(0);
+		GameState state = new MyGameStateFactory().build(Games.standardSetup(),
+				Games.mrX(0, true), Games.detectives(0));
+		List<Move> moves = new ArrayList<>();
+		for (int i = 0; i < 6 && state.getWinner().isEmpty(); i++) {
+			var available = state.getAvailableMoves().asList();
+			Move move = available.get(random.nextInt(available.size()));
+			moves.add(move);
+			state = state.advance(move);
+		}
+		this.moves = ImmutableList.copyOf(moves);
+	}
+
+	@Benchmark public Board chooseMoves() {
+		Model model = new MyModelFactory().build(Games.standardSetup(),
+				Games.mrX(0, true), Games.detectives(0));
+		model.registerObserver(new Model.Observer() {
+			@Override public void onModelChanged(Board board, Event event) { notified++; }
+		});
+		for (Move move : moves) model.chooseMove(move);
+		return model.getCurrentBoard();
+	}
+
+}
@@ -0,0 +1,68 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Cost of advancing {@link MrXBeliefTracker} by one hidden log entry. The {@code typical}
+ * tracker starts from {@link ScotlandYard#MRX_LOCATIONS} after two hidden moves, the
+ * {@code full} tracker from every node of the standard map, which is as large as the candidate
+ * set gets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MrXBeliefTrackerBenchmark {
+
+	private MrXBeliefTracker typical;
+	private MrXBeliefTracker full;
+
+	@Setup public void setUp() {
+		var start = new MrXBeliefTracker(Games.standardSetup(), ScotlandYard.MRX_LOCATIONS);
+		start.advance(Ticket.TAXI);
+		start.advance(Ticket.BUS);
+		// a fresh tracker whose start locations are the candidates after two moves
+		typical = new MrXBeliefTracker(Games.standardSetup(), start.candidates());
+		full = new MrXBeliefTracker(Games.standardSetup());
+	}
+
+	@Benchmark public int typicalTaxi() {
+		typical.reset();
+		typical.advance(Ticket.TAXI);
+		return typical.count();
+	}
+
+	@Benchmark public int typicalSecret() {
+		typical.reset();
+		typical.advance(Ticket.SECRET);
+		return typical.count();
+	}
+
+	@Benchmark public int fullTaxi() {
+		full.reset();
+		full.advance(Ticket.TAXI);
+		return full.count();
+	}
+
+	@Benchmark public int fullSecret() {
+		full.reset();
+		full.advance(Ticket.SECRET);
+		return full.count();
+	}
+
+}
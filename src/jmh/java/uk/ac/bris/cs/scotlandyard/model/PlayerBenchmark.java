@@ -0,0 +1,62 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Ticket bookkeeping of {@link Player}, including the three {@link Player#use(Ticket)} calls
+ * made for a double move. The {@code copying} benchmarks update the ticket map the way
+ * {@link Player} did before it packed its counts, copying it on every update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerBenchmark {
+
+	private final Player mrX = Games.mrX(0, true);
+	private final DoubleMove doubleMove = new DoubleMove(mrX.piece(), mrX.location(),
+			Ticket.TAXI, 1, Ticket.BUS, 2);
+
+	@Benchmark public Player use() { return mrX.use(Ticket.TAXI); }
+
+	@Benchmark public Player give() { return mrX.give(Ticket.TAXI); }
+
+	@Benchmark public Player useDoubleMove() { return mrX.use(doubleMove.tickets()); }
+
+	@Benchmark public boolean hasAtLeast() { return mrX.hasAtLeast(Ticket.SECRET, 2); }
+
+	@Benchmark public Player copyingUse() { return copying(mrX, Ticket.TAXI, -1); }
+
+	@Benchmark public Player copyingGive() { return copying(mrX, Ticket.TAXI, 1); }
+
+	@Benchmark public Player copyingUseDoubleMove() {
+		var x = mrX;
+		for (Ticket t : doubleMove.tickets()) x = copying(x, t, -1);
+		return x;
+	}
+
+	private static Player copying(Player player, Ticket ticket, int delta) {
+		var map = new HashMap<>(player.tickets());
+		map.computeIfPresent(ticket, (t, n) -> n + delta);
+		return new Player(player.piece(), ImmutableMap.copyOf(map), player.location());
+	}
+
+}
@@ -0,0 +1,83 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+/**
+ * Full random playouts of the standard 24 round game with five detectives, starting from the
+ * standard starting locations, through {@link GameState#advance(Move)} of both game state
+ * factories, through {@link SearchState#make(Move)} and through {@link SearchState#make(long)}
+ * with the moves generated into a reused {@link MoveList}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayoutBenchmark {
+
+	private GameState[] starts;
+	private GameState[] myStarts;
+	private Random random;
+	private int next;
+	private final MoveList moves = new MoveList();
+
+	@Setup public void setUp() {
+		var factory = new CompactGameStateFactory();
+		var myFactory = new MyGameStateFactory();
+		starts = new GameState[16];
+		myStarts = new GameState[starts.length];
+		for (int seed = 0; seed < starts.length; seed++) {
+			starts[seed] = factory.build(Games.standardSetup(),
+					Games.mrX(seed, true), Games.detectives(seed));
+			myStarts[seed] = myFactory.build(Games.standardSetup(),
+					Games.mrX(seed, true), Games.detectives(seed));
+		}
+		random = new Random(42);
+	}
+
+	@Benchmark public int gameStatePlayout() {
+		return Games.playout(starts[next++ & (starts.length - 1)], random);
+	}
+
+	@Benchmark public int myGameStatePlayout() {
+		return Games.playout(myStarts[next++ & (myStarts.length - 1)], random);
+	}
+
+	@Benchmark public int searchStatePlayout() {
+		var search = SearchState.of(starts[next++ & (starts.length - 1)]);
+		int moves = 0;
+		while (!search.isGameOver()) {
+			var available = search.getAvailableMoves().asList();
+			search.make(available.get(random.nextInt(available.size())));
+			moves++;
+		}
+		return moves;
+	}
+
+	@Benchmark public int moveListPlayout() {
+		var search = SearchState.of(starts[next++ & (starts.length - 1)]);
+		int moves = 0;
+		while (!search.isGameOver()) {
+			search.availableMoves(this.moves);
+			search.make(this.moves.get(random.nextInt(this.moves.size())));
+			moves++;
+		}
+		return moves;
+	}
+
+}
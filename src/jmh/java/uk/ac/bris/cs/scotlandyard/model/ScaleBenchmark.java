@@ -0,0 +1,94 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+
+/**
+ * Move generation, winner detection and playouts on {@link SyntheticMap}s of growing size with
+ * growing numbers of detectives.
+ * <br>
+ * {@link #build()} is dominated by winner detection, which checks every detective for a legal
+ * move; {@link #detectiveAvailableMoves()} generates the moves of every detective at once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScaleBenchmark {
+
+	@Param({"my", "compact"}) public String factory;
+	@Param({"1000", "50000"}) public int nodes;
+	@Param({"5", "20", "60"}) public int detectives;
+
+	private Factory<GameState> gameStateFactory;
+	private GameSetup setup;
+	private Player mrX;
+	private ImmutableList<Player> detectivePlayers;
+	private GameState mrXTurn;
+	private Move mrXMove;
+	private GameState[] starts;
+	private Random random;
+	private int next;
+	private final MoveList moves = new MoveList();
+
+	@Setup public void setUp() {
+		gameStateFactory = Games.factory(factory);
+		setup = new GameSetup(SyntheticMap.generate(nodes, 0), ScotlandYard.STANDARD24MOVES);
+		// only the players, choosing their locations is not part of the benchmarks
+		SyntheticMap.build((setup, mrX, detectives) -> {
+			this.mrX = mrX;
+			this.detectivePlayers = detectives;
+			return this;
+		}, setup, detectives, 0);
+		mrXTurn = build();
+		mrXMove = mrXTurn.getAvailableMoves().iterator().next();
+		starts = new GameState[16];
+		for (int seed = 0; seed < starts.length; seed++)
+			starts[seed] = SyntheticMap.build(gameStateFactory, setup, detectives, seed);
+		random = new Random(42);
+	}
+
+	@Benchmark public GameState build() {
+		return gameStateFactory.build(setup, mrX, detectivePlayers);
+	}
+
+	@Benchmark public ImmutableSet<Move> mrXAvailableMoves() {
+		return gameStateFactory.build(setup, mrX, detectivePlayers).getAvailableMoves();
+	}
+
+	@Benchmark public ImmutableSet<Move> detectiveAvailableMoves() {
+		return mrXTurn.advance(mrXMove).getAvailableMoves();
+	}
+
+	@Benchmark public int moveListPlayout() {
+		var search = SearchState.of(starts[next++ & (starts.length - 1)]);
+		int moves = 0;
+		while (!search.isGameOver()) {
+			search.availableMoves(this.moves);
+			search.make(this.moves.get(random.nextInt(this.moves.size())));
+			moves++;
+		}
+		return moves;
+	}
+
+}
@@ -0,0 +1,79 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.collect.ImmutableList;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import io.github.fastclasspathscanner.FastClasspathScanner;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+
+/**
+ * Finds and creates {@link Ai} implementations on the classpath. <br>
+ * This class does not depend on JavaFX so that it can be used by headless tools such as
+ * {@link Tournament}.
+ */
+public final class AiLoader {
+
+	private AiLoader() {}
+
+	/**
+	 * @param cls the Ai class, must have a public no-arg constructor
+	 * @return a new instance of the class
+	 */
+	@Nonnull public static Ai instantiateAi(Class<? extends Ai> cls) {
+		try {
+			return cls.getConstructor().newInstance();
+		} catch (InstantiationException
+				| IllegalAccessException
+				| InvocationTargetException
+				| NoSuchMethodException e) {
+			throw new RuntimeException("Unable to create Ai instance of class " + cls, e);
+		}
+	}
+
+	/**
+	 * @return one instance of every {@link Ai} implementation found on the classpath
+	 */
+	@SuppressWarnings("unchecked") @Nonnull public static ImmutableList<Ai> scanAis() {
+		var found = new FastClasspathScanner()
+				.enableAllInfo()
+				.enableExternalClasses()
+				.scan()
+				.getClassesImplementing(Ai.class.getName());
+		return found.stream().map(c -> {
+			try {
+				Class<Ai> clazz = (Class<Ai>) c.loadClass();
+				if (!Ai.class.isAssignableFrom(clazz))
+					throw new IllegalArgumentException(c + " does not implement " + Ai.class);
+				return instantiateAi(clazz);
+			} catch (Exception e) { throw new RuntimeException(e); }
+		}).collect(ImmutableList.toImmutableList());
+	}
+
+	/**
+	 * Finds an Ai by fully qualified class name, or failing that by {@link Ai#name()} or simple
+	 * class name among the Ais found by {@link #scanAis()}.
+	 *
+	 * @param nameOrClass the class name or Ai name
+	 * @return the Ai class
+	 * @throws IllegalArgumentException if no such Ai exists
+	 */
+	@Nonnull public static Class<? extends Ai> findAi(@Nonnull String nameOrClass) {
+		Objects.requireNonNull(nameOrClass);
+		try {
+			return Class.forName(nameOrClass).asSubclass(Ai.class);
+		} catch (ClassNotFoundException | ClassCastException e) {
+			// not a class name, look it up by name instead
+		}
+		return scanAis().stream()
+				.filter(ai -> ai.name().equals(nameOrClass)
+						|| ai.getClass().getSimpleName().equals(nameOrClass))
+				.findFirst()
+				.<Class<? extends Ai>>map(Ai::getClass)
+				.orElseThrow(() -> new IllegalArgumentException("No Ai named " + nameOrClass));
+	}
+
+}
@@ -0,0 +1,407 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.CompactGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+
+/**
+ * Headless self-play between a MrX {@link Ai} and a detectives {@link Ai}. <br>
+ * Games are started from {@link ScotlandYard#generateMrXLocation(int)} and
+ * {@link ScotlandYard#generateDetectiveLocations(int, int)} with consecutive seeds and played in
+ * parallel, each with its own Ai instances. Every {@link Ai#pickMove} call is given the timeout
+ * and is cancelled once it runs out; the side that timed out, threw or picked a move that was
+ * not available forfeits the game. Nothing here touches JavaFX.
+ * <br>
+ * Run with {@code mvn compile exec:java@tournament -Dexec.args="--mrx A --detectives B"}, or
+ * {@code --list} to show the Ais on the classpath.
+ */
+public final class Tournament {
+
+	/**
+	 * How a game ended
+	 */
+	public enum Outcome {MRX_WIN, DETECTIVES_WIN, MRX_FORFEIT, DETECTIVES_FORFEIT, ERROR}
+
+	private final Factory<GameState> factory;
+	private final GameSetup setup;
+	private final Class<? extends Ai> mrXAi;
+	private final Class<? extends Ai> detectivesAi;
+	private final int detectiveCount;
+	private final Duration timeout;
+
+	/**
+	 * @param factory the game state factory used to play the games
+	 * @param setup the game setup
+	 * @param mrXAi the Ai playing MrX, instantiated once per game
+	 * @param detectivesAi the Ai playing all detectives, instantiated once per game
+	 * @param detectiveCount the number of detectives, 1 to 5
+	 * @param timeout the time each {@link Ai#pickMove} call has
+	 */
+	public Tournament(@Nonnull Factory<GameState> factory,
+	                  @Nonnull GameSetup setup,
+	                  @Nonnull Class<? extends Ai> mrXAi,
+	                  @Nonnull Class<? extends Ai> detectivesAi,
+	                  int detectiveCount,
+	                  @Nonnull Duration timeout) {
+		this.factory = Objects.requireNonNull(factory);
+		this.setup = Objects.requireNonNull(setup);
+		this.mrXAi = Objects.requireNonNull(mrXAi);
+		this.detectivesAi = Objects.requireNonNull(detectivesAi);
+		if (detectiveCount < 1 || detectiveCount > Detective.values().length)
+			throw new IllegalArgumentException("Detective count out of range: " + detectiveCount);
+		this.detectiveCount = detectiveCount;
+		if (timeout.isNegative() || timeout.isZero())
+			throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Plays games with seeds {@code firstSeed} to {@code firstSeed + games - 1}.
+	 *
+	 * @param firstSeed the seed of the first game
+	 * @param games the number of games
+	 * @param threads the number of games played at once
+	 * @return the combined results
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 */
+	@Nonnull public Result run(int firstSeed, int games, int threads) throws InterruptedException {
+		if (games < 0) throw new IllegalArgumentException("Negative game count: " + games);
+		if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+		ExecutorService gameExecutor = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("game-thread-%d").setDaemon(true).build());
+		// Ai calls run separately so that a game thread can give up on an Ai that overruns;
+		// daemon threads so an Ai that ignores interruption cannot keep the JVM alive
+		ExecutorService aiExecutor = Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setNameFormat("ai-thread-%d").setDaemon(true).build());
+		try {
+			List<Future<Game>> futures = new ArrayList<>(games);
+			for (int i = 0; i < games; i++) {
+				int seed = firstSeed + i;
+				futures.add(gameExecutor.submit(() -> play(seed, aiExecutor)));
+			}
+			var result = new Result();
+			for (Future<Game> future : futures) {
+				try {
+					result.add(future.get());
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Game runner failed", e.getCause());
+				}
+			}
+			return result;
+		} finally {
+			gameExecutor.shutdownNow();
+			aiExecutor.shutdownNow();
+		}
+	}
+
+	private Game play(int seed, ExecutorService aiExecutor) {
+		var game = new Game(seed);
+		Ai mrX = null, detectives = null;
+		var locations = ScotlandYard.generateDetectiveLocations(seed, detectiveCount);
+		var players = ImmutableList.<Player>builder();
+		for (int i = 0; i < detectiveCount; i++)
+			players.add(new Player(Detective.values()[i],
+					ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+		try {
+			try {
+				mrX = AiLoader.instantiateAi(mrXAi);
+				detectives = AiLoader.instantiateAi(detectivesAi);
+			} catch (RuntimeException e) {
+				return game.error("Ai could not be created: " + e);
+			}
+			try {
+				mrX.onStart();
+				detectives.onStart();
+			} catch (RuntimeException e) {
+				return game.error("onStart threw " + e);
+			}
+			GameState state = factory.build(setup,
+					new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(),
+							ScotlandYard.generateMrXLocation(seed)),
+					players.build());
+			var timeoutPair = new Pair<>(timeout.toMillis(), TimeUnit.MILLISECONDS);
+			while (state.getWinner().isEmpty()) {
+				var moves = state.getAvailableMoves();
+				boolean mrXTurn = moves.iterator().next().commencedBy().isMrX();
+				Ai ai = mrXTurn ? mrX : detectives;
+				GameState board = state;
+				long start = System.nanoTime();
+				Future<Move> pick = aiExecutor.submit(() -> ai.pickMove(board, timeoutPair));
+				Move move;
+				try {
+					move = pick.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+				} catch (TimeoutException e) {
+					pick.cancel(true);
+					return game.forfeit(mrXTurn, "timed out after " + timeout.toMillis() + "ms");
+				} catch (ExecutionException e) {
+					return game.forfeit(mrXTurn, "threw " + e.getCause());
+				}
+				game.latency(mrXTurn, System.nanoTime() - start);
+				if (!moves.contains(move))
+					return game.forfeit(mrXTurn, "picked an unavailable move " + move);
+				state = state.advance(move);
+				game.moves++;
+			}
+			game.rounds = state.getMrXTravelLog().size();
+			game.outcome = state.getWinner().iterator().next().isMrX()
+					? Outcome.MRX_WIN
+					: Outcome.DETECTIVES_WIN;
+			return game;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return game.error("interrupted");
+		} catch (RuntimeException e) {
+			return game.error("model threw " + e);
+		} finally {
+			try {
+				if (mrX != null) mrX.onTerminate();
+			} finally {
+				if (detectives != null) detectives.onTerminate();
+			}
+		}
+	}
+
+	private static final class Latencies {
+		long[] nanos = new long[64];
+		int size;
+
+		void add(long value) {
+			if (size == nanos.length) nanos = Arrays.copyOf(nanos, size * 2);
+			nanos[size++] = value;
+		}
+
+		void addAll(Latencies that) {
+			if (size + that.size > nanos.length)
+				nanos = Arrays.copyOf(nanos, Math.max(size + that.size, size * 2));
+			System.arraycopy(that.nanos, 0, nanos, size, that.size);
+			size += that.size;
+		}
+	}
+
+	private static final class Game {
+		final int seed;
+		final Latencies mrXLatencies = new Latencies();
+		final Latencies detectiveLatencies = new Latencies();
+		Outcome outcome;
+		String reason;
+		int moves;
+		int rounds;
+
+		Game(int seed) { this.seed = seed; }
+
+		void latency(boolean mrX, long nanos) {
+			(mrX ? mrXLatencies : detectiveLatencies).add(nanos);
+		}
+
+		Game forfeit(boolean mrX, String why) {
+			outcome = mrX ? Outcome.MRX_FORFEIT : Outcome.DETECTIVES_FORFEIT;
+			reason = (mrX ? "MrX " : "Detectives ") + why;
+			return this;
+		}
+
+		Game error(String why) {
+			outcome = Outcome.ERROR;
+			reason = why;
+			return this;
+		}
+	}
+
+	/**
+	 * The combined results of a {@link #run(int, int, int)}
+	 */
+	public static final class Result {
+
+		private final Map<Outcome, Integer> outcomes = new HashMap<>();
+		private final List<String> problems = new ArrayList<>();
+		private int games;
+		private long moves;
+		private long rounds;
+		private int finished;
+		private final Latencies mrXLatencies = new Latencies();
+		private final Latencies detectiveLatencies = new Latencies();
+
+		private Result() {}
+
+		private void add(Game game) {
+			games++;
+			outcomes.merge(game.outcome, 1, Integer::sum);
+			if (game.reason != null) problems.add("seed " + game.seed + ": " + game.reason);
+			if (game.outcome == Outcome.MRX_WIN || game.outcome == Outcome.DETECTIVES_WIN) {
+				finished++;
+				moves += game.moves;
+				rounds += game.rounds;
+			}
+			mrXLatencies.addAll(game.mrXLatencies);
+			detectiveLatencies.addAll(game.detectiveLatencies);
+		}
+
+		/**
+		 * @return the number of games played
+		 */
+		public int games() { return games; }
+
+		/**
+		 * @param outcome the outcome
+		 * @return the number of games that ended with the outcome
+		 */
+		public int count(@Nonnull Outcome outcome) { return outcomes.getOrDefault(outcome, 0); }
+
+		/**
+		 * @return the fraction of games MrX won, forfeits by the detectives included
+		 */
+		public double mrXWinRate() {
+			return games == 0 ? 0 : (count(Outcome.MRX_WIN) + count(Outcome.DETECTIVES_FORFEIT))
+					/ (double) games;
+		}
+
+		/**
+		 * @return the fraction of games the detectives won, forfeits by MrX included
+		 */
+		public double detectivesWinRate() {
+			return games == 0 ? 0 : (count(Outcome.DETECTIVES_WIN) + count(Outcome.MRX_FORFEIT))
+					/ (double) games;
+		}
+
+		/**
+		 * @return the mean number of moves of games that were played to the end
+		 */
+		public double meanMoves() { return finished == 0 ? 0 : moves / (double) finished; }
+
+		/**
+		 * @return the mean number of MrX travel log entries of games that were played to the end
+		 */
+		public double meanRounds() { return finished == 0 ? 0 : rounds / (double) finished; }
+
+		/**
+		 * @param mrX whether to use MrX's or the detectives' {@link Ai#pickMove} calls
+		 * @param percentile the percentile, 0 to 100
+		 * @return the latency at the percentile (nearest rank); zero if there were no calls
+		 */
+		@Nonnull public Duration latency(boolean mrX, double percentile) {
+			if (percentile < 0 || percentile > 100)
+				throw new IllegalArgumentException("Percentile out of range: " + percentile);
+			var latencies = mrX ? mrXLatencies : detectiveLatencies;
+			long[] sorted = Arrays.copyOf(latencies.nanos, latencies.size);
+			if (sorted.length == 0) return Duration.ZERO;
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+			return Duration.ofNanos(sorted[Math.max(rank, 1) - 1]);
+		}
+
+		/**
+		 * @return why each forfeited or failed game ended, by seed
+		 */
+		@Nonnull public ImmutableList<String> problems() { return ImmutableList.copyOf(problems); }
+
+		private String latencies(boolean mrX) {
+			return String.format("p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms",
+					millis(latency(mrX, 50)), millis(latency(mrX, 90)),
+					millis(latency(mrX, 99)), millis(latency(mrX, 100)));
+		}
+
+		private static double millis(Duration duration) { return duration.toNanos() / 1e6; }
+
+		@Override public String toString() {
+			return String.format("Games:             %d%n", games)
+					+ String.format("MrX wins:          %.1f%% (%d forfeits by detectives)%n",
+					mrXWinRate() * 100, count(Outcome.DETECTIVES_FORFEIT))
+					+ String.format("Detective wins:    %.1f%% (%d forfeits by MrX)%n",
+					detectivesWinRate() * 100, count(Outcome.MRX_FORFEIT))
+					+ String.format("Errors:            %d%n", count(Outcome.ERROR))
+					+ String.format("Mean length:       %.1f moves, %.1f rounds%n",
+					meanMoves(), meanRounds())
+					+ String.format("MrX latency:       %s%n", latencies(true))
+					+ String.format("Detective latency: %s%n", latencies(false));
+		}
+	}
+
+	private static void usage() {
+		System.err.println(String.join(System.lineSeparator(),
+				"Usage: Tournament --mrx <ai> --detectives <ai> [options]",
+				"       Tournament --list",
+				"  <ai>                   fully qualified class name, Ai name or simple class name",
+				"  --games <n>            number of games (default 100)",
+				"  --seed <n>             seed of the first game (default 0)",
+				"  --threads <n>          games played at once (default: available processors)",
+				"  --timeout <ms>         time per pickMove call (default 30000)",
+				"  --detective-count <n>  number of detectives, 1 to 5 (default 5)",
+				"  --model <compact|my>   game state factory (default compact)",
+				"  --verbose              print why each forfeited or failed game ended"));
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--list") || arg.equals("--verbose")) options.put(arg, "");
+			else if (arg.startsWith("--") && i + 1 < args.length) options.put(arg, args[++i]);
+			else {
+				usage();
+				System.exit(2);
+			}
+		}
+		if (options.containsKey("--list")) {
+			AiLoader.scanAis().forEach(ai ->
+					System.out.println(ai.name() + "\t" + ai.getClass().getName()));
+			return;
+		}
+		if (!options.containsKey("--mrx") || !options.containsKey("--detectives")) {
+			usage();
+			System.exit(2);
+		}
+		Factory<GameState> factory;
+		switch (options.getOrDefault("--model", "compact")) {
+			case "compact": factory = new CompactGameStateFactory(); break;
+			case "my": factory = new MyGameStateFactory(); break;
+			default:
+				usage();
+				System.exit(2);
+				return;
+		}
+		var tournament = new Tournament(factory,
+				new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES),
+				AiLoader.findAi(options.get("--mrx")),
+				AiLoader.findAi(options.get("--detectives")),
+				Integer.parseInt(options.getOrDefault("--detective-count", "5")),
+				Duration.ofMillis(Long.parseLong(options.getOrDefault("--timeout", "30000"))));
+		long start = System.nanoTime();
+		var result = tournament.run(
+				Integer.parseInt(options.getOrDefault("--seed", "0")),
+				Integer.parseInt(options.getOrDefault("--games", "100")),
+				Integer.parseInt(options.getOrDefault("--threads",
+						String.valueOf(Runtime.getRuntime().availableProcessors()))));
+		System.out.print(result);
+		System.out.printf("Elapsed:           %.1fs%n", (System.nanoTime() - start) / 1e9);
+		if (options.containsKey("--verbose")) result.problems().forEach(System.out::println);
+	}
+
+}
@@ -0,0 +1,432 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.DistanceOracle;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MoveList;
+import uk.ac.bris.cs.scotlandyard.model.MoveTable;
+import uk.ac.bris.cs.scotlandyard.model.MrXBeliefTracker;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.SearchState;
+
+/**
+ * Deterministic iterative deepening alpha-beta search for either side.
+ * <br>
+ * The search is paranoid: MrX maximises the evaluation and the detectives, who share the goal
+ * of catching him, minimise it together. Every move is one ply, so a round is one MrX ply and
+ * one ply per detective. Detectives in the remaining set of a round may move in any order;
+ * since the order rarely matters, only the moves of the remaining detective listed first are
+ * searched, which keeps a partial round from multiplying the tree by every ordering.
+ * <br>
+ * As the detectives, MrX's location is taken from a {@link MrXBeliefTracker}. Up to
+ * {@value #CANDIDATES} candidate locations, spread from the nearest to the furthest from the
+ * detectives, are searched and a move is valued by its worst case over them.
+ * <br>
+ * Positions are keyed by {@link SearchState#key()} and moves are generated into one encoded
+ * {@link MoveList} per ply. Moves are ordered by the transposition
+ * table's best move, then by distance between MrX and the detectives, from a
+ * {@link DistanceOracle}. Each iteration deepens by one ply until a safe fraction of the
+ * timeout has elapsed (see {@link MctsAi#thinkTime(long, TimeUnit)}), and the move of the
+ * deepest completed iteration is played.
+ */
+public final class AlphaBetaAi implements Ai {
+
+	private static final Logger logger = LoggerFactory.getLogger(AlphaBetaAi.class);
+
+	static final int WIN = 1_000_000;
+	// values beyond this are wins, less the plies needed to reach them
+	private static final int DECIDED = WIN - 1_000;
+	private static final int INFINITY = Integer.MAX_VALUE;
+	private static final int MAX_DEPTH = 64;
+	private static final int CANDIDATES = 6;
+	// distances are capped so one far away detective does not dominate the evaluation
+	private static final int FAR = 10;
+	// the deadline is checked once per this many nodes, plus one
+	private static final int CHECK_MASK = 0x3FF;
+
+	// thrown to unwind a search that ran out of time
+	private static final class Timeout extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Timeout() { super(null, null, false, false); }
+	}
+
+	private static final Timeout TIMEOUT = new Timeout();
+
+	private final TranspositionTable table;
+	private MrXBeliefTracker tracker;
+	private GameSetup trackerSetup;
+	private volatile Report lastReport;
+
+	// state of the running search
+	private SearchState state;
+	// a move buffer per ply
+	private final MoveList[] plyMoves = new MoveList[MAX_DEPTH + 1];
+	private DistanceOracle oracle;
+	private Piece[] detectives;
+	private long deadline;
+	private long nodes;
+
+	public AlphaBetaAi() { this(20); }
+
+	/**
+	 * @param tableBits the log2 of the number of transposition table entries, each 16 bytes
+	 */
+	public AlphaBetaAi(int tableBits) {
+		table = new TranspositionTable(tableBits);
+		for (int i = 0; i < plyMoves.length; i++) plyMoves[i] = new MoveList();
+	}
+
+	/**
+	 * Statistics of one {@link #pickMove} call
+	 */
+	public static final class Report {
+		private final int depth;
+		private final int value;
+		private final long nodes;
+		private final Duration elapsed;
+
+		Report(int depth, int value, long nodes, Duration elapsed) {
+			this.depth = depth;
+			this.value = value;
+			this.nodes = nodes;
+			this.elapsed = elapsed;
+		}
+
+		/**
+		 * @return the depth of the deepest completed iteration in plies, 0 if none completed
+		 */
+		public int depth() { return depth; }
+
+		/**
+		 * @return the value of the picked move for MrX, at least {@code 1_000_000 - 1000} if
+		 * MrX is certain to win and at most its negation if the detectives are
+		 */
+		public int value() { return value; }
+
+		/**
+		 * @return the number of positions searched
+		 */
+		public long nodes() { return nodes; }
+
+		/**
+		 * @return the time spent searching
+		 */
+		@Nonnull public Duration elapsed() { return elapsed; }
+
+		@Override public String toString() {
+			return String.format("depth %d, value %d, %d nodes in %dms",
+					depth, value, nodes, elapsed.toMillis());
+		}
+	}
+
+	@Nonnull @Override public String name() { return "Alpha-beta"; }
+
+	@Override public void onStart() {
+		table.clear();
+		tracker = null;
+		trackerSetup = null;
+	}
+
+	@Nonnull @Override public Move pickMove(@Nonnull Board board,
+	                                        Pair<Long, TimeUnit> timeoutPair) {
+		long start = System.nanoTime();
+		deadline = start + MctsAi.thinkTime(timeoutPair.left(), timeoutPair.right());
+		MoveList moves = new MoveList().fill(board);
+		if (moves.isEmpty()) throw new IllegalArgumentException("No moves available");
+		boolean mrX = moves.move(0).commencedBy().isMrX();
+		oracle = DistanceOracle.of(board.getSetup());
+		int[] candidates;
+		if (mrX) {
+			state = SearchState.of(board);
+			candidates = new int[]{state.mrXLocation()};
+		} else {
+			int[] belief = belief(board);
+			state = SearchState.of(board, belief[0]);
+			candidates = candidates(belief);
+			if (candidates[0] != belief[0]) state.relocateMrX(candidates[0]);
+		}
+		detectives = state.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.toArray(Piece[]::new);
+		int[] order = order(moves, -1, candidates);
+		table.newSearch();
+		nodes = 0;
+		int depth = 0;
+		int value = 0;
+		try {
+			for (int d = 1; d <= MAX_DEPTH; d++) {
+				value = mrX ? searchMrXRoot(moves, order, d) : searchDetectivesRoot(moves, order,
+						candidates, d);
+				depth = d;
+				if (Math.abs(value) >= DECIDED) break;
+			}
+		} catch (Timeout e) {
+			while (state.depth() > 0) state.unmake();
+		}
+		Move move = moves.move(order[0]);
+		lastReport = new Report(depth, value, nodes, Duration.ofNanos(System.nanoTime() - start));
+		logger.debug("{} picked {}: {}", name(), move, lastReport);
+		state = null;
+		return move;
+	}
+
+	/**
+	 * @return statistics of the last {@link #pickMove} call, null before the first call
+	 */
+	public Report lastReport() { return lastReport; }
+
+	// searches MrX's moves and moves the best to the front of the order, returns its value
+	private int searchMrXRoot(MoveList moves, int[] order, int depth) {
+		int alpha = -INFINITY;
+		int best = 0;
+		for (int i = 0; i < order.length; i++) {
+			state.make(moves.get(order[i]));
+			int value = search(depth - 1, alpha, INFINITY, 1);
+			state.unmake();
+			if (value > alpha) {
+				alpha = value;
+				best = i;
+			}
+		}
+		promote(order, best);
+		return alpha;
+	}
+
+	// searches the detective's moves against every candidate location of MrX and moves the move
+	// with the best worst case to the front of the order, returns its value
+	private int searchDetectivesRoot(MoveList moves, int[] order, int[] candidates, int depth) {
+		int beta = INFINITY;
+		int best = 0;
+		for (int i = 0; i < order.length; i++) {
+			long move = moves.get(order[i]);
+			// the worst case of this move so far; only a worse case than that changes it and
+			// one at least as bad as the best move's makes this move no better
+			int worst = -INFINITY;
+			for (int location : candidates) {
+				state.relocateMrX(location);
+				state.make(move);
+				int value = search(depth - 1, worst, beta, 1);
+				state.unmake();
+				worst = Math.max(worst, value);
+				if (worst >= beta) break;
+			}
+			if (worst < beta) {
+				beta = worst;
+				best = i;
+			}
+		}
+		promote(order, best);
+		return beta;
+	}
+
+	private static void promote(int[] order, int index) {
+		int move = order[index];
+		System.arraycopy(order, 0, order, 1, index);
+		order[0] = move;
+	}
+
+	private int search(int depth, int alpha, int beta, int ply) {
+		if ((++nodes & CHECK_MASK) == 0
+				&& (System.nanoTime() >= deadline || Thread.currentThread().isInterrupted()))
+			throw TIMEOUT;
+		if (state.isGameOver()) {
+			boolean mrXWon = state.getWinner().stream().anyMatch(Piece::isMrX);
+			return mrXWon ? WIN - ply : -WIN + ply;
+		}
+		if (depth == 0) return evaluate();
+		long key = state.key();
+		long entry = table.probe(key);
+		int tableMove = -1;
+		if (entry != 0) {
+			tableMove = TranspositionTable.move(entry);
+			if (TranspositionTable.depth(entry) >= depth) {
+				int value = fromTable(TranspositionTable.value(entry), ply);
+				switch (TranspositionTable.bound(entry)) {
+					case TranspositionTable.EXACT: return value;
+					case TranspositionTable.LOWER: alpha = Math.max(alpha, value); break;
+					case TranspositionTable.UPPER: beta = Math.min(beta, value); break;
+					default: throw new AssertionError();
+				}
+				if (alpha >= beta) return value;
+			}
+		}
+		boolean maximising = state.isMrXTurn();
+		MoveList moves = plyMoves[ply];
+		state.availableMoves(moves);
+		int[] order = order(moves, tableMove, null);
+		int originalAlpha = alpha;
+		int originalBeta = beta;
+		int best = maximising ? -INFINITY : INFINITY;
+		int bestMove = -1;
+		for (int index : order) {
+			state.make(moves.get(index));
+			int value = search(depth - 1, alpha, beta, ply + 1);
+			state.unmake();
+			if (maximising ? value > best : value < best) {
+				best = value;
+				bestMove = index;
+			}
+			if (maximising) alpha = Math.max(alpha, value);
+			else beta = Math.min(beta, value);
+			if (alpha >= beta) break;
+		}
+		int bound = best <= originalAlpha ? TranspositionTable.UPPER
+				: best >= originalBeta ? TranspositionTable.LOWER
+				: TranspositionTable.EXACT;
+		table.store(key, depth, bound, toTable(best, ply), bestMove);
+		return best;
+	}
+
+	// wins are stored relative to the position rather than the root
+	private static int toTable(int value, int ply) {
+		if (value >= DECIDED) return value + ply;
+		if (value <= -DECIDED) return value - ply;
+		return value;
+	}
+
+	private static int fromTable(int value, int ply) {
+		if (value >= DECIDED) return value - ply;
+		if (value <= -DECIDED) return value + ply;
+		return value;
+	}
+
+	/**
+	 * The value of a quiet position for MrX: mostly the distance to the nearest detective, then
+	 * the distances to the others.
+	 */
+	private int evaluate() {
+		int mrX = state.mrXLocation();
+		int nearest = FAR;
+		int sum = 0;
+		for (Piece detective : detectives) {
+			int distance = oracle.lowerBound(state.location(detective), mrX,
+					state.ticketCount(detective, Ticket.TAXI),
+					state.ticketCount(detective, Ticket.BUS),
+					state.ticketCount(detective, Ticket.UNDERGROUND), 0);
+			if (distance == DistanceOracle.UNREACHABLE || distance > FAR) distance = FAR;
+			nearest = Math.min(nearest, distance);
+			sum += distance;
+		}
+		return 100 * nearest + 10 * sum;
+	}
+
+	// the table index of the remaining detective listed first, or -1 if it is MrX's turn
+	private int mover(MoveList moves) {
+		MoveTable moveTable = moves.table();
+		int first = detectives.length;
+		int mover = -1;
+		for (int i = 0; i < moves.size(); i++) {
+			int index = MoveTable.piece(moves.get(i));
+			Piece piece = moveTable.piece(index);
+			if (piece.isMrX()) return -1;
+			int detective = detectiveIndex(piece);
+			if (detective < first) {
+				first = detective;
+				mover = index;
+			}
+		}
+		return mover;
+	}
+
+	// indices of the moves to search, those of the mover only; the table's move first, then
+	// the most promising for the mover on average over MrX's locations, by default his current
+	private int[] order(MoveList moves, int first, int[] mrXLocations) {
+		int mover = mover(moves);
+		long[] keyed = new long[moves.size()];
+		int count = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			long move = moves.get(i);
+			if (mover >= 0 && MoveTable.piece(move) != mover) continue;
+			int score = 0;
+			if (i == first) score = -1;
+			else if (mrXLocations == null) score = score(moves.table(), move, state.mrXLocation());
+			else for (int location : mrXLocations) score += score(moves.table(), move, location);
+			keyed[count++] = ((long) score << 32) | i;
+		}
+		Arrays.sort(keyed, 0, count);
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) order[i] = (int) keyed[i];
+		return order;
+	}
+
+	// lower is searched first
+	private int score(MoveTable moveTable, long move, int mrX) {
+		int destination = moveTable.destination(move);
+		if (moveTable.piece(MoveTable.piece(move)).isMrX()) {
+			int nearest = FAR;
+			for (Piece detective : detectives)
+				nearest = Math.min(nearest, distance(state.location(detective), destination));
+			// further from the detectives first, and a single move before a double move
+			return 2 * (FAR - nearest) + (MoveTable.isDouble(move) ? 1 : 0);
+		}
+		return distance(destination, mrX);
+	}
+
+	private int distance(int from, int to) {
+		int distance = oracle.distance(from, to);
+		return distance == DistanceOracle.UNREACHABLE ? FAR : Math.min(distance, FAR);
+	}
+
+	// every location MrX could be at
+	private int[] belief(Board board) {
+		MrXBeliefTracker belief = tracker(board.getSetup());
+		belief.update(board);
+		if (belief.count() == 0) {
+			// nowhere we thought MrX could be is possible; forget what we inferred
+			belief.reset();
+			belief.update(board);
+		}
+		return belief.toArray();
+	}
+
+	// up to CANDIDATES of the locations, evenly spread by distance from the nearest detective
+	// of the search state, whether or not the detective is still to move
+	private int[] candidates(int[] all) {
+		if (all.length <= CANDIDATES) return all;
+		int[] detectiveLocations = state.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.mapToInt(state::location)
+				.toArray();
+		long[] keyed = new long[all.length];
+		for (int i = 0; i < all.length; i++) {
+			int nearest = FAR;
+			for (int location : detectiveLocations)
+				nearest = Math.min(nearest, distance(location, all[i]));
+			keyed[i] = ((long) nearest << 32) | all[i];
+		}
+		Arrays.sort(keyed);
+		int[] candidates = new int[CANDIDATES];
+		for (int i = 0; i < CANDIDATES; i++)
+			candidates[i] = (int) keyed[i * (keyed.length - 1) / (CANDIDATES - 1)];
+		return candidates;
+	}
+
+	private MrXBeliefTracker tracker(GameSetup setup) {
+		if (tracker == null || trackerSetup != setup) {
+			tracker = new MrXBeliefTracker(setup);
+			trackerSetup = setup;
+		}
+		return tracker;
+	}
+
+	private int detectiveIndex(Piece piece) {
+		for (int i = 0; i < detectives.length; i++)
+			if (detectives[i] == piece) return i;
+		throw new IllegalArgumentException("Not a detective of this game: " + piece);
+	}
+
+}
@@ -0,0 +1,264 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MrXBeliefTracker;
+import uk.ac.bris.cs.scotlandyard.model.SearchState;
+
+/**
+ * Monte Carlo tree search for either side.
+ * <br>
+ * As MrX the search knows every location and plays plain MCTS. As the detectives it does not
+ * know where MrX is: every iteration places MrX at a location drawn from a
+ * {@link MrXBeliefTracker} and the tree is shared between these guesses (information set MCTS).
+ * <br>
+ * The search runs until a safe fraction of the timeout has elapsed, see
+ * {@link #thinkTime(long, TimeUnit)}, or the thread is interrupted. The subtree of the position
+ * reached after the opponents' replies is kept between calls to {@link #pickMove}. Iteration
+ * counts are logged at debug level and available from {@link #lastReport()}.
+ * <br>
+ * With more than one thread the calling thread searches together with a pool of workers, see
+ * {@link Parallelism}. The pool is shut down by {@link #onTerminate()}.
+ */
+public final class MctsAi implements Ai {
+
+	private static final Logger logger = LoggerFactory.getLogger(MctsAi.class);
+
+	// taken off the timeout to cover the caller's overhead
+	private static final long SAFETY_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * How several threads share the search
+	 */
+	public enum Parallelism {
+		/**
+		 * Every thread searches its own tree; the trees' root visits are summed to pick the move
+		 */
+		ROOT,
+		/**
+		 * All threads search one lock-free tree, using virtual loss to spread out
+		 */
+		TREE
+	}
+
+	private final Random random;
+	private final int threads;
+	private final Parallelism parallelism;
+	// one per thread for root parallelism, otherwise one shared by all threads
+	private final ImmutableList<MctsSearch> searches;
+	// one per thread, the first is the calling thread's
+	private final Random[] randoms;
+	private ExecutorService workers;
+	private MrXBeliefTracker tracker;
+	private GameSetup trackerSetup;
+	private volatile Report lastReport;
+
+	public MctsAi() { this(new Random()); }
+
+	/**
+	 * @param random the source of randomness, seed it for reproducible searches
+	 */
+	public MctsAi(@Nonnull Random random) { this(random, 1, Parallelism.ROOT); }
+
+	/**
+	 * @param random the source of randomness, seed it for reproducible single threaded searches
+	 * @param threads the number of threads searching, including the calling thread
+	 * @param parallelism how the threads share the search
+	 */
+	public MctsAi(@Nonnull Random random, int threads, @Nonnull Parallelism parallelism) {
+		if (threads < 1) throw new IllegalArgumentException("Need at least one thread: " + threads);
+		this.random = Objects.requireNonNull(random);
+		this.threads = threads;
+		this.parallelism = Objects.requireNonNull(parallelism);
+		int count = parallelism == Parallelism.ROOT ? threads : 1;
+		this.searches = Stream.generate(MctsSearch::new).limit(count)
+				.collect(ImmutableList.toImmutableList());
+		this.randoms = new Random[threads];
+		randoms[0] = random;
+		for (int i = 1; i < threads; i++) randoms[i] = new Random(random.nextLong());
+	}
+
+	/**
+	 * Statistics of one {@link #pickMove} call
+	 */
+	public static final class Report {
+		private final long iterations;
+		private final Duration elapsed;
+		private final int reusedVisits;
+
+		Report(long iterations, Duration elapsed, int reusedVisits) {
+			this.iterations = iterations;
+			this.elapsed = elapsed;
+			this.reusedVisits = reusedVisits;
+		}
+
+		/**
+		 * @return the number of iterations run
+		 */
+		public long iterations() { return iterations; }
+
+		/**
+		 * @return the time spent searching
+		 */
+		@Nonnull public Duration elapsed() { return elapsed; }
+
+		/**
+		 * @return the visits of the subtree kept from the previous call
+		 */
+		public int reusedVisits() { return reusedVisits; }
+
+		/**
+		 * @return the iterations run per second
+		 */
+		public double iterationsPerSecond() {
+			return elapsed.isZero() ? 0 : iterations / (elapsed.toNanos() / 1e9);
+		}
+
+		@Override public String toString() {
+			return String.format("%d iterations in %dms (%.0f/s), %d visits reused",
+					iterations, elapsed.toMillis(), iterationsPerSecond(), reusedVisits);
+		}
+	}
+
+	@Nonnull @Override public String name() {
+		if (threads == 1) return "MCTS";
+		return "MCTS (" + threads + " threads, " + parallelism.name().toLowerCase(Locale.ROOT) + ")";
+	}
+
+	@Override public void onStart() {
+		searches.forEach(MctsSearch::clear);
+		tracker = null;
+		trackerSetup = null;
+	}
+
+	@Override public void onTerminate() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	@Nonnull @Override public Move pickMove(@Nonnull Board board,
+	                                        Pair<Long, TimeUnit> timeoutPair) {
+		long start = System.nanoTime();
+		long deadline = start + thinkTime(timeoutPair.left(), timeoutPair.right());
+		ImmutableSet<Move> available = board.getAvailableMoves();
+		if (available.isEmpty()) throw new IllegalArgumentException("No moves available");
+		boolean mrX = available.iterator().next().commencedBy().isMrX();
+		// every thread makes and unmakes moves on its own state
+		SearchState[] states = new SearchState[threads];
+		MrXBeliefTracker belief = null;
+		int reused = 0;
+		if (mrX) {
+			for (int i = 0; i < threads; i++) states[i] = SearchState.of(board);
+			// the detectives have moved since MrX's last move, at most one move each
+			for (int i = 0; i < searches.size(); i++)
+				reused += searches.get(i).advanceTo(board, states[i].mrXLocation(),
+						states[i].getPlayers().size() - 1);
+		} else {
+			belief = tracker(board.getSetup());
+			belief.update(board);
+			if (belief.count() == 0) {
+				// nowhere we thought MrX could be is possible; forget what we inferred
+				belief.reset();
+				belief.update(board);
+			}
+			for (int i = 0; i < threads; i++) states[i] = SearchState.of(board, belief.sample(random));
+			// the tree can only be kept within a round, before MrX's hidden move
+			for (MctsSearch search : searches) reused += search.advanceTo(board, -1, 0);
+		}
+		long iterations = search(states, belief, deadline);
+		Move move = MctsSearch.bestMove(available, searches);
+		for (int i = 0; i < searches.size(); i++) searches.get(i).picked(states[i], move);
+		lastReport = new Report(iterations, Duration.ofNanos(System.nanoTime() - start), reused);
+		logger.debug("{} picked {}: {}", name(), move, lastReport);
+		return move;
+	}
+
+	// runs the workers alongside the calling thread, returns the total number of iterations
+	private long search(SearchState[] states, MrXBeliefTracker belief, long deadline) {
+		if (threads == 1) return search(0, states[0], belief, deadline, new AtomicBoolean());
+		if (workers == null) workers = Executors.newFixedThreadPool(threads - 1,
+				new ThreadFactoryBuilder().setNameFormat("mcts-worker-%d").setDaemon(true).build());
+		// set when the calling thread is interrupted, so the workers stop as well
+		var stop = new AtomicBoolean();
+		var futures = new ArrayList<Future<Long>>(threads - 1);
+		for (int i = 1; i < threads; i++) {
+			int worker = i;
+			futures.add(workers.submit(() -> search(worker, states[worker], belief, deadline, stop)));
+		}
+		long iterations = search(0, states[0], belief, deadline, stop);
+		for (Future<Long> future : futures) iterations += Futures.getUnchecked(future);
+		return iterations;
+	}
+
+	private long search(int worker, SearchState state, MrXBeliefTracker belief,
+	                    long deadline, AtomicBoolean stop) {
+		MctsSearch search = searches.get(parallelism == Parallelism.ROOT ? worker : 0);
+		Random random = randoms[worker];
+		long iterations = 0;
+		while (System.nanoTime() < deadline && !stop.get()) {
+			if (Thread.currentThread().isInterrupted()) {
+				stop.set(true);
+				break;
+			}
+			// the tracker is only read while searching, so the threads can share it
+			if (belief != null) state.relocateMrX(belief.sample(random));
+			search.iterate(state, random);
+			iterations++;
+		}
+		return iterations;
+	}
+
+	private MrXBeliefTracker tracker(GameSetup setup) {
+		if (tracker == null || trackerSetup != setup) {
+			tracker = new MrXBeliefTracker(setup);
+			trackerSetup = setup;
+		}
+		return tracker;
+	}
+
+	/**
+	 * @return statistics of the last {@link #pickMove} call, null before the first call
+	 */
+	public Report lastReport() { return lastReport; }
+
+	/**
+	 * The time spent searching for a timeout: at least half of the timeout, otherwise the
+	 * timeout less a fifth and 100ms.
+	 *
+	 * @param timeout the timeout
+	 * @param unit the unit of the timeout
+	 * @return the time to search in nanoseconds
+	 */
+	static long thinkTime(long timeout, TimeUnit unit) {
+		long nanos = unit.toNanos(timeout);
+		return Math.max(nanos / 2, nanos - nanos / 5 - SAFETY_MARGIN_NANOS);
+	}
+
+}
@@ -0,0 +1,115 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+/**
+ * A node of the MCTS tree, reached from its parent by {@link #move}.
+ * <br>
+ * {@link #wins()} counts playouts won by the side that made the move. Since a detective search
+ * guesses where MrX is, a move is not legal in every iteration; {@link #availability()} counts
+ * the iterations in which it was, and replaces the parent's visit count in UCB1.
+ * <br>
+ * Nodes are lock-free so several threads can search one tree: counters are updated atomically
+ * and children are added with {@link ConcurrentHashMap#putIfAbsent}. A visit is counted when an
+ * iteration passes through the node and a win only once its playout has finished, so an
+ * iteration in progress counts as a loss for the other threads (virtual loss) and steers them
+ * to other moves.
+ */
+final class MctsNode {
+
+	private static final VarHandle CHILDREN;
+	private static final VarHandle VISITS;
+	private static final VarHandle AVAILABILITY;
+	private static final VarHandle WINS;
+
+	static {
+		try {
+			var lookup = MethodHandles.lookup();
+			CHILDREN = lookup.findVarHandle(MctsNode.class, "children", Map.class);
+			VISITS = lookup.findVarHandle(MctsNode.class, "visits", int.class);
+			AVAILABILITY = lookup.findVarHandle(MctsNode.class, "availability", int.class);
+			WINS = lookup.findVarHandle(MctsNode.class, "wins", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	final Move move;
+	final boolean mrX;
+	// only changed between searches
+	MctsNode parent;
+	private volatile Map<Move, MctsNode> children;
+	private volatile int visits;
+	private volatile int availability;
+	private volatile int wins;
+
+	MctsNode(@Nullable Move move, @Nullable MctsNode parent) {
+		this.move = move;
+		this.mrX = move != null && move.commencedBy().isMrX();
+		this.parent = parent;
+	}
+
+	@Nullable MctsNode child(Move move) {
+		Map<Move, MctsNode> map = children;
+		return map == null ? null : map.get(move);
+	}
+
+	/**
+	 * Adds a child for the move, unless another thread got there first
+	 *
+	 * @param move the move
+	 * @return the child of the move
+	 */
+	MctsNode expand(Move move) {
+		Map<Move, MctsNode> map = children;
+		if (map == null) {
+			var created = new ConcurrentHashMap<Move, MctsNode>();
+			map = CHILDREN.compareAndSet(this, null, created) ? created : children;
+		}
+		var child = new MctsNode(move, this);
+		MctsNode existing = map.putIfAbsent(move, child);
+		return existing == null ? child : existing;
+	}
+
+	Iterable<MctsNode> children() {
+		Map<Move, MctsNode> map = children;
+		return map == null ? List.of() : map.values();
+	}
+
+	int visits() { return visits; }
+
+	int availability() { return availability; }
+
+	int wins() { return wins; }
+
+	void addVisit() { VISITS.getAndAdd(this, 1); }
+
+	void addAvailability() { AVAILABILITY.getAndAdd(this, 1); }
+
+	void addWin() { WINS.getAndAdd(this, 1); }
+
+	double ucb(double exploration) {
+		// another thread may have added the node without visiting it yet
+		int n = visits;
+		if (n == 0) return Double.POSITIVE_INFINITY;
+		return (double) wins / n + exploration * Math.sqrt(Math.log(Math.max(availability, 1)) / n);
+	}
+
+	/**
+	 * @return the number of nodes in this subtree
+	 */
+	int size() {
+		int size = 1;
+		for (MctsNode child : children()) size += child.size();
+		return size;
+	}
+
+}
@@ -0,0 +1,236 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.MoveList;
+import uk.ac.bris.cs.scotlandyard.model.MoveTable;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.SearchState;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Information set MCTS over {@link SearchState}.
+ * <br>
+ * Each iteration selects down the tree with UCB1, expands one untried move, finishes the game
+ * with random moves and credits the result to every node on the path. MrX has many more double
+ * moves than single moves, so single moves are expanded first and playouts rarely use DOUBLE.
+ * Moves are generated as an encoded {@link MoveList} and the state is restored with
+ * {@link SearchState#unmake()} afterwards, so iterations allocate only one move buffer and the
+ * new node.
+ * <br>
+ * {@link #iterate} may be called by several threads at once, each with its own state and
+ * random source, to search a shared tree; the other methods must not run concurrently with it.
+ */
+final class MctsSearch {
+
+	static final double EXPLORATION = Math.sqrt(2) / 2;
+
+	private MctsNode root = new MctsNode(null, null);
+	// the position after the last picked move, for finding the subtree of the next position
+	@Nullable private SearchState last;
+
+	MctsNode root() { return root; }
+
+	/**
+	 * Runs one iteration from the state, which must be at the position of the root. Safe to call
+	 * concurrently with other iterations.
+	 *
+	 * @param state the state, restored before returning
+	 * @param random the source of randomness
+	 */
+	void iterate(SearchState state, Random random) {
+		int start = state.depth();
+		MctsNode node = root;
+		node.addVisit();
+		MoveList moves = new MoveList();
+		// selection and expansion
+		while (!state.isGameOver()) {
+			state.availableMoves(moves);
+			Move untried = null;
+			int untriedSeen = 0;
+			boolean untriedSingle = false;
+			MctsNode best = null;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < moves.size(); i++) {
+				Move move = moves.move(i);
+				MctsNode child = node.child(move);
+				if (child == null) {
+					// reservoir sample so every untried move is equally likely, singles first
+					boolean single = !MoveTable.isDouble(moves.get(i));
+					if (single && !untriedSingle) {
+						untriedSingle = true;
+						untriedSeen = 0;
+					}
+					if (single == untriedSingle && random.nextInt(++untriedSeen) == 0) untried = move;
+					continue;
+				}
+				child.addAvailability();
+				if (untriedSeen == 0) {
+					double score = child.ucb(EXPLORATION);
+					if (score > bestScore) {
+						bestScore = score;
+						best = child;
+					}
+				}
+			}
+			if (untried != null) {
+				node = node.expand(untried);
+				node.addAvailability();
+				node.addVisit();
+				state.make(untried);
+				break;
+			}
+			node = Objects.requireNonNull(best);
+			node.addVisit();
+			state.make(node.move);
+		}
+		// simulation
+		while (!state.isGameOver()) {
+			state.availableMoves(moves);
+			state.make(playoutMove(moves, random));
+		}
+		boolean mrXWon = state.getWinner().stream().anyMatch(Piece::isMrX);
+		// backpropagation, visits were counted on the way down
+		for (MctsNode n = node; n != null; n = n.parent)
+			if (n.move != null && n.mrX == mrXWon) n.addWin();
+		while (state.depth() > start) state.unmake();
+	}
+
+	private static long playoutMove(MoveList moves, Random random) {
+		long move = moves.get(random.nextInt(moves.size()));
+		for (int i = 0; i < 4 && MoveTable.isDouble(move); i++)
+			move = moves.get(random.nextInt(moves.size()));
+		return move;
+	}
+
+	/**
+	 * @param available the moves that may be picked
+	 * @return the most visited move of the root among the available moves
+	 */
+	@Nonnull Move bestMove(ImmutableSet<Move> available) {
+		return bestMove(available, List.of(this));
+	}
+
+	/**
+	 * Merges independent searches of the same position by summing the visits of each move
+	 *
+	 * @param available the moves that may be picked
+	 * @param searches the searches
+	 * @return the most visited move over the roots of all searches among the available moves
+	 */
+	@Nonnull static Move bestMove(ImmutableSet<Move> available, List<MctsSearch> searches) {
+		Map<Move, Integer> visits = new HashMap<>();
+		for (MctsSearch search : searches)
+			for (MctsNode child : search.root.children())
+				if (available.contains(child.move))
+					visits.merge(child.move, child.visits(), Integer::sum);
+		Move best = available.asList().get(0);
+		int most = -1;
+		for (Map.Entry<Move, Integer> entry : visits.entrySet())
+			if (entry.getValue() > most) {
+				best = entry.getKey();
+				most = entry.getValue();
+			}
+		return best;
+	}
+
+	/**
+	 * Keeps the subtree of the picked move for the next search.
+	 *
+	 * @param position the position the move was picked at
+	 * @param move the picked move
+	 */
+	void picked(SearchState position, Move move) {
+		MctsNode child = root.child(move);
+		if (child == null) {
+			clear();
+			return;
+		}
+		position.make(move);
+		last = position;
+		root = child;
+		root.parent = null;
+	}
+
+	/**
+	 * Makes the root the node of the board's position if it is in the subtree kept by
+	 * {@link #picked(SearchState, Move)}, otherwise starts a new tree.
+	 *
+	 * @param board the new position
+	 * @param mrXLocation MrX's location, -1 if it is hidden from the searching side
+	 * @param maxDepth the most moves between the kept subtree and the new position
+	 * @return the number of visits kept
+	 */
+	int advanceTo(Board board, int mrXLocation, int maxDepth) {
+		if (last == null || last.getSetup() != board.getSetup()) {
+			clear();
+			return 0;
+		}
+		MctsNode found = find(root, last, board, SearchState.detectiveLocations(board),
+				mrXLocation, maxDepth);
+		if (found == null) {
+			clear();
+			return 0;
+		}
+		root = found;
+		root.parent = null;
+		last = null;
+		return root.visits();
+	}
+
+	void clear() {
+		root = new MctsNode(null, null);
+		last = null;
+	}
+
+	@Nullable private static MctsNode find(MctsNode node, SearchState state, Board board,
+	                                       Map<Piece, Integer> detectives, int mrXLocation,
+	                                       int depth) {
+		if (samePosition(state, board, detectives, mrXLocation)) return node;
+		if (depth == 0 || state.isGameOver()) return null;
+		for (MctsNode child : node.children()) {
+			// MrX's moves in a detective's tree were made from guessed locations
+			if (child.mrX && mrXLocation < 0) continue;
+			state.make(child.move);
+			MctsNode found = find(child, state, board, detectives, mrXLocation, depth - 1);
+			state.unmake();
+			if (found != null) return found;
+		}
+		return null;
+	}
+
+	private static boolean samePosition(SearchState state, Board board,
+	                                    Map<Piece, Integer> detectives, int mrXLocation) {
+		if (state.logSize() != board.getMrXTravelLog().size()) return false;
+		if (mrXLocation >= 0 && state.mrXLocation() != mrXLocation) return false;
+		if (state.getPlayers().size() != detectives.size() + 1) return false;
+		for (var detective : detectives.entrySet())
+			if (state.location(detective.getKey()) != detective.getValue()) return false;
+		for (Piece piece : state.getPlayers()) {
+			Optional<Board.TicketBoard> tickets = board.getPlayerTickets(piece);
+			if (tickets.isEmpty()) return false;
+			for (Ticket t : Ticket.values())
+				if (state.ticketCount(piece, t) != tickets.get().getCount(t)) return false;
+		}
+		return movers(state).equals(movers(board));
+	}
+
+	private static ImmutableSet<Piece> movers(Board board) {
+		return board.getAvailableMoves().stream()
+				.map(Move::commencedBy)
+				.collect(ImmutableSet.toImmutableSet());
+	}
+
+}
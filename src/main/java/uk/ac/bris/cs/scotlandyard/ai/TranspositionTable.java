@@ -0,0 +1,86 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size transposition table for {@link AlphaBetaAi}.
+ * <br>
+ * Each slot is two longs in parallel arrays: the full 64 bit key and the packed entry, which
+ * holds the value, the searched depth, the bound type, the index of the best move and the
+ * search that stored it. A slot is replaced by an entry of a newer search or one searched at
+ * least as deep, so shallow results of the current search do not evict deep ones.
+ * <br>
+ * Instances are not thread-safe.
+ */
+final class TranspositionTable {
+
+	static final int EXACT = 0;
+	static final int LOWER = 1;
+	static final int UPPER = 2;
+
+	private static final long PRESENT = 1L << 8;
+
+	private final long[] keys;
+	private final long[] entries;
+	private final int mask;
+	private int generation;
+
+	/**
+	 * @param bits the log2 of the number of slots
+	 */
+	TranspositionTable(int bits) {
+		if (bits < 1 || bits > 28) throw new IllegalArgumentException("Bad table size: " + bits);
+		keys = new long[1 << bits];
+		entries = new long[1 << bits];
+		mask = (1 << bits) - 1;
+	}
+
+	/**
+	 * Marks the entries stored so far as older than the ones of the next search
+	 */
+	void newSearch() { generation = (generation + 1) & 0xFF; }
+
+	void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(entries, 0);
+	}
+
+	/**
+	 * @param key the position's key
+	 * @return the entry of the position, or 0 if there is none
+	 */
+	long probe(long key) {
+		int slot = (int) key & mask;
+		return keys[slot] == key ? entries[slot] : 0;
+	}
+
+	/**
+	 * @param key the position's key
+	 * @param depth the depth searched, at most 255
+	 * @param bound {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+	 * @param value the value found
+	 * @param move the index of the best move, or -1
+	 */
+	void store(long key, int depth, int bound, int value, int move) {
+		int slot = (int) key & mask;
+		long old = entries[slot];
+		if (old != 0 && (int) (old & 0xFF) == generation && keys[slot] != key
+				&& depth(old) > depth) return;
+		keys[slot] = key;
+		entries[slot] = ((long) value << 32)
+				| ((long) Math.min(depth, 0xFF) << 24)
+				| ((long) bound << 22)
+				| ((long) (move + 1) & 0x1FFF) << 9
+				| PRESENT
+				| generation;
+	}
+
+	static int value(long entry) { return (int) (entry >> 32); }
+
+	static int depth(long entry) { return (int) (entry >>> 24) & 0xFF; }
+
+	static int bound(long entry) { return (int) (entry >>> 22) & 0x3; }
+
+	static int move(long entry) { return ((int) (entry >>> 9) & 0x1FFF) - 1; }
+
+}
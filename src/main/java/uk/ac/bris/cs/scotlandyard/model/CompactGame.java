@@ -0,0 +1,360 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * The immutable part of a game shared by every state of that game, together with the game rules
+ * expressed over primitive arrays.
+ * <br>
+ * Players are addressed by index: 0 is always MrX and 1..n are the detectives in the order they
+ * were supplied. Locations are an {@code int[]} and tickets a {@code long[]} of
+ * {@link PackedTickets}, both indexed by player. The set of players still to move in the current
+ * round is a {@code long} bitmask over the same indices. The nodes the detectives stand on are
+ * kept alongside the locations as a {@code long[]} bitset indexed by node, see
+ * {@link #occupancy(int[])}, so that move generation checks occupancy with a single load
+ * however many detectives there are.
+ */
+final class CompactGame {
+
+	static final int NO_WINNER = 0;
+	static final int MRX_WINS = 1;
+	static final int DETECTIVES_WIN = 2;
+
+	static final int MRX = 0;
+	static final long MRX_TURN = 1L;
+
+	static final int DOUBLE = Ticket.DOUBLE.ordinal();
+	static final int SECRET = Ticket.SECRET.ordinal();
+
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	final GameSetup setup;
+	final CompactGraph graph;
+	final MoveTable moveTable;
+	final Piece[] pieces;
+	final ImmutableSet<Piece> players;
+	final ImmutableSet<Piece> detectives;
+	final boolean[] reveal;
+	final long allDetectives;
+	// StateKey numbers of every player, by index
+	private final long[] pieceKeys;
+	private final long[] moverKeys;
+	// MoveTable index of every player and the reverse
+	private final int[] moveIndices;
+	private final int[] movePlayers;
+	private final ImmutableMap<Piece, Integer> indices;
+
+	/**
+	 * Validates the given players against the setup.
+	 *
+	 * @param setup the game setup
+	 * @param mrX MrX
+	 * @param detectives the detectives
+	 * @throws NullPointerException if any argument or detective is null
+	 * @throws IllegalArgumentException if the setup or players do not form a valid game
+	 */
+	CompactGame(@Nonnull GameSetup setup,
+	            @Nonnull Player mrX,
+	            @Nonnull ImmutableList<Player> detectives) {
+		Objects.requireNonNull(setup);
+		Objects.requireNonNull(mrX);
+		Objects.requireNonNull(detectives);
+		if (setup.moves.isEmpty()) throw new IllegalArgumentException("Moves is empty");
+		if (setup.graph.nodes().isEmpty()) throw new IllegalArgumentException("Graph is empty");
+		if (!mrX.isMrX()) throw new IllegalArgumentException("MrX is not MrX");
+		if (detectives.size() > Long.SIZE - 1)
+			throw new IllegalArgumentException("Too many detectives: " + detectives.size());
+
+		Set<Integer> locations = new HashSet<>();
+		var indices = ImmutableMap.<Piece, Integer>builder();
+		this.pieces = new Piece[detectives.size() + 1];
+		this.pieces[MRX] = mrX.piece();
+		indices.put(mrX.piece(), MRX);
+		for (int i = 0; i < detectives.size(); i++) {
+			Player d = Objects.requireNonNull(detectives.get(i));
+			if (!d.isDetective())
+				throw new IllegalArgumentException("Detective is not a detective: " + d);
+			if (d.has(Ticket.DOUBLE) || d.has(Ticket.SECRET))
+				throw new IllegalArgumentException("Detective has DOUBLE or SECRET: " + d);
+			if (!locations.add(d.location()))
+				throw new IllegalArgumentException("Detective location overlaps: " + d);
+			pieces[i + 1] = d.piece();
+			indices.put(d.piece(), i + 1);
+		}
+		// build() rejects duplicate pieces
+		this.indices = indices.build();
+		this.setup = setup;
+		this.graph = CompactGraph.of(setup);
+		this.moveTable = MoveTable.of(setup);
+		if (!graph.contains(mrX.location()))
+			throw new IllegalArgumentException("MrX is not on the graph: " + mrX);
+		for (Player d : detectives)
+			if (!graph.contains(d.location()))
+				throw new IllegalArgumentException("Detective is not on the graph: " + d);
+		this.players = ImmutableSet.copyOf(pieces);
+		this.detectives = players.stream()
+				.filter(Piece::isDetective)
+				.collect(ImmutableSet.toImmutableSet());
+		this.reveal = new boolean[setup.moves.size()];
+		for (int i = 0; i < reveal.length; i++) reveal[i] = setup.moves.get(i);
+		// -1L >>> 0 is all bits, the 63 detectives limit
+		this.allDetectives = (-1L >>> (Long.SIZE - pieces.length)) & ~MRX_TURN;
+		this.moveIndices = new int[pieces.length];
+		for (int i = 0; i < pieces.length; i++) moveIndices[i] = moveTable.index(pieces[i]);
+		this.movePlayers = new int[Arrays.stream(moveIndices).max().getAsInt() + 1];
+		Arrays.fill(movePlayers, -1);
+		for (int i = 0; i < pieces.length; i++) movePlayers[moveIndices[i]] = i;
+		this.pieceKeys = new long[pieces.length];
+		this.moverKeys = new long[pieces.length];
+		for (int i = 0; i < pieces.length; i++) {
+			pieceKeys[i] = StateKey.piece(pieces[i]);
+			moverKeys[i] = StateKey.mover(pieceKeys[i]);
+		}
+	}
+
+	/**
+	 * @param piece the piece
+	 * @return the player index of the piece or -1 if the piece is not part of this game
+	 */
+	int indexOf(Piece piece) {
+		Integer index = indices.get(piece);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param move a move encoded by {@link #moveTable}
+	 * @return the player index of the move's piece or -1 if the piece is not part of this game
+	 */
+	int playerOf(long move) {
+		int piece = MoveTable.piece(move);
+		return piece < movePlayers.length ? movePlayers[piece] : -1;
+	}
+
+	/**
+	 * @return the total number of MrX moves of this game
+	 */
+	int rounds() { return reveal.length; }
+
+	/**
+	 * @return the {@link StateKey} of a position
+	 */
+	long key(int[] locations, long[] tickets, int logSize, long remaining, int winner) {
+		long key = StateKey.round(logSize) ^ moversKey(remaining, winner);
+		for (int i = 0; i < locations.length; i++) {
+			key ^= StateKey.location(pieceKeys[i], locations[i]);
+			for (int t = 0; t < TICKETS.length; t++)
+				key ^= StateKey.ticket(pieceKeys[i], t, PackedTickets.count(tickets[i], t));
+		}
+		return key;
+	}
+
+	/**
+	 * @return the change of a {@link StateKey} when a player moves and its tickets change
+	 */
+	long keyDelta(int player, int fromLocation, long fromTickets, int toLocation, long toTickets) {
+		long piece = pieceKeys[player];
+		long delta = fromLocation == toLocation
+				? 0
+				: StateKey.location(piece, fromLocation) ^ StateKey.location(piece, toLocation);
+		if (fromTickets == toTickets) return delta;
+		for (int t = 0; t < TICKETS.length; t++) {
+			int from = PackedTickets.count(fromTickets, t);
+			int to = PackedTickets.count(toTickets, t);
+			if (from != to) delta ^= StateKey.ticket(piece, t, from) ^ StateKey.ticket(piece, t, to);
+		}
+		return delta;
+	}
+
+	/**
+	 * @return the part of a {@link StateKey} for the players to move; none once there is a
+	 * winner
+	 */
+	long moversKey(long remaining, int winner) {
+		if (winner != NO_WINNER) return 0;
+		long key = 0;
+		for (long bits = remaining; bits != 0; bits &= bits - 1)
+			key ^= moverKeys[Long.numberOfTrailingZeros(bits)];
+		return key;
+	}
+
+	/**
+	 * @param locations the locations of the players
+	 * @return the nodes the detectives stand on, as a bitset indexed by node
+	 */
+	long[] occupancy(int[] locations) {
+		long[] occupancy = new long[(graph.nodeBound() + 63) >>> 6];
+		for (int i = 1; i < locations.length; i++)
+			occupancy[locations[i] >>> 6] |= 1L << locations[i];
+		return occupancy;
+	}
+
+	/**
+	 * Moves a detective from one node to another in an occupancy bitset
+	 */
+	static void move(long[] occupancy, int from, int to) {
+		occupancy[from >>> 6] &= ~(1L << from);
+		occupancy[to >>> 6] |= 1L << to;
+	}
+
+	/**
+	 * @return whether a detective other than {@code except} stands on the node
+	 */
+	static boolean occupied(long[] occupancy, int[] locations, int node, int except) {
+		// locations are distinct, so the only detective on except's node is except itself
+		if (except != MRX && locations[except] == node) return false;
+		return (occupancy[node >>> 6] & (1L << node)) != 0;
+	}
+
+	/**
+	 * @return whether the player has at least one legal move
+	 */
+	boolean hasAnyMove(int[] locations, long[] occupancy, long[] tickets, int player) {
+		int source = locations[player];
+		int held = PackedTickets.held(tickets[player]);
+		// a double move always begins with a legal single move
+		for (int edge = graph.begin(source); edge < graph.end(source); edge++) {
+			if ((graph.tickets(edge) & held) == 0) continue;
+			if (!occupied(occupancy, locations, graph.target(edge), player)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the remaining detectives out of {@code candidates} that have at least one legal
+	 * move, or {@link #MRX_TURN} if there are none
+	 */
+	long nextRemaining(int[] locations, long[] occupancy, long[] tickets, long candidates) {
+		long remaining = 0;
+		for (int i = 1; i < pieces.length; i++)
+			if ((candidates & (1L << i)) != 0 && hasAnyMove(locations, occupancy, tickets, i))
+				remaining |= 1L << i;
+		return remaining == 0 ? MRX_TURN : remaining;
+	}
+
+	/**
+	 * @return one of {@link #NO_WINNER}, {@link #MRX_WINS} or {@link #DETECTIVES_WIN}
+	 */
+	int winner(int[] locations, long[] occupancy, long[] tickets, int logSize, long remaining) {
+		if (occupied(occupancy, locations, locations[MRX], MRX)) return DETECTIVES_WIN;
+		if (remaining == MRX_TURN) {
+			if (logSize >= rounds()) return MRX_WINS;
+			if (!hasAnyMove(locations, occupancy, tickets, MRX)) return DETECTIVES_WIN;
+		}
+		for (int i = 1; i < pieces.length; i++)
+			if (hasAnyMove(locations, occupancy, tickets, i)) return NO_WINNER;
+		return MRX_WINS;
+	}
+
+	/**
+	 * @return the winning pieces for the given winner constant
+	 */
+	ImmutableSet<Piece> winningPieces(int winner) {
+		switch (winner) {
+			case NO_WINNER: return ImmutableSet.of();
+			case MRX_WINS: return ImmutableSet.of(pieces[MRX]);
+			case DETECTIVES_WIN: return detectives;
+			default: throw new AssertionError();
+		}
+	}
+
+	/**
+	 * Adds all legal moves of the given player, each move exactly once, encoded by
+	 * {@link #moveTable}.
+	 */
+	void addMoves(MoveList moves, int[] locations, long[] occupancy, long[] tickets, int logSize,
+	              int player) {
+		int piece = moveIndices[player];
+		int source = locations[player];
+		long owned = tickets[player];
+		int held = PackedTickets.held(owned);
+		boolean canDouble = player == MRX
+				&& PackedTickets.count(owned, DOUBLE) > 0
+				&& logSize + 2 <= rounds();
+		for (int e1 = graph.begin(source); e1 < graph.end(source); e1++) {
+			int d1 = graph.target(e1);
+			if (occupied(occupancy, locations, d1, player)) continue;
+			int first = graph.tickets(e1) & held;
+			for (int t1 = 0; first != 0; t1++, first >>>= 1) {
+				if ((first & 1) == 0) continue;
+				moves.add(MoveTable.encodeSingle(piece, e1, t1));
+				if (!canDouble) continue;
+				int heldAfter = PackedTickets.held(PackedTickets.use(owned, t1));
+				for (int e2 = graph.begin(d1); e2 < graph.end(d1); e2++) {
+					int d2 = graph.target(e2);
+					if (occupied(occupancy, locations, d2, player)) continue;
+					int second = graph.tickets(e2) & heldAfter;
+					for (int t2 = 0; second != 0; t2++, second >>>= 1) {
+						if ((second & 1) == 0) continue;
+						moves.add(MoveTable.encodeDouble(piece, e1, t1, e2, t2));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether the move is one of the available moves of the given position, checked
+	 * without generating them
+	 */
+	boolean isLegal(Move move, int[] locations, long[] occupancy, long[] tickets, int logSize,
+	                long remaining) {
+		int player = indexOf(move.commencedBy());
+		if (player < 0 || (remaining & (1L << player)) == 0) return false;
+		int source = locations[player];
+		if (move.source() != source) return false;
+		long owned = tickets[player];
+		return move.accept(new Move.Visitor<Boolean>() {
+			@Override public Boolean visit(SingleMove m) {
+				return legalStep(locations, occupancy, player, owned, source, m.ticket,
+						m.destination);
+			}
+			@Override public Boolean visit(DoubleMove m) {
+				if (player != MRX || logSize + 2 > rounds()
+						|| PackedTickets.count(owned, DOUBLE) == 0) return false;
+				if (!legalStep(locations, occupancy, player, owned, source, m.ticket1,
+						m.destination1))
+					return false;
+				long after = PackedTickets.use(owned, m.ticket1.ordinal());
+				return legalStep(locations, occupancy, player, after,
+						m.destination1, m.ticket2, m.destination2);
+			}
+		});
+	}
+
+	private boolean legalStep(int[] locations, long[] occupancy, int player, long owned,
+	                          int source, Ticket ticket, int destination) {
+		if (PackedTickets.count(owned, ticket) == 0) return false;
+		if ((graph.tickets(source, destination) & (1 << ticket.ordinal())) == 0) return false;
+		return !occupied(occupancy, locations, destination, player);
+	}
+
+	/**
+	 * @return the log entry encoded as an {@code int}
+	 */
+	static int logEntry(int ticket, int location, boolean reveal) {
+		return ticket | (reveal ? (location + 1) << 3 : 0);
+	}
+
+	/**
+	 * @return the decoded log entry
+	 */
+	static LogEntry decodeLogEntry(int entry) {
+		Ticket ticket = TICKETS[entry & 7];
+		int location = (entry >>> 3) - 1;
+		return location < 0 ? LogEntry.hidden(ticket) : LogEntry.reveal(ticket, location);
+	}
+
+}
@@ -0,0 +1,196 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+
+/**
+ * A {@link GameState} backed by primitive arrays, see {@link CompactGame} for the layout.
+ * <br>
+ * Only the arrays that change are copied on {@link #advance(Move)}, so MrX's moves share the
+ * detectives' occupancy bitset with the previous state; the {@link Board} views
+ * (available moves, travel log) are built lazily on first access and cached. The caches are read
+ * once per access, so states can be shared between threads: racing threads at worst build the
+ * same immutable view twice.
+ */
+final class CompactGameState implements GameState, StateKey.Keyed, MoveList.Source,
+		SearchState.Located {
+
+	final CompactGame game;
+	final int[] locations;
+	final long[] occupancy;
+	final long[] tickets;
+	final int[] log;
+	final long remaining;
+	final int winner;
+	private final long key;
+
+	private ImmutableSet<Move> moves;
+	private ImmutableList<LogEntry> travelLog;
+
+	CompactGameState(CompactGame game, int[] locations, long[] tickets, int[] log,
+	                 long remaining) {
+		this.game = game;
+		this.locations = locations;
+		this.occupancy = game.occupancy(locations);
+		this.tickets = tickets;
+		this.log = log;
+		this.remaining = remaining;
+		this.winner = game.winner(locations, occupancy, tickets, log.length, remaining);
+		this.key = game.key(locations, tickets, log.length, remaining, winner);
+	}
+
+	// positionKey is the key without the players to move, updated from the previous state's
+	private CompactGameState(CompactGame game, int[] locations, long[] occupancy, long[] tickets,
+	                         int[] log, long remaining, long positionKey) {
+		this.game = game;
+		this.locations = locations;
+		this.occupancy = occupancy;
+		this.tickets = tickets;
+		this.log = log;
+		this.remaining = remaining;
+		this.winner = game.winner(locations, occupancy, tickets, log.length, remaining);
+		this.key = positionKey ^ game.moversKey(remaining, winner);
+	}
+
+	@Override public long key() { return key; }
+
+	@Nonnull @Override public GameSetup getSetup() { return game.setup; }
+
+	@Nonnull @Override public ImmutableSet<Piece> getPlayers() { return game.players; }
+
+	@Nonnull @Override public Optional<Integer> getDetectiveLocation(Detective detective) {
+		int index = game.indexOf(detective);
+		return index > CompactGame.MRX ? Optional.of(locations[index]) : Optional.empty();
+	}
+
+	@Override public int location(@Nonnull Piece piece) {
+		int index = game.indexOf(piece);
+		return index < 0 ? -1 : locations[index];
+	}
+
+	@Nonnull @Override public Optional<TicketBoard> getPlayerTickets(Piece piece) {
+		int index = game.indexOf(piece);
+		if (index < 0) return Optional.empty();
+		long packed = tickets[index];
+		return Optional.of(ticket -> PackedTickets.count(packed, ticket));
+	}
+
+	@Nonnull @Override public ImmutableList<LogEntry> getMrXTravelLog() {
+		var travelLog = this.travelLog;
+		if (travelLog == null) {
+			var builder = ImmutableList.<LogEntry>builderWithExpectedSize(log.length);
+			for (int entry : log) builder.add(CompactGame.decodeLogEntry(entry));
+			this.travelLog = travelLog = builder.build();
+		}
+		return travelLog;
+	}
+
+	@Nonnull @Override public ImmutableSet<Piece> getWinner() {
+		return game.winningPieces(winner);
+	}
+
+	@Override public void availableMoves(MoveList moves) {
+		moves.reset(game.moveTable);
+		if (winner != CompactGame.NO_WINNER) return;
+		for (int i = 0; i < locations.length; i++)
+			if ((remaining & (1L << i)) != 0)
+				game.addMoves(moves, locations, occupancy, tickets, log.length, i);
+	}
+
+	@Nonnull @Override public ImmutableSet<Move> getAvailableMoves() {
+		var moves = this.moves;
+		if (moves == null) {
+			var list = new MoveList();
+			availableMoves(list);
+			this.moves = moves = list.toSet();
+		}
+		return moves;
+	}
+
+	@Nonnull @Override public GameState advance(Move move) {
+		if (winner != CompactGame.NO_WINNER)
+			throw new IllegalArgumentException("Game is already over: " + move);
+		if (!game.isLegal(move, locations, occupancy, tickets, log.length, remaining))
+			throw new IllegalArgumentException("Illegal move: " + move);
+		int player = game.indexOf(move.commencedBy());
+		return player == CompactGame.MRX ? advanceMrX(move) : advanceDetective(player, move);
+	}
+
+	private GameState advanceMrX(Move move) {
+		int[] locations = this.locations.clone();
+		long[] tickets = this.tickets.clone();
+		int[] log = move.accept(new Move.Visitor<int[]>() {
+			@Override public int[] visit(SingleMove m) {
+				int[] log = Arrays.copyOf(CompactGameState.this.log,
+						CompactGameState.this.log.length + 1);
+				step(log, log.length - 1, tickets, locations, m.ticket.ordinal(), m.destination);
+				return log;
+			}
+			@Override public int[] visit(DoubleMove m) {
+				int[] log = Arrays.copyOf(CompactGameState.this.log,
+						CompactGameState.this.log.length + 2);
+				tickets[CompactGame.MRX] =
+						PackedTickets.use(tickets[CompactGame.MRX], CompactGame.DOUBLE);
+				step(log, log.length - 2, tickets, locations, m.ticket1.ordinal(), m.destination1);
+				step(log, log.length - 1, tickets, locations, m.ticket2.ordinal(), m.destination2);
+				return log;
+			}
+		});
+		long positionKey = positionKey()
+				^ game.keyDelta(CompactGame.MRX, this.locations[CompactGame.MRX],
+						this.tickets[CompactGame.MRX], locations[CompactGame.MRX],
+						tickets[CompactGame.MRX])
+				^ StateKey.round(this.log.length) ^ StateKey.round(log.length);
+		return new CompactGameState(game, locations, occupancy, tickets, log,
+				game.nextRemaining(locations, occupancy, tickets, game.allDetectives), positionKey);
+	}
+
+	private long positionKey() { return key ^ game.moversKey(remaining, winner); }
+
+	private void step(int[] log, int index, long[] tickets, int[] locations,
+	                  int ticket, int destination) {
+		tickets[CompactGame.MRX] = PackedTickets.use(tickets[CompactGame.MRX], ticket);
+		locations[CompactGame.MRX] = destination;
+		log[index] = CompactGame.logEntry(ticket, destination, game.reveal[index]);
+	}
+
+	private GameState advanceDetective(int player, Move move) {
+		SingleMove m = (SingleMove) move;
+		int[] locations = this.locations.clone();
+		long[] tickets = this.tickets.clone();
+		int ticket = m.ticket.ordinal();
+		tickets[player] = PackedTickets.use(tickets[player], ticket);
+		tickets[CompactGame.MRX] = PackedTickets.give(tickets[CompactGame.MRX], ticket);
+		locations[player] = m.destination;
+		long[] occupancy = this.occupancy.clone();
+		CompactGame.move(occupancy, this.locations[player], m.destination);
+		long positionKey = positionKey()
+				^ game.keyDelta(player, this.locations[player], this.tickets[player],
+						m.destination, tickets[player])
+				^ game.keyDelta(CompactGame.MRX, locations[CompactGame.MRX],
+						this.tickets[CompactGame.MRX], locations[CompactGame.MRX],
+						tickets[CompactGame.MRX]);
+		return new CompactGameState(game, locations, occupancy, tickets, log,
+				game.nextRemaining(locations, occupancy, tickets, remaining & ~(1L << player)),
+				positionKey);
+	}
+
+	@Override public String toString() {
+		return "CompactGameState{" +
+				"locations=" + Arrays.toString(locations) +
+				", log=" + log.length +
+				", remaining=" + Long.toBinaryString(remaining) +
+				", winner=" + winner +
+				'}';
+	}
+}
@@ -0,0 +1,36 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+
+/**
+ * A {@link GameState} factory for high-volume use such as AI self-play.
+ * <br>
+ * States keep locations in an {@code int[]}, each player's tickets packed into a {@code long}
+ * and the players yet to move as a bitmask, so {@link GameState#advance(Move)} copies a few small
+ * arrays instead of rebuilding {@link Player}s and immutable collections. The {@link Board} views
+ * are built lazily.
+ */
+public final class CompactGameStateFactory implements Factory<GameState> {
+
+	@Nonnull @Override public GameState build(
+			GameSetup setup,
+			Player mrX,
+			ImmutableList<Player> detectives) {
+		var game = new CompactGame(setup, mrX, detectives);
+		int[] locations = new int[game.pieces.length];
+		long[] tickets = new long[game.pieces.length];
+		locations[CompactGame.MRX] = mrX.location();
+		tickets[CompactGame.MRX] = mrX.packedTickets();
+		for (int i = 0; i < detectives.size(); i++) {
+			locations[i + 1] = detectives.get(i).location();
+			tickets[i + 1] = detectives.get(i).packedTickets();
+		}
+		return new CompactGameState(game, locations, tickets, new int[0], CompactGame.MRX_TURN);
+	}
+
+}
@@ -0,0 +1,258 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.graph.ImmutableValueGraph;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * A read-only compressed sparse row (CSR) copy of a game graph for allocation free traversal.
+ * <br>
+ * Nodes are indexed by their station number. The edges leaving node {@code n} are the indices
+ * {@code begin(n)} (inclusive) to {@code end(n)} (exclusive); each edge has a target node and a
+ * {@link Transport} bitmask. In addition every node has a neighbour list per {@link Ticket}
+ * holding the nodes reachable with that ticket, SECRET reaching every neighbour:
+ * <pre>{@code
+ * for (int i = graph.begin(node, ticket); i < graph.end(node, ticket); i++) {
+ *     int destination = graph.target(ticket, i);
+ * }
+ * }</pre>
+ * Instances are immutable and shared through {@link #of(GameSetup)}.
+ */
+public final class CompactGraph {
+
+	private static final int TICKETS = Ticket.values().length;
+	private static final int[] TICKET_MASKS = new int[1 << Transport.values().length];
+	private static final ImmutableSet<Transport>[] TRANSPORT_SETS = newTransportSets();
+
+	static {
+		for (int transports = 0; transports < TICKET_MASKS.length; transports++) {
+			int mask = transports == 0 ? 0 : 1 << Ticket.SECRET.ordinal();
+			for (Transport t : Transport.values())
+				if ((transports & (1 << t.ordinal())) != 0)
+					mask |= 1 << t.requiredTicket().ordinal();
+			TICKET_MASKS[transports] = mask;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ImmutableSet<Transport>[] newTransportSets() {
+		var sets = (ImmutableSet<Transport>[]) new ImmutableSet<?>[TICKET_MASKS.length];
+		for (int mask = 0; mask < sets.length; mask++) {
+			var set = EnumSet.noneOf(Transport.class);
+			for (Transport t : Transport.values())
+				if ((mask & (1 << t.ordinal())) != 0) set.add(t);
+			sets[mask] = Sets.immutableEnumSet(set);
+		}
+		return sets;
+	}
+
+	// keyed by identity so lookups never hash the graph itself
+	private static final LoadingCache<ImmutableValueGraph<Integer, ImmutableSet<Transport>>,
+			CompactGraph> CACHE = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(CacheLoader.from(CompactGraph::build));
+
+	private final int nodeCount;
+	private final boolean[] present;
+	private final int[] offsets;
+	private final int[] targets;
+	private final byte[] transports;
+	private final int[][] ticketOffsets;
+	private final int[][] ticketTargets;
+
+	private static CompactGraph build(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		int max = -1;
+		for (int node : graph.nodes()) {
+			if (node < 0) throw new IllegalArgumentException("Negative node: " + node);
+			max = Math.max(max, node);
+		}
+		boolean[] present = new boolean[max + 1];
+		for (int node : graph.nodes()) present[node] = true;
+		int[] offsets = new int[max + 2];
+		int edges = 0;
+		for (int node = 0; node <= max; node++) {
+			offsets[node] = edges;
+			if (present[node]) edges += graph.adjacentNodes(node).size();
+		}
+		offsets[max + 1] = edges;
+		int[] targets = new int[edges];
+		byte[] transports = new byte[edges];
+		for (int node = 0; node <= max; node++) {
+			if (!present[node]) continue;
+			int[] sorted = graph.adjacentNodes(node).stream().mapToInt(Integer::intValue)
+					.sorted().toArray();
+			for (int i = 0; i < sorted.length; i++) {
+				int edge = offsets[node] + i;
+				targets[edge] = sorted[i];
+				int mask = 0;
+				for (Transport t : graph.edgeValueOrDefault(node, sorted[i], ImmutableSet.of()))
+					mask |= 1 << t.ordinal();
+				transports[edge] = (byte) mask;
+			}
+		}
+		return new CompactGraph(present, graph.nodes().size(), offsets, targets, transports);
+	}
+
+	/**
+	 * Wraps arrays laid out as described above; the targets of every node must be sorted and
+	 * every edge must appear in both directions.
+	 */
+	CompactGraph(boolean[] present, int nodeCount, int[] offsets, int[] targets,
+	             byte[] transports) {
+		this.present = present;
+		this.nodeCount = nodeCount;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.transports = transports;
+		int max = present.length - 1;
+		int edges = targets.length;
+		this.ticketOffsets = new int[TICKETS][max + 2];
+		this.ticketTargets = new int[TICKETS][];
+		for (int ticket = 0; ticket < TICKETS; ticket++) {
+			int[] ticketOffset = ticketOffsets[ticket];
+			int[] ticketTarget = new int[edges];
+			int count = 0;
+			for (int node = 0; node <= max; node++) {
+				ticketOffset[node] = count;
+				for (int edge = offsets[node]; edge < offsets[node + 1]; edge++)
+					if ((tickets(edge) & (1 << ticket)) != 0) ticketTarget[count++] = targets[edge];
+			}
+			ticketOffset[max + 1] = count;
+			ticketTargets[ticket] = Arrays.copyOf(ticketTarget, count);
+		}
+	}
+
+	/**
+	 * @param graph the game graph
+	 * @return the compact form of the given graph, built once per graph instance
+	 */
+	@Nonnull public static CompactGraph of(
+			@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		return CACHE.getUnchecked(Objects.requireNonNull(graph));
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return the compact form of the setup's graph, built once per graph instance
+	 */
+	@Nonnull public static CompactGraph of(@Nonnull GameSetup setup) { return of(setup.graph); }
+
+	/**
+	 * Makes {@link #of(ImmutableValueGraph)} return the given compact form of the graph rather
+	 * than building it; for loaders that have the compact form first
+	 */
+	static void cache(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+	                  CompactGraph compact) {
+		CACHE.put(graph, compact);
+	}
+
+	/**
+	 * @param transports {@link Transport}s as a bitmask of ordinals
+	 * @return the set of the transports, one shared instance per bitmask
+	 */
+	@Nonnull public static ImmutableSet<Transport> transportSet(int transports) {
+		return TRANSPORT_SETS[transports];
+	}
+
+	/**
+	 * @return the number of nodes in the graph
+	 */
+	public int nodeCount() { return nodeCount; }
+
+	/**
+	 * @return one more than the largest node; arrays of this size can be indexed by node
+	 */
+	public int nodeBound() { return present.length; }
+
+	/**
+	 * @param node the node
+	 * @return whether the node is part of the graph
+	 */
+	public boolean contains(int node) { return node >= 0 && node < present.length && present[node]; }
+
+	/**
+	 * @param node the node
+	 * @return the number of neighbours of the node
+	 */
+	public int degree(int node) { return offsets[node + 1] - offsets[node]; }
+
+	/**
+	 * @param node the node
+	 * @return the first edge index of the node
+	 */
+	public int begin(int node) { return offsets[node]; }
+
+	/**
+	 * @param node the node
+	 * @return one past the last edge index of the node
+	 */
+	public int end(int node) { return offsets[node + 1]; }
+
+	/**
+	 * @param edge the edge index
+	 * @return the node the edge leads to
+	 */
+	public int target(int edge) { return targets[edge]; }
+
+	/**
+	 * @param edge the edge index
+	 * @return the {@link Transport}s of the edge as a bitmask of ordinals
+	 */
+	public int transports(int edge) { return transports[edge]; }
+
+	/**
+	 * @param edge the edge index
+	 * @return the {@link Ticket}s that can be used on the edge as a bitmask of ordinals,
+	 * SECRET included
+	 */
+	public int tickets(int edge) { return TICKET_MASKS[transports[edge]]; }
+
+	/**
+	 * @param node the node
+	 * @param ticket the ticket ordinal
+	 * @return the first index into {@link #target(int, int)} of the node's neighbours reachable
+	 * with the ticket
+	 */
+	public int begin(int node, int ticket) { return ticketOffsets[ticket][node]; }
+
+	/**
+	 * @param node the node
+	 * @param ticket the ticket ordinal
+	 * @return one past the last index into {@link #target(int, int)} of the node's neighbours
+	 * reachable with the ticket
+	 */
+	public int end(int node, int ticket) { return ticketOffsets[ticket][node + 1]; }
+
+	/**
+	 * @param ticket the ticket ordinal
+	 * @param index the index between {@link #begin(int, int)} and {@link #end(int, int)}
+	 * @return the neighbour
+	 */
+	public int target(int ticket, int index) { return ticketTargets[ticket][index]; }
+
+	/**
+	 * @param source the source node
+	 * @param destination the destination node
+	 * @return the {@link Ticket}s that can be used between the nodes as a bitmask of ordinals,
+	 * 0 if they are not adjacent
+	 */
+	public int tickets(int source, int destination) {
+		if (!contains(source)) return 0;
+		for (int edge = offsets[source]; edge < offsets[source + 1]; edge++)
+			if (targets[edge] == destination) return tickets(edge);
+		return 0;
+	}
+
+}
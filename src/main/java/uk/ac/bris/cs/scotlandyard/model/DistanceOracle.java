@@ -0,0 +1,222 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.TicketBoard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * All-pairs shortest path distances of a game graph, in moves.
+ * <br>
+ * Distances are available for every subset of {@link Transport}s, given as a bitmask of
+ * ordinals. The table for a subset is computed by breadth first search from every node the first
+ * time it is needed and kept as one byte per pair of nodes, about 40KB per subset on the
+ * standard map. On graphs of more than {@link #FULL_TABLE_NODES} nodes, where a table would
+ * take the square of the node count, only the row of a source node is computed, the first time
+ * a distance from that node is needed. Distances of {@link #MAX_DISTANCE} or more are stored as
+ * {@link #MAX_DISTANCE}, so they remain valid lower bounds on larger maps.
+ * <br>
+ * Instances are thread-safe and shared through {@link #of(GameSetup)} by every setup with the
+ * same graph.
+ */
+public final class DistanceOracle {
+
+	/**
+	 * Returned for nodes that cannot be reached
+	 */
+	public static final int UNREACHABLE = -1;
+
+	/**
+	 * The largest distance stored; longer distances are reported as this
+	 */
+	public static final int MAX_DISTANCE = 254;
+
+	/**
+	 * Every {@link Transport}, i.e. travel with SECRET tickets
+	 */
+	public static final int ALL_TRANSPORTS = (1 << Transport.values().length) - 1;
+
+	/**
+	 * The largest node bound, see {@link CompactGraph#nodeBound()}, for which whole tables are
+	 * computed; 16MB per subset
+	 */
+	public static final int FULL_TABLE_NODES = 1 << 12;
+
+	private static final byte NONE = (byte) 0xFF;
+
+	private static final LoadingCache<ImmutableValueGraph<Integer, ImmutableSet<Transport>>,
+			DistanceOracle> CACHE = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(CacheLoader.from(graph -> new DistanceOracle(CompactGraph.of(graph))));
+
+	private final CompactGraph graph;
+	private final int bound;
+	// whole tables, or null when rows are computed per source
+	private final AtomicReferenceArray<byte[]> tables;
+	private final AtomicReferenceArray<AtomicReferenceArray<byte[]>> rows;
+
+	private DistanceOracle(CompactGraph graph) {
+		this(graph, graph.nodeBound() > FULL_TABLE_NODES);
+	}
+
+	// for tests: rowsOnly computes rows per source whatever the size of the graph
+	DistanceOracle(CompactGraph graph, boolean rowsOnly) {
+		this.graph = graph;
+		this.bound = graph.nodeBound();
+		this.tables = rowsOnly ? null : new AtomicReferenceArray<>(ALL_TRANSPORTS + 1);
+		this.rows = rowsOnly ? new AtomicReferenceArray<>(ALL_TRANSPORTS + 1) : null;
+	}
+
+	/**
+	 * @param graph the game graph
+	 * @return the distance oracle of the given graph, built once per graph instance
+	 */
+	@Nonnull public static DistanceOracle of(
+			@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		return CACHE.getUnchecked(Objects.requireNonNull(graph));
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return the distance oracle of the setup's graph, built once per graph instance
+	 */
+	@Nonnull public static DistanceOracle of(@Nonnull GameSetup setup) { return of(setup.graph); }
+
+	/**
+	 * @param transports the transports
+	 * @return the transports as a bitmask of ordinals
+	 */
+	public static int mask(@Nonnull Transport... transports) {
+		int mask = 0;
+		for (Transport t : transports) mask |= 1 << t.ordinal();
+		return mask;
+	}
+
+	/**
+	 * @param from the source node
+	 * @param to the destination node
+	 * @return the least number of moves from {@code from} to {@code to} using any transport, or
+	 * {@link #UNREACHABLE}
+	 */
+	public int distance(int from, int to) { return distance(ALL_TRANSPORTS, from, to); }
+
+	/**
+	 * @param transports the transports that may be used as a bitmask of ordinals, see
+	 * {@link #mask(Transport...)}
+	 * @param from the source node
+	 * @param to the destination node
+	 * @return the least number of moves from {@code from} to {@code to} using only the given
+	 * transports, or {@link #UNREACHABLE}
+	 */
+	public int distance(int transports, int from, int to) {
+		if (transports < 0 || transports > ALL_TRANSPORTS)
+			throw new IllegalArgumentException("Bad transport mask: " + transports);
+		if (!graph.contains(from) || !graph.contains(to))
+			throw new IllegalArgumentException("Not on the graph: " + from + ", " + to);
+		byte d = tables != null ? table(transports)[from * bound + to] : row(transports, from)[to];
+		return d == NONE ? UNREACHABLE : d & 0xFF;
+	}
+
+	/**
+	 * A lower bound on the number of moves a player holding the given tickets needs to get from
+	 * {@code from} to {@code to}. Only transports the player holds a ticket for are used, SECRET
+	 * allowing every transport, and a destination further away than the player has tickets for
+	 * is unreachable.
+	 *
+	 * @param from the source node
+	 * @param to the destination node
+	 * @param tickets the tickets of the player
+	 * @return the lower bound, or {@link #UNREACHABLE}
+	 */
+	public int lowerBound(int from, int to, @Nonnull TicketBoard tickets) {
+		return lowerBound(from, to,
+				tickets.getCount(Ticket.TAXI),
+				tickets.getCount(Ticket.BUS),
+				tickets.getCount(Ticket.UNDERGROUND),
+				tickets.getCount(Ticket.SECRET));
+	}
+
+	/**
+	 * @param from the source node
+	 * @param to the destination node
+	 * @param taxi the number of TAXI tickets
+	 * @param bus the number of BUS tickets
+	 * @param underground the number of UNDERGROUND tickets
+	 * @param secret the number of SECRET tickets
+	 * @return the lower bound, or {@link #UNREACHABLE}
+	 * @see #lowerBound(int, int, TicketBoard)
+	 */
+	public int lowerBound(int from, int to, int taxi, int bus, int underground, int secret) {
+		int transports = secret > 0 ? ALL_TRANSPORTS : 0;
+		if (taxi > 0) transports |= 1 << Transport.TAXI.ordinal();
+		if (bus > 0) transports |= 1 << Transport.BUS.ordinal();
+		if (underground > 0) transports |= 1 << Transport.UNDERGROUND.ordinal();
+		int distance = distance(transports, from, to);
+		if (distance == UNREACHABLE) return UNREACHABLE;
+		long moves = (long) taxi + bus + underground + secret;
+		return distance > moves ? UNREACHABLE : distance;
+	}
+
+	private byte[] table(int transports) {
+		byte[] table = tables.get(transports);
+		if (table != null) return table;
+		// concurrent callers may compute the same table, only one is kept
+		tables.compareAndSet(transports, null, compute(transports));
+		return tables.get(transports);
+	}
+
+	private byte[] row(int transports, int source) {
+		AtomicReferenceArray<byte[]> table = rows.get(transports);
+		if (table == null) {
+			rows.compareAndSet(transports, null, new AtomicReferenceArray<>(bound));
+			table = rows.get(transports);
+		}
+		byte[] row = table.get(source);
+		if (row != null) return row;
+		row = new byte[bound];
+		Arrays.fill(row, NONE);
+		search(transports, source, row, 0, new int[bound]);
+		// as with tables, only one of concurrently computed rows is kept
+		table.compareAndSet(source, null, row);
+		return table.get(source);
+	}
+
+	private byte[] compute(int transports) {
+		byte[] table = new byte[bound * bound];
+		Arrays.fill(table, NONE);
+		int[] queue = new int[bound];
+		for (int source = 0; source < bound; source++)
+			if (graph.contains(source)) search(transports, source, table, source * bound, queue);
+		return table;
+	}
+
+	// breadth first search from source, writing its row of distances at offset
+	private void search(int transports, int source, byte[] table, int row, int[] queue) {
+		table[row + source] = 0;
+		int head = 0, tail = 0;
+		queue[tail++] = source;
+		while (head < tail) {
+			int node = queue[head++];
+			int next = Math.min((table[row + node] & 0xFF) + 1, MAX_DISTANCE);
+			for (int edge = graph.begin(node); edge < graph.end(node); edge++) {
+				int target = graph.target(edge);
+				if ((graph.transports(edge) & transports) == 0 || table[row + target] != NONE)
+					continue;
+				table[row + target] = (byte) next;
+				queue[tail++] = target;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,564 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * An append-only archive of {@link GameRecord}s of one setup, memory mapped for random access
+ * to any ply of any game.
+ * <br>
+ * The archive is two files. The data file holds, after an 8 byte header of {@link #MAGIC} and
+ * {@link #VERSION}, every game as its record, a varint length and the body as written by
+ * {@link GameRecord.Writer}, followed by its checkpoints. A checkpoint is taken every few of
+ * MrX's turns and holds what the game cannot be resumed without: the location and tickets of
+ * every player, MrX's travel log and where in the record the next move starts. The index file,
+ * the data file's name with {@code .idx} appended, holds fixed size entries, little-endian:
+ * <pre>
+ * int  magic, {@link #INDEX_MAGIC}
+ * int  version, {@link #VERSION}
+ * long {@link GameRecord#setupHash(GameSetup)} of the setup
+ * int  MrX turns between checkpoints
+ * int  reserved, 0
+ * per game:
+ *   long offset of the game in the data file
+ *   int  bytes of the record
+ *   int  bytes of the checkpoints
+ *   int  number of moves
+ *   int  reserved, 0
+ * </pre>
+ * {@link #state(int, int)} replays a game through {@link MyGameStateFactory}, from the nearest
+ * checkpoint at or before the requested ply rather than from the first move, so the cost of a
+ * lookup does not grow with the length of the game or the size of the archive. Games are
+ * appended with an {@link Appender}; an open archive only sees the games appended before it was
+ * opened. An archive is safe to read from any number of threads.
+ */
+public final class GameArchive {
+
+	/**
+	 * The first four bytes of a data file, {@code SYGA} in ASCII
+	 */
+	public static final int MAGIC = 0x41475953;
+	/**
+	 * The first four bytes of an index file, {@code SYGX} in ASCII
+	 */
+	public static final int INDEX_MAGIC = 0x58475953;
+	/**
+	 * The version of the format written
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * MrX turns between checkpoints unless another interval is given
+	 */
+	public static final int DEFAULT_INTERVAL = 4;
+
+	private static final int DATA_HEADER = 2 * Integer.BYTES;
+	private static final int INDEX_HEADER = 4 * Integer.BYTES + Long.BYTES;
+	private static final int ENTRY = Long.BYTES + 4 * Integer.BYTES;
+	// the data file is mapped in segments that overlap by the largest game, so every game lies
+	// within a single mapping however large the file grows
+	private static final int SEGMENT = 1 << 30;
+	private static final int MAX_GAME = 2 * GameRecord.MAX_BODY;
+
+	private final GameSetup setup;
+	private final MyGameStateFactory factory;
+	private final ByteBuffer index;
+	private final ByteBuffer[] segments;
+	private final int segment;
+	private final long dataSize;
+	private final int size;
+
+	private GameArchive(GameSetup setup, MyGameStateFactory factory, ByteBuffer index,
+	                    ByteBuffer[] segments, int segment, long dataSize) {
+		this.setup = setup;
+		this.factory = factory;
+		this.index = index;
+		this.segments = segments;
+		this.segment = segment;
+		this.dataSize = dataSize;
+		this.size = index.capacity() / ENTRY;
+	}
+
+	/**
+	 * @param data the data file of an archive
+	 * @return its index file
+	 */
+	@Nonnull public static Path indexOf(@Nonnull Path data) {
+		return data.resolveSibling(data.getFileName() + ".idx");
+	}
+
+	/**
+	 * Opens an archive for reading.
+	 *
+	 * @param data the data file; the index file is {@link #indexOf(Path)}
+	 * @param setup the setup of the games in the archive
+	 * @return the archive, with every game appended so far
+	 * @throws IOException if the files cannot be read or are not a valid archive
+	 * @throws IllegalArgumentException if the archive holds games of another setup
+	 */
+	@Nonnull public static GameArchive open(@Nonnull Path data, @Nonnull GameSetup setup)
+			throws IOException {
+		return open(data, setup, new MyGameStateFactory(), SEGMENT);
+	}
+
+	/**
+	 * Opens an archive for reading.
+	 *
+	 * @param data the data file; the index file is {@link #indexOf(Path)}
+	 * @param setup the setup of the games in the archive
+	 * @param factory replays the games, e.g. with a {@link GameEventListener}
+	 * @return the archive, with every game appended so far
+	 * @throws IOException if the files cannot be read or are not a valid archive
+	 * @throws IllegalArgumentException if the archive holds games of another setup
+	 */
+	@Nonnull public static GameArchive open(@Nonnull Path data, @Nonnull GameSetup setup,
+	                                        @Nonnull MyGameStateFactory factory)
+			throws IOException {
+		return open(data, setup, factory, SEGMENT);
+	}
+
+	static GameArchive open(Path data, GameSetup setup, MyGameStateFactory factory,
+	                        int segment) throws IOException {
+		Objects.requireNonNull(factory);
+		long hash = GameRecord.setupHash(setup);
+		ByteBuffer index;
+		try (var channel = FileChannel.open(indexOf(data), StandardOpenOption.READ)) {
+			long entries = (channel.size() - INDEX_HEADER) / ENTRY;
+			if (entries > Integer.MAX_VALUE / ENTRY)
+				throw new IOException("Archive index too large: " + data);
+			var header = readHeader(channel, INDEX_HEADER, data);
+			checkIndexHeader(header, hash, data);
+			// a partly written last entry is a game still being appended
+			index = entries <= 0 ? ByteBuffer.allocate(0) : channel.map(
+					FileChannel.MapMode.READ_ONLY, INDEX_HEADER, entries * ENTRY);
+			index.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		ByteBuffer[] segments;
+		long dataSize;
+		try (var channel = FileChannel.open(data, StandardOpenOption.READ)) {
+			dataSize = channel.size();
+			checkDataHeader(readHeader(channel, DATA_HEADER, data), data);
+			segments = new ByteBuffer[(int) ((dataSize + segment - 1) / segment)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long) i * segment;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(dataSize - start, (long) segment + MAX_GAME));
+			}
+		}
+		return new GameArchive(setup, factory, index, segments, segment, dataSize);
+	}
+
+	private static ByteBuffer readHeader(FileChannel channel, int bytes, Path file)
+			throws IOException {
+		var header = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining())
+			if (channel.read(header, header.position()) < 0)
+				throw new IOException("Not a game archive: " + file);
+		return header.flip();
+	}
+
+	private static void checkIndexHeader(ByteBuffer header, long hash, Path file)
+			throws IOException {
+		if (header.getInt(0) != INDEX_MAGIC) throw new IOException("Not a game archive: " + file);
+		if (header.getInt(4) != VERSION)
+			throw new IOException("Unsupported game archive version " + header.getInt(4)
+					+ ": " + file);
+		if (header.getInt(16) <= 0) throw new IOException("Corrupt game archive: " + file);
+		if (header.getLong(8) != hash)
+			throw new IllegalArgumentException("Archive holds games of another setup: " + file);
+	}
+
+	private static void checkDataHeader(ByteBuffer header, Path file) throws IOException {
+		if (header.getInt(0) != MAGIC) throw new IOException("Not a game archive: " + file);
+		if (header.getInt(4) != VERSION)
+			throw new IOException("Unsupported game archive version " + header.getInt(4)
+					+ ": " + file);
+	}
+
+	/**
+	 * @return the number of games
+	 */
+	public int size() { return size; }
+
+	/**
+	 * @param game the game, from 0
+	 * @return the number of moves of the game
+	 * @throws IndexOutOfBoundsException if there is no such game
+	 */
+	public int plies(int game) {
+		return index.getInt(entry(game) + Long.BYTES + 2 * Integer.BYTES);
+	}
+
+	/**
+	 * @param game the game, from 0
+	 * @return the record of the game
+	 * @throws IndexOutOfBoundsException if there is no such game
+	 * @throws UncheckedIOException if the game is corrupt
+	 */
+	@Nonnull public GameRecord record(int game) {
+		return read(game, false).record;
+	}
+
+	/**
+	 * Reconstructs a game at a ply from its nearest checkpoint.
+	 *
+	 * @param game the game, from 0
+	 * @param ply the number of moves made, from 0 to {@link #plies(int)}
+	 * @return the state of the game after that many moves
+	 * @throws IndexOutOfBoundsException if there is no such game or ply
+	 * @throws UncheckedIOException if the game is corrupt
+	 */
+	@Nonnull public GameState state(int game, int ply) {
+		int plies = plies(game);
+		if (ply < 0 || ply > plies)
+			throw new IndexOutOfBoundsException("Ply " + ply + " of a game of " + plies);
+		var read = read(game, true);
+		GameRecord record = read.record;
+		ByteBuffer checkpoints = read.checkpoints;
+		GameState state;
+		GameRecord.Moves moves;
+		int found = -1;
+		// only decoding the checkpoint is guarded; a recorded move that is illegal fails the
+		// replay below as it would from the start
+		try {
+			// the checkpoints are in ply order; find the last one at or before the ply
+			int count = GameRecord.getVarint(checkpoints);
+			int start = 0;
+			for (int i = 0; i < count; i++) {
+				int at = GameRecord.getVarint(checkpoints);
+				int length = GameRecord.getVarint(checkpoints);
+				if (at < 0 || length < 0 || length > checkpoints.remaining())
+					throw GameRecord.corrupt("checkpoint");
+				if (at > ply) break;
+				found = at;
+				start = checkpoints.position();
+				checkpoints.position(start + length);
+			}
+			if (found < 0) {
+				state = factory.build(setup, record.mrX(), record.detectives());
+				moves = record.moves(0, record.mrX(), record.detectives());
+			} else {
+				checkpoints.position(start);
+				int offset = GameRecord.getVarint(checkpoints);
+				Player mrX = GameRecord.getPlayer(checkpoints);
+				var detectives = ImmutableList.<Player>builderWithExpectedSize(
+						record.detectives().size());
+				for (int i = 0; i < record.detectives().size(); i++)
+					detectives.add(GameRecord.getPlayer(checkpoints));
+				var log = getLog(checkpoints);
+				if (offset < 0) throw GameRecord.corrupt("checkpoint");
+				state = factory.resume(setup, mrX, detectives.build(), log);
+				moves = record.moves(offset, mrX, detectives.build());
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw GameRecord.corrupt("checkpoint", e);
+		}
+		return advance(state, moves, ply - Math.max(found, 0));
+	}
+
+	/**
+	 * @param game the game, from 0
+	 * @param ply the number of moves made, from 0 to {@link #plies(int)}
+	 * @return a snapshot of {@link #state(int, int)}; games with more than the five
+	 * {@link Piece.Detective}s are only available through {@link #state(int, int)}
+	 * @throws IndexOutOfBoundsException if there is no such game or ply
+	 * @throws UncheckedIOException if the game is corrupt
+	 */
+	@Nonnull public ImmutableBoard board(int game, int ply) {
+		return new ImmutableBoard(state(game, ply));
+	}
+
+	private static GameState advance(GameState state, GameRecord.Moves moves, int plies) {
+		for (int i = 0; i < plies; i++) {
+			if (!moves.hasNext()) throw GameRecord.corrupt("ply count");
+			state = state.advance(moves.next());
+		}
+		return state;
+	}
+
+	private int entry(int game) {
+		Objects.checkIndex(game, size);
+		return game * ENTRY;
+	}
+
+	private static final class Read {
+		final GameRecord record;
+		final ByteBuffer checkpoints;
+
+		Read(GameRecord record, ByteBuffer checkpoints) {
+			this.record = record;
+			this.checkpoints = checkpoints;
+		}
+	}
+
+	private Read read(int game, boolean checkpoints) {
+		int entry = entry(game);
+		long offset = index.getLong(entry);
+		int recordBytes = index.getInt(entry + Long.BYTES);
+		int checkpointBytes = index.getInt(entry + Long.BYTES + Integer.BYTES);
+		if (offset < DATA_HEADER || recordBytes <= 0 || checkpointBytes <= 0
+				|| (long) recordBytes + checkpointBytes > MAX_GAME
+				|| offset + recordBytes + checkpointBytes > dataSize)
+			throw GameRecord.corrupt("index entry");
+		int i = (int) (offset / segment);
+		int position = (int) (offset - (long) i * segment);
+		ByteBuffer buffer = segments[i].duplicate()
+				.position(position)
+				.limit(position + recordBytes + checkpointBytes);
+		try {
+			int length = GameRecord.getVarint(buffer);
+			if (length < 0 || length != recordBytes - GameRecord.varintSize(length))
+				throw GameRecord.corrupt("record length");
+			byte[] body = new byte[length];
+			buffer.get(body);
+			return new Read(GameRecord.parse(body), checkpoints ? buffer.slice() : null);
+		} catch (BufferUnderflowException e) {
+			throw GameRecord.corrupt("record");
+		}
+	}
+
+	private static ImmutableList<LogEntry> getLog(ByteBuffer buffer) {
+		int size = GameRecord.getVarint(buffer);
+		if (size < 0) throw GameRecord.corrupt("travel log");
+		var log = ImmutableList.<LogEntry>builderWithExpectedSize(Math.min(size, 64));
+		for (int i = 0; i < size; i++) {
+			int entry = GameRecord.getVarint(buffer);
+			if (entry < 0 || entry >>> 1 >= Ticket.values().length)
+				throw GameRecord.corrupt("travel log");
+			Ticket ticket = Ticket.values()[entry >>> 1];
+			if ((entry & 1) == 0) {
+				log.add(LogEntry.hidden(ticket));
+				continue;
+			}
+			int location = GameRecord.getVarint(buffer);
+			if (location < 0) throw GameRecord.corrupt("travel log");
+			log.add(LogEntry.reveal(ticket, location));
+		}
+		return log.build();
+	}
+
+	private static void putLog(ByteBuffer buffer, List<LogEntry> log) {
+		GameRecord.putVarint(buffer, log.size());
+		for (LogEntry entry : log) {
+			int ticket = entry.ticket().ordinal() << 1;
+			if (entry.location().isPresent()) {
+				GameRecord.putVarint(buffer, ticket | 1);
+				GameRecord.putVarint(buffer, entry.location().get());
+			} else {
+				GameRecord.putVarint(buffer, ticket);
+			}
+		}
+	}
+
+	/**
+	 * Appends games to an archive, creating it if it does not exist. Every game is replayed
+	 * through {@link MyGameStateFactory} once to take its checkpoints. A game is appended to the
+	 * data file before its index entry, so readers never see a game that is not complete.
+	 * Appending is synchronized; only one appender may have an archive open at a time.
+	 */
+	public static final class Appender implements Closeable {
+		private final GameSetup setup;
+		private final long setupHash;
+		private final MyGameStateFactory factory = new MyGameStateFactory();
+		private final FileChannel data;
+		private final FileChannel index;
+		private final int interval;
+		private long dataEnd;
+		private long indexEnd;
+		private int size;
+
+		/**
+		 * Opens an archive to append to, with a checkpoint every {@link #DEFAULT_INTERVAL} MrX
+		 * turns if it is created.
+		 *
+		 * @param data the data file; the index file is {@link #indexOf(Path)}
+		 * @param setup the setup of the games
+		 * @throws IOException if the files cannot be opened or are not a valid archive
+		 * @throws IllegalArgumentException if the archive holds games of another setup
+		 */
+		public Appender(@Nonnull Path data, @Nonnull GameSetup setup) throws IOException {
+			this(data, setup, DEFAULT_INTERVAL);
+		}
+
+		/**
+		 * Opens an archive to append to.
+		 *
+		 * @param data the data file; the index file is {@link #indexOf(Path)}
+		 * @param setup the setup of the games
+		 * @param interval MrX turns between checkpoints if the archive is created; an existing
+		 * archive keeps its own
+		 * @throws IOException if the files cannot be opened or are not a valid archive
+		 * @throws IllegalArgumentException if the archive holds games of another setup
+		 */
+		public Appender(@Nonnull Path data, @Nonnull GameSetup setup, int interval)
+				throws IOException {
+			if (interval <= 0)
+				throw new IllegalArgumentException("Checkpoint interval must be positive");
+			this.setup = Objects.requireNonNull(setup);
+			this.setupHash = GameRecord.setupHash(setup);
+			this.data = FileChannel.open(data, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				this.index = FileChannel.open(indexOf(data), StandardOpenOption.CREATE,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+			} catch (IOException | RuntimeException e) {
+				this.data.close();
+				throw e;
+			}
+			try {
+				if (this.index.size() == 0) {
+					// a new archive, or one whose creation stopped before its index header
+					if (this.data.size() > DATA_HEADER)
+						throw new IOException("Not a game archive: " + data);
+					var header = ByteBuffer.allocate(INDEX_HEADER).order(ByteOrder.LITTLE_ENDIAN)
+							.putInt(INDEX_MAGIC).putInt(VERSION).putLong(setupHash)
+							.putInt(interval).putInt(0).flip();
+					this.data.truncate(0);
+					write(this.data, ByteBuffer.allocate(DATA_HEADER)
+							.order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION).flip(), 0);
+					write(this.index, header, 0);
+					this.interval = interval;
+				} else {
+					var header = readHeader(this.index, INDEX_HEADER, data);
+					checkIndexHeader(header, setupHash, data);
+					checkDataHeader(readHeader(this.data, DATA_HEADER, data), data);
+					this.interval = header.getInt(16);
+				}
+				// a partly written last entry is dropped; its game is appended again
+				long entries = (this.index.size() - INDEX_HEADER) / ENTRY;
+				if (entries > Integer.MAX_VALUE / ENTRY)
+					throw new IOException("Archive index too large: " + data);
+				this.size = (int) entries;
+				this.indexEnd = INDEX_HEADER + entries * ENTRY;
+				this.index.truncate(indexEnd);
+				this.dataEnd = this.data.size();
+			} catch (IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Appends a game.
+		 *
+		 * @param record the game, finished or not
+		 * @return the number of the game in the archive
+		 * @throws IOException if the archive cannot be written
+		 * @throws IllegalArgumentException if the game was played with another setup, cannot
+		 * be replayed or is too large for an archive
+		 */
+		public synchronized int append(@Nonnull GameRecord record) throws IOException {
+			if (record.setupHash() != setupHash)
+				throw new IllegalArgumentException("Game was recorded with another setup");
+			if (size == Integer.MAX_VALUE / ENTRY)
+				throw new IllegalStateException("Archive is full");
+			byte[] body = record.body();
+			int players = record.detectives().size() + 1;
+			var checkpoints = new ArrayList<ByteBuffer>();
+			int plies = 0;
+			try {
+				GameState state = factory.build(setup, record.mrX(), record.detectives());
+				Player mrX = record.mrX();
+				List<Player> detectives = new ArrayList<>(record.detectives());
+				var moves = record.moves(0, mrX, record.detectives());
+				int turns = 0;
+				while (moves.hasNext()) {
+					if (!state.getWinner().isEmpty())
+						throw new IllegalArgumentException("Game record continues after game over");
+					int offset = moves.offset();
+					Move move = moves.next();
+					if (move.commencedBy().isMrX()) {
+						if (turns > 0 && turns % interval == 0) {
+							var checkpoint = ByteBuffer.allocate(2 * GameRecord.PLAYER_BYTES
+									+ players * GameRecord.PLAYER_BYTES
+									+ (state.getMrXTravelLog().size() + 1) * 10);
+							GameRecord.putVarint(checkpoint, offset);
+							GameRecord.putPlayer(checkpoint, mrX);
+							for (Player detective : detectives)
+								GameRecord.putPlayer(checkpoint, detective);
+							putLog(checkpoint, state.getMrXTravelLog());
+							var header = ByteBuffer.allocate(10);
+							GameRecord.putVarint(header, plies);
+							GameRecord.putVarint(header, checkpoint.position());
+							checkpoints.add(header.flip());
+							checkpoints.add(checkpoint.flip());
+						}
+						turns++;
+						mrX = mrX.use(move.tickets()).at(destination(move));
+					} else {
+						int i = detectives.indexOf(find(detectives, move.commencedBy()));
+						detectives.set(i, detectives.get(i).use(move.tickets())
+								.at(destination(move)));
+						mrX = mrX.give(move.tickets());
+					}
+					state = state.advance(move);
+					plies++;
+				}
+			} catch (UncheckedIOException | IndexOutOfBoundsException e) {
+				throw new IllegalArgumentException("Cannot replay game record", e);
+			}
+
+			int checkpointBytes = GameRecord.varintSize(checkpoints.size() / 2);
+			for (ByteBuffer part : checkpoints) checkpointBytes += part.remaining();
+			int recordBytes = GameRecord.varintSize(body.length) + body.length;
+			if ((long) recordBytes + checkpointBytes > MAX_GAME)
+				throw new IllegalArgumentException("Game record too large for an archive");
+			var game = ByteBuffer.allocate(recordBytes + checkpointBytes);
+			GameRecord.putVarint(game, body.length);
+			game.put(body);
+			GameRecord.putVarint(game, checkpoints.size() / 2);
+			for (ByteBuffer part : checkpoints) game.put(part);
+			write(data, game.flip(), dataEnd);
+
+			var entry = ByteBuffer.allocate(ENTRY).order(ByteOrder.LITTLE_ENDIAN)
+					.putLong(dataEnd).putInt(recordBytes).putInt(checkpointBytes)
+					.putInt(plies).putInt(0).flip();
+			write(index, entry, indexEnd);
+			dataEnd += recordBytes + checkpointBytes;
+			indexEnd += ENTRY;
+			return size++;
+		}
+
+		private static Player find(List<Player> players, Piece piece) {
+			for (Player player : players) if (player.piece().equals(piece)) return player;
+			throw new IllegalArgumentException("Not a player of this game: " + piece);
+		}
+
+		private static int destination(Move move) {
+			return move.accept(new Move.FunctionalVisitor<>(m -> m.destination,
+					m -> m.destination2));
+		}
+
+		private static void write(FileChannel channel, ByteBuffer buffer, long position)
+				throws IOException {
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+		}
+
+		/**
+		 * @throws IOException if the files cannot be closed
+		 */
+		@Override public void close() throws IOException {
+			try (data; index) {
+				if (index != null) index.force(false);
+			}
+		}
+	}
+
+}
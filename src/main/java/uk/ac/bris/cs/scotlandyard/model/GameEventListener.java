@@ -0,0 +1,44 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Listener for rule decisions made by a {@link Board.GameState}, for diagnostics. <br>
+ * Game states call the listener synchronously, so implementations should be cheap and must not
+ * call back into the game state. Use {@link #NONE} to disable events; a game state created
+ * without a listener uses it.
+ */
+@FunctionalInterface
+public interface GameEventListener {
+
+	/**
+	 * Why a game was won
+	 */
+	enum Reason {
+		/** A detective is at MrX's location */
+		MRX_CAUGHT,
+		/** It is MrX's turn and MrX cannot move */
+		MRX_STUCK,
+		/** None of the detectives can move */
+		DETECTIVES_STUCK,
+		/** MrX's travel log is full and the detectives have finished their last round */
+		TRAVEL_LOG_FULL
+	}
+
+	/**
+	 * A listener that ignores all events
+	 */
+	GameEventListener NONE = (winner, reason, round) -> {};
+
+	/**
+	 * Called when a game state decides the game has a winner
+	 *
+	 * @param winner the winning pieces
+	 * @param reason why the game was won
+	 * @param round the number of entries in MrX's travel log at the time
+	 */
+	void onWinnerDecided(@Nonnull ImmutableSet<Piece> winner, @Nonnull Reason reason, int round);
+
+}
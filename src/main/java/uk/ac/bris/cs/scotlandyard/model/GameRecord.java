@@ -0,0 +1,546 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Model.MoveObserver;
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.Piece.NumberedDetective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * A recorded game in a compact binary format: the setup it was played with, the players at the
+ * start and every move made.
+ * <br>
+ * A stream of records is a sequence of {@code varint length, body} pairs, written by
+ * {@link Writer} and read back by {@link Reader}. The body, with integers as unsigned LEB128
+ * varints unless stated otherwise:
+ * <pre>
+ * long   hash of the setup, little-endian, {@link #setupHash(GameSetup)}
+ * varint player count, MrX first then the detectives
+ * per player:
+ *   varint piece, 0 for MrX, 1 to 5 for {@link Detective} and the number of a
+ *          {@link NumberedDetective}
+ *   varint location
+ *   varint bitmask of the {@link Ticket} ordinals the player holds, then the count of each
+ * per move, to the end of the body:
+ *   varint player index &lt;&lt; 4 | 8 if a double move | first ticket ordinal
+ *   varint first destination
+ *   varint second ticket ordinal and second destination of a double move
+ * </pre>
+ * Sources are not stored; the reader follows every player's location instead. A move of the
+ * standard game takes two or three bytes and a double move four or five.
+ * <br>
+ * Records are immutable; moves are only decoded when {@link #moves()} or
+ * {@link #states(Factory, GameSetup)} asks for them.
+ */
+public final class GameRecord {
+
+	private static final int TICKETS = Ticket.values().length;
+	private static final int DOUBLE_BIT = 8;
+	private static final int PLAYER_SHIFT = 4;
+	// a varint length fits in 5 bytes; longer records are taken for corruption
+	private static final int LENGTH_BYTES = 5;
+	static final int MAX_BODY = 1 << 24;
+	static final int PLAYER_BYTES = (3 + TICKETS) * LENGTH_BYTES;
+
+	private static final LoadingCache<CompactGraph, Long> GRAPH_HASHES = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(CacheLoader.from(GameRecord::graphHash));
+
+	private final long setupHash;
+	private final Player mrX;
+	private final ImmutableList<Player> detectives;
+	private final byte[] body;
+	private final int movesOffset;
+
+	private GameRecord(long setupHash, Player mrX, ImmutableList<Player> detectives, byte[] body,
+	                   int movesOffset) {
+		this.setupHash = setupHash;
+		this.mrX = mrX;
+		this.detectives = detectives;
+		this.body = body;
+		this.movesOffset = movesOffset;
+	}
+
+	/**
+	 * Hashes everything about a setup that a record depends on: the graph and MrX's reveal
+	 * moves. The graph part is computed once per graph.
+	 *
+	 * @param setup the setup
+	 * @return the hash stored in records of games played with the setup
+	 */
+	public static long setupHash(@Nonnull GameSetup setup) {
+		Hasher hasher = Hashing.murmur3_128().newHasher()
+				.putLong(GRAPH_HASHES.getUnchecked(CompactGraph.of(setup)))
+				.putInt(setup.moves.size());
+		for (boolean reveal : setup.moves) hasher.putBoolean(reveal);
+		return hasher.hash().asLong();
+	}
+
+	private static Long graphHash(CompactGraph graph) {
+		Hasher hasher = Hashing.murmur3_128().newHasher().putInt(graph.nodeBound());
+		for (int node = 0; node < graph.nodeBound(); node++)
+			hasher.putBoolean(graph.contains(node)).putInt(graph.end(node));
+		int edges = graph.nodeBound() == 0 ? 0 : graph.end(graph.nodeBound() - 1);
+		for (int edge = 0; edge < edges; edge++)
+			hasher.putInt(graph.target(edge)).putByte((byte) graph.transports(edge));
+		return hasher.hash().asLong();
+	}
+
+	/**
+	 * @return the hash of the setup the game was played with
+	 */
+	public long setupHash() { return setupHash; }
+
+	/**
+	 * @return MrX at the start of the game
+	 */
+	@Nonnull public Player mrX() { return mrX; }
+
+	/**
+	 * @return the detectives at the start of the game
+	 */
+	@Nonnull public ImmutableList<Player> detectives() { return detectives; }
+
+	/**
+	 * @return every move made, in order
+	 * @throws UncheckedIOException if the moves are corrupt
+	 */
+	@Nonnull public ImmutableList<Move> moves() {
+		var moves = ImmutableList.<Move>builder();
+		new Moves(0, mrX, detectives).forEachRemaining(moves::add);
+		return moves.build();
+	}
+
+	/**
+	 * Replays the game. Every iteration rebuilds the states from the start, one move at a time.
+	 *
+	 * @param factory the factory for the first state
+	 * @param setup the setup the game was played with
+	 * @return the state at the start of the game followed by the state after every move
+	 * @throws IllegalArgumentException if the game was played with another setup
+	 */
+	@Nonnull public Iterable<GameState> states(@Nonnull Factory<GameState> factory,
+	                                           @Nonnull GameSetup setup) {
+		Objects.requireNonNull(factory);
+		if (setupHash(setup) != setupHash)
+			throw new IllegalArgumentException("Game was recorded with another setup");
+		return () -> new Iterator<>() {
+			private final Moves moves = new Moves(0, mrX, detectives);
+			private GameState state;
+
+			@Override public boolean hasNext() { return state == null || moves.hasNext(); }
+
+			@Override public GameState next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				state = state == null
+						? factory.build(setup, mrX, detectives)
+						: state.advance(moves.next());
+				return state;
+			}
+		};
+	}
+
+	@Override public String toString() {
+		return "GameRecord{setup=" + Long.toHexString(setupHash) + ", mrX=" + mrX
+				+ ", detectives=" + detectives + ", bytes=" + body.length + "}";
+	}
+
+	/**
+	 * @return the record body as stored, after its length
+	 */
+	byte[] body() { return body; }
+
+	/**
+	 * Decodes the moves from a position reached earlier, e.g. one saved from
+	 * {@link Moves#offset()}.
+	 *
+	 * @param offset the offset of the next move from the first
+	 * @param mrX MrX at that position
+	 * @param detectives the detectives at that position
+	 * @return the moves from the offset on
+	 */
+	Moves moves(int offset, Player mrX, ImmutableList<Player> detectives) {
+		if (offset < 0 || offset > body.length - movesOffset)
+			throw new IllegalArgumentException("Offset outside the moves: " + offset);
+		return new Moves(offset, mrX, detectives);
+	}
+
+	// decodes the moves, following the location of every player
+	final class Moves implements Iterator<Move> {
+		private final ByteBuffer buffer;
+		private final Piece[] pieces;
+		private final int[] locations;
+
+		private Moves(int offset, Player mrX, ImmutableList<Player> detectives) {
+			buffer = ByteBuffer.wrap(body).position(movesOffset + offset);
+			pieces = new Piece[detectives.size() + 1];
+			locations = new int[detectives.size() + 1];
+			pieces[0] = mrX.piece();
+			locations[0] = mrX.location();
+			for (int i = 0; i < detectives.size(); i++) {
+				pieces[i + 1] = detectives.get(i).piece();
+				locations[i + 1] = detectives.get(i).location();
+			}
+		}
+
+		/**
+		 * @return the offset of the next move from the first
+		 */
+		int offset() { return buffer.position() - movesOffset; }
+
+		@Override public boolean hasNext() { return buffer.hasRemaining(); }
+
+		@Override public Move next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			try {
+				int tag = getVarint(buffer);
+				int player = tag >>> PLAYER_SHIFT;
+				Ticket ticket1 = ticket(tag & (DOUBLE_BIT - 1));
+				int destination1 = getVarint(buffer);
+				if (tag < 0 || player >= pieces.length || destination1 < 0)
+					throw corrupt("move");
+				int source = locations[player];
+				if ((tag & DOUBLE_BIT) == 0) {
+					locations[player] = destination1;
+					return new SingleMove(pieces[player], source, ticket1, destination1);
+				}
+				Ticket ticket2 = ticket(getVarint(buffer));
+				int destination2 = getVarint(buffer);
+				if (destination2 < 0) throw corrupt("move");
+				locations[player] = destination2;
+				return new DoubleMove(pieces[player], source, ticket1, destination1, ticket2,
+						destination2);
+			} catch (BufferUnderflowException e) {
+				throw corrupt("move");
+			}
+		}
+	}
+
+	private static Ticket ticket(int ordinal) {
+		if (ordinal < 0 || ordinal >= TICKETS) throw corrupt("ticket");
+		return Ticket.values()[ordinal];
+	}
+
+	static UncheckedIOException corrupt(String what) {
+		return new UncheckedIOException(new IOException("Corrupt game record: bad " + what));
+	}
+
+	static UncheckedIOException corrupt(String what, Throwable cause) {
+		return new UncheckedIOException(
+				new IOException("Corrupt game record: bad " + what, cause));
+	}
+
+	private static int pieceCode(Piece piece) {
+		if (piece instanceof MrX) return 0;
+		if (piece instanceof Detective) return ((Detective) piece).ordinal() + 1;
+		if (piece instanceof NumberedDetective) return ((NumberedDetective) piece).number();
+		throw new IllegalArgumentException("Cannot record piece " + piece);
+	}
+
+	private static Piece piece(int code) {
+		if (code == 0) return MrX.MRX;
+		if (code <= Detective.values().length) return Detective.values()[code - 1];
+		return NumberedDetective.of(code);
+	}
+
+	// parses everything but the moves of a record body
+	static GameRecord parse(byte[] body) {
+		var buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			long setupHash = buffer.getLong();
+			int count = getVarint(buffer);
+			if (count < 1 || count > body.length) throw corrupt("player count");
+			Player mrX = null;
+			var detectives = ImmutableList.<Player>builderWithExpectedSize(count - 1);
+			for (int i = 0; i < count; i++) {
+				var player = getPlayer(buffer);
+				if (player.piece().isMrX() != (i == 0)) throw corrupt("player");
+				if (i == 0) mrX = player;
+				else detectives.add(player);
+			}
+			return new GameRecord(setupHash, mrX, detectives.build(), body, buffer.position());
+		} catch (BufferUnderflowException e) {
+			throw corrupt("players");
+		}
+	}
+
+	// a player as stored in a record: piece, location, held tickets and their counts
+	static Player getPlayer(ByteBuffer buffer) {
+		int code = getVarint(buffer);
+		int location = getVarint(buffer);
+		int held = getVarint(buffer);
+		if (code < 0 || location < 0 || held < 0 || held >= 1 << TICKETS) throw corrupt("player");
+		var tickets = ImmutableMap.<Ticket, Integer>builderWithExpectedSize(TICKETS);
+		for (Ticket ticket : Ticket.values()) {
+			if ((held & 1 << ticket.ordinal()) == 0) continue;
+			int n = getVarint(buffer);
+			if (n < 0) throw corrupt("ticket count");
+			tickets.put(ticket, n);
+		}
+		return new Player(piece(code), tickets.build(), location);
+	}
+
+	// needs at most PLAYER_BYTES of space
+	static void putPlayer(ByteBuffer buffer, Player player) {
+		putVarint(buffer, pieceCode(player.piece()));
+		putVarint(buffer, player.location());
+		int held = 0;
+		for (Ticket ticket : player.tickets().keySet()) held |= 1 << ticket.ordinal();
+		putVarint(buffer, held);
+		for (Ticket ticket : Ticket.values())
+			if ((held & 1 << ticket.ordinal()) != 0)
+				putVarint(buffer, player.tickets().get(ticket));
+	}
+
+	// unsigned LEB128, -1 if it does not fit in an int
+	static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) return shift == 28 && (b & 0x78) != 0 ? -1 : value;
+		}
+		return -1;
+	}
+
+	static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static int varintSize(int value) {
+		return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+	}
+
+	/**
+	 * Records one game and writes it to a channel in one piece once the game is over, so any
+	 * number of writers may share a channel and records never interleave. Register it with a
+	 * {@link Model}, or {@link #append(Move)} the moves of a game played without one; a writer is
+	 * used by one game at a time.
+	 * <br>
+	 * The moves are buffered in memory, a few bytes each, and the channel is locked for a single
+	 * write per game: tens of thousands of games can record to one file concurrently without
+	 * waiting on each other.
+	 */
+	public static final class Writer implements MoveObserver {
+		private final WritableByteChannel channel;
+		private final ImmutableMap<Piece, Integer> players;
+		private final int[] locations;
+		private ByteBuffer buffer;
+		private boolean written;
+
+		/**
+		 * @param channel where the record is written; writes are synchronized on it
+		 * @param setup the setup of the game
+		 * @param mrX MrX at the start of the game
+		 * @param detectives the detectives at the start of the game
+		 */
+		public Writer(@Nonnull WritableByteChannel channel, @Nonnull GameSetup setup,
+		              @Nonnull Player mrX, @Nonnull ImmutableList<Player> detectives) {
+			this.channel = Objects.requireNonNull(channel);
+			var all = ImmutableList.<Player>builder().add(mrX).addAll(detectives).build();
+			var players = ImmutableMap.<Piece, Integer>builderWithExpectedSize(all.size());
+			locations = new int[all.size()];
+			buffer = ByteBuffer.allocate(256 + 12 * all.size()).order(ByteOrder.LITTLE_ENDIAN)
+					.position(LENGTH_BYTES);
+			buffer.putLong(setupHash(setup));
+			putVarint(buffer, all.size());
+			for (int i = 0; i < all.size(); i++) {
+				Player player = all.get(i);
+				ensure(PLAYER_BYTES);
+				players.put(player.piece(), i);
+				locations[i] = player.location();
+				putPlayer(buffer, player);
+			}
+			this.players = players.build();
+		}
+
+		/**
+		 * Records a move.
+		 *
+		 * @param move the next move of the game
+		 * @throws IllegalArgumentException if the move is not by a player of the game or does not
+		 * start where the player is
+		 * @throws IllegalStateException if the record was already written
+		 */
+		public void append(@Nonnull Move move) {
+			if (written) throw new IllegalStateException("Game record already written");
+			Integer player = players.get(move.commencedBy());
+			if (player == null)
+				throw new IllegalArgumentException("Not a player of this game: " + move);
+			if (move.source() != locations[player])
+				throw new IllegalArgumentException("Move does not start at "
+						+ locations[player] + ": " + move);
+			ensure(4 * LENGTH_BYTES);
+			if (move instanceof SingleMove) {
+				var single = (SingleMove) move;
+				putVarint(buffer, player << PLAYER_SHIFT | single.ticket.ordinal());
+				putVarint(buffer, single.destination);
+				locations[player] = single.destination;
+			} else {
+				var doubleMove = (DoubleMove) move;
+				putVarint(buffer, player << PLAYER_SHIFT | DOUBLE_BIT
+						| doubleMove.ticket1.ordinal());
+				putVarint(buffer, doubleMove.destination1);
+				putVarint(buffer, doubleMove.ticket2.ordinal());
+				putVarint(buffer, doubleMove.destination2);
+				locations[player] = doubleMove.destination2;
+			}
+		}
+
+		/**
+		 * Records the move and writes the record once the game is over.
+		 *
+		 * @throws UncheckedIOException if the record cannot be written
+		 */
+		@Override public void onMoveMade(@Nonnull Board board, @Nonnull Move move,
+		                                 @Nonnull Event event) {
+			append(move);
+			if (event == Event.GAME_OVER) {
+				try {
+					finish();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		/**
+		 * Writes the record if it has not been written yet, e.g. for a game abandoned before it
+		 * was over. The channel is left open.
+		 *
+		 * @throws IOException if the record cannot be written
+		 */
+		public void finish() throws IOException {
+			if (written) return;
+			written = true;
+			int end = buffer.position();
+			int length = end - LENGTH_BYTES;
+			int start = LENGTH_BYTES - varintSize(length);
+			putVarint(buffer.position(start), length);
+			buffer.limit(end).position(start);
+			synchronized (channel) {
+				while (buffer.hasRemaining()) channel.write(buffer);
+			}
+			buffer = null;
+		}
+
+		private void ensure(int bytes) {
+			if (buffer.remaining() >= bytes) return;
+			buffer = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes))
+					.order(ByteOrder.LITTLE_ENDIAN)
+					.put(buffer.flip());
+		}
+	}
+
+	/**
+	 * Reads records one at a time from a channel written by {@link Writer}s. Only the players are
+	 * parsed as records are read; the channel is left open.
+	 */
+	public static final class Reader implements Iterator<GameRecord> {
+		private final ReadableByteChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocate(1 << 16).flip();
+		private GameRecord next;
+		private boolean end;
+
+		/**
+		 * @param channel the channel to read, positioned at the start of a record
+		 */
+		public Reader(@Nonnull ReadableByteChannel channel) {
+			this.channel = Objects.requireNonNull(channel);
+		}
+
+		/**
+		 * @throws UncheckedIOException if the channel cannot be read or holds a corrupt or
+		 * truncated record
+		 */
+		@Override public boolean hasNext() {
+			if (next == null && !end) {
+				try {
+					next = read();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				end = next == null;
+			}
+			return next != null;
+		}
+
+		/**
+		 * @throws UncheckedIOException if the channel cannot be read or holds a corrupt or
+		 * truncated record
+		 */
+		@Override public GameRecord next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			var record = next;
+			next = null;
+			return record;
+		}
+
+		private GameRecord read() throws IOException {
+			if (!fill(1)) return null;
+			fill(LENGTH_BYTES);
+			int length;
+			try {
+				length = getVarint(buffer);
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Truncated game record");
+			}
+			if (length < Long.BYTES + 1 || length > MAX_BODY)
+				throw new IOException("Corrupt game record: bad length " + length);
+			if (!fill(length)) throw new IOException("Truncated game record");
+			byte[] body = new byte[length];
+			buffer.get(body);
+			try {
+				return parse(body);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+
+		// reads until at least the given number of bytes are buffered or the channel ends
+		private boolean fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) return true;
+			if (buffer.capacity() < bytes)
+				buffer = ByteBuffer.allocate(Math.max(bytes, 2 * buffer.capacity()))
+						.put(buffer).flip();
+			buffer.compact();
+			try {
+				while (buffer.position() < bytes)
+					if (channel.read(buffer) < 0) break;
+			} finally {
+				buffer.flip();
+			}
+			return buffer.remaining() >= bytes;
+		}
+	}
+
+}
@@ -0,0 +1,217 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * A binary file format for game graphs, loaded by memory mapping rather than parsing.
+ * <br>
+ * The file is the {@link CompactGraph} layout, little-endian:
+ * <pre>
+ * int    magic, {@link #MAGIC}
+ * int    version, {@link #VERSION}
+ * int    node bound, one more than the largest node
+ * int    node count
+ * int    edge count, every edge counted in both directions
+ * int    reserved, 0
+ * long[] nodes present, a bitset of (bound + 63) / 64 words
+ * int[]  first edge of every node and one past the last edge, bound + 1 entries
+ * int[]  target of every edge, sorted per node
+ * byte[] {@link Transport}s of every edge as a bitmask of ordinals
+ * </pre>
+ * {@link #read(Path)} copies the arrays out of the mapping into a {@link CompactGraph}, which
+ * {@link CompactGraph#of(ImmutableValueGraph)} then returns for the loaded graph without
+ * rebuilding it; the edges of the graph share the sets of {@link CompactGraph#transportSet(int)}.
+ * Convert text graphs such as {@code graph.txt} with {@link #convert(Path, Path)} or
+ * {@link #main(String[])}.
+ */
+public final class GraphFile {
+
+	private GraphFile() {}
+
+	/**
+	 * The first four bytes of a graph file, {@code SYGR} in ASCII
+	 */
+	public static final int MAGIC = 0x52475953;
+	/**
+	 * The version of the format written
+	 */
+	public static final int VERSION = 1;
+
+	private static final int HEADER = 6 * Integer.BYTES;
+
+	/**
+	 * Writes a graph in the binary format.
+	 *
+	 * @param graph the graph
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+	                         @Nonnull Path file) throws IOException {
+		CompactGraph compact = CompactGraph.of(graph);
+		int bound = compact.nodeBound();
+		int edges = bound == 0 ? 0 : compact.end(bound - 1);
+		int words = (bound + 63) >>> 6;
+		int size = size(bound, edges);
+		if (size < 0) throw new IllegalArgumentException("Graph too large for a graph file");
+		var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(bound).putInt(compact.nodeCount())
+				.putInt(edges).putInt(0);
+		long[] present = new long[words];
+		for (int node = 0; node < bound; node++)
+			if (compact.contains(node)) present[node >>> 6] |= 1L << node;
+		for (long word : present) buffer.putLong(word);
+		for (int node = 0; node < bound; node++) buffer.putInt(compact.begin(node));
+		buffer.putInt(edges);
+		for (int edge = 0; edge < edges; edge++) buffer.putInt(compact.target(edge));
+		for (int edge = 0; edge < edges; edge++) buffer.put((byte) compact.transports(edge));
+		buffer.flip();
+		try (var channel = FileChannel.open(Objects.requireNonNull(file),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Converts a text graph, as read by {@link ScotlandYard#readGraph(String)}, to the binary
+	 * format.
+	 *
+	 * @param text the text graph
+	 * @param binary the binary file to write, replaced if it exists
+	 * @throws IOException if either file cannot be accessed
+	 */
+	public static void convert(@Nonnull Path text, @Nonnull Path binary) throws IOException {
+		write(ScotlandYard.readGraph(Files.readString(text, StandardCharsets.UTF_8)), binary);
+	}
+
+	/**
+	 * Loads a graph in the binary format.
+	 *
+	 * @param file the file
+	 * @return the graph; {@link CompactGraph#of(ImmutableValueGraph)} of it is the graph as it
+	 * was stored
+	 * @throws IOException if the file cannot be read or is not a valid graph file
+	 */
+	@Nonnull public static ImmutableValueGraph<Integer, ImmutableSet<Transport>> read(
+			@Nonnull Path file) throws IOException {
+		ByteBuffer buffer;
+		try (var channel = FileChannel.open(Objects.requireNonNull(file),
+				StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (buffer.remaining() < HEADER || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a graph file: " + file);
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported graph file version " + buffer.getInt(4)
+					+ ": " + file);
+		int bound = buffer.getInt(8);
+		int nodeCount = buffer.getInt(12);
+		int edges = buffer.getInt(16);
+		if (bound < 0 || nodeCount < 0 || nodeCount > bound || edges < 0
+				|| buffer.capacity() != size(bound, edges))
+			throw new IOException("Corrupt graph file: " + file);
+
+		int words = (bound + 63) >>> 6;
+		LongBuffer presentWords = buffer.position(HEADER).slice()
+				.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+		boolean[] present = new boolean[bound];
+		int count = 0;
+		for (int node = 0; node < bound; node++) {
+			present[node] = (presentWords.get(node >>> 6) & (1L << node)) != 0;
+			if (present[node]) count++;
+		}
+		int[] offsets = new int[bound + 1];
+		buffer.position(HEADER + words * Long.BYTES).slice()
+				.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(offsets);
+		int[] targets = new int[edges];
+		buffer.position(HEADER + words * Long.BYTES + (bound + 1) * Integer.BYTES).slice()
+				.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(targets);
+		byte[] transports = new byte[edges];
+		buffer.position(HEADER + words * Long.BYTES + (bound + 1 + edges) * Integer.BYTES)
+				.get(transports);
+		if (count != nodeCount || !valid(present, offsets, targets, transports))
+			throw new IOException("Corrupt graph file: " + file);
+
+		var builder = ValueGraphBuilder.undirected()
+				.expectedNodeCount(nodeCount)
+				.<Integer, ImmutableSet<Transport>>immutable();
+		for (int node = 0; node < bound; node++)
+			if (present[node]) builder.addNode(node);
+		for (int node = 0; node < bound; node++)
+			for (int edge = offsets[node]; edge < offsets[node + 1]; edge++)
+				if (node < targets[edge])
+					builder.putEdgeValue(node, targets[edge],
+							CompactGraph.transportSet(transports[edge]));
+		var graph = builder.build();
+		CompactGraph.cache(graph, new CompactGraph(present, nodeCount, offsets, targets,
+				transports));
+		return graph;
+	}
+
+	private static int size(int bound, int edges) {
+		long size = HEADER + (long) ((bound + 63) >>> 6) * Long.BYTES
+				+ (long) (bound + 1 + edges) * Integer.BYTES + edges;
+		return size > Integer.MAX_VALUE ? -1 : (int) size;
+	}
+
+	// offsets ascending, targets present, sorted per node and not the node itself, transports
+	// never empty and every edge stored in both directions with the same transports
+	private static boolean valid(boolean[] present, int[] offsets, int[] targets,
+	                             byte[] transports) {
+		int bound = present.length;
+		if (offsets[0] != 0 || offsets[bound] != targets.length) return false;
+		for (int node = 0; node < bound; node++) {
+			if (offsets[node] > offsets[node + 1]) return false;
+			if (!present[node] && offsets[node] != offsets[node + 1]) return false;
+		}
+		for (int node = 0; node < bound; node++) {
+			for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+				int target = targets[edge];
+				if (target < 0 || target >= bound || !present[target] || target == node)
+					return false;
+				if (edge > offsets[node] && targets[edge - 1] >= target) return false;
+				if (transports[edge] <= 0 || transports[edge] >= 1 << Transport.values().length)
+					return false;
+				int back = Arrays.binarySearch(targets, offsets[target],
+						offsets[target + 1], node);
+				if (back < 0 || transports[back] != transports[edge]) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a text graph to the binary format
+	 *
+	 * @param args the text graph and the binary file to write
+	 * @throws IOException if either file cannot be accessed
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: GraphFile <graph.txt> <graph.bin>");
+			System.exit(2);
+		}
+		convert(Path.of(args[0]), Path.of(args[1]));
+	}
+
+}
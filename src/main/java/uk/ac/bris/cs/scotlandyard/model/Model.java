@@ -2,6 +2,8 @@ package uk.ac.bris.cs.scotlandyard.model;
 
 import com.google.common.collect.ImmutableSet;
 
+import java.util.Objects;
+
 import javax.annotation.Nonnull;
 
 /**
@@ -26,11 +28,59 @@ public interface Model {
 		 * @param event the event that triggered this call
 		 */
 		default void onModelChanged(@Nonnull Board board, @Nonnull Event event) {}
+		/**
+		 * Whether only the latest board matters to this observer. A model notifying observers
+		 * asynchronously may then skip a {@link Event#MOVE_MADE} that a later event superseded
+		 * before it was delivered; {@link Event#GAME_OVER} is never skipped.
+		 *
+		 * @return true if superseded {@link Event#MOVE_MADE} events may be skipped
+		 */
+		default boolean coalesceMoves() { return false; }
+	}
+	/**
+	 * An observer that needs the moves themselves, such as {@link GameRecord.Writer}. It is
+	 * notified through {@link #onMoveMade(Board, Move, Event)} instead of
+	 * {@link #onModelChanged(Board, Event)}.
+	 */
+	interface MoveObserver extends Observer {
+		/**
+		 * Called once a move has been made
+		 *
+		 * @param board the board after the move
+		 * @param move the move made
+		 * @param event the event that triggered this call
+		 */
+		void onMoveMade(@Nonnull Board board, @Nonnull Move move, @Nonnull Event event);
+	}
+	/**
+	 * A board of the model together with its version, the number of moves chosen before it.
+	 * Readers on other threads compare versions to tell whether a board is still current.
+	 */
+	final class Snapshot {
+		private final Board board;
+		private final long version;
+		public Snapshot(@Nonnull Board board, long version) {
+			this.board = Objects.requireNonNull(board);
+			this.version = version;
+		}
+		/**
+		 * @return the board
+		 */
+		@Nonnull public Board board() { return board; }
+		/**
+		 * @return the number of moves chosen before the board
+		 */
+		public long version() { return version; }
+		@Override public String toString() { return "Snapshot{version=" + version + "}"; }
 	}
 	/**
 	 * @return the current game board
 	 */
 	@Nonnull Board getCurrentBoard();
+	/**
+	 * @return the current game board and its version, read together
+	 */
+	@Nonnull Snapshot getSnapshot();
 	/**
 	 * Registers an observer to the model. It is an error to register the same observer more than
 	 * once.
@@ -106,7 +106,10 @@ public interface Move extends Serializable {
 			return source == that.source && destination == that.destination &&
 					piece == that.piece && ticket == that.ticket;
 		}
-		@Override public int hashCode() { return Objects.hash(piece, ticket, destination); }
+		// same as Objects.hash(piece, ticket, destination) without the varargs array
+		@Override public int hashCode() {
+			return ((31 + piece.hashCode()) * 31 + ticket.hashCode()) * 31 + destination;
+		}
 		@Override public String toString() {
 			return ticket.name() + "(" + piece + "@" + source + ", " + destination + ")";
 		}
@@ -159,7 +162,8 @@ public interface Move extends Serializable {
 					ticket2 == that.ticket2 && destination2 == that.destination2;
 		}
 		@Override public int hashCode() {
-			return Objects.hash(piece, ticket1, destination1, ticket2, destination2);
+			int hash = ((31 + piece.hashCode()) * 31 + ticket1.hashCode()) * 31 + destination1;
+			return (hash * 31 + ticket2.hashCode()) * 31 + destination2;
 		}
 		@Override public String toString() {
 			return "x2(" + piece + "@" + source + ", " + ticket1 + ", " + destination1 + ", " + ticket2 + ", " + destination2 + ")";
@@ -0,0 +1,122 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A reusable buffer of moves encoded by a {@link MoveTable}, for generating moves without
+ * building an {@link ImmutableSet} of {@link Move}s.
+ * <br>
+ * {@link #fill(Board)} fills the buffer with the available moves of a board. The model's own
+ * states write their moves straight into the buffer; any other board's moves are encoded from
+ * {@link Board#getAvailableMoves()}. A buffer only grows, so one buffer per search depth
+ * generates moves with no allocation at all once it is large enough:
+ * <pre>{@code
+ * MoveList moves = new MoveList();
+ * state.availableMoves(moves);
+ * for (int i = 0; i < moves.size(); i++) {
+ *     state.make(moves.get(i));
+ *     ...
+ *     state.unmake();
+ * }
+ * }</pre>
+ * Instances are not thread-safe.
+ */
+public final class MoveList {
+
+	/**
+	 * Implemented by boards that generate encoded moves themselves
+	 */
+	interface Source {
+		/**
+		 * Replaces the contents of the list with the available moves
+		 */
+		void availableMoves(MoveList moves);
+	}
+
+	private long[] moves;
+	private int size;
+	private MoveTable table;
+
+	public MoveList() { this(64); }
+
+	/**
+	 * @param capacity the initial capacity
+	 */
+	public MoveList(int capacity) { this.moves = new long[Math.max(capacity, 1)]; }
+
+	/**
+	 * @param board the board
+	 * @return this list holding the available moves of the board
+	 */
+	@Nonnull public MoveList fill(@Nonnull Board board) {
+		if (board instanceof Source) {
+			((Source) board).availableMoves(this);
+			return this;
+		}
+		reset(MoveTable.of(board.getSetup()));
+		for (Move move : board.getAvailableMoves()) add(table.encode(move));
+		return this;
+	}
+
+	/**
+	 * Empties the list for moves of the given table
+	 */
+	void reset(MoveTable table) {
+		this.table = Objects.requireNonNull(table);
+		size = 0;
+	}
+
+	void add(long move) {
+		if (size == moves.length) moves = Arrays.copyOf(moves, size * 2);
+		moves[size++] = move;
+	}
+
+	/**
+	 * @return the number of moves
+	 */
+	public int size() { return size; }
+
+	/**
+	 * @return whether there are no moves
+	 */
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * @param index the index of the move
+	 * @return the encoded move, see {@link MoveTable}
+	 */
+	public long get(int index) {
+		Objects.checkIndex(index, size);
+		return moves[index];
+	}
+
+	/**
+	 * @param index the index of the move
+	 * @return the move, the {@link MoveTable}'s shared instance
+	 */
+	@Nonnull public Move move(int index) { return table.decode(get(index)); }
+
+	/**
+	 * @return the table the moves are encoded by
+	 * @throws IllegalStateException if the list was never filled
+	 */
+	@Nonnull public MoveTable table() {
+		if (table == null) throw new IllegalStateException("No moves yet");
+		return table;
+	}
+
+	/**
+	 * @return the moves as a set
+	 */
+	@Nonnull public ImmutableSet<Move> toSet() {
+		var builder = ImmutableSet.<Move>builderWithExpectedSize(size);
+		for (int i = 0; i < size; i++) builder.add(table.decode(moves[i]));
+		return builder.build();
+	}
+
+}
@@ -0,0 +1,316 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * Interned {@link Move}s of a game graph and their encoding as a {@code long}.
+ * <br>
+ * A move is fully determined by its piece, the {@link CompactGraph} edge(s) it travels along and
+ * the ticket(s) it uses, so the table hands out one shared instance per move: the moves of a
+ * piece leaving a node are created together the first time any of them is asked for, the
+ * double moves continuing from one first step likewise. Moves of the same table can therefore
+ * be compared by identity, and generating them allocates nothing once the game is under way.
+ * <br>
+ * An encoded move packs, from the least significant bit, the piece's index in this table (8
+ * bits), the first ticket (3 bits), the second ticket plus one or 0 for a single move (3 bits),
+ * the first edge and the second edge (24 bits each). Encodings are only meaningful to the table
+ * that made them since pieces are indexed in the order the table first sees them.
+ * <br>
+ * Instances are thread-safe and shared through {@link #of(GameSetup)}.
+ */
+public final class MoveTable {
+
+	/**
+	 * The largest number of pieces a table can index
+	 */
+	public static final int MAX_PIECES = 1 << 8;
+
+	private static final int TICKETS = Ticket.values().length;
+	private static final Ticket[] TICKET_VALUES = Ticket.values();
+
+	private static final int TICKET1_SHIFT = 8;
+	private static final int TICKET2_SHIFT = 11;
+	private static final int EDGE1_SHIFT = 14;
+	private static final int EDGE2_SHIFT = 38;
+	private static final int EDGE_BITS = 24;
+	private static final long EDGE_MASK = (1L << EDGE_BITS) - 1;
+
+	// keyed by identity like CompactGraph, the moves do not depend on the reveal rounds
+	private static final LoadingCache<ImmutableValueGraph<Integer, ImmutableSet<Transport>>,
+			MoveTable> CACHE = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(CacheLoader.from(graph -> new MoveTable(CompactGraph.of(graph))));
+
+	private final CompactGraph graph;
+	private final int[] sources;
+	private final Map<Piece, Integer> indices = new ConcurrentHashMap<>();
+	private volatile PieceMoves[] pieces = new PieceMoves[0];
+
+	private static final class PieceMoves {
+		final Piece piece;
+		// SingleMove[] per source node, indexed by (edge - begin(source)) * TICKETS + ticket
+		final AtomicReferenceArray<SingleMove[]> singles;
+		// DoubleMove[] per first edge and ticket, indexed like singles from the first
+		// destination; only allocated for pieces that make double moves
+		volatile AtomicReferenceArray<DoubleMove[]> doubles;
+		PieceMoves(Piece piece, int nodeBound) {
+			this.piece = piece;
+			this.singles = new AtomicReferenceArray<>(nodeBound);
+		}
+	}
+
+	private MoveTable(CompactGraph graph) {
+		int edges = graph.end(graph.nodeBound() - 1);
+		if (edges > EDGE_MASK + 1)
+			throw new IllegalArgumentException("Too many edges to encode: " + edges);
+		this.graph = graph;
+		this.sources = new int[edges];
+		for (int node = 0; node < graph.nodeBound(); node++)
+			Arrays.fill(sources, graph.begin(node), graph.end(node), node);
+	}
+
+	/**
+	 * @param graph the game graph
+	 * @return the move table of the given graph, built once per graph instance
+	 */
+	@Nonnull public static MoveTable of(
+			@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		return CACHE.getUnchecked(Objects.requireNonNull(graph));
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return the move table of the setup's graph, built once per graph instance
+	 */
+	@Nonnull public static MoveTable of(@Nonnull GameSetup setup) { return of(setup.graph); }
+
+	/**
+	 * @return the graph whose edges the encoded moves refer to
+	 */
+	@Nonnull public CompactGraph graph() { return graph; }
+
+	/**
+	 * @param piece the piece
+	 * @return the index of the piece in this table, assigned when first asked for
+	 * @throws IllegalArgumentException if the table already indexes {@link #MAX_PIECES} pieces
+	 */
+	public int index(@Nonnull Piece piece) {
+		Integer index = indices.get(Objects.requireNonNull(piece));
+		return index != null ? index : register(piece);
+	}
+
+	private synchronized int register(Piece piece) {
+		Integer index = indices.get(piece);
+		if (index != null) return index;
+		PieceMoves[] old = pieces;
+		if (old.length == MAX_PIECES)
+			throw new IllegalArgumentException("Too many pieces for a move table: " + piece);
+		PieceMoves[] updated = Arrays.copyOf(old, old.length + 1);
+		updated[old.length] = new PieceMoves(piece, graph.nodeBound());
+		pieces = updated;
+		indices.put(piece, old.length);
+		return old.length;
+	}
+
+	/**
+	 * @param index the index of a piece
+	 * @return the piece
+	 */
+	@Nonnull public Piece piece(int index) { return pieces[index].piece; }
+
+	/**
+	 * @param piece the index of the piece
+	 * @param edge the edge index
+	 * @param ticket the ticket ordinal, which must be usable on the edge
+	 * @return the single move
+	 */
+	@Nonnull public SingleMove single(int piece, int edge, int ticket) {
+		int source = sources[edge];
+		var singles = pieces[piece].singles;
+		SingleMove[] row = singles.get(source);
+		if (row == null) row = publish(singles, source, singles(pieces[piece].piece, source));
+		return row[(edge - graph.begin(source)) * TICKETS + ticket];
+	}
+
+	/**
+	 * @param piece the index of the piece
+	 * @param edge1 the first edge index
+	 * @param ticket1 the first ticket ordinal, which must be usable on the first edge
+	 * @param edge2 the second edge index, leaving the first edge's target
+	 * @param ticket2 the second ticket ordinal, which must be usable on the second edge
+	 * @return the double move
+	 */
+	@Nonnull public DoubleMove doubleMove(int piece, int edge1, int ticket1,
+	                                      int edge2, int ticket2) {
+		PieceMoves moves = pieces[piece];
+		var doubles = moves.doubles;
+		if (doubles == null) doubles = doubles(moves);
+		int first = edge1 * TICKETS + ticket1;
+		DoubleMove[] row = doubles.get(first);
+		if (row == null) row = publish(doubles, first, doubles(moves.piece, edge1, ticket1));
+		return row[(edge2 - graph.begin(graph.target(edge1))) * TICKETS + ticket2];
+	}
+
+	/**
+	 * @return the interned single move
+	 * @throws IllegalArgumentException if the ticket cannot be used between the nodes
+	 */
+	@Nonnull public SingleMove single(@Nonnull Piece piece, int source,
+	                                  @Nonnull Ticket ticket, int destination) {
+		return single(index(piece), edge(source, ticket, destination), ticket.ordinal());
+	}
+
+	/**
+	 * @return the interned double move
+	 * @throws IllegalArgumentException if either ticket cannot be used between its nodes
+	 */
+	@Nonnull public DoubleMove doubleMove(@Nonnull Piece piece, int source,
+	                                      @Nonnull Ticket ticket1, int destination1,
+	                                      @Nonnull Ticket ticket2, int destination2) {
+		return doubleMove(index(piece),
+				edge(source, ticket1, destination1), ticket1.ordinal(),
+				edge(destination1, ticket2, destination2), ticket2.ordinal());
+	}
+
+	/**
+	 * @param move the move
+	 * @return the encoded move
+	 * @throws IllegalArgumentException if a ticket of the move cannot be used between its nodes
+	 */
+	public long encode(@Nonnull Move move) {
+		int piece = index(move.commencedBy());
+		return move.accept(new Move.Visitor<Long>() {
+			@Override public Long visit(SingleMove m) {
+				return encodeSingle(piece,
+						edge(m.source(), m.ticket, m.destination), m.ticket.ordinal());
+			}
+			@Override public Long visit(DoubleMove m) {
+				return encodeDouble(piece,
+						edge(m.source(), m.ticket1, m.destination1), m.ticket1.ordinal(),
+						edge(m.destination1, m.ticket2, m.destination2), m.ticket2.ordinal());
+			}
+		});
+	}
+
+	/**
+	 * @param move the encoded move
+	 * @return the interned move
+	 */
+	@Nonnull public Move decode(long move) {
+		return isDouble(move)
+				? doubleMove(piece(move), edge1(move), ticket1(move), edge2(move), ticket2(move))
+				: single(piece(move), edge1(move), ticket1(move));
+	}
+
+	/**
+	 * @param move the encoded move
+	 * @return the node the move starts from
+	 */
+	public int source(long move) { return sources[edge1(move)]; }
+
+	/**
+	 * @param move the encoded move
+	 * @return the node the move ends on
+	 */
+	public int destination(long move) {
+		return graph.target(isDouble(move) ? edge2(move) : edge1(move));
+	}
+
+	/**
+	 * @return the encoded single move
+	 */
+	public static long encodeSingle(int piece, int edge, int ticket) {
+		return piece | (long) ticket << TICKET1_SHIFT | (long) edge << EDGE1_SHIFT;
+	}
+
+	/**
+	 * @return the encoded double move
+	 */
+	public static long encodeDouble(int piece, int edge1, int ticket1, int edge2, int ticket2) {
+		return encodeSingle(piece, edge1, ticket1)
+				| (long) (ticket2 + 1) << TICKET2_SHIFT
+				| (long) edge2 << EDGE2_SHIFT;
+	}
+
+	public static boolean isDouble(long move) { return (move >>> TICKET2_SHIFT & 7) != 0; }
+
+	public static int piece(long move) { return (int) move & (MAX_PIECES - 1); }
+
+	public static int ticket1(long move) { return (int) (move >>> TICKET1_SHIFT) & 7; }
+
+	public static int edge1(long move) { return (int) (move >>> EDGE1_SHIFT & EDGE_MASK); }
+
+	/**
+	 * @return the second ticket ordinal of an encoded double move
+	 */
+	public static int ticket2(long move) { return ((int) (move >>> TICKET2_SHIFT) & 7) - 1; }
+
+	/**
+	 * @return the second edge index of an encoded double move
+	 */
+	public static int edge2(long move) { return (int) (move >>> EDGE2_SHIFT & EDGE_MASK); }
+
+	private int edge(int source, Ticket ticket, int destination) {
+		if (graph.contains(source))
+			for (int edge = graph.begin(source); edge < graph.end(source); edge++)
+				if (graph.target(edge) == destination
+						&& (graph.tickets(edge) & 1 << ticket.ordinal()) != 0) return edge;
+		throw new IllegalArgumentException(
+				"No " + ticket + " between " + source + " and " + destination);
+	}
+
+	private SingleMove[] singles(Piece piece, int source) {
+		int begin = graph.begin(source);
+		var row = new SingleMove[(graph.end(source) - begin) * TICKETS];
+		for (int edge = begin; edge < graph.end(source); edge++)
+			for (int t = 0; t < TICKETS; t++)
+				if ((graph.tickets(edge) & 1 << t) != 0)
+					row[(edge - begin) * TICKETS + t] =
+							new SingleMove(piece, source, TICKET_VALUES[t], graph.target(edge));
+		return row;
+	}
+
+	private DoubleMove[] doubles(Piece piece, int edge1, int ticket1) {
+		int source = sources[edge1];
+		int middle = graph.target(edge1);
+		int begin = graph.begin(middle);
+		var row = new DoubleMove[(graph.end(middle) - begin) * TICKETS];
+		for (int edge = begin; edge < graph.end(middle); edge++)
+			for (int t = 0; t < TICKETS; t++)
+				if ((graph.tickets(edge) & 1 << t) != 0)
+					row[(edge - begin) * TICKETS + t] = new DoubleMove(piece, source,
+							TICKET_VALUES[ticket1], middle, TICKET_VALUES[t], graph.target(edge));
+		return row;
+	}
+
+	private AtomicReferenceArray<DoubleMove[]> doubles(PieceMoves moves) {
+		synchronized (moves) {
+			if (moves.doubles == null)
+				moves.doubles = new AtomicReferenceArray<>(sources.length * TICKETS);
+			return moves.doubles;
+		}
+	}
+
+	// the first row published wins so every move has exactly one instance
+	private static <T> T[] publish(AtomicReferenceArray<T[]> rows, int index, T[] row) {
+		return rows.compareAndSet(index, null, row) ? row : rows.get(index);
+	}
+
+}
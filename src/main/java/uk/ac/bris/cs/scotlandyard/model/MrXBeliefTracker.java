@@ -0,0 +1,298 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * The set of locations MrX could be at, given his travel log and the detectives' locations.
+ * <br>
+ * Candidates are kept as a bitset over the nodes of the graph, 256 bits on the standard map. A
+ * hidden log entry replaces the set with the union of the neighbours reachable with the entry's
+ * ticket, using neighbour bitmasks precomputed once per graph; a reveal entry replaces it with
+ * the revealed location. Nodes occupied by detectives are then removed, since MrX would have been
+ * caught there. The bitmasks take the square of the node count, so on graphs of more than
+ * {@link #MASK_NODES} nodes the neighbours are read from the {@link CompactGraph}'s edges
+ * instead.
+ * <br>
+ * {@link #update(Board)} consumes only the log entries added since the last update, so a detective
+ * AI can call it every turn. Instances are not thread-safe; use {@link #copy()} to hand one to
+ * another thread.
+ */
+public final class MrXBeliefTracker {
+
+	private static final int TICKETS = Ticket.values().length;
+
+	/**
+	 * The largest node bound, see {@link CompactGraph#nodeBound()}, for which neighbour
+	 * bitmasks are precomputed; 640KB per graph
+	 */
+	public static final int MASK_NODES = 1 << 10;
+
+	// [ticket][node][word] flattened, built once per graph
+	private static final LoadingCache<CompactGraph, long[]> MASKS = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(CacheLoader.from(MrXBeliefTracker::neighbourMasks));
+
+	private final CompactGraph graph;
+	private final long[] masks; // null above MASK_NODES
+	private final int words;
+	private final long[] initial;
+	private long[] candidates;
+	private long[] scratch;
+	private int processed;
+
+	private MrXBeliefTracker(CompactGraph graph, long[] initial) {
+		this.graph = graph;
+		this.masks = graph.nodeBound() <= MASK_NODES ? MASKS.getUnchecked(graph) : null;
+		this.words = initial.length;
+		this.initial = initial;
+		this.candidates = initial.clone();
+		this.scratch = new long[words];
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @param start the locations MrX may start at, such as {@link ScotlandYard#MRX_LOCATIONS}
+	 */
+	public MrXBeliefTracker(@Nonnull GameSetup setup, @Nonnull Iterable<Integer> start) {
+		this(CompactGraph.of(setup), bits(CompactGraph.of(setup), start));
+	}
+
+	/**
+	 * Creates a tracker where MrX may start at any node of the graph
+	 *
+	 * @param setup the game setup
+	 */
+	public MrXBeliefTracker(@Nonnull GameSetup setup) {
+		this(setup, setup.graph.nodes());
+	}
+
+	private static long[] bits(CompactGraph graph, Iterable<Integer> nodes) {
+		long[] bits = new long[(graph.nodeBound() + 63) >>> 6];
+		for (int node : Objects.requireNonNull(nodes)) {
+			if (!graph.contains(node))
+				throw new IllegalArgumentException("Not on the graph: " + node);
+			bits[node >>> 6] |= 1L << node;
+		}
+		return bits;
+	}
+
+	private static long[] neighbourMasks(CompactGraph graph) {
+		int words = (graph.nodeBound() + 63) >>> 6;
+		long[] masks = new long[TICKETS * graph.nodeBound() * words];
+		for (int ticket = 0; ticket < TICKETS; ticket++)
+			for (int node = 0; node < graph.nodeBound(); node++) {
+				int base = (ticket * graph.nodeBound() + node) * words;
+				for (int i = graph.begin(node, ticket); i < graph.end(node, ticket); i++) {
+					int target = graph.target(ticket, i);
+					masks[base + (target >>> 6)] |= 1L << target;
+				}
+			}
+		return masks;
+	}
+
+	/**
+	 * @return an independent copy of this tracker
+	 */
+	@Nonnull public MrXBeliefTracker copy() {
+		var copy = new MrXBeliefTracker(graph, initial);
+		copy.candidates = candidates.clone();
+		copy.processed = processed;
+		return copy;
+	}
+
+	/**
+	 * Consumes the log entries added since the last update and removes the locations of the
+	 * board's detectives. If the board's log is shorter than what was consumed, for example
+	 * because it is a different game, the tracker starts over from the start locations.
+	 *
+	 * @param board the current board
+	 */
+	public void update(@Nonnull Board board) {
+		ImmutableList<LogEntry> log = board.getMrXTravelLog();
+		if (log.size() < processed) reset();
+		for (int i = processed; i < log.size(); i++) {
+			LogEntry entry = log.get(i);
+			if (entry.location().isPresent()) reveal(entry.location().get());
+			else advance(entry.ticket());
+		}
+		SearchState.detectiveLocations(board).values().forEach(this::exclude);
+	}
+
+	/**
+	 * Forgets all consumed log entries
+	 */
+	public void reset() {
+		System.arraycopy(initial, 0, candidates, 0, words);
+		processed = 0;
+	}
+
+	/**
+	 * Moves every candidate along the edges usable with the ticket of a hidden log entry
+	 *
+	 * @param ticket the ticket MrX used
+	 */
+	public void advance(@Nonnull Ticket ticket) {
+		if (ticket == Ticket.DOUBLE)
+			throw new IllegalArgumentException("DOUBLE is never in the travel log");
+		long[] next = scratch;
+		int base = ticket.ordinal() * graph.nodeBound();
+		if (masks == null) advanceEdges(ticket.ordinal(), next);
+		else if (words == 4) advance4(base, next);
+		else advanceAny(base, next);
+		scratch = candidates;
+		candidates = next;
+		processed++;
+	}
+
+	// the standard map fits in four words; unrolled, this is two to three times as fast
+	private void advance4(int base, long[] next) {
+		long n0 = 0, n1 = 0, n2 = 0, n3 = 0;
+		for (int w = 0; w < 4; w++) {
+			long word = candidates[w];
+			while (word != 0) {
+				int offset = (base + (w << 6) + Long.numberOfTrailingZeros(word)) << 2;
+				word &= word - 1;
+				n0 |= masks[offset];
+				n1 |= masks[offset + 1];
+				n2 |= masks[offset + 2];
+				n3 |= masks[offset + 3];
+			}
+		}
+		next[0] = n0;
+		next[1] = n1;
+		next[2] = n2;
+		next[3] = n3;
+	}
+
+	private void advanceAny(int base, long[] next) {
+		Arrays.fill(next, 0);
+		for (int w = 0; w < words; w++) {
+			long word = candidates[w];
+			while (word != 0) {
+				int node = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				int offset = (base + node) * words;
+				for (int i = 0; i < words; i++) next[i] |= masks[offset + i];
+			}
+		}
+	}
+
+	private void advanceEdges(int ticket, long[] next) {
+		Arrays.fill(next, 0);
+		for (int w = 0; w < words; w++) {
+			long word = candidates[w];
+			while (word != 0) {
+				int node = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				for (int i = graph.begin(node, ticket); i < graph.end(node, ticket); i++) {
+					int target = graph.target(ticket, i);
+					next[target >>> 6] |= 1L << target;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records a reveal log entry
+	 *
+	 * @param location the revealed location
+	 */
+	public void reveal(int location) {
+		if (!graph.contains(location))
+			throw new IllegalArgumentException("Not on the graph: " + location);
+		Arrays.fill(candidates, 0);
+		candidates[location >>> 6] |= 1L << location;
+		processed++;
+	}
+
+	/**
+	 * Removes a location MrX cannot be at, such as one occupied by a detective
+	 *
+	 * @param location the location
+	 */
+	public void exclude(int location) {
+		if (location >= 0 && location < graph.nodeBound())
+			candidates[location >>> 6] &= ~(1L << location);
+	}
+
+	/**
+	 * @return the number of log entries consumed
+	 */
+	public int processed() { return processed; }
+
+	/**
+	 * @return the number of candidate locations
+	 */
+	public int count() {
+		int count = 0;
+		for (long word : candidates) count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * @param location the location
+	 * @return whether MrX could be at the location
+	 */
+	public boolean contains(int location) {
+		return location >= 0 && location < graph.nodeBound()
+				&& (candidates[location >>> 6] & (1L << location)) != 0;
+	}
+
+	/**
+	 * @param random the source of randomness
+	 * @return a candidate location chosen uniformly at random
+	 * @throws IllegalStateException if there are no candidates
+	 */
+	public int sample(@Nonnull Random random) {
+		int count = count();
+		if (count == 0) throw new IllegalStateException("No candidate locations");
+		int n = random.nextInt(count);
+		for (int w = 0; w < words; w++) {
+			long word = candidates[w];
+			int bits = Long.bitCount(word);
+			if (n >= bits) {
+				n -= bits;
+				continue;
+			}
+			for (; n > 0; n--) word &= word - 1;
+			return (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+		throw new AssertionError();
+	}
+
+	/**
+	 * @return the candidate locations in ascending order
+	 */
+	@Nonnull public int[] toArray() {
+		int[] nodes = new int[count()];
+		int n = 0;
+		for (int w = 0; w < words; w++)
+			for (long word = candidates[w]; word != 0; word &= word - 1)
+				nodes[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+		return nodes;
+	}
+
+	/**
+	 * @return the candidate locations
+	 */
+	@Nonnull public ImmutableSet<Integer> candidates() {
+		return Arrays.stream(toArray()).boxed().collect(ImmutableSet.toImmutableSet());
+	}
+
+	@Override public String toString() {
+		return "MrXBeliefTracker{processed=" + processed + ", candidates=" + candidates() + '}';
+	}
+
+}
@@ -3,17 +3,17 @@ package uk.ac.bris.cs.scotlandyard.model;
 import com.google.common.collect.ImmutableList;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.GameEventListener.Reason;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
 import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
 import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
 import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
 import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
-import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
 
 import java.util.*;
 
@@ -23,64 +23,135 @@ import java.util.*;
  */
 public final class MyGameStateFactory implements Factory<GameState> {
 
+	private final GameEventListener listener;
+
+	public MyGameStateFactory() {
+		this(GameEventListener.NONE);
+	}
+
+	/**
+	 * @param listener 接收胜负判定事件，所有由此工厂创建的游戏状态共用
+	 */
+	public MyGameStateFactory(GameEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
 	@Nonnull @Override public GameState build(
 		GameSetup setup,
 		Player mrX,
 		ImmutableList<Player> detectives) {
-		return new MyGameState(setup, mrX, detectives);
+		return new MyGameState(setup, mrX, detectives, listener, 0, ImmutableList.of());
 	}
 
-	private static final class MyGameState implements GameState {
+	/**
+	 * 从轮到 MrX 走的中途局面恢复游戏状态，例如回放存档时从检查点开始，而不必从第一步走起。
+	 * 得到的状态与从头走到这个局面的状态相同。
+	 *
+	 * @param setup 游戏设置
+	 * @param mrX 这个局面中的 MrX
+	 * @param detectives 这个局面中的侦探
+	 * @param log 到这个局面为止 MrX 的旅行日志，揭示回合按日志长度查
+	 * @return 轮到 MrX 走的游戏状态
+	 */
+	@Nonnull public GameState resume(
+		GameSetup setup,
+		Player mrX,
+		ImmutableList<Player> detectives,
+		ImmutableList<LogEntry> log) {
+		if (log == null) throw new NullPointerException("NullPointer");
+		if (setup != null && log.size() > setup.moves.size())
+			throw new IllegalArgumentException("IllegalArgument");
+		// currentRound 只用来区分轮到谁（偶数为 MrX）和是否开局，取日志长度的两倍即可
+		return new MyGameState(setup, mrX, detectives, listener, 2 * log.size(), log);
+	}
+
+	/**
+	 * 测试用：把 MyGameState 增量维护的胜负判定字段与从头重新计算的结果比较
+	 *
+	 * @param state 由 MyGameStateFactory 创建的游戏状态
+	 * @return 第一个不一致的字段的说明，全部一致时为 null
+	 */
+	@Nullable static String incrementalMismatch(GameState state) {
+		return ((MyGameState) state).incrementalMismatch();
+	}
+
+	private static final class MyGameState implements GameState, StateKey.Keyed,
+			SearchState.Located, MoveList.Source {
+		private static final Ticket[] TICKETS = Ticket.values();
+
 		private final GameSetup setup;
 		private final ImmutableSet<Piece> remaining;
+		private final ImmutableSet<Piece> players; // 所有玩家，整局不变
 		private final ImmutableList<LogEntry> log; // MrX 的旅行日志
 
-		ImmutableMap<Piece, ImmutableSet<Move>> movesMap;
+		// 可用移动：第一次需要时由 availableMoves(MoveList) 生成，之后缓存（每个状态最多计算一次）
+		private ImmutableSet<Move> availableMoves;
 		private final ImmutableSet<Piece> winner; // 当前游戏的胜者
 
 		private final int currentRound; // 当前回合
 		private final Player mrXPlayer;
 		private final ImmutableList<Player> detectivePlayers;
+		private final GameEventListener listener; // 胜负判定事件，默认不做任何事
+		private final long positionKey; // StateKey 中除轮到谁走以外的部分
+		private final long[] occupied; // 侦探所在位置的位集，按节点编号索引，占用检查只需一次读取
 
+		// 胜负判定用的增量信息：由上一个状态和最后一步推出，不再每个状态重新生成所有移动
+		private final boolean[] detectiveCanMove; // 各侦探是否有可用移动（不考虑 remaining）
+		private final int detectivesWithTickets; // 还持有 TAXI、BUS 或 UNDERGROUND 票的侦探数
+		private final int mrXFreeNeighbours; // MrX 的邻接节点中没有侦探的个数，为 0 时 MrX 被围住
 
+		private static final int MRX_MOVED = -1; // 构造函数的 mover：MrX 走的，否则是侦探的下标
 
-
-		private MyGameState(GameSetup setup, Player mrX, ImmutableList<Player> detectives) {
+		// 轮到 MrX 走的状态：新游戏，或者 resume 恢复的中途局面
+		private MyGameState(GameSetup setup, Player mrX, ImmutableList<Player> detectives,
+		                    GameEventListener listener, int currentRound,
+		                    ImmutableList<LogEntry> log) {
 			if (setup == null || mrX == null || detectives == null)
 				throw new NullPointerException("NullPointer");
 			if (setup.moves.isEmpty() || setup.graph.nodes().isEmpty())
 				throw new IllegalArgumentException("IllegalArgument");
 
-			Set<Integer> detectiveLocations = new HashSet<>();
 			for (Player detective : detectives) {
 				if (detective.has(ScotlandYard.Ticket.DOUBLE) || detective.has(ScotlandYard.Ticket.SECRET)) {
 					throw new IllegalArgumentException("IllegalArgument");
 				}
-				if (!detectiveLocations.add(detective.location())) {
-					throw new IllegalArgumentException("IllegalArgument");
-				}
 			}
+			this.occupied = occupancy(setup, detectives);
 
 			this.setup = setup;
 			this.mrXPlayer = mrX;
 			this.detectivePlayers = detectives;
 			this.remaining = ImmutableSet.of(mrX.piece());
+			ImmutableSet.Builder<Piece> players = ImmutableSet.builder();
+			players.add(mrX.piece());
+			for (Player detective : detectives) players.add(detective.piece());
+			this.players = players.build();
+			this.listener = listener;
+
+			this.currentRound = currentRound;
+			this.log = log;    // 新游戏的日志为空
+			this.positionKey = positionKey(mrX, detectives, log);
 
-			this.currentRound = 0;
-			this.log = ImmutableList.of();    // 初始情况下，日志为空
-			this.movesMap  = buildMovesMap();
+			// 没有上一步可用，全部计算一次
+			CompactGraph graph = CompactGraph.of(setup);
+			this.detectiveCanMove = new boolean[detectives.size()];
+			int withTickets = 0;
+			for (int i = 0; i < detectives.size(); i++) {
+				detectiveCanMove[i] = hasMove(graph, detectives.get(i));
+				if (hasTickets(detectives.get(i))) withTickets++;
+			}
+			this.detectivesWithTickets = withTickets;
+			this.mrXFreeNeighbours = freeNeighbours(graph, mrX.location());
 
 			this.winner = calculateWinner(this);  // 根据条件计算胜利者
-			if(!winner.isEmpty()){
-				System.out.println("mrX win in init step");
-				this.movesMap  = ImmutableMap.of();
-			}
 
 
 		}
 
+		// parent 走了一步之后的状态，mover 是走的玩家：MRX_MOVED 或侦探的下标
 		private MyGameState(
-			GameSetup setup,
+			MyGameState parent,
+			int mover,
 			Player mrX,
 			ImmutableList<Player> detectives,
 			int currentRound,
@@ -88,35 +159,216 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			ImmutableSet<Piece> winner,
 			ImmutableSet<Piece> remaining
 		) {
+			GameSetup setup = parent.setup;
 
 			// 参数检查
 			if (setup == null || mrX == null || detectives == null)
 				throw new NullPointerException("NullPointer in MyGameState constructor");
 			if (setup.moves.isEmpty() || setup.graph.nodes().isEmpty())
 				throw new IllegalArgumentException("Invalid setup: empty moves or graph");
-			Set<Integer> detectiveLocations = new HashSet<>();
 			for (Player d : detectives) {
 				if (d.has(Ticket.DOUBLE) || d.has(Ticket.SECRET)) {
 					throw new IllegalArgumentException("Detectives cannot hold DOUBLE or SECRET tickets");
 				}
-				if (!detectiveLocations.add(d.location())) {
-					throw new IllegalArgumentException("Two detectives in same location!");
-				}
 			}
 
 			this.setup = setup;
 			this.mrXPlayer = mrX;
 			this.detectivePlayers = detectives;
-			this.currentRound = currentRound;
 			this.log = log;
 			this.winner = winner;
+			this.players = parent.players;
+			this.listener = parent.listener;
+			// 只换掉这一步改变了的部分：MrX、走的侦探和日志长度
+			long key = parent.positionKey ^ StateKey.change(parent.mrXPlayer, mrX);
+			if (log.size() != parent.log.size())
+				key ^= StateKey.round(parent.log.size()) ^ StateKey.round(log.size());
+			if (mover != MRX_MOVED)
+				key ^= StateKey.change(parent.detectivePlayers.get(mover), detectives.get(mover));
+			this.positionKey = key;
+
+			CompactGraph graph = CompactGraph.of(setup);
+			if (mover == MRX_MOVED) {
+				// MrX 挡不住侦探，侦探的位置和票都没变，直接共用
+				this.occupied = parent.occupied;
+				this.detectiveCanMove = parent.detectiveCanMove;
+				this.detectivesWithTickets = parent.detectivesWithTickets;
+				this.mrXFreeNeighbours = freeNeighbours(graph, mrX.location());
+			} else {
+				Player before = parent.detectivePlayers.get(mover);
+				Player after = detectives.get(mover);
+				int from = before.location();
+				int to = after.location();
+				this.occupied = moveDetective(setup, parent.occupied, detectives, from, to);
+				this.detectivesWithTickets = parent.detectivesWithTickets
+					- (hasTickets(before) ? 1 : 0) + (hasTickets(after) ? 1 : 0);
+				// MrX 没动：只有 from 和 to 是否与 MrX 相邻会改变被围住的邻接节点数
+				int location = mrX.location();
+				this.mrXFreeNeighbours = parent.mrXFreeNeighbours
+					+ (graph.tickets(location, from) != 0 ? 1 : 0)
+					- (graph.tickets(location, to) != 0 ? 1 : 0);
+				// 可用性只对走的侦探自己，以及与 from、to 相邻的侦探可能改变
+				this.detectiveCanMove = parent.detectiveCanMove.clone();
+				detectiveCanMove[mover] = hasMove(graph, after);
+				updateNeighbours(graph, from, mover);
+				updateNeighbours(graph, to, mover);
+			}
+
+			// 侦探回合里跳过在这个局面中无路可走的侦探（可能刚被队友挡住）；一个都不剩就轮到 MrX
+			if (currentRound % 2 == 1) {
+				ImmutableSet.Builder<Piece> movable = ImmutableSet.builder();
+				for (Piece p : remaining) {
+					int i = detectiveIndex(p);
+					if (i < 0 || detectiveCanMove[i]) movable.add(p);
+				}
+				remaining = movable.build();
+				if (remaining.isEmpty()) {
+					currentRound++;
+					remaining = ImmutableSet.of(mrX.piece());
+				}
+			}
+			this.currentRound = currentRound;
 			this.remaining = remaining;
+		}
 
-			if (!winner.isEmpty()) {
-				this.movesMap  = ImmutableMap.of();
-			} else {
-				this.movesMap  = buildMovesMap();
+		// 与 state 相同，但胜负已定
+		private MyGameState(MyGameState state, ImmutableSet<Piece> winner) {
+			this.setup = state.setup;
+			this.mrXPlayer = state.mrXPlayer;
+			this.detectivePlayers = state.detectivePlayers;
+			this.currentRound = state.currentRound;
+			this.log = state.log;
+			this.winner = winner;
+			this.remaining = state.remaining;
+			this.players = state.players;
+			this.listener = state.listener;
+			this.positionKey = state.positionKey;
+			this.occupied = state.occupied;
+			this.detectiveCanMove = state.detectiveCanMove;
+			this.detectivesWithTickets = state.detectivesWithTickets;
+			this.mrXFreeNeighbours = state.mrXFreeNeighbours;
+		}
+
+		// 侦探从 from 走到 to 后的位集；走进其他侦探所在位置和完整重建一样抛出异常
+		private static long[] moveDetective(GameSetup setup, long[] occupied,
+		                                    ImmutableList<Player> detectives, int from, int to) {
+			int bound = occupied.length * Long.SIZE;
+			if (from < 0 || from >= bound || to < 0 || to >= bound)
+				return occupancy(setup, detectives);
+			long[] moved = occupied.clone();
+			moved[from >>> 6] &= ~(1L << from);
+			if ((moved[to >>> 6] & (1L << to)) != 0)
+				throw new IllegalArgumentException("Two detectives in same location!");
+			moved[to >>> 6] |= 1L << to;
+			return moved;
+		}
+
+		// 重新计算站在 node 的邻接节点上的侦探（mover 除外）是否有可用移动
+		private void updateNeighbours(CompactGraph graph, int node, int mover) {
+			if (!graph.contains(node)) return;
+			for (int e = graph.begin(node); e < graph.end(node); e++) {
+				int neighbour = graph.target(e);
+				if (!detectiveInLocation(neighbour)) continue;
+				for (int i = 0; i < detectivePlayers.size(); i++) {
+					if (i != mover && detectivePlayers.get(i).location() == neighbour) {
+						detectiveCanMove[i] = hasMove(graph, detectivePlayers.get(i));
+						break;
+					}
+				}
+			}
+		}
+
+		// 从头重新计算 occupied、detectiveCanMove、detectivesWithTickets 和 mrXFreeNeighbours，
+		// 返回第一个与增量维护的值不同的字段
+		@Nullable private String incrementalMismatch() {
+			if (!Arrays.equals(occupied, occupancy(setup, detectivePlayers)))
+				return "occupied";
+			// occupied 已确认无误，hasMove 和 freeNeighbours 的结果就是从头计算的
+			CompactGraph graph = CompactGraph.of(setup);
+			int withTickets = 0;
+			for (int i = 0; i < detectivePlayers.size(); i++) {
+				Player detective = detectivePlayers.get(i);
+				if (hasTickets(detective)) withTickets++;
+				if (detectiveCanMove[i] != hasMove(graph, detective))
+					return "detectiveCanMove of " + detective.piece() + ": " + detectiveCanMove[i];
+			}
+			if (detectivesWithTickets != withTickets)
+				return "detectivesWithTickets: " + detectivesWithTickets + " != " + withTickets;
+			int free = freeNeighbours(graph, mrXPlayer.location());
+			if (mrXFreeNeighbours != free)
+				return "mrXFreeNeighbours: " + mrXFreeNeighbours + " != " + free;
+			return null;
+		}
+
+		// 是否至少有一个可用移动，规则与 addDetectiveMoves 相同但不生成移动；
+		// MrX 的双步移动都以一个合法的单步开头，所以对 MrX 也适用（MrX 未被捕时）
+		private boolean hasMove(CompactGraph graph, Player player) {
+			int source = player.location();
+			if (!graph.contains(source)) return false;
+			int held = heldTickets(player);
+			for (int e = graph.begin(source); e < graph.end(source); e++) {
+				int destination = graph.target(e);
+				if (destination != source && detectiveInLocation(destination)) continue;
+				if ((graph.tickets(e) & held) != 0) return true;
+			}
+			return false;
+		}
+
+		// location 的邻接节点中没有侦探的个数；不在图上的位置没有邻接节点
+		private int freeNeighbours(CompactGraph graph, int location) {
+			if (!graph.contains(location)) return 0;
+			int free = 0;
+			for (int e = graph.begin(location); e < graph.end(location); e++) {
+				if (!detectiveInLocation(graph.target(e))) free++;
 			}
+			return free;
+		}
+
+		private static boolean hasTickets(Player detective) {
+			return detective.has(Ticket.TAXI)
+				|| detective.has(Ticket.BUS)
+				|| detective.has(Ticket.UNDERGROUND);
+		}
+
+		// 侦探所在位置的位集，同时检查两个侦探不在同一位置
+		private static long[] occupancy(GameSetup setup, ImmutableList<Player> detectives) {
+			long[] occupied = new long[(MoveTable.of(setup).graph().nodeBound() + 63) >>> 6];
+			for (int i = 0; i < detectives.size(); i++) {
+				int location = detectives.get(i).location();
+				if (location >= 0 && location < occupied.length * Long.SIZE) {
+					if ((occupied[location >>> 6] & (1L << location)) != 0)
+						throw new IllegalArgumentException("Two detectives in same location!");
+					occupied[location >>> 6] |= 1L << location;
+					continue;
+				}
+				// 不在图上的位置挡不住任何移动，只需检查是否重复
+				for (int j = 0; j < i; j++) {
+					if (detectives.get(j).location() == location)
+						throw new IllegalArgumentException("Two detectives in same location!");
+				}
+			}
+			return occupied;
+		}
+
+		private static long positionKey(Player mrX, ImmutableList<Player> detectives,
+		                                ImmutableList<LogEntry> log) {
+			long key = StateKey.round(log.size()) ^ StateKey.player(mrX);
+			for (Player d : detectives) key ^= StateKey.player(d);
+			return key;
+		}
+
+		// 轮到谁走的部分取自 remaining 和 detectiveCanMove，不生成移动：
+		// 游戏没结束时轮到的 MrX 一定有路可走，remaining 中则可能有无路可走的侦探
+		@Override public long key() {
+			long key = positionKey;
+			if (!winner.isEmpty()) return key;
+			if (mrXTurn()) return key ^ StateKey.mover(StateKey.piece(mrXPlayer.piece()));
+			for (int i = 0; i < detectivePlayers.size(); i++) {
+				Piece piece = detectivePlayers.get(i).piece();
+				if (detectiveCanMove[i] && remaining.contains(piece))
+					key ^= StateKey.mover(StateKey.piece(piece));
+			}
+			return key;
 		}
 
 		// 返回当前游戏设置
@@ -125,10 +377,10 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			return setup;
 		}
 
-		// 返回所有玩家
+		// 返回所有玩家，不只是还没走的
 		@Nonnull @Override
 		public ImmutableSet<Piece> getPlayers() {
-			return remaining;
+			return players;
 		}
 
 		// 返回某个侦探的位置
@@ -142,6 +394,16 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			return Optional.empty();
 		}
 
+		// 返回任何棋子的位置，编号侦探也可以；不在游戏里返回 -1
+		@Override
+		public int location(@Nonnull Piece piece) {
+			if (mrXPlayer.piece().equals(piece)) return mrXPlayer.location();
+			for (Player player : detectivePlayers) {
+				if (player.piece().equals(piece)) return player.location();
+			}
+			return -1;
+		}
+
 		// 返回 MrX 的旅行日志
 		@Nonnull
 		@Override
@@ -149,27 +411,36 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			return log;
 		}
 
-		// 返回当前可用的移动
+		// 返回当前可用的移动：由 availableMoves(MoveList) 填好的缓冲区解码而来
+		// 缓存只读一次：多个线程同时读取时最多重复计算，ImmutableSet 只有 final 字段，读到的总是完整的
 		@Nonnull
 		@Override
 		public ImmutableSet<Move> getAvailableMoves() {
-			if (!winner.isEmpty()) return ImmutableSet.of();
-
-			if (mrXTurn()) {
-				return movesMap.getOrDefault(mrXPlayer.piece(), ImmutableSet.of());
-			}else{
-				return getdetectivesMove();
+			ImmutableSet<Move> moves = availableMoves;
+			if (moves == null) {
+				MoveList list = new MoveList();
+				availableMoves(list);
+				availableMoves = moves = list.toSet();
 			}
+			return moves;
 		}
 
-		ImmutableSet<Move> getdetectivesMove(){
-			ImmutableSet.Builder<Move> combined = ImmutableSet.builder();
-			for (Player detective : detectivePlayers) {
-				if (remaining.contains(detective.piece())) {
-					combined.addAll(movesMap.getOrDefault(detective.piece(), ImmutableSet.of()));
+		// 把当前可用的移动编码写入缓冲区：有胜者时为空，侦探回合只有 remaining 中的侦探
+		@Override
+		public void availableMoves(MoveList moves) {
+			MoveTable table = MoveTable.of(setup);
+			moves.reset(table);
+			if (!winner.isEmpty()) return;
+
+			if (mrXTurn()) {
+				addMrXMoves(moves, table);
+			}else{
+				for (Player detective : detectivePlayers) {
+					if (remaining.contains(detective.piece())) {
+						addDetectiveMoves(moves, table, detective);
+					}
 				}
 			}
-			return combined.build();
 		}
 
 
@@ -187,13 +458,16 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			// 先找对应的 Player
 			Player player = findPlayer(piece);
 			if (player == null) return Optional.empty();
-			return Optional.of(ticket -> player.tickets().getOrDefault(ticket, 0));
+			return Optional.of(player::count);
 		}
 
 		// 处理玩家的移动并返回新的游戏状态
 		@Nonnull
 		@Override
 		public GameState advance(Move move) {
+			// 只接受当前可用的移动；可用移动有缓存，合法的走法不会重复生成
+			if (!getAvailableMoves().contains(move))
+				throw new IllegalArgumentException("Illegal move: " + move);
 			if (move.commencedBy().isMrX()) {
 				return handleMrXMove(move);
 			} else {
@@ -204,277 +478,109 @@ public final class MyGameStateFactory implements Factory<GameState> {
 		// ============ 辅助方法 ============
 
 
-		private ImmutableMap<Piece, ImmutableSet<Move>> buildMovesMap() {
-			ImmutableMap.Builder<Piece, ImmutableSet<Move>> builder = ImmutableMap.builder();
-
-			// MrX 的所有可用移动
-			builder.put(mrXPlayer.piece(), calculateAvailableMovesForMrX(this));
-
-			// 每个侦探分开计算可用移动
-			for (Player detective : detectivePlayers) {
-				if(!remaining.contains(detective.piece()))
-					continue;
-				builder.put(detective.piece(), calculateAvailableMovesForDetective(detective));
-			}
-
-			return builder.build();
-		}
-
-		private ImmutableSet<Move> calculateAvailableMovesForMrX(MyGameState myGameState) {
-			ImmutableSet.Builder<Move> availableMoves = ImmutableSet.builder();
-
+		// MrX 的可用移动，不考虑是否已有胜者；按 table 编码写入 moves
+		private void addMrXMoves(MoveList moves, MoveTable table) {
 			// 获取 Mr. X 当前的票务信息
-			ImmutableMap<Ticket, Integer> mrXTickets = myGameState.mrXPlayer.tickets();
-
-			// 计算 Mr. X 的单步移动
-			for (int destination : myGameState.setup.graph.adjacentNodes(myGameState.mrXPlayer.location())) {
-				if (detectiveInLocation(destination)) {
+			Player mrX = mrXPlayer;
+			CompactGraph graph = table.graph();
+			int piece = table.index(mrX.piece());
+			int source = mrX.location();
+			int held = heldTickets(mrX);
+
+			// 剩余回合按日志长度算：双步移动占日志两格
+			int remainingRounds = setup.moves.size() - log.size();
+			// 是否可以双步移动（需要 Double Ticket 且至少剩两轮）
+			boolean canDouble = mrX.count(Ticket.DOUBLE) > 0 && remainingRounds >= 2;
+
+			// 按边遍历：每个邻居只有一条边，边上可用的票是位掩码（SECRET 可走任何边），
+			// 所以每个 (t1, d1) 和 (t1, d1, t2, d2) 恰好生成一次，不依赖 Set 去重
+			for (int e1 = graph.begin(source); e1 < graph.end(source); e1++) {
+				int d1 = graph.target(e1);
+				if (detectiveInLocation(d1)) {
 					continue; // 如果目标位置已被侦探占用，跳过该目标位置
 				}
-				for (Transport transport : myGameState.setup.graph.edgeValueOrDefault(myGameState.mrXPlayer.location(), destination, ImmutableSet.of())) {
-					Ticket ticketRequired = transport.requiredTicket();
-
-					// 判断 Mr. X 是否有足够的票
-					if (mrXTickets.getOrDefault(ticketRequired, 0) > 0) {
-						availableMoves.add(new SingleMove(myGameState.mrXPlayer.piece(), myGameState.mrXPlayer.location(), ticketRequired, destination));
-					}
-					if (mrXTickets.getOrDefault(Ticket.SECRET, 0) > 0) {
-						availableMoves.add(new SingleMove(
-							myGameState.mrXPlayer.piece(),
-							myGameState.mrXPlayer.location(),
-							Ticket.SECRET,
-							destination
-						));
-					}
-				}
-			}
-
-			int remainingRounds = myGameState.setup.moves.size() - myGameState.currentRound;
-			// 计算 Mr. X 的双步移动（如果他有 Double Ticket）
-			if (mrXTickets.getOrDefault(Ticket.DOUBLE, 0) > 0 && remainingRounds >= 2)  {
-				for (int firstDestination : myGameState.setup.graph.adjacentNodes(myGameState.mrXPlayer.location())) {
-					if (detectiveInLocation(firstDestination)) continue;
-
-					for (Transport firstTransport : myGameState.setup.graph.edgeValueOrDefault(myGameState.mrXPlayer.location(), firstDestination, ImmutableSet.of())) {
-						Ticket firstTicketRequired = firstTransport.requiredTicket();
-						List<Ticket> firstStepTickets = new ArrayList<>();
-
-						if (mrXTickets.getOrDefault(firstTicketRequired, 0) > 0) {
-							firstStepTickets.add(firstTicketRequired);
-						}
-						if (mrXTickets.getOrDefault(Ticket.SECRET, 0) > 0) {
-							firstStepTickets.add(Ticket.SECRET);
-						}
-
-						if (firstStepTickets.isEmpty()) continue;
-						for (int secondDestination : myGameState.setup.graph.adjacentNodes(firstDestination)) {
-							if (detectiveInLocation(secondDestination)) continue;
-							for (Transport secondTransport : myGameState.setup.graph.edgeValueOrDefault(firstDestination, secondDestination, ImmutableSet.of())) {
-								Ticket secondRequired = secondTransport.requiredTicket();
-
-								List<Ticket> secondStepTickets = new ArrayList<>();
-
-								if (mrXTickets.getOrDefault(secondRequired, 0) > 0) {
-									secondStepTickets.add(secondRequired);
-								}
-
-								if (mrXTickets.getOrDefault(Ticket.SECRET, 0) > 0) {
-									secondStepTickets.add(Ticket.SECRET);
-								}
-
-								for (Ticket t1 : firstStepTickets) {
-									for (Ticket t2 : secondStepTickets) {
-										int secretNeeded = 0;
-										if (t1 == Ticket.SECRET) secretNeeded++;
-										if (t2 == Ticket.SECRET) secretNeeded++;
-
-										if (t1 == t2 && mrXTickets.getOrDefault(t1, 0) < 2)
-											continue;
-
-										if (secretNeeded <= mrXTickets.getOrDefault(Ticket.SECRET, 0)) {
-											availableMoves.add(new DoubleMove(
-												myGameState.mrXPlayer.piece(),
-												myGameState.mrXPlayer.location(),
-												t1, firstDestination,
-												t2, secondDestination
-											));
-										}
-
-									}
-
-								}
-							}
-
+				int first = graph.tickets(e1) & held;
+				for (int t1 = 0; first != 0; t1++, first >>>= 1) {
+					if ((first & 1) == 0) continue;
+					// 单步移动
+					moves.add(MoveTable.encodeSingle(piece, e1, t1));
+					if (!canDouble) continue;
+
+					// 双步移动：第一步用掉的票如果只有一张，第二步就不能再用
+					int heldAfter = mrX.count(TICKETS[t1]) > 1 ? held : held & ~(1 << t1);
+					for (int e2 = graph.begin(d1); e2 < graph.end(d1); e2++) {
+						int d2 = graph.target(e2);
+						if (detectiveInLocation(d2)) continue;
+						int second = graph.tickets(e2) & heldAfter;
+						for (int t2 = 0; second != 0; t2++, second >>>= 1) {
+							if ((second & 1) != 0)
+								moves.add(MoveTable.encodeDouble(piece, e1, t1, e2, t2));
 						}
-
-
-
-
 					}
 				}
 			}
-
-			return availableMoves.build();
 		}
 
-		private ImmutableSet<Move> calculateAvailableMovesForDetective(Player detective) {
-			ImmutableSet.Builder<Move> moves = ImmutableSet.builder();
-
-			// 已有胜利者，则返回空集
-			if (!winner.isEmpty()) {
-				return ImmutableSet.of();
+		// 持有（数量大于 0）的票，按 ordinal 的位掩码
+		private static int heldTickets(Player player) {
+			int held = 0;
+			for (Ticket t : TICKETS) {
+				if (player.count(t) > 0) held |= 1 << t.ordinal();
 			}
+			return held;
+		}
 
-			ImmutableMap<Ticket, Integer> tickets = detective.tickets();
+		// 某个侦探的可用移动，不考虑 remaining 和胜者；按 table 编码写入 moves
+		private void addDetectiveMoves(MoveList moves, MoveTable table, Player detective) {
+			CompactGraph graph = table.graph();
+			int piece = table.index(detective.piece());
 			int source = detective.location();
+			// 侦探没有 SECRET 票，所以边上的 SECRET 位不会被选中
+			int held = heldTickets(detective);
 
 			// 单步移动
-			for (int destination : setup.graph.adjacentNodes(source)) {
-				// 不得进入其他侦探所在位置
-				boolean isOccupiedByOtherDetective = false;
-				for (Player otherDetective : detectivePlayers) {
-					if (otherDetective != detective && otherDetective.location() == destination) {
-						isOccupiedByOtherDetective = true;
-						break;
-					}
-				}
-
-				if (isOccupiedByOtherDetective) {
+			for (int e = graph.begin(source); e < graph.end(source); e++) {
+				int destination = graph.target(e);
+				// 不得进入其他侦探所在位置（自己所在的位置只可能经自环到达）
+				if (destination != source && detectiveInLocation(destination)) {
 					continue;
 				}
 
 				// 判断侦探是否有足够的票
-				for (Transport transport : setup.graph.edgeValueOrDefault(source, destination, ImmutableSet.of())) {
-					Ticket required = transport.requiredTicket();
-					if (tickets.getOrDefault(required, 0) > 0) {
-						moves.add(new SingleMove(detective.piece(), source, required, destination));
-					}
+				int usable = graph.tickets(e) & held;
+				for (int t = 0; usable != 0; t++, usable >>>= 1) {
+					if ((usable & 1) != 0) moves.add(MoveTable.encodeSingle(piece, e, t));
 				}
 			}
-
-			return moves.build();
-		}
-
-		private ImmutableSet<Move> calculateAvailableMovesForDetectives(MyGameState myGameState) {
-			ImmutableSet.Builder<Move> availableMoves = ImmutableSet.builder();
-
-			// 如果是侦探，计算其可以移动到的合法位置
-			for (Player detective : myGameState.detectivePlayers) {
-				if (!myGameState.remaining.contains(detective.piece())) {
-					continue;
-				}
-				// 获取侦探的票务信息
-				ImmutableMap<Ticket, Integer> detectiveTickets = detective.tickets();
-
-				// 计算侦探的单步移动
-				for (int destination : myGameState.setup.graph.adjacentNodes(detective.location())) {
-					boolean isOccupiedByOtherDetective = false;
-					for (Player otherDetective : myGameState.detectivePlayers) {
-						if (otherDetective != detective && otherDetective.location() == destination) {
-							isOccupiedByOtherDetective = true;
-							break;
-						}
-					}
-
-					if (isOccupiedByOtherDetective) {
-						continue;  // 如果目标位置被其他侦探占用，跳过该目标位置
-					}
-
-					for (Transport transport : myGameState.setup.graph.edgeValueOrDefault(detective.location(), destination, ImmutableSet.of())) {
-						Ticket ticketRequired = transport.requiredTicket();
-
-						// 判断侦探是否有足够的票进行移动
-						if (detectiveTickets.getOrDefault(ticketRequired, 0) > 0) {
-							availableMoves.add(new SingleMove(detective.piece(), detective.location(), ticketRequired, destination));
-						}
-					}
-				}
-			}
-
-			return availableMoves.build();
-		}
-
-		private ImmutableSet<Move> calculateAvailableMovesForDetectivesWithoutRemaining(MyGameState myGameState){
-			ImmutableSet.Builder<Move> availableMoves = ImmutableSet.builder();
-
-			// 如果是侦探，计算其可以移动到的合法位置
-			for (Player detective : myGameState.detectivePlayers) {
-				// 获取侦探的票务信息
-				ImmutableMap<Ticket, Integer> detectiveTickets = detective.tickets();
-
-				// 计算侦探的单步移动
-				for (int destination : myGameState.setup.graph.adjacentNodes(detective.location())) {
-					boolean isOccupiedByOtherDetective = false;
-					for (Player otherDetective : myGameState.detectivePlayers) {
-						if (otherDetective != detective && otherDetective.location() == destination) {
-							isOccupiedByOtherDetective = true;
-							break;
-						}
-					}
-
-					if (isOccupiedByOtherDetective) {
-						continue;  // 如果目标位置被其他侦探占用，跳过该目标位置
-					}
-
-					for (Transport transport : myGameState.setup.graph.edgeValueOrDefault(detective.location(), destination, ImmutableSet.of())) {
-						Ticket ticketRequired = transport.requiredTicket();
-
-						// 判断侦探是否有足够的票进行移动
-						if (detectiveTickets.getOrDefault(ticketRequired, 0) > 0) {
-							availableMoves.add(new SingleMove(detective.piece(), detective.location(), ticketRequired, destination));
-						}
-					}
-				}
-			}
-
-			return availableMoves.build();
 		}
 
 		private ImmutableSet<Piece> calculateWinner(MyGameState myGameState) {
-			System.out.println("#" + myGameState);
 			// 检查 MrX 是否被捕
-			for (Player detective : myGameState.detectivePlayers) {
-				if (detective.location() == myGameState.mrXPlayer.location()){
-					System.out.println("detectives win cause of catch mrx");
-					return detectivesWin();
-				}
-
+			if (myGameState.detectiveInLocation(myGameState.mrXPlayer.location())) {
+				return decided(detectivesWin(), Reason.MRX_CAUGHT, myGameState.log);
 			}
 
-			if(myGameState.log.size() >= myGameState.setup.moves.size()){
-				return mrXWin();
+			// 日志写满后还要等侦探走完这一轮，轮回 MrX 时他才算赢
+			if(myGameState.mrXTurn() && myGameState.log.size() >= myGameState.setup.moves.size()){
+				return decided(mrXWin(), Reason.TRAVEL_LOG_FULL, myGameState.log);
 			}
 
-			boolean allDetectivesStuck = false;
-			if (calculateAvailableMovesForDetectives(myGameState).isEmpty() && (!myGameState.mrXTurn())) {
-				allDetectivesStuck = true;
-			}
-			if(allDetectivesOutOfTickets(myGameState)){
-				allDetectivesStuck = true;
-			}
-			if(calculateAvailableMovesForDetectivesWithoutRemaining(myGameState).isEmpty() && myGameState.currentRound == 0){
-				allDetectivesStuck = true;
-			}
-
-
-			boolean mrxStuck = false;
-			if(calculateAvailableMovesForMrX(myGameState).isEmpty() && myGameState.mrXTurn())
-				mrxStuck = true;
-
-			if(isMrXBlocked(myGameState)){
-				mrxStuck = true;
-			}
+			// 以下都只读增量维护的计数和可用性，最多扫描 MrX 的邻接边，不生成任何移动
+			// MrX 只在轮到他时才算被困住；邻接节点全被占住时不必扫描他的边
+			boolean mrxStuck = myGameState.mrXTurn()
+				&& (myGameState.mrXFreeNeighbours == 0
+					|| !myGameState.hasMove(CompactGraph.of(myGameState.setup), myGameState.mrXPlayer));
 
 			if(mrxStuck){
-				System.out.println("detectives win cause of mrxStuck");
-				System.out.println(myGameState);
-				return detectivesWin();
+				return decided(detectivesWin(), Reason.MRX_STUCK, myGameState.log);
 			}
 
+			// 无路可走的侦探只是被跳过，所有侦探都走不了时 MrX 才赢，不论轮到谁
+			boolean allDetectivesStuck = myGameState.detectivesWithTickets == 0
+				|| noDetectiveCanMove(myGameState);
+
 			if (allDetectivesStuck){
-				System.out.println("mrXWin cause of allDetectivesStuck");
-				System.out.println("extra output in calculateWinner:" + myGameState);
-				return mrXWin();
+				return decided(mrXWin(), Reason.DETECTIVES_STUCK, myGameState.log);
 			}
 
 
@@ -482,13 +588,17 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			return ImmutableSet.of();
 		}
 
-		private boolean allDetectivesOutOfTickets(MyGameState myGameState) {
-			for (Player detective : myGameState.detectivePlayers) {
-				if (detective.has(Ticket.TAXI) ||
-					detective.has(Ticket.BUS) ||
-					detective.has(Ticket.UNDERGROUND)) {
-					return false;
-				}
+		// 通知监听器胜负已定，原样返回胜者
+		private ImmutableSet<Piece> decided(ImmutableSet<Piece> winner, Reason reason,
+		                                    ImmutableList<LogEntry> log) {
+			listener.onWinnerDecided(winner, reason, log.size());
+			return winner;
+		}
+
+		// 侦探是否全部没有可用移动
+		private boolean noDetectiveCanMove(MyGameState myGameState) {
+			for (int i = 0; i < myGameState.detectivePlayers.size(); i++) {
+				if (myGameState.detectiveCanMove[i]) return false;
 			}
 			return true;
 		}
@@ -501,6 +611,14 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			return currentRound % 2 == 1;
 		}
 
+		// 侦探在 detectivePlayers 中的下标，不是侦探时为 -1
+		private int detectiveIndex(Piece piece) {
+			for (int i = 0; i < detectivePlayers.size(); i++) {
+				if (detectivePlayers.get(i).piece().equals(piece)) return i;
+			}
+			return -1;
+		}
+
 		private Player findPlayer(Piece piece) {
 			if (mrXPlayer.piece().equals(piece)) {
 				return mrXPlayer;
@@ -515,6 +633,7 @@ public final class MyGameStateFactory implements Factory<GameState> {
 
 
 		private MyGameState nextState(
+			int mover,
 			Player newMrX,
 			ImmutableList<Player> newDetectives,
 			int nextRound,
@@ -523,25 +642,11 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			ImmutableSet<Piece> newremaining) {
 
 
-			ImmutableSet<Piece> filteredRemaining = newremaining.stream()
-				.filter(p -> {
-					Player detective = findPlayer(p);  // 获取对应的 Player
-					if (detective != null && detective.piece().equals(p)) {
-						// 如果侦探的可用路径为空，跳过这个侦探
-						ImmutableSet<Move> availableMoves = movesMap.getOrDefault(detective.piece(), ImmutableSet.of());
-						return !availableMoves.isEmpty();
-					}
-					return true;
-				})
-				.collect(ImmutableSet.toImmutableSet());
+			// 无路可走的侦探由新状态按它自己的局面跳过
+			ImmutableSet<Piece> filteredRemaining = newremaining;
 
 
-			if(DetectiverTrun()){
-				if (filteredRemaining.isEmpty()) {
-					nextRound++;
-					filteredRemaining = ImmutableSet.of(newMrX.piece());
-				}
-			}else{
+			if(!DetectiverTrun()){
 				nextRound++;
 				ImmutableSet.Builder<Piece> builder = ImmutableSet.builder();
 				for (Player d : detectivePlayers) builder.add(d.piece());
@@ -550,7 +655,8 @@ public final class MyGameStateFactory implements Factory<GameState> {
 
 
 			MyGameState newState =  new MyGameState(
-				this.setup,
+				this,
+				mover,
 				newMrX,
 				newDetectives,
 				nextRound,
@@ -563,15 +669,7 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			if(winner.isEmpty())
 				return newState;
 			else{
-				return new MyGameState(
-					this.setup,
-					newMrX,
-					newDetectives,
-					nextRound,
-					newLog,
-					winner,
-					filteredRemaining
-				);
+				return new MyGameState(newState, winner);
 			}
 
 
@@ -590,29 +688,6 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			});
 		}
 
-		private boolean isMrXBlocked(MyGameState myGameState) {
-			int mrXLocation = myGameState.mrXPlayer.location();
-
-			// 获取 MRX 可以去的所有邻接节点
-			Set<Integer> possibleDestinations = myGameState.setup.graph.adjacentNodes(mrXLocation);
-
-			// 检查所有邻接节点是否都被侦探占据
-			for (int destination : possibleDestinations) {
-				if (!isOccupiedByDetective(myGameState, destination)) {
-					return false;
-				}
-			}
-
-			return true;
-		}
-
-
-		private boolean isOccupiedByDetective(MyGameState myGameState, int location) {
-			for (Player detective : myGameState.detectivePlayers) {
-				if (detective.location() == location) return true;
-			}
-			return false;
-		}
 
 		private GameState doMrXSingleMove(SingleMove m) {
 			// 扣除对应票务
@@ -621,27 +696,13 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			updatedMrX = updatedMrX.at(m.destination);
 
 
-			// 揭示规则
-			boolean reveal = setup.moves.get(currentRound);
+			// 揭示规则：日志的第 n 格对应 setup.moves 的第 n 个回合
+			boolean reveal = setup.moves.get(log.size());
 			ImmutableList<LogEntry> updatedLog = updateLogForMrX(log, m.ticket, m.destination, reveal);
 
-			// MrX 胜利
-			if (updatedLog.size() >= setup.moves.size()) {
-				// MrX 走完了全部行程
-				System.out.println("mrXWin cause of MrX get maxPath");
-				return new MyGameState(
-					setup,
-					updatedMrX,
-					detectivePlayers,
-					currentRound,
-					updatedLog,
-					mrXWin(),
-					remaining
-				);
-			}
-
-			// 游戏继续
+			// 游戏继续：即使日志已满，侦探也还要走完这一轮
 			return nextState(
+				MRX_MOVED,
 				updatedMrX,
 				detectivePlayers,
 				currentRound,
@@ -658,29 +719,16 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			// 第一段移动
 			updatedMrX = updatedMrX.at(m.destination1);
 
-			// 更新日志
-			boolean reveal = setup.moves.get(currentRound);
+			// 更新日志：两段各占一个回合，各自按自己的回合决定是否揭示
+			boolean reveal = setup.moves.get(log.size());
 			ImmutableList<LogEntry> logAfterFirst = updateLogForMrX(log, m.ticket1, m.destination1, reveal);
 
 			updatedMrX = updatedMrX.at(m.destination2);
-			ImmutableList<LogEntry> finalLog = updateLogForMrX(logAfterFirst, m.ticket2, m.destination2, reveal);
-
-			// 若 MrX 日志已达最大, MrX 胜利
-			if (finalLog.size() >= setup.moves.size()) {
-				System.out.println("mrXWin cause of MrX get maxPath");
-				return new MyGameState(
-					setup,
-					updatedMrX,
-					detectivePlayers,
-					currentRound,
-					finalLog,
-					mrXWin(),
-					remaining
-				);
-			}
-
+			boolean revealSecond = setup.moves.get(logAfterFirst.size());
+			ImmutableList<LogEntry> finalLog = updateLogForMrX(logAfterFirst, m.ticket2, m.destination2, revealSecond);
 
 			return nextState(
+				MRX_MOVED,
 				updatedMrX,
 				detectivePlayers,
 				currentRound,
@@ -721,32 +769,29 @@ public final class MyGameStateFactory implements Factory<GameState> {
 
 
 			// 替换该侦探
+			int mover = detectiveIndex(detective.piece());
 			List<Player> newDetectives = new ArrayList<>(detectivePlayers);
-			for (int i = 0; i < newDetectives.size(); i++) {
-				if (newDetectives.get(i).piece().equals(detective.piece())) {
-					newDetectives.set(i, updatedDetective);
-					break;
-				}
-			}
+			newDetectives.set(mover, updatedDetective);
 			ImmutableList<Player> updatedDetectives = ImmutableList.copyOf(newDetectives);
 
 
 			// 若侦探移动到 MrX 的位置 => 侦探获胜
 			if (updatedDetective.location() == mrXPlayer.location()) {
-				System.out.println("detectives win cause of catch mrx");
 				return new MyGameState(
-					setup,
+					this,
+					mover,
 					updatedMrX,
 					updatedDetectives,
 					currentRound,
 					log,
-					detectivesWin(),
+					decided(detectivesWin(), Reason.MRX_CAUGHT, log),
 					newRemaining
 				);
 			}
 
 			// 判断游戏是否结束:
 			return nextState(
+				mover,
 				updatedMrX,
 				updatedDetectives,
 				currentRound,
@@ -757,11 +802,10 @@ public final class MyGameStateFactory implements Factory<GameState> {
 		}
 
 
+		// O(1)：查位集，与侦探数量无关
 		private boolean detectiveInLocation(int location) {
-			for (Player d : detectivePlayers) {
-				if (d.location() == location) return true;
-			}
-			return false;
+			if (location < 0 || location >= occupied.length * Long.SIZE) return false;
+			return (occupied[location >>> 6] & (1L << location)) != 0;
 		}
 
 		private ImmutableList<LogEntry> updateLogForMrX(ImmutableList<LogEntry> oldLog, Ticket t, int location, boolean reveal) {
@@ -794,7 +838,7 @@ public final class MyGameStateFactory implements Factory<GameState> {
 				", mrXPlayer=" + mrXPlayer +
 				", detectivePlayers=" + detectivePlayers +
 				", log=" + log +
-				", movesMap=" + movesMap +
+				", availableMoves=" + availableMoves +
 				", winner=" + winner +
 				", remaining=" + remaining +
 				'}';
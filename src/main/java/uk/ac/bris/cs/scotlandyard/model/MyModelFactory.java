@@ -1,81 +1,196 @@
-
 package uk.ac.bris.cs.scotlandyard.model;
 
 import com.google.common.collect.ImmutableList;
 
 import javax.annotation.Nonnull;
 
+import uk.ac.bris.cs.scotlandyard.model.Model.MoveObserver;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer.Event;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
 import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 
 
 
+/**
+ * Builds models that can be read from any thread while one thread plays the game:
+ * {@link Model#getCurrentBoard()}, {@link Model#getSnapshot()} and {@link Model#getObservers()}
+ * never lock, and a board read from a snapshot is always complete.
+ */
 public final class MyModelFactory implements Factory<Model> {
 
+	private final Executor dispatcher; // null: observers are notified inside chooseMove
+
+	public MyModelFactory() {
+		this.dispatcher = null;
+	}
+
+	/**
+	 * Models built by this factory notify their observers on the dispatcher instead of the
+	 * thread calling {@link Model#chooseMove(Move)}. Every observer still receives its events
+	 * one at a time and in order; observers that {@link Observer#coalesceMoves()} skip
+	 * {@link Event#MOVE_MADE} events superseded before they were delivered.
+	 *
+	 * @param dispatcher runs the notifications, e.g. {@code Platform::runLater}
+	 */
+	public MyModelFactory(@Nonnull Executor dispatcher) {
+		this.dispatcher = Objects.requireNonNull(dispatcher);
+	}
+
 	@Nonnull
 	@Override
 	public Model build(GameSetup setup, Player mrX, ImmutableList<Player> detectives) {
-		return new MyModel(new MyGameStateFactory().build(setup, mrX, detectives));
+		return new MyModel(new MyGameStateFactory().build(setup, mrX, detectives), dispatcher);
 	}
 
+	// Writers (chooseMove, registering and unregistering observers) synchronize on the model;
+	// readers only read the volatile fields, which always hold immutable values.
 	private static final class MyModel implements Model {
-		private final List<Observer> observers = new ArrayList<>();
-		private GameState gameState;// current gamestate
+		// copy-on-write, in registration order
+		private volatile ImmutableMap<Observer, Mailbox> observers = ImmutableMap.of();
+		private final Executor dispatcher;
+		private volatile Snapshot snapshot;// current gamestate and its version
 
         // set the initial game state.
-		public MyModel(GameState initialState) {
-			this.gameState = initialState;
+		public MyModel(GameState initialState, Executor dispatcher) {
+			this.snapshot = new Snapshot(initialState, 0);
+			this.dispatcher = dispatcher;
 		}
 
         //Returns the current game board (GameState implements Board).
 		@Override
 		public Board getCurrentBoard() {
-			return gameState;
+			return snapshot.board();
+		}
+
+		@Override
+		public Snapshot getSnapshot() {
+			return snapshot;
 		}
 
 		// Registers a new observer
 		@Override
-		public void registerObserver(@Nonnull Observer observer) {
+		public synchronized void registerObserver(@Nonnull Observer observer) {
 			if (observer == null) throw new NullPointerException("Observer cannot be null");
-			if (observers.contains(observer)) throw new IllegalArgumentException("Observer already registered");
-			observers.add(observer);
+			if (observers.containsKey(observer)) throw new IllegalArgumentException("Observer already registered");
+			observers = ImmutableMap.<Observer, Mailbox>builderWithExpectedSize(observers.size() + 1)
+					.putAll(observers)
+					.put(observer, new Mailbox(observer, dispatcher))
+					.build();
 		}
 
         //Unregisters an existing observer.
+        //Events already queued for it are still delivered.
 		@Override
-		public void unregisterObserver(@Nonnull Observer observer) {
+		public synchronized void unregisterObserver(@Nonnull Observer observer) {
 			if (observer == null) throw new NullPointerException("Observer cannot be null");
-			if (!observers.contains(observer)) throw new IllegalArgumentException("Observer not found");
-			observers.remove(observer);
+			if (!observers.containsKey(observer)) throw new IllegalArgumentException("Observer not found");
+			observers = ImmutableMap.copyOf(Maps.filterKeys(observers, o -> !o.equals(observer)));
 		}
 
 		//Return registered observers
 		@Override
 		public ImmutableSet<Observer> getObservers() {
-			return ImmutableSet.copyOf(observers);
+			return observers.keySet();
 		}
 
 
 
 		@Override
-		public void chooseMove(@Nonnull Move move) {
-			gameState = gameState.advance(move);// new gamestate
+		public synchronized void chooseMove(@Nonnull Move move) {
+			Snapshot current = snapshot;
+			GameState gameState = ((GameState) current.board()).advance(move);// new gamestate
+			snapshot = new Snapshot(gameState, current.version() + 1);
 
 			// Determine whether the game is over
-			Model.Observer.Event event = gameState.getWinner().isEmpty()
-					? Model.Observer.Event.MOVE_MADE
-					: Model.Observer.Event.GAME_OVER;
+			Event event = gameState.getWinner().isEmpty()
+					? Event.MOVE_MADE
+					: Event.GAME_OVER;
+
+			// Notify all registered observers, or queue the event for them
+			for (Mailbox mailbox : observers.values()) mailbox.post(gameState, move, event);
+		}
+	}
+
+	// Events waiting to be delivered to one observer. At most one drain of a mailbox is
+	// queued on the dispatcher at a time and it delivers everything posted until the mailbox is
+	// empty, so a burst of moves costs one dispatcher task per observer. Without a dispatcher
+	// events are delivered as they are posted.
+	private static final class Mailbox {
+		private final Observer observer;
+		private final Executor dispatcher;
+		private final ArrayDeque<Notification> pending = new ArrayDeque<>();
+		private boolean scheduled;
+
+		Mailbox(Observer observer, Executor dispatcher) {
+			this.observer = observer;
+			this.dispatcher = dispatcher;
+		}
 
-			// Notify all registered observers
-			for (Observer observer : observers) {
-				observer.onModelChanged(gameState, event);
+		void post(Board board, Move move, Event event) {
+			if (dispatcher == null) {
+				deliver(board, move, event);
+				return;
+			}
+			synchronized (this) {
+				// a MOVE_MADE not delivered yet is superseded by any later event
+				if (observer.coalesceMoves() && !pending.isEmpty()
+						&& pending.peekLast().event == Event.MOVE_MADE)
+					pending.removeLast();
+				pending.add(new Notification(board, move, event));
+				if (!scheduled) {
+					scheduled = true;
+					dispatcher.execute(this::drain);
+				}
+			}
+		}
+
+		private void drain() {
+			Notification next;
+			while ((next = next()) != null) {
+				try {
+					deliver(next.board, next.move, next.event);
+				} catch (RuntimeException | Error e) {
+					// the rest of the events go on in a new drain, the dispatcher reports this one
+					synchronized (this) {
+						if (pending.isEmpty()) scheduled = false;
+						else dispatcher.execute(this::drain);
+					}
+					throw e;
+				}
 			}
 		}
+
+		private void deliver(Board board, Move move, Event event) {
+			if (observer instanceof MoveObserver)
+				((MoveObserver) observer).onMoveMade(board, move, event);
+			else observer.onModelChanged(board, event);
+		}
+
+		// the next event to deliver, or null once the mailbox is empty and may be scheduled again
+		private synchronized Notification next() {
+			if (pending.isEmpty()) scheduled = false;
+			return pending.poll();
+		}
 	}
 
-}
+	private static final class Notification {
+		final Board board;
+		final Move move;
+		final Event event;
+
+		Notification(Board board, Move move, Event event) {
+			this.board = board;
+			this.move = move;
+			this.event = event;
+		}
+	}
 
+}
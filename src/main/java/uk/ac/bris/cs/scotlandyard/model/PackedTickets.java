@@ -0,0 +1,98 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Ticket counts of a single player packed into one {@code long}; each {@link Ticket} gets a
+ * {@link #BITS} wide field indexed by its ordinal.
+ */
+final class PackedTickets {
+
+	private PackedTickets() {}
+
+	/**
+	 * Width of a single ticket field
+	 */
+	static final int BITS = 12;
+	/**
+	 * Largest count a single field can hold
+	 */
+	static final int MAX_COUNT = (1 << BITS) - 1;
+
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	/**
+	 * @param tickets the ticket counts; missing tickets are treated as zero
+	 * @return the packed counts
+	 * @throws IllegalArgumentException if any count is negative or larger than {@link #MAX_COUNT}
+	 */
+	static long pack(@Nonnull Map<Ticket, Integer> tickets) {
+		long packed = 0;
+		for (var entry : tickets.entrySet()) {
+			int count = entry.getValue();
+			if (count < 0 || count > MAX_COUNT)
+				throw new IllegalArgumentException(
+						"Ticket count out of range for " + entry.getKey() + ": " + count);
+			packed |= (long) count << shift(entry.getKey().ordinal());
+		}
+		return packed;
+	}
+
+	/**
+	 * @param packed the packed counts
+	 * @param ticket the ticket ordinal
+	 * @return the count of the given ticket
+	 */
+	static int count(long packed, int ticket) {
+		return (int) (packed >>> shift(ticket)) & MAX_COUNT;
+	}
+
+	/**
+	 * @param packed the packed counts
+	 * @param ticket the ticket
+	 * @return the count of the given ticket
+	 */
+	static int count(long packed, @Nonnull Ticket ticket) {
+		return count(packed, ticket.ordinal());
+	}
+
+	/**
+	 * @param packed the packed counts
+	 * @param ticket the ticket ordinal
+	 * @return the packed counts with one more of the given ticket, saturating at
+	 * {@link #MAX_COUNT}
+	 */
+	static long give(long packed, int ticket) {
+		return count(packed, ticket) == MAX_COUNT ? packed : packed + (1L << shift(ticket));
+	}
+
+	/**
+	 * @param packed the packed counts
+	 * @param ticket the ticket ordinal
+	 * @return the packed counts with one less of the given ticket
+	 * @throws IllegalArgumentException if none of the given ticket remains
+	 */
+	static long use(long packed, int ticket) {
+		if (count(packed, ticket) == 0)
+			throw new IllegalArgumentException("No " + TICKETS[ticket] + " remaining");
+		return packed - (1L << shift(ticket));
+	}
+
+	/**
+	 * @param packed the packed counts
+	 * @return a bitmask of ticket ordinals with a non-zero count
+	 */
+	static int held(long packed) {
+		int mask = 0;
+		for (int t = 0; t < TICKETS.length; t++)
+			if (count(packed, t) != 0) mask |= 1 << t;
+		return mask;
+	}
+
+	private static int shift(int ticket) { return ticket * BITS; }
+
+}
@@ -1,6 +1,8 @@
 package uk.ac.bris.cs.scotlandyard.model;
 
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 
@@ -37,6 +39,60 @@ public interface Piece extends Serializable {
 		@Override public boolean isDetective() { return true; }
 	}
 
+	/**
+	 * Detectives beyond the five of {@link Detective}, for games with many detectives such as
+	 * those on a {@link SyntheticMap}. Instances are interned, so pieces with the same number are
+	 * the same object.
+	 * <br>
+	 * {@link Board#getDetectiveLocation(Detective)} only knows the five game-defined detectives;
+	 * the location of a numbered detective is available from
+	 * {@link SearchState#detectiveLocations(Board)} for any board.
+	 */
+	final class NumberedDetective implements Piece {
+		private static final long serialVersionUID = 5830374913920556467L;
+
+		/**
+		 * The smallest number of a numbered detective; 1 to 5 are the colours of
+		 * {@link Detective}
+		 */
+		public static final int FIRST = Detective.values().length + 1;
+
+		private static final ConcurrentMap<Integer, NumberedDetective> INTERNED =
+				new ConcurrentHashMap<>();
+
+		private final int number;
+		private final String colour;
+
+		private NumberedDetective(int number) {
+			this.number = number;
+			// consecutive numbers get unrelated colours
+			this.colour = String.format("#%06x", (number * 0x9E3779B1) >>> 8);
+		}
+
+		/**
+		 * @param number the number of the detective, at least {@link #FIRST}
+		 * @return the detective with the given number
+		 */
+		@Nonnull public static NumberedDetective of(int number) {
+			if (number < FIRST)
+				throw new IllegalArgumentException("Detective number below " + FIRST + ": " + number);
+			return INTERNED.computeIfAbsent(number, NumberedDetective::new);
+		}
+
+		/**
+		 * @return the number of this detective
+		 */
+		public int number() { return number; }
+
+		@Nonnull @Override public String webColour() { return colour; }
+
+		@Override public boolean isDetective() { return true; }
+
+		@Override public String toString() { return "DETECTIVE_" + number; }
+
+		private Object readResolve() { return of(number); }
+	}
+
 	/**
 	 * Game-defined MrX colour pieces.
 	 */
@@ -12,11 +12,22 @@ import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
 /**
  * A POJO representing an immutable player of the ScotlandYard game.
  * Each player contains the {@link Piece} (coloured counter), {@link Ticket}s, and the location.
+ * <br>
+ * Ticket counts are held as {@link PackedTickets} together with a mask of the tickets present in
+ * {@link #tickets()}, so {@link #use(Ticket)} and {@link #give(Ticket)} only allocate the new
+ * player; the map is built when first asked for. Counts that do not fit (negative or larger
+ * than {@link PackedTickets#MAX_COUNT}) are kept in the map instead.
  */
 public final class Player {
+	private static final Ticket[] TICKETS = Ticket.values();
+	// never a valid packing, the top bits of one are always clear
+	private static final long UNPACKED = -1;
+
 	private final Piece piece;
-	private final ImmutableMap<Ticket, Integer> tickets;
 	private final int location;
+	private final long packed;
+	private final int present;
+	private ImmutableMap<Ticket, Integer> tickets;
 
 	public Player(@Nonnull Piece piece,
 	              @Nonnull ImmutableMap<Ticket, Integer> tickets,
@@ -24,6 +35,29 @@ public final class Player {
 		this.piece = Objects.requireNonNull(piece);
 		this.tickets = Objects.requireNonNull(tickets);
 		this.location = location;
+		long packed = 0;
+		int present = 0;
+		for (var entry : tickets.entrySet()) {
+			int count = entry.getValue();
+			if (count < 0 || count > PackedTickets.MAX_COUNT) {
+				packed = UNPACKED;
+				break;
+			}
+			int t = entry.getKey().ordinal();
+			packed |= (long) count << (t * PackedTickets.BITS);
+			present |= 1 << t;
+		}
+		this.packed = packed;
+		this.present = packed == UNPACKED ? 0 : present;
+	}
+
+	private Player(Piece piece, int location, long packed, int present,
+	               ImmutableMap<Ticket, Integer> tickets) {
+		this.piece = piece;
+		this.location = location;
+		this.packed = packed;
+		this.present = present;
+		this.tickets = tickets;
 	}
 	/**
 	 * @return the piece
@@ -40,17 +74,44 @@ public final class Player {
 	/**
 	 * @return the ticket
 	 */
-	@Nonnull public ImmutableMap<Ticket, Integer> tickets() { return tickets; }
+	@Nonnull public ImmutableMap<Ticket, Integer> tickets() {
+		// racy but benign, every thread builds an equal map
+		var map = tickets;
+		if (map == null) {
+			var builder = ImmutableMap.<Ticket, Integer>builder();
+			for (Ticket t : TICKETS)
+				if ((present & 1 << t.ordinal()) != 0)
+					builder.put(t, PackedTickets.count(packed, t));
+			tickets = map = builder.build();
+		}
+		return map;
+	}
 	/**
 	 * @return the location
 	 */
 	public int location() { return location; }
+	/**
+	 * @param ticket the ticket
+	 * @return the count of the given ticket, 0 if the player has none
+	 */
+	int count(@Nonnull Ticket ticket) {
+		return packed != UNPACKED
+				? PackedTickets.count(packed, ticket)
+				: tickets.getOrDefault(Objects.requireNonNull(ticket), 0);
+	}
+	/**
+	 * @return the ticket counts as {@link PackedTickets}
+	 * @throws IllegalArgumentException if any count does not fit
+	 */
+	long packedTickets() {
+		return packed != UNPACKED ? packed : PackedTickets.pack(tickets);
+	}
 	/**
 	 * @param ticket the ticket
 	 * @return whether the player has the given ticket
 	 */
 	public boolean has(@Nonnull Ticket ticket) {
-		return tickets.getOrDefault(Objects.requireNonNull(ticket), 0) != 0;
+		return count(Objects.requireNonNull(ticket)) != 0;
 	}
 	/**
 	 * @param ticket the ticket
@@ -58,7 +119,7 @@ public final class Player {
 	 * @return whether the player has &gt;= the required numbers of the given ticket
 	 */
 	public boolean hasAtLeast(@Nonnull Ticket ticket, int count) {
-		return tickets.getOrDefault(Objects.requireNonNull(ticket), 0) >= count;
+		return count(Objects.requireNonNull(ticket)) >= count;
 	}
 	/**
 	 * See {@link #give(Ticket)}
@@ -73,11 +134,17 @@ public final class Player {
 	}
 	/**
 	 * @param ticket the ticket
-	 * @return a new player with one more of the given ticket
+	 * @return a new player with one more of the given ticket; tickets the player has never held
+	 * are not given
 	 */
 	@Nonnull public Player give(@Nonnull Ticket ticket) {
-		var map = new HashMap<>(tickets);
-		map.computeIfPresent(ticket, (t, n) -> n + 1);
+		int t = ticket.ordinal();
+		if (packed != UNPACKED && PackedTickets.count(packed, t) < PackedTickets.MAX_COUNT) {
+			if ((present & 1 << t) == 0) return this;
+			return new Player(piece, location, PackedTickets.give(packed, t), present, null);
+		}
+		var map = new HashMap<>(tickets());
+		map.computeIfPresent(ticket, (x, n) -> n + 1);
 		return new Player(piece, ImmutableMap.copyOf(map), location);
 	}
 	/**
@@ -98,6 +165,9 @@ public final class Player {
 	@Nonnull public Player use(@Nonnull Ticket ticket) {
 		if (!has(ticket))
 			throw new IllegalArgumentException("No " + ticket + " remaining");
+		if (packed != UNPACKED)
+			return new Player(piece, location,
+					PackedTickets.use(packed, ticket.ordinal()), present, null);
 		var map = new HashMap<>(tickets);
 		map.computeIfPresent(ticket, (t, n) -> n - 1);
 		return new Player(piece, ImmutableMap.copyOf(map), location);
@@ -106,14 +176,23 @@ public final class Player {
 	 * @param newLocation the location
 	 * @return a new player at the given location
 	 */
-	@Nonnull public Player at(int newLocation) { return new Player(piece, tickets, newLocation); }
+	@Nonnull public Player at(int newLocation) {
+		return new Player(piece, newLocation, packed, present, tickets);
+	}
 	@Override public boolean equals(Object o) {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		Player that = (Player) o;
-		return location == that.location && piece == that.piece &&
-				Objects.equals(tickets, that.tickets);
+		if (location != that.location || piece != that.piece) return false;
+		// equal maps either both fit or both do not
+		if (packed != UNPACKED && that.packed != UNPACKED)
+			return packed == that.packed && present == that.present;
+		return Objects.equals(tickets(), that.tickets());
+	}
+	@Override public int hashCode() {
+		return packed != UNPACKED
+				? Objects.hash(piece, packed, present, location)
+				: Objects.hash(piece, tickets, location);
 	}
-	@Override public int hashCode() { return Objects.hash(piece, tickets, location); }
-	@Override public String toString() { return piece + "@" + location + "(" + tickets + ")"; }
+	@Override public String toString() { return piece + "@" + location + "(" + tickets() + ")"; }
 }
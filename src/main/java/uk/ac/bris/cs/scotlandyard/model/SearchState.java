@@ -0,0 +1,436 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * A mutable game position for AI lookahead.
+ * <br>
+ * Unlike {@link Board.GameState#advance(Move)}, {@link #make(Move)} updates locations, tickets
+ * and the travel log in place and pushes what it overwrote onto an undo stack so that
+ * {@link #unmake()} can restore the previous position exactly. Walking a search tree this way
+ * allocates nothing per node apart from the occasional growth of the undo stack.
+ * <br>
+ * The {@link Board} methods are views computed on demand from the current position; they are
+ * intended for debugging and for handing a position to code that only understands
+ * {@link Board}. Instances are not thread-safe.
+ */
+public final class SearchState implements Board, StateKey.Keyed, MoveList.Source {
+
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private final CompactGame game;
+	private final int[] locations;
+	private final long[] occupancy;
+	private final long[] tickets;
+	private final int[] log;
+	private int logSize;
+	private long remaining;
+	private int winner;
+	private long key;
+
+	// undo stack, one slot per make()
+	private int depth;
+	private int[] undoPlayer = new int[64];
+	private int[] undoLocation = new int[64];
+	private long[] undoPlayerTickets = new long[64];
+	private long[] undoMrXTickets = new long[64];
+	private long[] undoRemaining = new long[64];
+	private int[] undoWinner = new int[64];
+	private int[] undoLogSize = new int[64];
+	private long[] undoKey = new long[64];
+
+	/**
+	 * Implemented by the model's other boards that, like search states, know the location of
+	 * every piece, numbered detectives included
+	 */
+	interface Located {
+		/**
+		 * @param piece the piece
+		 * @return the location of the piece or -1 if the piece is not part of the game
+		 */
+		int location(@Nonnull Piece piece);
+	}
+
+	private SearchState(CompactGame game, int[] locations, long[] tickets,
+	                    int[] log, int logSize, long remaining) {
+		this.game = game;
+		this.locations = locations;
+		this.occupancy = game.occupancy(locations);
+		this.tickets = tickets;
+		this.log = Arrays.copyOf(log, game.rounds());
+		this.logSize = logSize;
+		this.remaining = remaining;
+		this.winner = game.winner(locations, occupancy, tickets, logSize, remaining);
+		this.key = game.key(locations, tickets, logSize, remaining, winner);
+	}
+
+	/**
+	 * Creates a search state from any board. MrX's location is taken from the board if it is
+	 * {@link Located}, otherwise from the available moves, which only works on MrX's turn.
+	 *
+	 * @param board the board
+	 * @return a new search state at the position of the board
+	 * @throws IllegalArgumentException if MrX's location cannot be determined; use
+	 * {@link #of(Board, int)} instead
+	 */
+	@Nonnull public static SearchState of(@Nonnull Board board) {
+		if (board instanceof CompactGameState) {
+			var state = (CompactGameState) board;
+			return new SearchState(state.game, state.locations.clone(), state.tickets.clone(),
+					state.log, state.log.length, state.remaining);
+		}
+		if (board instanceof Located) {
+			int mrXLocation = ((Located) board).location(MrX.MRX);
+			if (mrXLocation != -1) return of(board, mrXLocation);
+		}
+		return of(board, board.getAvailableMoves().stream()
+				.filter(m -> m.commencedBy().isMrX())
+				.mapToInt(Move::source)
+				.findFirst()
+				.orElseThrow(() -> new IllegalArgumentException(
+						"MrX's location is not known to the board")));
+	}
+
+	/**
+	 * Creates a search state from any board with MrX at the given location; this is how a
+	 * detective AI searches a position from an assumed MrX location.
+	 *
+	 * @param board the board
+	 * @param mrXLocation the assumed location of MrX
+	 * @return a new search state at the position of the board
+	 */
+	@Nonnull public static SearchState of(@Nonnull Board board, int mrXLocation) {
+		Objects.requireNonNull(board);
+		if (board instanceof CompactGameState) {
+			var state = (CompactGameState) board;
+			if (!state.game.graph.contains(mrXLocation))
+				throw new IllegalArgumentException("MrX is not on the graph: " + mrXLocation);
+			int[] locations = state.locations.clone();
+			locations[CompactGame.MRX] = mrXLocation;
+			return new SearchState(state.game, locations, state.tickets.clone(),
+					state.log, state.log.length, state.remaining);
+		}
+		var mrX = new Player(MrX.MRX, ticketsOf(board, MrX.MRX), mrXLocation);
+		var builder = ImmutableList.<Player>builder();
+		detectiveLocations(board).forEach((piece, location) ->
+				builder.add(new Player(piece, ticketsOf(board, piece), location)));
+		var detectives = builder.build();
+		var game = new CompactGame(board.getSetup(), mrX, detectives);
+		int[] locations = new int[game.pieces.length];
+		long[] tickets = new long[game.pieces.length];
+		locations[CompactGame.MRX] = mrXLocation;
+		tickets[CompactGame.MRX] = PackedTickets.pack(mrX.tickets());
+		for (int i = 1; i < game.pieces.length; i++) {
+			Player detective = detectives.get(i - 1);
+			locations[i] = detective.location();
+			tickets[i] = PackedTickets.pack(detective.tickets());
+		}
+		ImmutableList<LogEntry> travelLog = board.getMrXTravelLog();
+		int[] log = new int[travelLog.size()];
+		for (int i = 0; i < log.length; i++) {
+			LogEntry entry = travelLog.get(i);
+			log[i] = CompactGame.logEntry(entry.ticket().ordinal(),
+					entry.location().orElse(0), entry.location().isPresent());
+		}
+		long remaining = 0;
+		for (Move move : board.getAvailableMoves())
+			remaining |= 1L << game.indexOf(move.commencedBy());
+		if (remaining == 0 || (remaining & CompactGame.MRX_TURN) != 0)
+			remaining = CompactGame.MRX_TURN;
+		return new SearchState(game, locations, tickets, log, log.length, remaining);
+	}
+
+	/**
+	 * The detectives of any board with their locations: the detectives among
+	 * {@link Board#getPlayers()} and every detective with a move available.
+	 * {@link Board#getDetectiveLocation(Detective)} only knows the five {@link Detective}s, so
+	 * a {@link Piece.NumberedDetective} is located by boards of the model or by the source of its
+	 * moves.
+	 *
+	 * @param board the board
+	 * @return the location of every detective, in the order of {@link Board#getPlayers()}
+	 * @throws IllegalArgumentException if the location of a detective is not known to the board
+	 */
+	@Nonnull public static ImmutableMap<Piece, Integer> detectiveLocations(@Nonnull Board board) {
+		var pieces = new LinkedHashSet<Piece>(board.getPlayers());
+		for (Move move : board.getAvailableMoves()) pieces.add(move.commencedBy());
+		var locations = ImmutableMap.<Piece, Integer>builder();
+		for (Piece piece : pieces) {
+			if (piece.isMrX()) continue;
+			int location = board instanceof SearchState ? ((SearchState) board).location(piece)
+					: board instanceof Located ? ((Located) board).location(piece) : -1;
+			if (location < 0 && piece instanceof Detective)
+				location = board.getDetectiveLocation((Detective) piece).orElse(-1);
+			if (location < 0) location = board.getAvailableMoves().stream()
+					.filter(m -> m.commencedBy().equals(piece))
+					.mapToInt(Move::source)
+					.findFirst()
+					.orElseThrow(() -> new IllegalArgumentException(
+							"The location of " + piece + " is not known to the board"));
+			locations.put(piece, location);
+		}
+		return locations.build();
+	}
+
+	private static ImmutableMap<Ticket, Integer> ticketsOf(Board board, Piece piece) {
+		TicketBoard ticketBoard = board.getPlayerTickets(piece).orElseThrow(
+				() -> new IllegalArgumentException(piece + " has no tickets on the board"));
+		Map<Ticket, Integer> map = new EnumMap<>(Ticket.class);
+		for (Ticket t : TICKETS) map.put(t, ticketBoard.getCount(t));
+		return ImmutableMap.copyOf(map);
+	}
+
+	/**
+	 * Applies a move in place. The move must be one of {@link #getAvailableMoves()}; this is not
+	 * checked.
+	 *
+	 * @param move the move to make
+	 */
+	public void make(@Nonnull Move move) {
+		int player = game.indexOf(move.commencedBy());
+		// instanceof rather than a visitor keeps make() allocation free
+		if (move instanceof DoubleMove) {
+			DoubleMove m = (DoubleMove) move;
+			make(player, m.ticket1.ordinal(), m.destination1,
+					m.ticket2.ordinal(), m.destination2);
+		} else {
+			SingleMove m = (SingleMove) move;
+			make(player, m.ticket.ordinal(), m.destination, -1, -1);
+		}
+	}
+
+	/**
+	 * Applies an encoded move in place. The move must be one of the moves written by
+	 * {@link #availableMoves(MoveList)}; this is not checked.
+	 *
+	 * @param move the encoded move to make
+	 */
+	public void make(long move) {
+		int player = game.playerOf(move);
+		int destination1 = game.graph.target(MoveTable.edge1(move));
+		if (MoveTable.isDouble(move))
+			make(player, MoveTable.ticket1(move), destination1,
+					MoveTable.ticket2(move), game.graph.target(MoveTable.edge2(move)));
+		else make(player, MoveTable.ticket1(move), destination1, -1, -1);
+	}
+
+	// ticket2 is -1 for a single move
+	private void make(int player, int ticket1, int destination1, int ticket2, int destination2) {
+		push(player);
+		int fromLocation = locations[player];
+		long fromTickets = tickets[player];
+		long fromMrXTickets = tickets[CompactGame.MRX];
+		int fromLogSize = logSize;
+		long positionKey = key ^ game.moversKey(remaining, winner);
+		if (player == CompactGame.MRX) {
+			if (ticket2 >= 0) {
+				tickets[CompactGame.MRX] =
+						PackedTickets.use(tickets[CompactGame.MRX], CompactGame.DOUBLE);
+				step(ticket1, destination1);
+				step(ticket2, destination2);
+			} else step(ticket1, destination1);
+			remaining = game.nextRemaining(locations, occupancy, tickets, game.allDetectives);
+		} else {
+			tickets[player] = PackedTickets.use(tickets[player], ticket1);
+			tickets[CompactGame.MRX] = PackedTickets.give(tickets[CompactGame.MRX], ticket1);
+			locations[player] = destination1;
+			CompactGame.move(occupancy, fromLocation, destination1);
+			remaining = game.nextRemaining(locations, occupancy, tickets,
+					remaining & ~(1L << player));
+			positionKey ^= game.keyDelta(CompactGame.MRX, locations[CompactGame.MRX],
+					fromMrXTickets, locations[CompactGame.MRX], tickets[CompactGame.MRX]);
+		}
+		winner = game.winner(locations, occupancy, tickets, logSize, remaining);
+		positionKey ^= game.keyDelta(player, fromLocation, fromTickets,
+				locations[player], tickets[player]);
+		if (logSize != fromLogSize) positionKey ^= StateKey.round(fromLogSize) ^ StateKey.round(logSize);
+		key = positionKey ^ game.moversKey(remaining, winner);
+	}
+
+	private void step(int ticket, int destination) {
+		tickets[CompactGame.MRX] = PackedTickets.use(tickets[CompactGame.MRX], ticket);
+		locations[CompactGame.MRX] = destination;
+		log[logSize] = CompactGame.logEntry(ticket, destination, game.reveal[logSize]);
+		logSize++;
+	}
+
+	private void push(int player) {
+		if (depth == undoPlayer.length) {
+			int size = depth * 2;
+			undoPlayer = Arrays.copyOf(undoPlayer, size);
+			undoLocation = Arrays.copyOf(undoLocation, size);
+			undoPlayerTickets = Arrays.copyOf(undoPlayerTickets, size);
+			undoMrXTickets = Arrays.copyOf(undoMrXTickets, size);
+			undoRemaining = Arrays.copyOf(undoRemaining, size);
+			undoWinner = Arrays.copyOf(undoWinner, size);
+			undoLogSize = Arrays.copyOf(undoLogSize, size);
+			undoKey = Arrays.copyOf(undoKey, size);
+		}
+		undoPlayer[depth] = player;
+		undoLocation[depth] = locations[player];
+		undoPlayerTickets[depth] = tickets[player];
+		undoMrXTickets[depth] = tickets[CompactGame.MRX];
+		undoRemaining[depth] = remaining;
+		undoWinner[depth] = winner;
+		undoLogSize[depth] = logSize;
+		undoKey[depth] = key;
+		depth++;
+	}
+
+	/**
+	 * Reverts the last move made with {@link #make(Move)}.
+	 *
+	 * @throws IllegalStateException if there is no move to revert
+	 */
+	public void unmake() {
+		if (depth == 0) throw new IllegalStateException("No move to unmake");
+		depth--;
+		int player = undoPlayer[depth];
+		if (player != CompactGame.MRX)
+			CompactGame.move(occupancy, locations[player], undoLocation[depth]);
+		locations[player] = undoLocation[depth];
+		tickets[player] = undoPlayerTickets[depth];
+		tickets[CompactGame.MRX] = undoMrXTickets[depth];
+		remaining = undoRemaining[depth];
+		winner = undoWinner[depth];
+		logSize = undoLogSize[depth];
+		key = undoKey[depth];
+	}
+
+	/**
+	 * Places MrX at another location without making a move; this is how a detective AI tries a
+	 * different guess at MrX's location without creating a new search state.
+	 *
+	 * @param location the new location of MrX
+	 * @throws IllegalStateException if there are moves that can be reverted
+	 */
+	public void relocateMrX(int location) {
+		if (depth != 0) throw new IllegalStateException("Cannot relocate MrX after make()");
+		if (!game.graph.contains(location))
+			throw new IllegalArgumentException("MrX is not on the graph: " + location);
+		long positionKey = key ^ game.moversKey(remaining, winner)
+				^ game.keyDelta(CompactGame.MRX, locations[CompactGame.MRX],
+						tickets[CompactGame.MRX], location, tickets[CompactGame.MRX]);
+		locations[CompactGame.MRX] = location;
+		winner = game.winner(locations, occupancy, tickets, logSize, remaining);
+		key = positionKey ^ game.moversKey(remaining, winner);
+	}
+
+	/**
+	 * @return the {@link StateKey} of the current position, maintained by {@link #make(Move)}
+	 * and {@link #unmake()}
+	 */
+	@Override public long key() { return key; }
+
+	/**
+	 * @return the number of moves that can be reverted with {@link #unmake()}
+	 */
+	public int depth() { return depth; }
+
+	/**
+	 * @return whether the game has a winner
+	 */
+	public boolean isGameOver() { return winner != CompactGame.NO_WINNER; }
+
+	/**
+	 * @return whether it is MrX's turn to move
+	 */
+	public boolean isMrXTurn() { return remaining == CompactGame.MRX_TURN; }
+
+	/**
+	 * @return the current location of MrX
+	 */
+	public int mrXLocation() { return locations[CompactGame.MRX]; }
+
+	/**
+	 * @param piece the piece
+	 * @return the location of the piece or -1 if the piece is not part of the game
+	 */
+	public int location(@Nonnull Piece piece) {
+		int index = game.indexOf(piece);
+		return index < 0 ? -1 : locations[index];
+	}
+
+	/**
+	 * @param piece the piece
+	 * @param ticket the ticket
+	 * @return the number of the given ticket held by the piece; 0 if the piece is not part of
+	 * the game
+	 */
+	public int ticketCount(@Nonnull Piece piece, @Nonnull Ticket ticket) {
+		int index = game.indexOf(piece);
+		return index < 0 ? 0 : PackedTickets.count(tickets[index], ticket);
+	}
+
+	/**
+	 * @return the number of entries in MrX's travel log
+	 */
+	public int logSize() { return logSize; }
+
+	@Nonnull @Override public GameSetup getSetup() { return game.setup; }
+
+	@Nonnull @Override public ImmutableSet<Piece> getPlayers() { return game.players; }
+
+	@Nonnull @Override public Optional<Integer> getDetectiveLocation(Detective detective) {
+		int index = game.indexOf(detective);
+		return index > CompactGame.MRX ? Optional.of(locations[index]) : Optional.empty();
+	}
+
+	@Nonnull @Override public Optional<TicketBoard> getPlayerTickets(Piece piece) {
+		int index = game.indexOf(piece);
+		if (index < 0) return Optional.empty();
+		long packed = tickets[index];
+		return Optional.of(ticket -> PackedTickets.count(packed, ticket));
+	}
+
+	@Nonnull @Override public ImmutableList<LogEntry> getMrXTravelLog() {
+		var builder = ImmutableList.<LogEntry>builderWithExpectedSize(logSize);
+		for (int i = 0; i < logSize; i++) builder.add(CompactGame.decodeLogEntry(log[i]));
+		return builder.build();
+	}
+
+	@Nonnull @Override public ImmutableSet<Piece> getWinner() {
+		return game.winningPieces(winner);
+	}
+
+	/**
+	 * Replaces the contents of the list with the available moves of the current position,
+	 * encoded by the {@link MoveTable} of the game's graph; no moves if the game is over.
+	 *
+	 * @param moves the list to fill
+	 */
+	@Override public void availableMoves(@Nonnull MoveList moves) {
+		moves.reset(game.moveTable);
+		if (winner != CompactGame.NO_WINNER) return;
+		for (int i = 0; i < locations.length; i++)
+			if ((remaining & (1L << i)) != 0)
+				game.addMoves(moves, locations, occupancy, tickets, logSize, i);
+	}
+
+	/**
+	 * @return the available moves, built from {@link #availableMoves(MoveList)}
+	 */
+	@Nonnull @Override public ImmutableSet<Move> getAvailableMoves() {
+		var moves = new MoveList();
+		availableMoves(moves);
+		return moves.toSet();
+	}
+
+}
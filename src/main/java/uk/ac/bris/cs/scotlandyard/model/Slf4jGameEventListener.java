@@ -0,0 +1,36 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link GameEventListener} that logs events to SLF4J at debug level
+ */
+public final class Slf4jGameEventListener implements GameEventListener {
+
+	private final Logger logger;
+
+	/**
+	 * Logs to the logger of {@link GameEventListener}
+	 */
+	public Slf4jGameEventListener() { this(LoggerFactory.getLogger(GameEventListener.class)); }
+
+	/**
+	 * @param logger the logger to log to
+	 */
+	public Slf4jGameEventListener(@Nonnull Logger logger) {
+		this.logger = Objects.requireNonNull(logger);
+	}
+
+	@Override public void onWinnerDecided(@Nonnull ImmutableSet<Piece> winner,
+	                                      @Nonnull Reason reason, int round) {
+		logger.debug("Winner {} decided in round {}: {}", winner, round, reason);
+	}
+
+}
@@ -0,0 +1,174 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Stable 64 bit keys of game positions, for caches, transposition tables and finding repeated
+ * positions.
+ * <br>
+ * A key is the XOR of a pseudo-random number (Zobrist style) for every part of the position:
+ * the location of each piece, MrX's included, the count of every ticket of every piece, the
+ * number of entries in MrX's travel log and every piece that has a move available. The last
+ * part tells whose turn it is and which detectives are still to move in the round; a game that
+ * is over has no pieces to move. The travel log itself and the game setup are not part of the
+ * key. Since the numbers are derived from the pieces' names and colours rather than from
+ * identity hash codes, keys are the same across runs and across {@link Board} implementations.
+ * <br>
+ * The model's own states keep their key up to date as moves are made, XOR-ing out and in only
+ * the parts a move changed: {@link SearchState}, the compact {@link Board.GameState} and
+ * {@link MyGameStateFactory}'s states. For them {@link #of(Board)} neither generates moves nor
+ * visits every ticket of every piece; for any other board the key is computed from the board.
+ */
+public final class StateKey {
+
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private static final long LOCATION = 1;
+	private static final long TICKET = 2;
+	private static final long ROUND = 3;
+	private static final long MOVER = 4;
+
+	// pieces are enum constants or interned, so the numbers are derived once per piece
+	private static final ConcurrentMap<Piece, Long> PIECES = new ConcurrentHashMap<>();
+
+	private StateKey() {}
+
+	/**
+	 * Implemented by boards that maintain their own key
+	 */
+	interface Keyed {
+		/**
+		 * @return the key of this position, equal to {@link StateKey#of(Board)}
+		 */
+		long key();
+	}
+
+	/**
+	 * @param board the board
+	 * @return the key of the board's position
+	 * @throws IllegalArgumentException if MrX's location cannot be determined; use
+	 * {@link #of(Board, int)} instead
+	 */
+	public static long of(@Nonnull Board board) {
+		if (board instanceof Keyed) return ((Keyed) board).key();
+		return of(board, board.getAvailableMoves().stream()
+				.filter(m -> m.commencedBy().isMrX())
+				.mapToInt(Move::source)
+				.findFirst()
+				.orElseThrow(() -> new IllegalArgumentException(
+						"MrX's location is not known to the board")));
+	}
+
+	/**
+	 * Computes the key of the board's position with MrX at the given location; this is how a
+	 * detective AI keys a position from an assumed MrX location.
+	 *
+	 * @param board the board
+	 * @param mrXLocation the location of MrX
+	 * @return the key of the position
+	 */
+	public static long of(@Nonnull Board board, int mrXLocation) {
+		Objects.requireNonNull(board);
+		long key = round(board.getMrXTravelLog().size());
+		key ^= player(piece(Piece.MrX.MRX), mrXLocation, tickets(board, Piece.MrX.MRX));
+		for (var detective : SearchState.detectiveLocations(board).entrySet()) {
+			Piece piece = detective.getKey();
+			key ^= player(piece(piece), detective.getValue(), tickets(board, piece));
+		}
+		for (Piece mover : board.getAvailableMoves().stream()
+				.map(Move::commencedBy)
+				.collect(ImmutableSet.toImmutableSet()))
+			key ^= mover(piece(mover));
+		return key;
+	}
+
+	private static int[] tickets(Board board, Piece piece) {
+		Board.TicketBoard tickets = board.getPlayerTickets(piece).orElseThrow(
+				() -> new IllegalArgumentException(piece + " has no tickets on the board"));
+		int[] counts = new int[TICKETS.length];
+		for (Ticket t : TICKETS) counts[t.ordinal()] = tickets.getCount(t);
+		return counts;
+	}
+
+	/**
+	 * @param piece the piece
+	 * @return the number all of the piece's parts of a key are derived from
+	 */
+	static long piece(@Nonnull Piece piece) {
+		Long key = PIECES.get(piece);
+		return key != null ? key : PIECES.computeIfAbsent(piece, StateKey::derive);
+	}
+
+	private static long derive(Piece piece) {
+		String name = (piece.isMrX() ? "MrX:" : "Detective:") + piece + ':' + piece.webColour();
+		long hash = 0xCBF29CE484222325L;
+		for (byte b : name.getBytes(StandardCharsets.UTF_8)) hash = (hash ^ b) * 0x100000001B3L;
+		return mix(hash);
+	}
+
+	/**
+	 * @return the part of a key for the player's location and tickets
+	 */
+	static long player(@Nonnull Player player) {
+		long piece = piece(player.piece());
+		long key = location(piece, player.location());
+		for (Ticket t : TICKETS) key ^= ticket(piece, t.ordinal(), player.count(t));
+		return key;
+	}
+
+	/**
+	 * @return what to XOR into a key when a player changes from {@code before} to
+	 * {@code after}, the parts for the location and ticket counts that differ
+	 */
+	static long change(@Nonnull Player before, @Nonnull Player after) {
+		long piece = piece(after.piece());
+		long key = 0;
+		if (before.location() != after.location())
+			key ^= location(piece, before.location()) ^ location(piece, after.location());
+		for (Ticket t : TICKETS) {
+			int from = before.count(t);
+			int to = after.count(t);
+			if (from != to) key ^= ticket(piece, t.ordinal(), from) ^ ticket(piece, t.ordinal(), to);
+		}
+		return key;
+	}
+
+	/**
+	 * @return the part of a key for a piece at a location holding the given ticket counts,
+	 * indexed by ticket ordinal
+	 */
+	static long player(long piece, int location, int[] tickets) {
+		long key = location(piece, location);
+		for (int t = 0; t < tickets.length; t++) key ^= ticket(piece, t, tickets[t]);
+		return key;
+	}
+
+	static long location(long piece, int location) {
+		return mix(piece + mix((LOCATION << 56) + location));
+	}
+
+	static long ticket(long piece, int ticket, int count) {
+		return mix(piece + mix((TICKET << 56) + ((long) ticket << 32) + count));
+	}
+
+	static long round(int logSize) { return mix(mix((ROUND << 56) + logSize)); }
+
+	static long mover(long piece) { return mix(piece + mix(MOVER << 56)); }
+
+	// SplitMix64's finaliser
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
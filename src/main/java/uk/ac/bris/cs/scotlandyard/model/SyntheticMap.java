@@ -0,0 +1,202 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.Piece.NumberedDetective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * Randomly generated game graphs of any size and games with any number of detectives, for
+ * finding the scaling limits of move generation, winner detection and the Ais beyond the 199
+ * nodes and five detectives of the standard game.
+ * <br>
+ * Nodes are numbered from 1 and laid out row by row on a square grid. A random spanning tree of
+ * taxi edges between grid neighbours keeps the graph connected; further taxi edges join grid
+ * neighbours, diagonals included, bus edges join nodes up to {@link #BUS_REACH} cells apart,
+ * underground edges nodes up to {@link #UNDERGROUND_REACH} cells apart and ferry edges any two
+ * nodes. Densities are the number of edges of a transport per node; the defaults match the
+ * standard map. The same arguments always generate the same graph.
+ */
+public final class SyntheticMap {
+
+	private SyntheticMap() {}
+
+	/**
+	 * Taxi edges per node of the standard map
+	 */
+	public static final double STANDARD_TAXI = 345 / 199.0;
+	/**
+	 * Bus edges per node of the standard map
+	 */
+	public static final double STANDARD_BUS = 99 / 199.0;
+	/**
+	 * Underground edges per node of the standard map
+	 */
+	public static final double STANDARD_UNDERGROUND = 20 / 199.0;
+	/**
+	 * Ferry edges per node of the standard map
+	 */
+	public static final double STANDARD_FERRY = 3 / 199.0;
+
+	/**
+	 * The largest distance in grid cells, along either axis, of a bus edge
+	 */
+	public static final int BUS_REACH = 3;
+	/**
+	 * The largest distance in grid cells, along either axis, of an underground edge
+	 */
+	public static final int UNDERGROUND_REACH = 8;
+
+	// random edges are drawn until the density is met or this many draws per edge failed, so
+	// densities higher than the grid allows end up as dense as it allows
+	private static final int ATTEMPTS = 8;
+
+	/**
+	 * @param nodes the number of nodes, at least 2
+	 * @param seed the random seed
+	 * @return a graph with the densities of the standard map
+	 */
+	@Nonnull public static ImmutableValueGraph<Integer, ImmutableSet<Transport>> generate(
+			int nodes, long seed) {
+		return generate(nodes, STANDARD_TAXI, STANDARD_BUS, STANDARD_UNDERGROUND,
+				STANDARD_FERRY, seed);
+	}
+
+	/**
+	 * @param nodes the number of nodes, at least 2
+	 * @param taxi taxi edges per node, at least 1 for the spanning tree
+	 * @param bus bus edges per node
+	 * @param underground underground edges per node
+	 * @param ferry ferry edges per node
+	 * @param seed the random seed
+	 * @return a connected graph with the given densities
+	 */
+	@Nonnull public static ImmutableValueGraph<Integer, ImmutableSet<Transport>> generate(
+			int nodes, double taxi, double bus, double underground, double ferry, long seed) {
+		if (nodes < 2) throw new IllegalArgumentException("Need at least 2 nodes: " + nodes);
+		if (!(taxi >= 1)) throw new IllegalArgumentException("Taxi density below 1: " + taxi);
+		if (!(bus >= 0 && underground >= 0 && ferry >= 0))
+			throw new IllegalArgumentException("Negative density");
+		var random = new Random(seed);
+		int width = (int) Math.ceil(Math.sqrt(nodes));
+		// transports of every edge as a bitmask of ordinals, keyed by both ends
+		Map<Long, Integer> edges = new HashMap<>();
+
+		// spanning tree: every node but the first joins its left or upper neighbour
+		for (int i = 1; i < nodes; i++) {
+			boolean left = i % width != 0;
+			boolean up = i >= width;
+			int other = left && (!up || random.nextBoolean()) ? i - 1 : i - width;
+			add(edges, i, other, Transport.TAXI);
+		}
+		addRandom(edges, random, nodes, width, (long) (taxi * nodes) - (nodes - 1),
+				1, Transport.TAXI);
+		addRandom(edges, random, nodes, width, (long) (bus * nodes), BUS_REACH, Transport.BUS);
+		addRandom(edges, random, nodes, width, (long) (underground * nodes),
+				UNDERGROUND_REACH, Transport.UNDERGROUND);
+		addRandom(edges, random, nodes, width, (long) (ferry * nodes), width, Transport.FERRY);
+
+		MutableValueGraph<Integer, ImmutableSet<Transport>> graph =
+				ValueGraphBuilder.undirected().expectedNodeCount(nodes).build();
+		for (int i = 0; i < nodes; i++) graph.addNode(i + 1);
+		for (var edge : edges.entrySet()) {
+			long key = edge.getKey();
+			graph.putEdgeValue((int) (key >>> 32) + 1, (int) key + 1,
+					CompactGraph.transportSet(edge.getValue()));
+		}
+		return ImmutableValueGraph.copyOf(graph);
+	}
+
+	// adds count edges of the transport not on the graph yet, between nodes at most reach cells
+	// apart along either axis
+	private static void addRandom(Map<Long, Integer> edges, Random random, int nodes, int width,
+	                              long count, int reach, Transport transport) {
+		long added = 0;
+		for (long attempts = count * ATTEMPTS; added < count && attempts > 0; attempts--) {
+			int a = random.nextInt(nodes);
+			int row = a / width + random.nextInt(2 * reach + 1) - reach;
+			int column = a % width + random.nextInt(2 * reach + 1) - reach;
+			if (row < 0 || column < 0 || column >= width) continue;
+			int b = row * width + column;
+			if (b == a || b >= nodes) continue;
+			if (add(edges, a, b, transport)) added++;
+		}
+	}
+
+	// whether the edge did not have the transport yet
+	private static boolean add(Map<Long, Integer> edges, int a, int b, Transport transport) {
+		long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+		int bit = 1 << transport.ordinal();
+		int old = edges.getOrDefault(key, 0);
+		if ((old & bit) != 0) return false;
+		edges.put(key, old | bit);
+		return true;
+	}
+
+	/**
+	 * @param count the number of detectives
+	 * @return the five {@link Detective}s followed by {@link NumberedDetective}s, {@code count}
+	 * pieces in total
+	 */
+	@Nonnull public static ImmutableList<Piece> detectives(int count) {
+		if (count < 0) throw new IllegalArgumentException("Negative detective count: " + count);
+		var detectives = ImmutableList.<Piece>builderWithExpectedSize(count);
+		for (int i = 0; i < count; i++)
+			detectives.add(i < Detective.values().length
+					? Detective.values()[i]
+					: NumberedDetective.of(i + 1));
+		return detectives.build();
+	}
+
+	/**
+	 * Builds a game with MrX and the given number of {@link #detectives(int)} at distinct random
+	 * locations of the setup's graph, all holding the default tickets.
+	 *
+	 * @param factory the factory building the game
+	 * @param setup the game setup
+	 * @param detectives the number of detectives
+	 * @param seed the seed for the locations
+	 * @param <T> the type the factory builds
+	 * @return the game
+	 */
+	@Nonnull public static <T> T build(@Nonnull Factory<T> factory, @Nonnull GameSetup setup,
+	                                   int detectives, long seed) {
+		Objects.requireNonNull(factory);
+		var nodes = ImmutableList.copyOf(setup.graph.nodes());
+		if (detectives + 1 > nodes.size())
+			throw new IllegalArgumentException("More players than nodes: " + (detectives + 1));
+		var random = new Random(seed);
+		// a partial Fisher-Yates shuffle over node indices picks distinct locations
+		int[] order = new int[nodes.size()];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		for (int i = 0; i <= detectives; i++) {
+			int j = i + random.nextInt(order.length - i);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		var pieces = detectives(detectives);
+		var players = ImmutableList.<Player>builderWithExpectedSize(detectives);
+		for (int i = 0; i < detectives; i++)
+			players.add(new Player(pieces.get(i), ScotlandYard.defaultDetectiveTickets(),
+					nodes.get(order[i + 1])));
+		return factory.build(setup,
+				new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(), nodes.get(order[0])),
+				players.build());
+	}
+
+}
@@ -161,6 +161,7 @@ public final class LocalGameController extends BaseGameController<MapController>
 				@Override
 				public ImmutableList<String> recorded() { return ImmutableList.copyOf(lines); }
 				@Override @Nonnull public Board getCurrentBoard() {return model.getCurrentBoard();}
+				@Override @Nonnull public Snapshot getSnapshot() {return model.getSnapshot();}
 				@Override public void registerObserver(@Nonnull Observer observer) {
 					model.registerObserver(observer);
 				}
@@ -183,7 +184,8 @@ public final class LocalGameController extends BaseGameController<MapController>
 	private void createGame(ModelProperty setup) {
 		hideOverlay();
 		try {
-			var modelFactory = (new MyModelFactory());
+			// observers run after the move animation returns rather than inside it
+			var modelFactory = new MyModelFactory(Platform::runLater);
 			var model = modelFactory.build(new GameSetup(
 							setup.graphProperty().get(),
 							ImmutableList.copyOf(setup.revealRounds())),
@@ -220,16 +220,21 @@ class MapController implements Controller, GameControl {
 
 	Runnable requestAi(Model board, Ai ai) {
 		//var terminate = new AtomicBoolean(false);
-		var moves = board.getCurrentBoard().getAvailableMoves();
+		// the Ai works on this board even if the model moves on, its move is then dropped
+		var snapshot = board.getSnapshot();
+		var moves = snapshot.board().getAvailableMoves();
 		drawMoveHighlights(moves);
 		aiExecutor.forEach(x -> x.submit(() -> {
 			try {
-				final var move = ai.pickMove(board.getCurrentBoard(), new Pair<>(config.timeoutProperty().get().getSeconds(), TimeUnit.SECONDS));
+				final var move = ai.pickMove(snapshot.board(), new Pair<>(config.timeoutProperty().get().getSeconds(), TimeUnit.SECONDS));
 				if (!moves.contains(move)) {
 					Utils.handleFatalException(
 							new Exception("Ai(" + ai.name() + ") selected an invalid move, got: " + move + ", was expecting one of " + moves));
 				} else {
-					Platform.runLater(() -> selectAndMove(board, move));
+					Platform.runLater(() -> {
+						if (board.getSnapshot().version() == snapshot.version())
+							selectAndMove(board, move);
+					});
 				}
 			} catch (Exception e) {
 				Utils.handleFatalException(new Exception("Ai(" + ai.name() + ") " +
@@ -40,6 +40,7 @@ import uk.ac.bris.cs.scotlandyard.ui.model.ModelProperty;
 
 	@Override
 	public void onModelChanged(@Nonnull Board board, @Nonnull Event event) { bindView(board); }
+	@Override public boolean coalesceMoves() { return true; }
 	@Override public void onGameDetached() { status.setText("Game finished"); }
 	private void bindView(Board board) {
 		int round = board.getMrXTravelLog().size();
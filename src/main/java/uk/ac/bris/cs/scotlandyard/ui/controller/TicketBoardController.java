@@ -72,6 +72,8 @@ final class TicketBoardController implements Controller, GameControl {
 		controllers.values().forEach(c -> c.update(board));
 	}
 
+	@Override public boolean coalesceMoves() { return true; }
+
 	@Override public Parent root() { return root; }
 
 	@BindFXML("layout/Ticket.fxml") static class TicketView implements Controller {
@@ -95,6 +95,7 @@ public final class TravelLogController implements Controller, GameControl {
 
 	@Override
 	public void onModelChanged(@Nonnull Board board, @Nonnull Event event) { update(board); }
+	@Override public boolean coalesceMoves() { return true; }
 	@Override public Parent root() { return root; }
 
 	private static class RoundEntry {
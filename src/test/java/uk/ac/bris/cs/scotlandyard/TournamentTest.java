@@ -0,0 +1,145 @@
+package uk.ac.bris.cs.scotlandyard;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.Tournament.Outcome;
+import uk.ac.bris.cs.scotlandyard.model.Ai;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.CompactGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the report of a headless {@link Tournament} between trivial Ais, and that a failing Ai
+ * only ends its own game
+ */
+public class TournamentTest {
+
+	private static final AtomicInteger TERMINATED = new AtomicInteger();
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	@Before public void resetCounts() { TERMINATED.set(0); }
+
+	public static class FirstMoveAi implements Ai {
+		@Nonnull @Override public String name() { return "First move"; }
+
+		@Nonnull @Override public Move pickMove(@Nonnull Board board,
+		                                        Pair<Long, TimeUnit> timeoutPair) {
+			return board.getAvailableMoves().iterator().next();
+		}
+
+		@Override public void onTerminate() { TERMINATED.incrementAndGet(); }
+	}
+
+	public static class ThrowingStartAi extends FirstMoveAi {
+		@Override public void onStart() { throw new IllegalStateException("no start"); }
+	}
+
+	public static class ThrowingConstructorAi extends FirstMoveAi {
+		public ThrowingConstructorAi() { throw new IllegalStateException("no instance"); }
+	}
+
+	public static class UnavailableMoveAi extends FirstMoveAi {
+		@Nonnull @Override public Move pickMove(@Nonnull Board board,
+		                                        Pair<Long, TimeUnit> timeoutPair) {
+			Move move = board.getAvailableMoves().iterator().next();
+			return new Move.SingleMove(move.commencedBy(), move.source(),
+					ScotlandYard.Ticket.TAXI, move.source());
+		}
+	}
+
+	// the game the tournament plays with the given seed, both sides picking the first move
+	private static GameState firstMoveGame(int seed, int detectives) {
+		var locations = ScotlandYard.generateDetectiveLocations(seed, detectives);
+		var players = ImmutableList.<Player>builder();
+		for (int i = 0; i < detectives; i++)
+			players.add(new Player(Detective.values()[i],
+					ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+		GameState state = new CompactGameStateFactory().build(setup,
+				new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(),
+						ScotlandYard.generateMrXLocation(seed)),
+				players.build());
+		while (state.getWinner().isEmpty())
+			state = state.advance(state.getAvailableMoves().iterator().next());
+		return state;
+	}
+
+	@Test public void testReportsWinsLengthAndLatency() throws InterruptedException {
+		var result = new Tournament(new CompactGameStateFactory(), setup, FirstMoveAi.class,
+				FirstMoveAi.class, 3, Duration.ofSeconds(5)).run(10, 6, 3);
+		assertThat(result.games()).isEqualTo(6);
+		assertThat(result.problems()).isEmpty();
+		int mrXWins = 0;
+		long rounds = 0;
+		for (int seed = 10; seed < 16; seed++) {
+			GameState end = firstMoveGame(seed, 3);
+			if (end.getWinner().contains(MrX.MRX)) mrXWins++;
+			rounds += end.getMrXTravelLog().size();
+		}
+		assertThat(result.count(Outcome.MRX_WIN)).isEqualTo(mrXWins);
+		assertThat(result.count(Outcome.DETECTIVES_WIN)).isEqualTo(6 - mrXWins);
+		assertThat(result.mrXWinRate()).isEqualTo(mrXWins / 6.0);
+		assertThat(result.meanRounds()).isEqualTo(rounds / 6.0);
+		assertThat(result.meanMoves()).isGreaterThanOrEqualTo(result.meanRounds());
+		for (boolean mrX : new boolean[]{true, false}) {
+			assertThat(result.latency(mrX, 50)).isPositive();
+			assertThat(result.latency(mrX, 100)).isGreaterThanOrEqualTo(result.latency(mrX, 50));
+		}
+		assertThat(result.toString()).contains("Games:             6");
+		assertThat(TERMINATED.get()).isEqualTo(12);
+	}
+
+	@Test public void testThrowingOnStartIsThatGamesError() throws InterruptedException {
+		var result = new Tournament(new CompactGameStateFactory(), setup, ThrowingStartAi.class,
+				FirstMoveAi.class, 2, Duration.ofSeconds(5)).run(0, 3, 2);
+		assertThat(result.games()).isEqualTo(3);
+		assertThat(result.count(Outcome.ERROR)).isEqualTo(3);
+		assertThat(result.problems()).hasSize(3).allMatch(p -> p.contains("onStart threw"));
+		// both Ais are still terminated
+		assertThat(TERMINATED.get()).isEqualTo(6);
+	}
+
+	@Test public void testThrowingConstructorIsThatGamesError() throws InterruptedException {
+		var result = new Tournament(new CompactGameStateFactory(), setup, FirstMoveAi.class,
+				ThrowingConstructorAi.class, 2, Duration.ofSeconds(5)).run(0, 3, 2);
+		assertThat(result.games()).isEqualTo(3);
+		assertThat(result.count(Outcome.ERROR)).isEqualTo(3);
+		assertThat(result.problems()).hasSize(3)
+				.allMatch(p -> p.contains("could not be created"));
+		// the MrX Ai that was created is still terminated
+		assertThat(TERMINATED.get()).isEqualTo(3);
+	}
+
+	@Test public void testUnavailableMoveForfeits() throws InterruptedException {
+		var result = new Tournament(new CompactGameStateFactory(), setup, UnavailableMoveAi.class,
+				FirstMoveAi.class, 1, Duration.ofSeconds(5)).run(0, 2, 1);
+		assertThat(result.count(Outcome.MRX_FORFEIT)).isEqualTo(2);
+		assertThat(result.detectivesWinRate()).isEqualTo(1);
+		assertThat(result.meanMoves()).isZero();
+	}
+
+}
@@ -0,0 +1,151 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.CompactGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.SyntheticMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Tests that {@link AlphaBetaAi} picks legal moves within its time budget and finds the
+ * obvious captures and escapes
+ */
+public class AlphaBetaAiTest {
+
+	private static final Pair<Long, TimeUnit> TIMEOUT = new Pair<>(200L, TimeUnit.MILLISECONDS);
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	private static GameState game(int seed) {
+		var locations = ScotlandYard.generateDetectiveLocations(seed, 5);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < 5; i++)
+			detectives.add(new Player(Detective.values()[i],
+					defaultDetectiveTickets(), locations.get(i)));
+		return new CompactGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), ScotlandYard.generateMrXLocation(seed)),
+				detectives.build());
+	}
+
+	@Test public void testPicksAvailableMovesForBothSidesWithinBudget() {
+		var ai = new AlphaBetaAi(16);
+		ai.onStart();
+		GameState state = game(0);
+		for (int ply = 0; ply < 12 && state.getWinner().isEmpty(); ply++) {
+			long start = System.nanoTime();
+			Move move = ai.pickMove(state, TIMEOUT);
+			assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(200));
+			assertThat(state.getAvailableMoves()).contains(move);
+			assertThat(ai.lastReport().depth()).isPositive();
+			state = state.advance(move);
+		}
+	}
+
+	@Test public void testDetectiveCapturesRevealedMrX() {
+		GameState state = new CompactGameStateFactory().build(
+				new GameSetup(setup.graph, ImmutableList.of(true, false, false)),
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 116)));
+		state = state.advance(new SingleMove(MRX, 86, Ticket.TAXI, 104));
+		var ai = new AlphaBetaAi(16);
+		assertThat(ai.pickMove(state, TIMEOUT))
+				.isEqualTo(new SingleMove(BLUE, 116, Ticket.TAXI, 104));
+		assertThat(ai.lastReport().value()).isLessThanOrEqualTo(-AlphaBetaAi.WIN + 1_000);
+	}
+
+	@Test public void testMrXDoesNotMoveNextToDetective() {
+		GameState state = new CompactGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 116)));
+		Move move = new AlphaBetaAi(16).pickMove(state, TIMEOUT);
+		GameState after = state.advance(move);
+		int mrX = move.accept(new Move.FunctionalVisitor<>(m -> m.destination,
+				m -> m.destination2));
+		assertThat(after.getAvailableMoves())
+				.noneMatch(m -> ((SingleMove) m).destination == mrX);
+	}
+
+	@Test public void testMovesRemainingDetectiveInPartialRound() {
+		GameState state = new CompactGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(RED, defaultDetectiveTickets(), 116),
+						new Player(BLUE, defaultDetectiveTickets(), 108)));
+		state = state.advance(new SingleMove(MRX, 86, Ticket.TAXI, 69));
+		state = state.advance(new SingleMove(RED, 116, Ticket.TAXI, 117));
+		Move move = new AlphaBetaAi(16).pickMove(state, TIMEOUT);
+		assertThat(move.commencedBy()).isEqualTo(BLUE);
+		assertThat(state.getAvailableMoves()).contains(move);
+	}
+
+	@Test public void testWorksWithMyGameState() {
+		var ai = new AlphaBetaAi(16);
+		GameState state = new MyGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 116),
+						new Player(RED, defaultDetectiveTickets(), 108)));
+		for (int ply = 0; ply < 6 && state.getWinner().isEmpty(); ply++) {
+			Move move = ai.pickMove(state, TIMEOUT);
+			assertThat(state.getAvailableMoves()).contains(move);
+			state = state.advance(move);
+		}
+	}
+
+	@Test public void testDetectivesWithNumberedDetectives() {
+		var synthetic = new GameSetup(SyntheticMap.generate(300, 3), ScotlandYard.STANDARD24MOVES);
+		GameState state = SyntheticMap.build(new CompactGameStateFactory(), synthetic, 8, 3);
+		var ai = new AlphaBetaAi(16);
+		// MrX could be anywhere, so the detectives choose among spread out candidates
+		for (int ply = 0; ply < 12 && state.getWinner().isEmpty(); ply++) {
+			Move move = ai.pickMove(state, TIMEOUT);
+			assertThat(state.getAvailableMoves()).contains(move);
+			state = state.advance(move);
+		}
+	}
+
+	@Test public void testTranspositionTableKeepsDeeperEntries() {
+		var table = new TranspositionTable(4);
+		table.newSearch();
+		table.store(17, 5, TranspositionTable.LOWER, -123_456, 300);
+		long entry = table.probe(17);
+		assertThat(TranspositionTable.value(entry)).isEqualTo(-123_456);
+		assertThat(TranspositionTable.depth(entry)).isEqualTo(5);
+		assertThat(TranspositionTable.bound(entry)).isEqualTo(TranspositionTable.LOWER);
+		assertThat(TranspositionTable.move(entry)).isEqualTo(300);
+		// same slot, shallower, same search: kept
+		table.store(17 + 16, 2, TranspositionTable.EXACT, 1, -1);
+		assertThat(table.probe(17)).isEqualTo(entry);
+		assertThat(table.probe(17 + 16)).isZero();
+		// a newer search may replace it
+		table.newSearch();
+		table.store(17 + 16, 2, TranspositionTable.EXACT, 1, -1);
+		assertThat(table.probe(17)).isZero();
+		assertThat(TranspositionTable.move(table.probe(17 + 16))).isEqualTo(-1);
+	}
+
+}
@@ -0,0 +1,167 @@
+package uk.ac.bris.cs.scotlandyard.ai;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.atlassian.fugue.Pair;
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.CompactGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.MyGameStateFactory;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.model.SearchState;
+import uk.ac.bris.cs.scotlandyard.model.SyntheticMap;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Tests that {@link MctsAi} picks legal moves within its time budget for both sides, single
+ * threaded and in parallel
+ */
+public class MctsAiTest {
+
+	private static final Pair<Long, TimeUnit> TIMEOUT = new Pair<>(200L, TimeUnit.MILLISECONDS);
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	private static GameState game(int seed) {
+		var locations = ScotlandYard.generateDetectiveLocations(seed, 5);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < 5; i++)
+			detectives.add(new Player(Detective.values()[i],
+					defaultDetectiveTickets(), locations.get(i)));
+		return new CompactGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), ScotlandYard.generateMrXLocation(seed)),
+				detectives.build());
+	}
+
+	@Test public void testPicksAvailableMovesForBothSidesWithinBudget() {
+		var ai = new MctsAi(new Random(0));
+		ai.onStart();
+		GameState state = game(0);
+		for (int ply = 0; ply < 12 && state.getWinner().isEmpty(); ply++) {
+			long start = System.nanoTime();
+			Move move = ai.pickMove(state, TIMEOUT);
+			assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(200));
+			assertThat(state.getAvailableMoves()).contains(move);
+			assertThat(ai.lastReport().iterations()).isPositive();
+			state = state.advance(move);
+		}
+	}
+
+	@Test public void testWorksWithMyGameState() {
+		var ai = new MctsAi(new Random(0));
+		GameState state = new MyGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 116)));
+		for (int ply = 0; ply < 4; ply++) {
+			Move move = ai.pickMove(state, TIMEOUT);
+			assertThat(state.getAvailableMoves()).contains(move);
+			state = state.advance(move);
+		}
+	}
+
+	@Test public void testNumberedDetectivesWithMyGameState() {
+		var synthetic = new GameSetup(SyntheticMap.generate(300, 3), ScotlandYard.STANDARD24MOVES);
+		GameState state = SyntheticMap.build(new MyGameStateFactory(), synthetic, 8, 3);
+		var ai = new MctsAi(new Random(0));
+		// the detectives that already moved this round are still part of the searched position
+		for (int ply = 0; ply < 12 && state.getWinner().isEmpty(); ply++) {
+			Move move = ai.pickMove(state, TIMEOUT);
+			assertThat(state.getAvailableMoves()).contains(move);
+			state = state.advance(move);
+		}
+	}
+
+	@Test public void testDetectiveCapturesRevealedMrX() {
+		GameState state = new CompactGameStateFactory().build(
+				new GameSetup(setup.graph, ImmutableList.of(true, false, false)),
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 116)));
+		state = state.advance(new SingleMove(MRX, 86, Ticket.TAXI, 104));
+		assertThat(new MctsAi(new Random(0)).pickMove(state, TIMEOUT))
+				.isEqualTo(new SingleMove(BLUE, 116, Ticket.TAXI, 104));
+	}
+
+	@Test public void testKeepsSubtreeAfterDetectivesReply() {
+		var ai = new MctsAi(new Random(0));
+		GameState state = new CompactGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 108)));
+		// long enough for every reply of the detective to be expanded
+		state = state.advance(ai.pickMove(state, new Pair<>(1L, TimeUnit.SECONDS)));
+		state = state.advance(state.getAvailableMoves().asList().get(0));
+		ai.pickMove(state, TIMEOUT);
+		assertThat(ai.lastReport().reusedVisits()).isPositive();
+	}
+
+	@Test public void testParallelSearchesPickAvailableMoves() {
+		for (MctsAi.Parallelism parallelism : MctsAi.Parallelism.values()) {
+			var ai = new MctsAi(new Random(0), 4, parallelism);
+			try {
+				GameState state = game(1);
+				for (int ply = 0; ply < 6 && state.getWinner().isEmpty(); ply++) {
+					Move move = ai.pickMove(state, TIMEOUT);
+					assertThat(state.getAvailableMoves()).contains(move);
+					assertThat(ai.lastReport().iterations()).isPositive();
+					state = state.advance(move);
+				}
+			} finally {
+				ai.onTerminate();
+			}
+		}
+	}
+
+	@Test public void testSharedTreeCountsEveryIteration() throws InterruptedException {
+		var search = new MctsSearch();
+		GameState game = game(2);
+		int threads = 4;
+		int iterations = 50;
+		var workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			var state = SearchState.of(game);
+			var random = new Random(i);
+			workers[i] = new Thread(() -> {
+				for (int n = 0; n < iterations; n++) search.iterate(state, random);
+			});
+			workers[i].start();
+		}
+		for (Thread worker : workers) worker.join();
+		assertThat(search.root().visits()).isEqualTo(threads * iterations);
+		int childVisits = 0;
+		for (MctsNode child : search.root().children()) childVisits += child.visits();
+		assertThat(childVisits).isEqualTo(threads * iterations);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoThreadsThrows() {
+		new MctsAi(new Random(0), 0, MctsAi.Parallelism.TREE);
+	}
+
+	@Test public void testThinkTimeLeavesMargin() {
+		assertThat(MctsAi.thinkTime(30, TimeUnit.SECONDS))
+				.isEqualTo(TimeUnit.MILLISECONDS.toNanos(23_900));
+		assertThat(MctsAi.thinkTime(100, TimeUnit.MILLISECONDS))
+				.isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+}
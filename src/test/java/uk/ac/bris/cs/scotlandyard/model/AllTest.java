@@ -3,6 +3,10 @@ package uk.ac.bris.cs.scotlandyard.model;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import uk.ac.bris.cs.scotlandyard.TournamentTest;
+import uk.ac.bris.cs.scotlandyard.ai.AlphaBetaAiTest;
+import uk.ac.bris.cs.scotlandyard.ai.MctsAiTest;
+
 /**
  * Includes all test for the actual game model
  */
@@ -10,11 +14,32 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 		GameStateCreationTest.class,
 		GameStateGameOverTest.class,
+		GameStateGameOverPlayoutTest.class,
 		GameStateMoveTest.class,
 		GameStatePlayerTest.class,
 		GameStateDetectivesAvailableMovesTest.class,
 		GameStateMrXAvailableMovesTest.class,
+		GameStateMrXBruteForceTest.class,
 		GameStatePlayoutTest.class,
-		ModelObserverTest.class
+		GameStateDifferentialTest.class,
+		ModelObserverTest.class,
+		ModelDispatchTest.class,
+		ModelConcurrencyTest.class,
+		GameRecordTest.class,
+		GameArchiveTest.class,
+		PlayerTest.class,
+		MoveTableTest.class,
+		MoveListTest.class,
+		SearchStateTest.class,
+		CompactGraphTest.class,
+		GraphFileTest.class,
+		GameEventListenerTest.class,
+		DistanceOracleTest.class,
+		MrXBeliefTrackerTest.class,
+		StateKeyTest.class,
+		SyntheticMapTest.class,
+		MctsAiTest.class,
+		AlphaBetaAiTest.class,
+		TournamentTest.class
 })
 public class AllTest {}
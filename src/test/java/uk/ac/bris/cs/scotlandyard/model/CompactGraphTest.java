@@ -0,0 +1,81 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that {@link CompactGraph} has exactly the nodes and edges of the graph it was built from
+ */
+public class CompactGraphTest {
+
+	private static ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph;
+
+	@BeforeClass public static void setUp() throws IOException {
+		graph = ScotlandYard.standardGraph();
+	}
+
+	@Test public void testNodesAndEdgesMatchGraph() {
+		CompactGraph compact = CompactGraph.of(graph);
+		assertThat(compact.nodeCount()).isEqualTo(199);
+		int edges = 0;
+		for (int node = 0; node < compact.nodeBound(); node++) {
+			assertThat(compact.contains(node)).isEqualTo(graph.nodes().contains(node));
+			if (!compact.contains(node)) continue;
+			Set<Integer> neighbours = new HashSet<>();
+			for (int edge = compact.begin(node); edge < compact.end(node); edge++) {
+				int target = compact.target(edge);
+				neighbours.add(target);
+				int transports = 0;
+				for (Transport t : graph.edgeValue(node, target).orElseThrow())
+					transports |= 1 << t.ordinal();
+				assertThat(compact.transports(edge)).isEqualTo(transports);
+				edges++;
+			}
+			assertThat(neighbours).isEqualTo(graph.adjacentNodes(node));
+		}
+		assertThat(edges).isEqualTo(graph.edges().size() * 2);
+	}
+
+	@Test public void testNeighboursByTicketMatchGraph() {
+		CompactGraph compact = CompactGraph.of(graph);
+		for (Ticket ticket : Ticket.values()) {
+			for (int node : graph.nodes()) {
+				Set<Integer> expected = new HashSet<>();
+				for (int neighbour : graph.adjacentNodes(node))
+					for (Transport t : graph.edgeValue(node, neighbour).orElseThrow())
+						if (ticket == Ticket.SECRET || t.requiredTicket() == ticket)
+							expected.add(neighbour);
+				Set<Integer> actual = new HashSet<>();
+				for (int i = compact.begin(node, ticket.ordinal());
+				     i < compact.end(node, ticket.ordinal()); i++)
+					actual.add(compact.target(ticket.ordinal(), i));
+				assertThat(actual).as("%s from %s", ticket, node).isEqualTo(expected);
+			}
+		}
+	}
+
+	@Test public void testTicketsBetweenNodes() {
+		CompactGraph compact = CompactGraph.of(graph);
+		// 194 - 157 is a ferry route, only SECRET can be used
+		assertThat(compact.tickets(194, 157)).isEqualTo(1 << Ticket.SECRET.ordinal());
+		assertThat(compact.tickets(1, 199)).isZero();
+		assertThat(compact.tickets(1000, 1)).isZero();
+	}
+
+	@Test public void testBuiltOncePerGraph() {
+		assertThat(CompactGraph.of(graph)).isSameAs(CompactGraph.of(graph));
+	}
+
+}
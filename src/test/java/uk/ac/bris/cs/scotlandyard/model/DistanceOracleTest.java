@@ -0,0 +1,142 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.makeTickets;
+
+/**
+ * Tests {@link DistanceOracle} against breadth first search over the graph
+ */
+public class DistanceOracleTest {
+
+	private static ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph;
+
+	@BeforeClass public static void setUp() throws IOException {
+		graph = ScotlandYard.standardGraph();
+	}
+
+	private static Map<Integer, Integer> bfs(int source, int transports) {
+		return bfs(graph, source, transports);
+	}
+
+	private static Map<Integer, Integer> bfs(
+			ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+			int source, int transports) {
+		Map<Integer, Integer> distances = new HashMap<>();
+		distances.put(source, 0);
+		var queue = new ArrayDeque<Integer>();
+		queue.add(source);
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			for (int neighbour : graph.adjacentNodes(node)) {
+				boolean usable = false;
+				for (Transport t : graph.edgeValue(node, neighbour).orElseThrow())
+					usable |= (transports & (1 << t.ordinal())) != 0;
+				if (usable && !distances.containsKey(neighbour)) {
+					distances.put(neighbour, distances.get(node) + 1);
+					queue.add(neighbour);
+				}
+			}
+		}
+		return distances;
+	}
+
+	@Test public void testDistancesMatchBreadthFirstSearchForEveryTransportSubset() {
+		var oracle = DistanceOracle.of(graph);
+		for (int transports = 0; transports <= DistanceOracle.ALL_TRANSPORTS; transports++) {
+			for (int source : graph.nodes()) {
+				var expected = bfs(source, transports);
+				for (int target : graph.nodes())
+					assertThat(oracle.distance(transports, source, target))
+							.as("%s to %s with %s", source, target, transports)
+							.isEqualTo(expected.getOrDefault(target, DistanceOracle.UNREACHABLE));
+			}
+		}
+	}
+
+	@Test public void testRowsPerSourceMatchBreadthFirstSearch() {
+		var oracle = new DistanceOracle(CompactGraph.of(graph), true);
+		for (int transports = 0; transports <= DistanceOracle.ALL_TRANSPORTS; transports++) {
+			for (int source : graph.nodes()) {
+				var expected = bfs(source, transports);
+				for (int target : graph.nodes())
+					assertThat(oracle.distance(transports, source, target))
+							.as("%s to %s with %s", source, target, transports)
+							.isEqualTo(expected.getOrDefault(target, DistanceOracle.UNREACHABLE));
+			}
+		}
+	}
+
+	@Test public void testLargeGraphComputesRowsPerSource() {
+		// a whole table of this graph would take 2.5GB, more than an array can hold
+		var large = SyntheticMap.generate(50000, 1L);
+		var oracle = DistanceOracle.of(large);
+		for (int source : new int[]{1, 25000, 50000}) {
+			var expected = bfs(large, source, DistanceOracle.ALL_TRANSPORTS);
+			for (int target : new int[]{1, 2, 12345, 49999})
+				assertThat(oracle.distance(source, target))
+						.as("%s to %s", source, target)
+						.isEqualTo(Math.min(expected.getOrDefault(target,
+								DistanceOracle.UNREACHABLE), DistanceOracle.MAX_DISTANCE));
+		}
+	}
+
+	@Test public void testUnrestrictedDistance() {
+		var oracle = DistanceOracle.of(graph);
+		assertThat(oracle.distance(1, 1)).isZero();
+		assertThat(oracle.distance(86, 104)).isEqualTo(1);
+		// 194 - 157 is a ferry route
+		assertThat(oracle.distance(194, 157)).isEqualTo(1);
+		assertThat(oracle.distance(DistanceOracle.mask(Transport.TAXI, Transport.BUS,
+				Transport.UNDERGROUND), 194, 157)).isGreaterThan(1);
+	}
+
+	@Test public void testLowerBoundUsesOnlyHeldTickets() {
+		var oracle = DistanceOracle.of(graph);
+		var taxiOnly = DistanceOracle.mask(Transport.TAXI);
+		var tickets = makeTickets(20, 0, 0, 0, 0);
+		assertThat(oracle.lowerBound(1, 100, tickets::get))
+				.isEqualTo(oracle.distance(taxiOnly, 1, 100));
+		// SECRET tickets can use any transport
+		assertThat(oracle.lowerBound(194, 157, 0, 0, 0, 1)).isEqualTo(1);
+		assertThat(oracle.lowerBound(194, 157, 5, 5, 5, 0)).isGreaterThan(1);
+	}
+
+	@Test public void testLowerBoundUnreachableWithoutEnoughTickets() {
+		var oracle = DistanceOracle.of(graph);
+		int distance = oracle.distance(1, 100);
+		assertThat(oracle.lowerBound(1, 100, 0, 0, 0, 0)).isEqualTo(DistanceOracle.UNREACHABLE);
+		assertThat(oracle.lowerBound(1, 1, 0, 0, 0, 0)).isZero();
+		assertThat(oracle.lowerBound(1, 100, 0, 0, 0, distance - 1))
+				.isEqualTo(DistanceOracle.UNREACHABLE);
+		assertThat(oracle.lowerBound(1, 100, 0, 0, 0, distance)).isEqualTo(distance);
+	}
+
+	@Test public void testBadArgumentsShouldThrow() {
+		var oracle = DistanceOracle.of(graph);
+		assertThatThrownBy(() -> oracle.distance(0, 1)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> oracle.distance(1, 200)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> oracle.distance(16, 1, 2))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testSharedBySetupsWithTheSameGraph() {
+		var a = new GameSetup(graph, ScotlandYard.STANDARD24MOVES);
+		var b = new GameSetup(graph, ScotlandYard.STANDARD24MOVES);
+		assertThat(DistanceOracle.of(a)).isSameAs(DistanceOracle.of(b));
+	}
+
+}
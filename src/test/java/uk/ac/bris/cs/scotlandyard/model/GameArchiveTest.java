@@ -0,0 +1,237 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests that every ply of every game in a {@link GameArchive} is the state reached by replaying
+ * the game from its first move, and that damaged archives are rejected
+ */
+public class GameArchiveTest {
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24MOVES);
+	}
+
+	// a random game of the standard 24 round game, played to the end
+	private static GameRecord play(int seed) throws IOException {
+		var mrX = new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(),
+				ScotlandYard.generateMrXLocation(seed));
+		var locations = ScotlandYard.generateDetectiveLocations(seed, 5);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < 5; i++)
+			detectives.add(new Player(Detective.values()[i],
+					ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+		var out = new ByteArrayOutputStream();
+		var writer = new GameRecord.Writer(Channels.newChannel(out), setup, mrX,
+				detectives.build());
+		GameState state = new MyGameStateFactory().build(setup, mrX, detectives.build());
+		var random = new Random(seed);
+		while (state.getWinner().isEmpty()) {
+			var available = state.getAvailableMoves().asList();
+			Move move = available.get(random.nextInt(available.size()));
+			writer.append(move);
+			state = state.advance(move);
+		}
+		writer.finish();
+		return new GameRecord.Reader(Channels.newChannel(
+				new ByteArrayInputStream(out.toByteArray()))).next();
+	}
+
+	private Path archive(int games, int interval) throws IOException {
+		Path data = folder.getRoot().toPath().resolve("games");
+		try (var appender = new GameArchive.Appender(data, setup, interval)) {
+			for (int seed = 0; seed < games; seed++)
+				assertThat(appender.append(play(seed))).isEqualTo(seed);
+		}
+		return data;
+	}
+
+	@Test public void testEveryPlyMatchesReplayFromStart() throws IOException {
+		Path data = archive(20, 2);
+		// segments far smaller than a game, so games span segment boundaries
+		var archive = GameArchive.open(data, setup, new MyGameStateFactory(), 256);
+		assertThat(archive.size()).isEqualTo(20);
+		for (int game = 0; game < archive.size(); game++) {
+			GameRecord record = play(game);
+			assertThat(archive.record(game).moves()).isEqualTo(record.moves());
+			assertThat(archive.plies(game)).isEqualTo(record.moves().size());
+			int ply = 0;
+			for (GameState expected : record.states(new MyGameStateFactory(), setup)) {
+				assertThat(archive.board(game, ply))
+						.as("game %d ply %d", game, ply)
+						.isEqualTo(new ImmutableBoard(expected));
+				ply++;
+			}
+		}
+	}
+
+	@Test public void testFullLengthGame() throws IOException {
+		// the first seed whose game MrX survives until the travel log is full
+		int seed = 0;
+		while (Iterables.getLast(play(seed).states(new MyGameStateFactory(), setup))
+				.getMrXTravelLog().size() < setup.moves.size()) seed++;
+		GameRecord record = play(seed);
+		Path data = folder.getRoot().toPath().resolve("full");
+		try (var appender = new GameArchive.Appender(data, setup, 1)) {
+			appender.append(record);
+		}
+		var archive = GameArchive.open(data, setup);
+		int ply = 0;
+		for (GameState expected : record.states(new MyGameStateFactory(), setup)) {
+			assertThat(archive.board(0, ply)).as("ply %d", ply)
+					.isEqualTo(new ImmutableBoard(expected));
+			ply++;
+		}
+		Board end = archive.board(0, archive.plies(0));
+		assertThat(end.getWinner()).containsExactly(MrX.MRX);
+		// every entry is revealed exactly on the reveal rounds, double moves included
+		var log = end.getMrXTravelLog();
+		for (int i = 0; i < log.size(); i++)
+			assertThat(log.get(i).location().isPresent()).as("round %d", i + 1)
+					.isEqualTo(setup.moves.get(i));
+	}
+
+	@Test public void testCheckpointsShrinkReplay() throws IOException {
+		Path data = archive(1, 1);
+		Path sparse = folder.getRoot().toPath().resolve("sparse");
+		try (var appender = new GameArchive.Appender(sparse, setup, 100)) {
+			appender.append(play(0));
+		}
+		// a checkpoint per MrX turn costs space, and every ply is still the same
+		assertThat(Files.size(data)).isGreaterThan(Files.size(sparse));
+		var dense = GameArchive.open(data, setup);
+		var none = GameArchive.open(sparse, setup);
+		for (int ply = 0; ply <= dense.plies(0); ply++)
+			assertThat(dense.board(0, ply)).isEqualTo(none.board(0, ply));
+	}
+
+	@Test public void testResumeContinuesLikePlayedState() throws IOException {
+		Path data = archive(1, 1);
+		var archive = GameArchive.open(data, setup);
+		var moves = archive.record(0).moves();
+		int last = moves.size() - 1;
+		// the state at the last MrX turn comes from a checkpoint and plays on like the original
+		while (!moves.get(last).commencedBy().isMrX()) last--;
+		GameState resumed = archive.state(0, last);
+		GameState played = Iterables.get(archive.record(0).states(new MyGameStateFactory(),
+				setup), last);
+		for (Move move : moves.subList(last, moves.size())) {
+			assertThat(new ImmutableBoard(resumed)).isEqualTo(new ImmutableBoard(played));
+			resumed = resumed.advance(move);
+			played = played.advance(move);
+		}
+		assertThat(new ImmutableBoard(resumed)).isEqualTo(new ImmutableBoard(played));
+	}
+
+	@Test public void testAppendAfterReopening() throws IOException {
+		Path data = archive(3, 2);
+		var before = GameArchive.open(data, setup);
+		try (var appender = new GameArchive.Appender(data, setup, 5)) {
+			assertThat(appender.append(play(3))).isEqualTo(3);
+			assertThat(appender.append(play(4))).isEqualTo(4);
+		}
+		assertThat(before.size()).isEqualTo(3);
+		var after = GameArchive.open(data, setup);
+		assertThat(after.size()).isEqualTo(5);
+		assertThat(after.record(4).moves()).isEqualTo(play(4).moves());
+		assertThat(after.board(4, after.plies(4)))
+				.isEqualTo(new ImmutableBoard(Iterables.getLast(
+						play(4).states(new MyGameStateFactory(), setup))));
+	}
+
+	@Test public void testPartlyWrittenEntryIgnored() throws IOException {
+		Path data = archive(2, 2);
+		Path index = GameArchive.indexOf(data);
+		try (var channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		assertThat(GameArchive.open(data, setup).size()).isOne();
+		try (var appender = new GameArchive.Appender(data, setup)) {
+			assertThat(appender.append(play(1))).isOne();
+		}
+		var archive = GameArchive.open(data, setup);
+		assertThat(archive.size()).isEqualTo(2);
+		assertThat(archive.record(1).moves()).isEqualTo(play(1).moves());
+	}
+
+	@Test public void testRejectsOtherSetup() throws IOException {
+		Path data = archive(1, 2);
+		var other = new GameSetup(setup.graph, ImmutableList.of(true, false, false, true));
+		assertThatThrownBy(() -> GameArchive.open(data, other))
+				.isInstanceOf(IllegalArgumentException.class);
+		try (var appender = new GameArchive.Appender(data, setup)) {
+			var out = new ByteArrayOutputStream();
+			var record = play(0);
+			new GameRecord.Writer(Channels.newChannel(out), other, record.mrX(),
+					record.detectives()).finish();
+			var foreign = new GameRecord.Reader(Channels.newChannel(
+					new ByteArrayInputStream(out.toByteArray()))).next();
+			assertThatThrownBy(() -> appender.append(foreign))
+					.isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+
+	@Test public void testRejectsOtherFiles() throws IOException {
+		Path graph = folder.newFile("graph.bin").toPath();
+		GraphFile.write(setup.graph, graph);
+		assertThatThrownBy(() -> GameArchive.open(graph, setup)).isInstanceOf(IOException.class);
+		long size = Files.size(graph);
+		// appending never overwrites a file that is not an archive
+		assertThatThrownBy(() -> new GameArchive.Appender(graph, setup))
+				.isInstanceOf(IOException.class);
+		assertThat(Files.size(graph)).isEqualTo(size);
+		Files.write(GameArchive.indexOf(graph), new byte[40]);
+		assertThatThrownBy(() -> GameArchive.open(graph, setup)).isInstanceOf(IOException.class);
+	}
+
+	@Test public void testReplayFailureIsNotACorruptCheckpoint() throws IOException {
+		var archive = GameArchive.open(archive(1, 2), setup,
+				new MyGameStateFactory((winner, reason, round) -> {
+					throw new IllegalArgumentException("listener");
+				}));
+		// the last move decides the winner, after the checkpoint was decoded
+		assertThatThrownBy(() -> archive.state(0, archive.plies(0)))
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessage("listener");
+	}
+
+	@Test public void testRejectsMissingGameOrPly() throws IOException {
+		var archive = GameArchive.open(archive(2, 2), setup);
+		assertThatThrownBy(() -> archive.state(2, 0))
+				.isInstanceOf(IndexOutOfBoundsException.class);
+		assertThatThrownBy(() -> archive.state(-1, 0))
+				.isInstanceOf(IndexOutOfBoundsException.class);
+		assertThatThrownBy(() -> archive.state(0, archive.plies(0) + 1))
+				.isInstanceOf(IndexOutOfBoundsException.class);
+		assertThatThrownBy(() -> archive.state(0, -1))
+				.isInstanceOf(IndexOutOfBoundsException.class);
+	}
+
+}
@@ -0,0 +1,75 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.GameEventListener.Reason;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Tests that {@link MyGameStateFactory} reports why and when the game was won to its
+ * {@link GameEventListener}
+ */
+public class GameEventListenerTest {
+
+	private static GameSetup standard;
+	private static GameSetup oneMove;
+
+	private final List<String> events = new ArrayList<>();
+	private final MyGameStateFactory factory = new MyGameStateFactory((winner, reason, round) ->
+			events.add(winner + " " + reason + " " + round));
+
+	@BeforeClass public static void setUp() throws IOException {
+		standard = new GameSetup(ScotlandYard.standardGraph(), STANDARD24MOVES);
+		oneMove = new GameSetup(ScotlandYard.standardGraph(), ImmutableList.of(true));
+	}
+
+	@Test public void testMrXCaught() {
+		GameState state = factory.build(standard,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 116)));
+		state = state.advance(new SingleMove(MRX, 86, Ticket.TAXI, 104));
+		assertThat(events).isEmpty();
+		state = state.advance(new SingleMove(BLUE, 116, Ticket.TAXI, 104));
+		assertThat(state.getWinner()).containsExactly(BLUE);
+		assertThat(events).containsExactly("[BLUE] " + Reason.MRX_CAUGHT + " 1");
+	}
+
+	@Test public void testTravelLogFull() {
+		GameState state = factory.build(oneMove,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE, defaultDetectiveTickets(), 85)));
+		state = state.advance(new SingleMove(MRX, 86, Ticket.TAXI, 103));
+		// the detectives still finish the round
+		assertThat(state.getWinner()).isEmpty();
+		assertThat(events).isEmpty();
+		state = state.advance(new SingleMove(BLUE, 85, Ticket.TAXI, 68));
+		assertThat(state.getWinner()).containsExactly(MRX);
+		assertThat(events).containsExactly("[MRX] " + Reason.TRAVEL_LOG_FULL + " 1");
+	}
+
+	@Test public void testDetectivesStuckAtStart() {
+		GameState state = factory.build(standard,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(BLUE,
+						ParameterisedModelTestBase.makeTickets(0, 0, 0, 0, 0), 105)));
+		assertThat(state.getWinner()).containsExactly(MRX);
+		assertThat(events).containsExactly("[MRX] " + Reason.DETECTIVES_STUCK + " 0");
+	}
+
+}
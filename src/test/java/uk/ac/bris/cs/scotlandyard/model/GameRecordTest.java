@@ -0,0 +1,244 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Model.MoveObserver;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ModelDispatchTest.playToGameOver;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.blackPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.bluePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.greenPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.redPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.whitePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.yellowPlayer;
+
+/**
+ * Tests that games survive a round trip through {@link GameRecord.Writer} and
+ * {@link GameRecord.Reader} and that damaged records are rejected
+ */
+public class GameRecordTest {
+
+	private static GameSetup shortSetup;
+	private static GameSetup standardSetup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		shortSetup = new GameSetup(ScotlandYard.standardGraph(),
+				ImmutableList.of(true, false, false, true));
+		standardSetup = new GameSetup(ScotlandYard.standardGraph(),
+				ScotlandYard.STANDARD24MOVES);
+	}
+
+	private static ImmutableList<Player> detectives() {
+		return ImmutableList.of(redPlayer(), greenPlayer(), bluePlayer(), whitePlayer(),
+				yellowPlayer());
+	}
+
+	private static List<GameRecord> read(byte[] bytes) {
+		var records = new ArrayList<GameRecord>();
+		new GameRecord.Reader(Channels.newChannel(new ByteArrayInputStream(bytes)))
+				.forEachRemaining(records::add);
+		return records;
+	}
+
+	// plays random moves to the end, recording them; returns the moves made
+	private static List<Move> playout(GameState state, GameRecord.Writer writer, Random random)
+			throws IOException {
+		var moves = new ArrayList<Move>();
+		while (state.getWinner().isEmpty()) {
+			var available = state.getAvailableMoves().asList();
+			Move move = available.get(random.nextInt(available.size()));
+			writer.append(move);
+			moves.add(move);
+			state = state.advance(move);
+		}
+		writer.finish();
+		return moves;
+	}
+
+	@Test public void testModelGameRoundTrip() {
+		var out = new ByteArrayOutputStream();
+		var channel = Channels.newChannel(out);
+		Model model = new MyModelFactory().build(shortSetup, blackPlayer(), detectives());
+		var moves = new ArrayList<Move>();
+		model.registerObserver(new MoveObserver() {
+			@Override public void onMoveMade(Board board, Move move, Event event) {
+				moves.add(move);
+			}
+		});
+		model.registerObserver(new GameRecord.Writer(channel, shortSetup, blackPlayer(),
+				detectives()));
+		playToGameOver(model);
+
+		var records = read(out.toByteArray());
+		assertThat(records).hasSize(1);
+		GameRecord record = records.get(0);
+		assertThat(record.setupHash()).isEqualTo(GameRecord.setupHash(shortSetup));
+		assertThat(record.mrX()).isEqualTo(blackPlayer());
+		assertThat(record.detectives()).isEqualTo(detectives());
+		assertThat(record.moves()).isEqualTo(moves);
+
+		var states = ImmutableList.copyOf(record.states(new MyGameStateFactory(), shortSetup));
+		assertThat(states).hasSize(moves.size() + 1);
+		Board last = states.get(states.size() - 1);
+		assertThat(last.getWinner()).isEqualTo(model.getCurrentBoard().getWinner());
+		assertThat(last.getMrXTravelLog()).isEqualTo(model.getCurrentBoard().getMrXTravelLog());
+	}
+
+	@Test public void testPlainObserversStillSeeEvents() {
+		var events = new ArrayList<Observer.Event>();
+		Model model = new MyModelFactory().build(shortSetup, blackPlayer(), detectives());
+		model.registerObserver(new Observer() {
+			@Override public void onModelChanged(Board board, Event event) { events.add(event); }
+		});
+		playToGameOver(model);
+		assertThat(events).isNotEmpty().endsWith(Observer.Event.GAME_OVER);
+	}
+
+	@Test public void testConcurrentWritersShareChannel() throws Exception {
+		var out = new ByteArrayOutputStream();
+		WritableByteChannel channel = Channels.newChannel(out);
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		List<List<Move>> games = new ArrayList<>();
+		try {
+			List<Future<List<Move>>> played = new ArrayList<>();
+			for (int seed = 0; seed < 200; seed++) {
+				int s = seed;
+				played.add(threads.submit(() -> {
+					var mrX = new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(),
+							ScotlandYard.generateMrXLocation(s));
+					var locations = ScotlandYard.generateDetectiveLocations(s, 5);
+					var detectives = ImmutableList.<Player>builder();
+					for (int i = 0; i < 5; i++)
+						detectives.add(new Player(Detective.values()[i],
+								ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+					var state = new CompactGameStateFactory()
+							.build(standardSetup, mrX, detectives.build());
+					return playout(state, new GameRecord.Writer(channel, standardSetup, mrX,
+							detectives.build()), new Random(s));
+				}));
+			}
+			for (var future : played) games.add(future.get(10, TimeUnit.SECONDS));
+		} finally {
+			threads.shutdownNow();
+		}
+		byte[] bytes = out.toByteArray();
+		var records = read(bytes);
+		assertThat(records).extracting(record -> (List<Move>) record.moves())
+				.containsExactlyInAnyOrderElementsOf(games);
+		int moves = games.stream().mapToInt(List::size).sum();
+		assertThat((double) bytes.length / moves).isLessThan(4);
+
+		// replaying reaches the same end as the game
+		var factory = new CompactGameStateFactory();
+		for (GameRecord record : records.subList(0, 20)) {
+			GameState end = Iterables.getLast(record.states(factory, standardSetup));
+			assertThat(end.getWinner()).isNotEmpty();
+			assertThat(end.getMrXTravelLog()).hasSizeLessThanOrEqualTo(24);
+		}
+	}
+
+	@Test public void testNumberedDetectivesAndMissingTickets() throws IOException {
+		var setup = new GameSetup(SyntheticMap.generate(200, 1), ScotlandYard.STANDARD24MOVES);
+		var out = new ByteArrayOutputStream();
+		var channel = Channels.newChannel(out);
+		var writer = SyntheticMap.build((s, mrX, detectives) ->
+				new GameRecord.Writer(channel, s, mrX, detectives), setup, 40, 7);
+		GameState state = SyntheticMap.build(new CompactGameStateFactory(), setup, 40, 7);
+		var moves = playout(state, writer, new Random(7));
+		var noSecret = new Player(MrX.MRX, ImmutableMap.of(Ticket.TAXI, 3), 1);
+		new GameRecord.Writer(channel, setup, noSecret, ImmutableList.of()).finish();
+
+		var records = read(out.toByteArray());
+		assertThat(records).hasSize(2);
+		assertThat(records.get(0).detectives()).hasSize(40);
+		assertThat(records.get(0).detectives().get(39).piece())
+				.isSameAs(Piece.NumberedDetective.of(40));
+		assertThat(records.get(0).moves()).isEqualTo(moves);
+		assertThat(records.get(1).mrX().tickets()).isEqualTo(noSecret.tickets());
+		assertThat(records.get(1).moves()).isEmpty();
+	}
+
+	@Test public void testStatesRejectOtherSetup() throws IOException {
+		var out = new ByteArrayOutputStream();
+		new GameRecord.Writer(Channels.newChannel(out), shortSetup, blackPlayer(), detectives())
+				.finish();
+		GameRecord record = read(out.toByteArray()).get(0);
+		assertThat(GameRecord.setupHash(standardSetup)).isNotEqualTo(record.setupHash());
+		assertThatThrownBy(() -> record.states(new MyGameStateFactory(), standardSetup))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testRejectsMoveNotFromPlayerLocation() {
+		var writer = new GameRecord.Writer(Channels.newChannel(new ByteArrayOutputStream()),
+				shortSetup, blackPlayer(), detectives());
+		int elsewhere = blackPlayer().location() + 1;
+		assertThatThrownBy(() -> writer.append(new Move.SingleMove(MrX.MRX, elsewhere,
+				Ticket.TAXI, 1))).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testRejectsAppendAfterWritten() throws IOException {
+		var writer = new GameRecord.Writer(Channels.newChannel(new ByteArrayOutputStream()),
+				shortSetup, blackPlayer(), detectives());
+		writer.finish();
+		Move move = new MyGameStateFactory().build(shortSetup, blackPlayer(), detectives())
+				.getAvailableMoves().iterator().next();
+		assertThatThrownBy(() -> writer.append(move)).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test public void testRejectsTruncatedRecord() throws IOException {
+		var out = new ByteArrayOutputStream();
+		var channel = Channels.newChannel(out);
+		for (int seed = 0; seed < 2; seed++) {
+			var state = new MyGameStateFactory().build(shortSetup, blackPlayer(), detectives());
+			playout(state, new GameRecord.Writer(channel, shortSetup, blackPlayer(),
+					detectives()), new Random(seed));
+		}
+		byte[] bytes = out.toByteArray();
+		assertThat(read(bytes)).hasSize(2);
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+		var reader = new GameRecord.Reader(Channels.newChannel(
+				new ByteArrayInputStream(truncated)));
+		assertThat(reader.next()).isNotNull();
+		assertThatThrownBy(reader::hasNext).isInstanceOf(UncheckedIOException.class);
+	}
+
+	@Test public void testRejectsCorruptMoves() throws IOException {
+		var out = new ByteArrayOutputStream();
+		var state = new MyGameStateFactory().build(shortSetup, blackPlayer(), detectives());
+		playout(state, new GameRecord.Writer(Channels.newChannel(out), shortSetup,
+				blackPlayer(), detectives()), new Random(1));
+		byte[] bytes = out.toByteArray();
+		// the last byte, a destination, now claims a continuation byte that is not there
+		bytes[bytes.length - 1] |= 0x80;
+		GameRecord record = read(bytes).get(0);
+		assertThatThrownBy(record::moves).isInstanceOf(UncheckedIOException.class);
+	}
+
+}
@@ -0,0 +1,89 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.makeTickets;
+
+/**
+ * Plays {@link MyGameStateFactory} and {@link CompactGameStateFactory} through the same random
+ * moves and checks that both show the same board after every one, including when and for whom
+ * the game ends
+ */
+public class GameStateDifferentialTest {
+
+	private static GameSetup standard;
+
+	@BeforeClass public static void setUp() throws IOException {
+		standard = new GameSetup(ScotlandYard.standardGraph(), STANDARD24MOVES);
+	}
+
+	private static void assertSameBoard(GameState mine, GameState compact, String context) {
+		assertThat(mine.getWinner()).as("winner %s", context).isEqualTo(compact.getWinner());
+		assertThat(mine.getAvailableMoves()).as("moves %s", context)
+				.isEqualTo(compact.getAvailableMoves());
+		assertThat(mine.getPlayers()).as("players %s", context).isEqualTo(compact.getPlayers());
+		assertThat(mine.getMrXTravelLog()).as("log %s", context)
+				.isEqualTo(compact.getMrXTravelLog());
+		for (Piece piece : compact.getPlayers()) {
+			for (Ticket ticket : Ticket.values())
+				assertThat(mine.getPlayerTickets(piece).orElseThrow().getCount(ticket))
+						.as("%s tickets of %s %s", ticket, piece, context)
+						.isEqualTo(compact.getPlayerTickets(piece).orElseThrow().getCount(ticket));
+			if (piece.isDetective())
+				assertThat(mine.getDetectiveLocation((Detective) piece)).as("%s %s", piece, context)
+						.isEqualTo(compact.getDetectiveLocation((Detective) piece));
+		}
+	}
+
+	@Test public void testFactoriesAgreeInRandomPlayouts() {
+		var random = new Random(0);
+		// small maps and few tickets, so that every way of ending the game comes up often
+		var graphs = List.of(standard.graph, SyntheticMap.generate(12, 0),
+				SyntheticMap.generate(30, 1), SyntheticMap.generate(30, 2.5, 2, 1, 0, 2));
+		for (int game = 0; game < 4000; game++) {
+			var graph = graphs.get(game % graphs.size());
+			var nodes = ImmutableList.copyOf(graph.nodes());
+			var setup = new GameSetup(graph,
+					STANDARD24MOVES.subList(0, 1 + random.nextInt(STANDARD24MOVES.size())));
+			List<Integer> locations = new ArrayList<>();
+			while (locations.size() < 6) {
+				int location = nodes.get(random.nextInt(nodes.size()));
+				if (!locations.contains(location)) locations.add(location);
+			}
+			int detectives = 1 + random.nextInt(5);
+			var players = ImmutableList.<Player>builder();
+			for (int i = 0; i < detectives; i++)
+				players.add(new Player(Detective.values()[i], makeTickets(random.nextInt(4),
+						random.nextInt(3), random.nextInt(2), 0, 0), locations.get(i + 1)));
+			var mrX = new Player(MRX, makeTickets(random.nextInt(4), random.nextInt(3),
+					random.nextInt(2), random.nextInt(3), random.nextInt(3)), locations.get(0));
+			GameState mine = new MyGameStateFactory().build(setup, mrX, players.build());
+			GameState compact = new CompactGameStateFactory().build(setup, mrX, players.build());
+			for (int ply = 0; ; ply++) {
+				String context = "in game " + game + " at ply " + ply;
+				assertSameBoard(mine, compact, context);
+				if (!compact.getWinner().isEmpty()) break;
+				var moves = compact.getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				mine = mine.advance(move);
+				compact = compact.advance(move);
+			}
+		}
+	}
+
+}
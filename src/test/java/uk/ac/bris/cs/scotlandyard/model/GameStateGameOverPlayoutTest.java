@@ -0,0 +1,159 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.GameEventListener.Reason;
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.makeTickets;
+
+/**
+ * Tests over random playouts that {@link MyGameStateFactory}, which derives game over from the
+ * previous state and the last move, ends the game exactly when the rules applied from scratch
+ * do, and that the counts it keeps for this match a recount after every move
+ */
+public class GameStateGameOverPlayoutTest {
+
+	private final List<String> events = new ArrayList<>();
+	private final MyGameStateFactory factory = new MyGameStateFactory((winner, reason, round) ->
+			events.add(winner + " " + reason + " " + round));
+
+	// the game over rules applied from scratch to what the board shows and the pieces yet to
+	// move, null if not over
+	@Nullable private static Reason fullRules(GameSetup setup, GameState state,
+	                                          List<Detective> detectives, int mrX,
+	                                          Set<Piece> remaining) {
+		Set<Integer> occupied = occupied(state, detectives);
+		if (occupied.contains(mrX)) return Reason.MRX_CAUGHT;
+		boolean mrXTurn = remaining.contains(MRX);
+		if (mrXTurn && state.getMrXTravelLog().size() >= setup.moves.size())
+			return Reason.TRAVEL_LOG_FULL;
+		if (mrXTurn && !canMove(setup, state, MRX, mrX, occupied)) return Reason.MRX_STUCK;
+		boolean outOfTickets = true, allStuck = true;
+		for (Detective d : detectives) {
+			var tickets = state.getPlayerTickets(d).orElseThrow();
+			if (tickets.getCount(Ticket.TAXI) + tickets.getCount(Ticket.BUS)
+					+ tickets.getCount(Ticket.UNDERGROUND) > 0) outOfTickets = false;
+			if (canMove(setup, state, d, state.getDetectiveLocation(d).orElseThrow(), occupied))
+				allStuck = false;
+		}
+		if (outOfTickets || allStuck) return Reason.DETECTIVES_STUCK;
+		return null;
+	}
+
+	private static Set<Integer> occupied(GameState state, List<Detective> detectives) {
+		Set<Integer> occupied = new HashSet<>();
+		for (Detective d : detectives) occupied.add(state.getDetectiveLocation(d).orElseThrow());
+		return occupied;
+	}
+
+	private static boolean canMove(GameSetup setup, GameState state, Piece piece, int location,
+	                               Set<Integer> occupied) {
+		var tickets = state.getPlayerTickets(piece).orElseThrow();
+		for (int next : setup.graph.adjacentNodes(location)) {
+			if (occupied.contains(next)) continue;
+			if (tickets.getCount(Ticket.SECRET) > 0) return true;
+			for (Transport t : setup.graph.edgeValue(location, next).orElseThrow())
+				if (tickets.getCount(t.requiredTicket()) > 0) return true;
+		}
+		return false;
+	}
+
+	@Test public void testReasonsMatchFullRulesInRandomPlayouts() throws IOException {
+		var random = new Random(0);
+		// detectives surround MrX far more often on small maps
+		var graphs = List.of(ScotlandYard.standardGraph(), SyntheticMap.generate(12, 0),
+				SyntheticMap.generate(30, 1), SyntheticMap.generate(30, 2.5, 2, 1, 0, 2));
+		Map<Reason, Integer> seen = new EnumMap<>(Reason.class);
+		for (int game = 0; game < 4000; game++) {
+			// short games with few tickets, so that every reason comes up
+			var graph = graphs.get(game % graphs.size());
+			var nodes = ImmutableList.copyOf(graph.nodes());
+			var setup = new GameSetup(graph,
+					STANDARD24MOVES.subList(0, 1 + random.nextInt(STANDARD24MOVES.size())));
+			List<Integer> locations = new ArrayList<>();
+			while (locations.size() < 6) {
+				int location = nodes.get(random.nextInt(nodes.size()));
+				if (!locations.contains(location)) locations.add(location);
+			}
+			var detectives = List.of(Detective.values()).subList(0, 1 + random.nextInt(5));
+			var players = ImmutableList.<Player>builder();
+			for (int i = 0; i < detectives.size(); i++)
+				players.add(new Player(detectives.get(i), makeTickets(random.nextInt(4),
+						random.nextInt(3), random.nextInt(2), 0, 0), locations.get(i + 1)));
+			int mrX = locations.get(0);
+			events.clear();
+			GameState state = factory.build(setup, new Player(MRX, makeTickets(random.nextInt(4),
+					random.nextInt(3), random.nextInt(2), random.nextInt(3), random.nextInt(3)),
+					mrX), players.build());
+			Set<Piece> remaining = Set.of(MRX);
+			while (true) {
+				// the counts kept incrementally for game over match a recount
+				assertThat(MyGameStateFactory.incrementalMismatch(state))
+						.as("in game %d at round %d", game, state.getMrXTravelLog().size())
+						.isNull();
+				Reason reason = fullRules(setup, state, detectives, mrX, remaining);
+				if (reason == null) {
+					assertThat(state.getWinner()).isEmpty();
+					assertThat(events).isEmpty();
+				} else {
+					boolean detectivesWin = reason == Reason.MRX_CAUGHT
+							|| reason == Reason.MRX_STUCK;
+					ImmutableSet<Piece> winner = detectivesWin
+							? ImmutableSet.copyOf(detectives)
+							: ImmutableSet.of(MRX);
+					assertThat(state.getWinner()).isEqualTo(winner);
+					assertThat(events).containsExactly(
+							winner + " " + reason + " " + state.getMrXTravelLog().size());
+					seen.merge(reason, 1, Integer::sum);
+					break;
+				}
+				var moves = state.getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				Set<Piece> candidates = new HashSet<>(detectives);
+				if (move.commencedBy().isMrX()) {
+					mrX = move.accept(new Move.Visitor<Integer>() {
+						@Override public Integer visit(SingleMove move) { return move.destination; }
+						@Override public Integer visit(DoubleMove move) { return move.destination2; }
+					});
+				} else {
+					candidates = new HashSet<>(remaining);
+					candidates.remove(move.commencedBy());
+				}
+				state = state.advance(move);
+				// the detectives yet to move that can move from where everyone now stands; MrX's
+				// turn once there are none
+				Set<Integer> occupied = occupied(state, detectives);
+				Set<Piece> movers = new HashSet<>();
+				for (Piece d : candidates)
+					if (canMove(setup, state, d, state.getDetectiveLocation((Detective) d)
+							.orElseThrow(), occupied)) movers.add(d);
+				remaining = movers.isEmpty() ? Set.of(MRX) : movers;
+			}
+		}
+		assertThat(seen).containsOnlyKeys(Reason.values());
+	}
+
+}
@@ -0,0 +1,75 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.SECRET;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+
+/**
+ * Tests MrX's available moves against a brute force enumeration over every node of the standard
+ * graph
+ */
+public class GameStateMrXBruteForceTest extends ParameterisedModelTestBase {
+
+	// every move by brute force over the graph, duplicates collapsed by the set
+	private static Set<Move> referenceMoves(Player mrX, int detective, boolean canDouble) {
+		var graph = standardGraph();
+		Set<Move> moves = new HashSet<>();
+		int source = mrX.location();
+		for (int d1 : graph.adjacentNodes(source)) {
+			if (d1 == detective) continue;
+			for (Transport first : graph.edgeValueOrDefault(source, d1, ImmutableSet.of())) {
+				for (Ticket t1 : List.of(first.requiredTicket(), SECRET)) {
+					if (!mrX.has(t1)) continue;
+					moves.add(new SingleMove(MRX, source, t1, d1));
+					if (!canDouble) continue;
+					var after = mrX.use(t1);
+					for (int d2 : graph.adjacentNodes(d1)) {
+						if (d2 == detective) continue;
+						for (Transport second : graph.edgeValueOrDefault(d1, d2, ImmutableSet.of()))
+							for (Ticket t2 : List.of(second.requiredTicket(), SECRET))
+								if (after.has(t2))
+									moves.add(new DoubleMove(MRX, source, t1, d1, t2, d2));
+					}
+				}
+			}
+		}
+		return moves;
+	}
+
+	@Test public void testMrXMovesMatchBruteForceOnEveryNode() {
+		var tickets = List.of(
+				makeTickets(4, 3, 3, 2, 5),
+				makeTickets(1, 1, 1, 1, 1),
+				makeTickets(2, 0, 1, 1, 2),
+				makeTickets(0, 0, 0, 1, 1),
+				makeTickets(3, 2, 1, 0, 1));
+		for (var ticketMap : tickets) {
+			for (int node : standardGraph().nodes()) {
+				var mrX = new Player(MRX, ticketMap, node);
+				int detective = node == 1 ? 2 : 1;
+				var blue = new Player(BLUE, defaultDetectiveTickets(), detective);
+				GameState state = gameStateFactory.build(standard24MoveSetup(), mrX, blue);
+				assertThat(state.getAvailableMoves()).as("MrX at %d with %s", node, ticketMap)
+						.containsExactlyInAnyOrderElementsOf(
+								referenceMoves(mrX, detective, mrX.has(Ticket.DOUBLE)));
+			}
+		}
+	}
+
+}
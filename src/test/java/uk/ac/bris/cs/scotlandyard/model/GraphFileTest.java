@@ -0,0 +1,123 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.io.Resources;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests that graphs survive a round trip through {@link GraphFile} and that damaged files are
+ * rejected
+ */
+public class GraphFileTest {
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void assertSameCompactGraph(CompactGraph expected, CompactGraph actual) {
+		assertThat(actual.nodeCount()).isEqualTo(expected.nodeCount());
+		assertThat(actual.nodeBound()).isEqualTo(expected.nodeBound());
+		for (int node = 0; node < expected.nodeBound(); node++) {
+			assertThat(actual.contains(node)).isEqualTo(expected.contains(node));
+			assertThat(actual.begin(node)).isEqualTo(expected.begin(node));
+			assertThat(actual.end(node)).isEqualTo(expected.end(node));
+			for (int ticket = 0; ticket < ScotlandYard.Ticket.values().length; ticket++) {
+				assertThat(actual.begin(node, ticket)).isEqualTo(expected.begin(node, ticket));
+				assertThat(actual.end(node, ticket)).isEqualTo(expected.end(node, ticket));
+			}
+		}
+		for (int edge = 0; edge < expected.end(expected.nodeBound() - 1); edge++) {
+			assertThat(actual.target(edge)).isEqualTo(expected.target(edge));
+			assertThat(actual.transports(edge)).isEqualTo(expected.transports(edge));
+		}
+	}
+
+	private void assertRoundTrip(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph)
+			throws IOException {
+		Path file = folder.newFile().toPath();
+		GraphFile.write(graph, file);
+		var loaded = GraphFile.read(file);
+		assertThat(loaded).isEqualTo(graph);
+		assertSameCompactGraph(CompactGraph.of(graph), CompactGraph.of(loaded));
+	}
+
+	@Test public void testStandardGraphRoundTrip() throws IOException {
+		assertRoundTrip(ScotlandYard.standardGraph());
+	}
+
+	@Test public void testSyntheticGraphRoundTrip() throws IOException {
+		assertRoundTrip(SyntheticMap.generate(20000, 2.5, 1, 0.3, 0.05, 0));
+	}
+
+	@Test public void testConvertMatchesReadGraph() throws IOException {
+		Path text = folder.newFile("graph.txt").toPath();
+		Files.write(text, Resources.toByteArray(Resources.getResource("graph.txt")));
+		Path binary = folder.newFile("graph.bin").toPath();
+		GraphFile.convert(text, binary);
+		assertThat(GraphFile.read(binary)).isEqualTo(ScotlandYard.standardGraph());
+	}
+
+	@Test public void testLoadedEdgesShareTransportSets() throws IOException {
+		Path file = folder.newFile().toPath();
+		GraphFile.write(ScotlandYard.standardGraph(), file);
+		var loaded = GraphFile.read(file);
+		for (var edge : loaded.edges()) {
+			var transports = loaded.edgeValue(edge).orElseThrow();
+			int mask = 0;
+			for (Transport t : transports) mask |= 1 << t.ordinal();
+			assertThat(transports).isSameAs(CompactGraph.transportSet(mask));
+		}
+	}
+
+	@Test public void testRejectsOtherFiles() throws IOException {
+		Path file = folder.newFile().toPath();
+		Files.write(file, Resources.toByteArray(Resources.getResource("graph.txt")));
+		assertThatThrownBy(() -> GraphFile.read(file)).isInstanceOf(IOException.class);
+	}
+
+	@Test public void testRejectsTruncatedFile() throws IOException {
+		Path file = folder.newFile().toPath();
+		GraphFile.write(ScotlandYard.standardGraph(), file);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+		assertThatThrownBy(() -> GraphFile.read(file)).isInstanceOf(IOException.class);
+	}
+
+	@Test public void testRejectsOneSidedEdge() throws IOException {
+		Path file = folder.newFile().toPath();
+		GraphFile.write(ScotlandYard.standardGraph(), file);
+		byte[] bytes = Files.readAllBytes(file);
+		// the transports of the very last edge no longer match its reverse
+		bytes[bytes.length - 1] ^= 1 << Transport.FERRY.ordinal();
+		Files.write(file, bytes, StandardOpenOption.TRUNCATE_EXISTING);
+		assertThatThrownBy(() -> GraphFile.read(file)).isInstanceOf(IOException.class);
+	}
+
+	@Test public void testHeaderIsLittleEndian() throws IOException {
+		Path file = folder.newFile().toPath();
+		GraphFile.write(ScotlandYard.standardGraph(), file);
+		var header = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		assertThat(new String(Files.readAllBytes(file), 0, 4, StandardCharsets.US_ASCII))
+				.isEqualTo("SYGR");
+		assertThat(header.getInt(4)).isEqualTo(GraphFile.VERSION);
+		assertThat(header.getInt(8)).isEqualTo(200);
+		assertThat(header.getInt(12)).isEqualTo(199);
+	}
+
+}
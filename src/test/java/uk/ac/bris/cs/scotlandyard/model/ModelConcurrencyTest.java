@@ -0,0 +1,175 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
+import uk.ac.bris.cs.scotlandyard.model.Model.Snapshot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.ModelDispatchTest.chooseNextMove;
+import static uk.ac.bris.cs.scotlandyard.model.ModelDispatchTest.playToGameOver;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.blackPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.bluePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.greenPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.redPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.whitePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.yellowPlayer;
+
+/**
+ * Tests that models of {@link MyModelFactory} can be read and observed from other threads while
+ * one thread plays
+ */
+public class ModelConcurrencyTest {
+
+	private static GameSetup setup;
+
+	// MrX's two double moves fill the log on his second turn at the latest
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(),
+				ImmutableList.of(true, false, false, true));
+	}
+
+	private static Model build() {
+		return new MyModelFactory().build(setup, blackPlayer(), ImmutableList.of(redPlayer(),
+				greenPlayer(), bluePlayer(), whitePlayer(), yellowPlayer()));
+	}
+
+	@Test public void testSnapshotVersionCountsMoves() {
+		Model model = build();
+		Snapshot start = model.getSnapshot();
+		assertThat(start.version()).isZero();
+		assertThat(start.board()).isSameAs(model.getCurrentBoard());
+		chooseNextMove(model);
+		assertThat(model.getSnapshot().version()).isOne();
+		assertThat(model.getSnapshot().board()).isSameAs(model.getCurrentBoard())
+				.isNotSameAs(start.board());
+		// snapshots taken earlier are unaffected
+		assertThat(start.version()).isZero();
+	}
+
+	@Test public void testReadersSeeEveryBoardWithItsVersion() throws Exception {
+		ExecutorService readers = Executors.newFixedThreadPool(3);
+		try {
+			for (int game = 0; game < 100; game++) {
+				Model model = build();
+				List<Board> published = new ArrayList<>();
+				published.add(model.getCurrentBoard());
+				var done = new AtomicBoolean();
+				List<Future<List<Snapshot>>> reads = new ArrayList<>();
+				for (int i = 0; i < 3; i++) {
+					reads.add(readers.submit(() -> {
+						List<Snapshot> seen = new ArrayList<>();
+						while (!done.get()) {
+							Snapshot snapshot = model.getSnapshot();
+							// a board read from any thread is complete
+							snapshot.board().getAvailableMoves();
+							seen.add(snapshot);
+						}
+						return seen;
+					}));
+				}
+				while (model.getCurrentBoard().getWinner().isEmpty()) {
+					chooseNextMove(model);
+					published.add(model.getCurrentBoard());
+				}
+				done.set(true);
+				for (var read : reads) {
+					long last = 0;
+					for (Snapshot snapshot : read.get(10, TimeUnit.SECONDS)) {
+						assertThat(snapshot.version()).isGreaterThanOrEqualTo(last);
+						assertThat(snapshot.board())
+								.isSameAs(published.get((int) snapshot.version()));
+						last = snapshot.version();
+					}
+				}
+			}
+		} finally {
+			readers.shutdownNow();
+		}
+	}
+
+	@Test public void testConcurrentRegistrationKeepsEveryObserver() throws Exception {
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			Model model = build();
+			var notified = new AtomicInteger();
+			var start = new CountDownLatch(1);
+			List<Future<List<Observer>>> registered = new ArrayList<>();
+			for (int thread = 0; thread < 8; thread++) {
+				registered.add(threads.submit(() -> {
+					start.await();
+					List<Observer> observers = new ArrayList<>();
+					for (int i = 0; i < 100; i++) {
+						Observer observer = new Observer() {
+							@Override public void onModelChanged(Board board, Event event) {
+								notified.incrementAndGet();
+							}
+						};
+						model.registerObserver(observer);
+						observers.add(observer);
+					}
+					return observers;
+				}));
+			}
+			start.countDown();
+			List<Observer> all = new ArrayList<>();
+			for (var future : registered) all.addAll(future.get(10, TimeUnit.SECONDS));
+			assertThat(model.getObservers()).containsExactlyInAnyOrderElementsOf(all);
+			playToGameOver(model);
+			assertThat(notified.get()).isEqualTo(all.size() * model.getSnapshot().version());
+
+			List<Future<?>> unregistered = new ArrayList<>();
+			for (int thread = 0; thread < 8; thread++) {
+				var observers = all.subList(thread * 100, (thread + 1) * 100);
+				unregistered.add(threads.submit(() -> observers.forEach(model::unregisterObserver)));
+			}
+			for (var future : unregistered) future.get(10, TimeUnit.SECONDS);
+			assertThat(model.getObservers()).isEmpty();
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	@Test public void testSameObserverRegisteredOnceUnderContention() throws Exception {
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			Model model = build();
+			Observer observer = new Observer() {};
+			var start = new CountDownLatch(1);
+			var rejected = new AtomicInteger();
+			List<Future<?>> attempts = new ArrayList<>();
+			for (int thread = 0; thread < 8; thread++) {
+				attempts.add(threads.submit(() -> {
+					start.await();
+					try {
+						model.registerObserver(observer);
+					} catch (IllegalArgumentException e) {
+						rejected.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (var future : attempts) future.get(10, TimeUnit.SECONDS);
+			assertThat(rejected.get()).isEqualTo(7);
+			assertThat(model.getObservers()).containsExactly(observer);
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+}
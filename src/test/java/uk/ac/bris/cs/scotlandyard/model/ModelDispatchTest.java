@@ -0,0 +1,179 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer;
+import uk.ac.bris.cs.scotlandyard.model.Model.Observer.Event;
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.blackPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.bluePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.greenPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.redPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.whitePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.yellowPlayer;
+
+/**
+ * Tests models of {@link MyModelFactory#MyModelFactory(java.util.concurrent.Executor)}, which
+ * notify observers on an executor
+ */
+public class ModelDispatchTest {
+
+	private static GameSetup setup;
+
+	private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+	// four rounds: MrX's two double moves fill the log on his second turn at the latest
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(),
+				ImmutableList.of(true, false, false, true));
+	}
+
+	private static Model build(MyModelFactory factory) {
+		return factory.build(setup, blackPlayer(), ImmutableList.of(redPlayer(), greenPlayer(),
+				bluePlayer(), whitePlayer(), yellowPlayer()));
+	}
+
+	// a double move for MrX, the first move for detectives
+	static void chooseNextMove(Model model) {
+		var moves = model.getCurrentBoard().getAvailableMoves().asList();
+		model.chooseMove(moves.stream()
+				.filter(move -> move instanceof DoubleMove)
+				.findFirst()
+				.orElse(moves.get(0)));
+	}
+
+	static void playToGameOver(Model model) {
+		while (model.getCurrentBoard().getWinner().isEmpty()) chooseNextMove(model);
+	}
+
+	private static class Recorder implements Observer {
+		final List<Event> events = Collections.synchronizedList(new ArrayList<>());
+		final List<Board> boards = Collections.synchronizedList(new ArrayList<>());
+		final boolean coalesce;
+		Recorder(boolean coalesce) { this.coalesce = coalesce; }
+		@Override public void onModelChanged(Board board, Event event) {
+			boards.add(board);
+			events.add(event);
+		}
+		@Override public boolean coalesceMoves() { return coalesce; }
+	}
+
+	private static List<Event> synchronousEvents() {
+		var recorder = new Recorder(false);
+		Model model = build(new MyModelFactory());
+		model.registerObserver(recorder);
+		playToGameOver(model);
+		return recorder.events;
+	}
+
+	private void runTasks() {
+		while (!tasks.isEmpty()) tasks.poll().run();
+	}
+
+	@Test public void testEventsWaitForExecutorAndArriveInOrder() {
+		var expected = synchronousEvents();
+		assertThat(expected).hasSizeGreaterThan(2).endsWith(Event.GAME_OVER);
+		var recorder = new Recorder(false);
+		Model model = build(new MyModelFactory(tasks::add));
+		model.registerObserver(recorder);
+		playToGameOver(model);
+		assertThat(recorder.events).isEmpty();
+		// one task delivered the whole batch
+		assertThat(tasks).hasSize(1);
+		runTasks();
+		assertThat(recorder.events).isEqualTo(expected);
+		assertThat(recorder.boards.get(recorder.boards.size() - 1))
+				.isSameAs(model.getCurrentBoard());
+	}
+
+	@Test public void testCoalescingObserverOnlySeesLatestBoardAndGameOver() {
+		var recorder = new Recorder(true);
+		Model model = build(new MyModelFactory(tasks::add));
+		model.registerObserver(recorder);
+		chooseNextMove(model);
+		chooseNextMove(model);
+		runTasks();
+		assertThat(recorder.events).containsExactly(Event.MOVE_MADE);
+		assertThat(recorder.boards).containsExactly(model.getCurrentBoard());
+		playToGameOver(model);
+		runTasks();
+		assertThat(recorder.events).containsExactly(Event.MOVE_MADE, Event.GAME_OVER);
+		assertThat(recorder.boards.get(1)).isSameAs(model.getCurrentBoard());
+	}
+
+	@Test public void testGameOverDeliveredAfterUnregistering() {
+		var recorder = new Recorder(true);
+		Model model = build(new MyModelFactory(tasks::add));
+		model.registerObserver(recorder);
+		playToGameOver(model);
+		model.unregisterObserver(recorder);
+		assertThat(model.getObservers()).isEmpty();
+		runTasks();
+		assertThat(recorder.events).containsExactly(Event.GAME_OVER);
+	}
+
+	@Test public void testThrowingObserverDoesNotStopLaterEvents() {
+		var failed = new AtomicBoolean();
+		var recorder = new Recorder(false);
+		Model model = build(new MyModelFactory(tasks::add));
+		model.registerObserver(new Observer() {
+			@Override public void onModelChanged(Board board, Event event) {
+				if (!failed.getAndSet(true)) throw new IllegalStateException("first event");
+			}
+		});
+		model.registerObserver(recorder);
+		playToGameOver(model);
+		assertThatThrownBy(() -> tasks.poll().run()).isInstanceOf(IllegalStateException.class);
+		runTasks();
+		assertThat(tasks).isEmpty();
+		assertThat(recorder.events).isEqualTo(synchronousEvents());
+	}
+
+	@Test public void testObserverNotifiedOneEventAtATimeOnThreadPool()
+			throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			var expected = synchronousEvents();
+			var overlapped = new AtomicBoolean();
+			List<Recorder> recorders = new ArrayList<>();
+			for (int game = 0; game < 50; game++) {
+				Model model = build(new MyModelFactory(pool));
+				var busy = new AtomicBoolean();
+				var recorder = new Recorder(false) {
+					@Override public void onModelChanged(Board board, Event event) {
+						if (!busy.compareAndSet(false, true)) overlapped.set(true);
+						super.onModelChanged(board, event);
+						busy.set(false);
+					}
+				};
+				recorders.add(recorder);
+				model.registerObserver(recorder);
+				playToGameOver(model);
+			}
+			pool.shutdown();
+			assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+			assertThat(overlapped).isFalse();
+			for (Recorder recorder : recorders) assertThat(recorder.events).isEqualTo(expected);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateDetectiveLocations;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateMrXLocation;
+
+/**
+ * Tests that encoded moves generated into a {@link MoveList} are the available moves and can
+ * be made without decoding them
+ */
+public class MoveListTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), STANDARD24MOVES);
+	}
+
+	private static GameState randomGame(Factory<GameState> factory, int seed) {
+		var locations = generateDetectiveLocations(seed, 5);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < 5; i++)
+			detectives.add(new Player(Detective.values()[i], defaultDetectiveTickets(),
+					locations.get(i)));
+		return factory.build(setup,
+				new Player(MRX, defaultMrXTickets(), generateMrXLocation(seed)),
+				detectives.build());
+	}
+
+	private static List<Move> decoded(MoveList moves) {
+		List<Move> decoded = new ArrayList<>();
+		for (int i = 0; i < moves.size(); i++) decoded.add(moves.move(i));
+		return decoded;
+	}
+
+	@Test public void testFillMatchesAvailableMovesInOrder() {
+		MoveList moves = new MoveList(1);
+		for (int seed = 0; seed < 100; seed++) {
+			var random = new Random(seed);
+			// both of the model's own states write their moves straight into the list
+			GameState state = randomGame(seed % 2 == 0
+					? new CompactGameStateFactory()
+					: new MyGameStateFactory(), seed);
+			assertThat(state).isInstanceOf(MoveList.Source.class);
+			while (true) {
+				assertThat(decoded(moves.fill(state)))
+						.containsExactlyElementsOf(state.getAvailableMoves());
+				SearchState search = SearchState.of(state);
+				search.availableMoves(moves);
+				assertThat(decoded(moves)).containsExactlyElementsOf(state.getAvailableMoves());
+				if (!state.getWinner().isEmpty()) break;
+				var available = state.getAvailableMoves().asList();
+				state = state.advance(available.get(random.nextInt(available.size())));
+			}
+			assertThat(moves.isEmpty()).isTrue();
+		}
+	}
+
+	@Test public void testFillEncodesOtherBoards() {
+		GameState state = randomGame(new MyGameStateFactory(), 7);
+		MoveList moves = new MoveList().fill(state);
+		assertThat(moves.toSet()).isEqualTo(state.getAvailableMoves());
+		moves.fill(new ImmutableBoard(state));
+		assertThat(moves.toSet()).isEqualTo(state.getAvailableMoves());
+	}
+
+	@Test public void testMakeEncodedMoveMatchesMakeMove() {
+		for (int seed = 0; seed < 50; seed++) {
+			var random = new Random(seed);
+			GameState start = randomGame(new CompactGameStateFactory(), seed);
+			SearchState encoded = SearchState.of(start);
+			SearchState decoded = SearchState.of(start);
+			MoveList moves = new MoveList();
+			while (!encoded.isGameOver()) {
+				encoded.availableMoves(moves);
+				int index = random.nextInt(moves.size());
+				encoded.make(moves.get(index));
+				decoded.make(moves.move(index));
+				assertThat(encoded.key()).isEqualTo(decoded.key());
+				assertThat(encoded.getMrXTravelLog()).isEqualTo(decoded.getMrXTravelLog());
+			}
+			while (encoded.depth() > 0) encoded.unmake();
+			assertThat(encoded.key()).isEqualTo(StateKey.of(start));
+		}
+	}
+
+	@Test public void testIndexOutOfBoundsIsRejected() {
+		MoveList moves = new MoveList().fill(randomGame(new CompactGameStateFactory(), 0));
+		assertThatThrownBy(() -> moves.get(moves.size()))
+				.isInstanceOf(IndexOutOfBoundsException.class);
+		assertThatThrownBy(() -> new MoveList().table())
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+}
@@ -0,0 +1,154 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.BUS;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.SECRET;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.TAXI;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateDetectiveLocations;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateMrXLocation;
+
+/**
+ * Tests that {@link MoveTable} interns moves and that encoded moves decode to them
+ */
+public class MoveTableTest {
+
+	private static GameSetup setup;
+	private static MoveTable table;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), STANDARD24MOVES);
+		table = MoveTable.of(setup);
+	}
+
+	private static GameState randomGame(Factory<GameState> factory, int seed) {
+		var locations = generateDetectiveLocations(seed, 5);
+		var detectives = ImmutableList.<Player>builder();
+		for (int i = 0; i < 5; i++)
+			detectives.add(new Player(Detective.values()[i], defaultDetectiveTickets(),
+					locations.get(i)));
+		return factory.build(setup,
+				new Player(MRX, defaultMrXTickets(), generateMrXLocation(seed)),
+				detectives.build());
+	}
+
+	@Test public void testTableIsSharedPerGraph() {
+		var other = new GameSetup(setup.graph, ImmutableList.of(true, false));
+		assertThat(MoveTable.of(other)).isSameAs(table);
+		assertThat(table.graph()).isSameAs(CompactGraph.of(setup));
+	}
+
+	@Test public void testMovesAreInterned() {
+		Move single = table.single(MRX, 86, TAXI, 104);
+		assertThat(single).isEqualTo(new SingleMove(MRX, 86, TAXI, 104));
+		assertThat(table.single(MRX, 86, TAXI, 104)).isSameAs(single);
+		Move x2 = table.doubleMove(MRX, 86, TAXI, 104, SECRET, 86);
+		assertThat(x2).isEqualTo(new DoubleMove(MRX, 86, TAXI, 104, SECRET, 86));
+		assertThat(table.doubleMove(MRX, 86, TAXI, 104, SECRET, 86)).isSameAs(x2);
+		assertThat(table.single(RED, 86, TAXI, 104)).isNotSameAs(single);
+	}
+
+	@Test public void testGeneratedMovesAreInternedAndRoundTrip() {
+		for (Factory<GameState> factory :
+				List.<Factory<GameState>>of(new CompactGameStateFactory(), new MyGameStateFactory())) {
+			for (int seed = 0; seed < 20; seed++) {
+				var random = new Random(seed);
+				GameState state = randomGame(factory, seed);
+				// MyGameState cannot finish a game yet, a few rounds are enough
+				for (int ply = 0; ply < 12 && state.getWinner().isEmpty(); ply++) {
+					for (Move move : state.getAvailableMoves()) {
+						long encoded = table.encode(move);
+						assertThat(table.decode(encoded)).isSameAs(move);
+						assertThat(table.source(encoded)).isEqualTo(move.source());
+						assertThat(table.piece(MoveTable.piece(encoded)))
+								.isEqualTo(move.commencedBy());
+						assertThat(MoveTable.isDouble(encoded))
+								.isEqualTo(move instanceof DoubleMove);
+						assertThat(table.destination(encoded)).isEqualTo(move.accept(
+								new Move.FunctionalVisitor<>(m -> m.destination,
+										m -> m.destination2)));
+					}
+					var moves = state.getAvailableMoves().asList();
+					state = state.advance(moves.get(random.nextInt(moves.size())));
+				}
+			}
+		}
+	}
+
+	@Test public void testEncodedFieldsAreIndependent() {
+		long move = MoveTable.encodeDouble(MoveTable.MAX_PIECES - 1, (1 << 24) - 1, 4, 0, 4);
+		assertThat(MoveTable.piece(move)).isEqualTo(MoveTable.MAX_PIECES - 1);
+		assertThat(MoveTable.edge1(move)).isEqualTo((1 << 24) - 1);
+		assertThat(MoveTable.ticket1(move)).isEqualTo(4);
+		assertThat(MoveTable.edge2(move)).isZero();
+		assertThat(MoveTable.ticket2(move)).isEqualTo(4);
+		assertThat(MoveTable.isDouble(MoveTable.encodeSingle(3, 17, 0))).isFalse();
+		assertThat(MoveTable.isDouble(MoveTable.encodeDouble(0, 0, 0, 0, 0))).isTrue();
+	}
+
+	@Test public void testMovesNotOnTheGraphAreRejected() {
+		assertThatThrownBy(() -> table.single(MRX, 86, TAXI, 1))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> table.encode(new SingleMove(MRX, 86, BUS, 104)))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> table.encode(new SingleMove(MRX, 1000, TAXI, 104)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testConcurrentInterningYieldsOneInstance() throws Exception {
+		// a fresh graph so no row has been published yet
+		var fresh = MoveTable.of(ScotlandYard.standardGraph());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<Move>>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++)
+				results.add(executor.submit(() -> {
+					List<Move> moves = new ArrayList<>();
+					var graph = fresh.graph();
+					int mrX = fresh.index(MRX);
+					for (int e1 = 0; e1 < graph.end(graph.nodeBound() - 1); e1++) {
+						moves.add(fresh.single(mrX, e1, SECRET.ordinal()));
+						int middle = graph.target(e1);
+						for (int e2 = graph.begin(middle); e2 < graph.end(middle); e2++)
+							moves.add(fresh.doubleMove(mrX, e1, SECRET.ordinal(),
+									e2, SECRET.ordinal()));
+					}
+					return moves;
+				}));
+			List<Move> first = results.get(0).get();
+			assertThat(ImmutableSet.copyOf(first)).hasSameSizeAs(first);
+			for (var result : results) {
+				List<Move> moves = result.get();
+				for (int i = 0; i < moves.size(); i++) assertThat(moves.get(i)).isSameAs(first.get(i));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.MRX_LOCATIONS;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+
+/**
+ * Tests {@link MrXBeliefTracker} against a naive set based tracker over random playouts
+ */
+public class MrXBeliefTrackerTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(ScotlandYard.standardGraph(), STANDARD24MOVES);
+	}
+
+	private static Set<Integer> naiveAdvance(Set<Integer> candidates, Ticket ticket) {
+		return naiveAdvance(setup, candidates, ticket);
+	}
+
+	private static Set<Integer> naiveAdvance(GameSetup setup, Set<Integer> candidates,
+	                                         Ticket ticket) {
+		Set<Integer> next = new HashSet<>();
+		for (int node : candidates)
+			for (int neighbour : setup.graph.adjacentNodes(node))
+				for (Transport t : setup.graph.edgeValue(node, neighbour).orElseThrow())
+					if (ticket == Ticket.SECRET || t.requiredTicket() == ticket) next.add(neighbour);
+		return next;
+	}
+
+	@Test public void testMatchesNaiveTrackerAndContainsMrX() {
+		for (int seed = 0; seed < 100; seed++) {
+			var random = new Random(seed);
+			GameState state = SearchStateTest.randomGame(seed, 1 + seed % 5);
+			var tracker = new MrXBeliefTracker(setup, MRX_LOCATIONS);
+			Set<Integer> naive = new HashSet<>(MRX_LOCATIONS);
+			int consumed = 0;
+			while (state.getWinner().isEmpty()) {
+				var moves = state.getAvailableMoves().asList();
+				state = state.advance(moves.get(random.nextInt(moves.size())));
+				tracker.update(state);
+				ImmutableList<LogEntry> log = state.getMrXTravelLog();
+				for (; consumed < log.size(); consumed++) {
+					LogEntry entry = log.get(consumed);
+					naive = entry.location().isPresent()
+							? new HashSet<>(Set.of(entry.location().get()))
+							: naiveAdvance(naive, entry.ticket());
+				}
+				for (Detective d : Detective.values())
+					state.getDetectiveLocation(d).ifPresent(naive::remove);
+				assertThat(tracker.candidates()).isEqualTo(naive);
+				assertThat(tracker.processed()).isEqualTo(log.size());
+				if (state.getWinner().isEmpty())
+					assertThat(tracker.contains(SearchState.of(state).mrXLocation())).isTrue();
+			}
+		}
+	}
+
+	@Test public void testLargeGraphFollowsEdges() {
+		var large = new GameSetup(SyntheticMap.generate(50000, 1L), STANDARD24MOVES);
+		var random = new Random(1);
+		Set<Integer> naive = new HashSet<>();
+		while (naive.size() < 500) naive.add(1 + random.nextInt(50000));
+		var tracker = new MrXBeliefTracker(large, naive);
+		for (Ticket ticket : new Ticket[]{Ticket.TAXI, Ticket.BUS, Ticket.SECRET,
+				Ticket.UNDERGROUND, Ticket.TAXI}) {
+			tracker.advance(ticket);
+			naive = naiveAdvance(large, naive, ticket);
+			assertThat(tracker.candidates()).as("after %s", ticket).isEqualTo(naive);
+		}
+		assertThat(naive.size()).isGreaterThan(500);
+	}
+
+	@Test public void testUpdateExcludesNumberedDetectives() {
+		var synthetic = new GameSetup(SyntheticMap.generate(300, 4), STANDARD24MOVES);
+		GameState state = SyntheticMap.build(new CompactGameStateFactory(), synthetic, 12, 4);
+		var tracker = new MrXBeliefTracker(synthetic, synthetic.graph.nodes());
+		tracker.update(state);
+		var detectives = SearchState.detectiveLocations(state);
+		assertThat(detectives).hasSize(12);
+		assertThat(tracker.count()).isEqualTo(300 - 12);
+		for (int location : detectives.values()) assertThat(tracker.contains(location)).isFalse();
+	}
+
+	@Test public void testRevealResetsToRevealedLocation() {
+		var tracker = new MrXBeliefTracker(setup);
+		assertThat(tracker.count()).isEqualTo(199);
+		tracker.advance(Ticket.TAXI);
+		tracker.reveal(86);
+		assertThat(tracker.candidates()).containsExactly(86);
+		tracker.advance(Ticket.BUS);
+		assertThat(tracker.candidates()).containsExactlyInAnyOrder(52, 87, 102, 116);
+		tracker.exclude(52);
+		assertThat(tracker.toArray()).containsExactly(87, 102, 116);
+		assertThat(tracker.processed()).isEqualTo(3);
+	}
+
+	@Test public void testSampleReturnsOnlyCandidates() {
+		var tracker = new MrXBeliefTracker(setup, ImmutableSet.of(1, 100, 199));
+		var random = new Random(0);
+		Set<Integer> sampled = new HashSet<>();
+		for (int i = 0; i < 100; i++) sampled.add(tracker.sample(random));
+		assertThat(sampled).containsExactlyInAnyOrder(1, 100, 199);
+		tracker.exclude(1);
+		tracker.exclude(100);
+		tracker.exclude(199);
+		assertThatThrownBy(() -> tracker.sample(random)).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test public void testCopyIsIndependent() {
+		var tracker = new MrXBeliefTracker(setup, MRX_LOCATIONS);
+		var copy = tracker.copy();
+		copy.advance(Ticket.SECRET);
+		assertThat(tracker.candidates()).isEqualTo(ImmutableSet.copyOf(MRX_LOCATIONS));
+		assertThat(copy.processed()).isEqualTo(1);
+		assertThat(tracker.processed()).isZero();
+	}
+
+	@Test public void testShorterLogStartsOver() {
+		var tracker = new MrXBeliefTracker(setup, MRX_LOCATIONS);
+		tracker.advance(Ticket.TAXI);
+		tracker.advance(Ticket.TAXI);
+		GameState state = SearchStateTest.randomGame(0, 5);
+		tracker.update(state);
+		assertThat(tracker.processed()).isZero();
+		assertThat(tracker.count()).isEqualTo(MRX_LOCATIONS.size());
+	}
+
+}
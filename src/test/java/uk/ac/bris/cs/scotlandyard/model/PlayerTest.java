@@ -0,0 +1,85 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.BUS;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.DOUBLE;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.SECRET;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.TAXI;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.UNDERGROUND;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Tests that {@link Player}'s packed tickets behave like the map they are built from
+ */
+public class PlayerTest {
+
+	@Test public void testUseAndGiveUpdateTickets() {
+		var player = new Player(MRX, defaultMrXTickets(), 1);
+		var used = player.use(ImmutableList.of(TAXI, BUS, DOUBLE));
+		assertThat(used.tickets()).isEqualTo(ImmutableMap.of(
+				TAXI, 3, BUS, 2, UNDERGROUND, 3, DOUBLE, 1, SECRET, 5));
+		assertThat(used.give(TAXI).tickets()).containsEntry(TAXI, 4);
+		assertThat(used.hasAtLeast(BUS, 2)).isTrue();
+		assertThat(used.hasAtLeast(BUS, 3)).isFalse();
+		assertThat(player.tickets()).isEqualTo(defaultMrXTickets());
+	}
+
+	@Test public void testUseLastTicketKeepsZeroCount() {
+		var player = new Player(RED, ImmutableMap.of(TAXI, 1), 1).use(TAXI);
+		assertThat(player.has(TAXI)).isFalse();
+		assertThat(player.tickets()).isEqualTo(ImmutableMap.of(TAXI, 0));
+		assertThatThrownBy(() -> player.use(TAXI))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> player.use(BUS))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testGiveIgnoresTicketsNeverHeld() {
+		var player = new Player(RED, ImmutableMap.of(TAXI, 1), 1);
+		assertThat(player.give(SECRET).tickets()).isEqualTo(ImmutableMap.of(TAXI, 1));
+		assertThat(player.give(SECRET).has(SECRET)).isFalse();
+	}
+
+	@Test public void testEqualPlayersHaveEqualHashCodes() {
+		var built = new Player(RED, ImmutableMap.of(TAXI, 2, BUS, 0), 7);
+		var derived = new Player(RED, ImmutableMap.of(TAXI, 3, BUS, 0), 3).use(TAXI).at(7);
+		assertThat(derived).isEqualTo(built).hasSameHashCodeAs(built);
+		assertThat(derived).isNotEqualTo(new Player(RED, ImmutableMap.of(TAXI, 2), 7));
+		assertThat(derived.toString()).isEqualTo(built.toString());
+	}
+
+	@Test public void testCountsThatDoNotPackAreKept() {
+		var large = new Player(MRX, ImmutableMap.of(TAXI, PackedTickets.MAX_COUNT), 1);
+		assertThat(large.give(TAXI).tickets())
+				.containsEntry(TAXI, PackedTickets.MAX_COUNT + 1);
+		assertThat(large.give(TAXI).use(TAXI)).isEqualTo(large);
+		var negative = new Player(MRX, ImmutableMap.of(TAXI, -1, BUS, 1), 1);
+		assertThat(negative.has(TAXI)).isTrue();
+		assertThat(negative.hasAtLeast(TAXI, 0)).isFalse();
+		assertThat(negative.use(BUS).tickets()).isEqualTo(ImmutableMap.of(TAXI, -1, BUS, 0));
+		assertThatThrownBy(negative::packedTickets).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testEveryTicketIsTrackedIndependently() {
+		var builder = ImmutableMap.<Ticket, Integer>builder();
+		for (Ticket t : Ticket.values()) builder.put(t, PackedTickets.MAX_COUNT - t.ordinal());
+		var player = new Player(MRX, builder.build(), 1);
+		for (Ticket t : Ticket.values()) {
+			var used = player.use(t);
+			for (Ticket other : Ticket.values())
+				assertThat(used.tickets().get(other)).isEqualTo(
+						PackedTickets.MAX_COUNT - other.ordinal() - (other == t ? 1 : 0));
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Resources;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateDetectiveLocations;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateMrXLocation;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.readGraph;
+
+/**
+ * Differential tests of {@link SearchState#make(Move)} and {@link SearchState#unmake()} against
+ * {@link GameState#advance(Move)} over random playouts.
+ */
+public class SearchStateTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(readGraph(Resources.toString(Resources.getResource(
+				"graph.txt"), StandardCharsets.UTF_8)), STANDARD24MOVES);
+	}
+
+	static GameState randomGame(int seed, int detectives) {
+		var locations = generateDetectiveLocations(seed, detectives);
+		var players = ImmutableList.<Player>builder();
+		for (int i = 0; i < detectives; i++)
+			players.add(new Player(Detective.values()[i], defaultDetectiveTickets(),
+					locations.get(i)));
+		return new CompactGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), generateMrXLocation(seed)),
+				players.build());
+	}
+
+	static void assertSameBoard(Board expected, Board actual) {
+		assertThat(actual.getPlayers()).isEqualTo(expected.getPlayers());
+		for (Detective d : Detective.values())
+			assertThat(actual.getDetectiveLocation(d)).isEqualTo(expected.getDetectiveLocation(d));
+		for (Piece piece : expected.getPlayers())
+			for (Ticket t : Ticket.values())
+				assertThat(actual.getPlayerTickets(piece).orElseThrow().getCount(t))
+						.as("%s count of %s", t, piece)
+						.isEqualTo(expected.getPlayerTickets(piece).orElseThrow().getCount(t));
+		assertThat(actual.getMrXTravelLog()).isEqualTo(expected.getMrXTravelLog());
+		assertThat(actual.getWinner()).isEqualTo(expected.getWinner());
+		assertThat(actual.getAvailableMoves())
+				.containsExactlyInAnyOrderElementsOf(expected.getAvailableMoves());
+	}
+
+	@Test public void testMakeMatchesAdvanceAndUnmakeRestores() {
+		for (int seed = 0; seed < 200; seed++) {
+			var random = new Random(seed);
+			GameState state = randomGame(seed, 1 + seed % 5);
+			SearchState search = SearchState.of(state);
+			Deque<GameState> history = new ArrayDeque<>();
+			while (state.getWinner().isEmpty()) {
+				assertSameBoard(state, search);
+				var moves = state.getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				history.push(state);
+				state = state.advance(move);
+				search.make(move);
+			}
+			assertSameBoard(state, search);
+			assertThat(search.isGameOver()).isTrue();
+			while (!history.isEmpty()) {
+				search.unmake();
+				assertSameBoard(history.pop(), search);
+			}
+			assertThat(search.depth()).isZero();
+		}
+	}
+
+	@Test public void testCreatedFromAnyBoardMatchesBoard() {
+		for (int seed = 0; seed < 50; seed++) {
+			var random = new Random(seed);
+			GameState state = randomGame(seed, 5);
+			for (int ply = 0; ply < 10 && state.getWinner().isEmpty(); ply++) {
+				var moves = state.getAvailableMoves().asList();
+				state = state.advance(moves.get(random.nextInt(moves.size())));
+			}
+			int mrXLocation = SearchState.of(state).mrXLocation();
+			assertSameBoard(state, SearchState.of(new ImmutableBoard(state), mrXLocation));
+		}
+	}
+
+	@Test public void testCreatedFromMyGameStateOnDetectivesTurn() {
+		GameState state = new MyGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(Detective.BLUE, defaultDetectiveTickets(), 116)));
+		state = state.advance(new Move.SingleMove(MRX, 86, Ticket.TAXI, 104));
+		// only the detectives can move, MrX's location comes from the board itself
+		SearchState search = SearchState.of(state);
+		assertThat(search.mrXLocation()).isEqualTo(104);
+		assertSameBoard(state, search);
+	}
+
+	// a board rebuilt from scratch derives the detectives' occupancy anew rather than updating it
+	@Test public void testIncrementalOccupancyMatchesRebuiltBoard() {
+		for (int seed = 0; seed < 50; seed++) {
+			var random = new Random(seed);
+			SearchState search = SearchState.of(randomGame(seed, 5));
+			while (!search.isGameOver()) {
+				var moves = search.getAvailableMoves().asList();
+				search.make(moves.get(random.nextInt(moves.size())));
+				if (!search.isGameOver()) {
+					// a move made and reverted must leave no trace
+					var next = search.getAvailableMoves().asList();
+					search.make(next.get(random.nextInt(next.size())));
+					search.unmake();
+				}
+				assertSameBoard(SearchState.of(new ImmutableBoard(search), search.mrXLocation()),
+						search);
+			}
+		}
+	}
+
+	@Test public void testRelocateMrXMatchesCreatingAtLocation() {
+		GameState state = randomGame(3, 5);
+		SearchState search = SearchState.of(state);
+		for (int location : ScotlandYard.MRX_LOCATIONS) {
+			search.relocateMrX(location);
+			assertSameBoard(SearchState.of(state, location), search);
+		}
+		search.make(search.getAvailableMoves().asList().get(0));
+		assertThatThrownBy(() -> search.relocateMrX(1)).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test public void testUnmakeWithoutMakeShouldThrow() {
+		SearchState search = SearchState.of(randomGame(0, 5));
+		assertThatThrownBy(search::unmake).isInstanceOf(IllegalStateException.class);
+	}
+
+}
@@ -0,0 +1,259 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.Random;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24MOVES;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateDetectiveLocations;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.generateMrXLocation;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.readGraph;
+
+/**
+ * Tests that the keys maintained by the model's states match {@link StateKey#of(Board, int)}
+ * and that distinct positions of random playouts get distinct keys.
+ */
+public class StateKeyTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() throws IOException {
+		setup = new GameSetup(readGraph(Resources.toString(Resources.getResource(
+				"graph.txt"), StandardCharsets.UTF_8)), STANDARD24MOVES);
+	}
+
+	private static GameState randomGame(Factory<GameState> factory, int seed, int detectives) {
+		var locations = generateDetectiveLocations(seed, detectives);
+		var players = ImmutableList.<Player>builder();
+		for (int i = 0; i < detectives; i++)
+			players.add(new Player(Detective.values()[i], defaultDetectiveTickets(),
+					locations.get(i)));
+		return factory.build(setup,
+				new Player(MRX, defaultMrXTickets(), generateMrXLocation(seed)),
+				players.build());
+	}
+
+	private static int mrXLocation(GameState state) {
+		return ((CompactGameState) state).locations[CompactGame.MRX];
+	}
+
+	@Test public void testIncrementalKeyMatchesComputedKey() {
+		for (int seed = 0; seed < 200; seed++) {
+			var random = new Random(seed);
+			GameState state = randomGame(new CompactGameStateFactory(), seed, 1 + seed % 5);
+			while (true) {
+				assertThat(StateKey.of(state)).isEqualTo(StateKey.of(state, mrXLocation(state)));
+				if (!state.getWinner().isEmpty()) break;
+				var moves = state.getAvailableMoves().asList();
+				state = state.advance(moves.get(random.nextInt(moves.size())));
+			}
+		}
+	}
+
+	@Test public void testSearchStateKeyFollowsMakeAndUnmake() {
+		for (int seed = 0; seed < 100; seed++) {
+			var random = new Random(seed);
+			GameState state = randomGame(new CompactGameStateFactory(), seed, 5);
+			SearchState search = SearchState.of(state);
+			Deque<Long> keys = new ArrayDeque<>();
+			while (state.getWinner().isEmpty()) {
+				assertThat(search.key()).isEqualTo(StateKey.of(state));
+				var moves = state.getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				keys.push(search.key());
+				state = state.advance(move);
+				search.make(move);
+			}
+			assertThat(search.key()).isEqualTo(StateKey.of(state));
+			while (!keys.isEmpty()) {
+				search.unmake();
+				assertThat(search.key()).isEqualTo(keys.pop());
+			}
+		}
+	}
+
+	@Test public void testRelocateMrXUpdatesKey() {
+		GameState state = randomGame(new CompactGameStateFactory(), 3, 5);
+		SearchState search = SearchState.of(state);
+		search.relocateMrX(1);
+		assertThat(search.key()).isEqualTo(StateKey.of(state, 1));
+		assertThat(search.key()).isEqualTo(StateKey.of(SearchState.of(state, 1)));
+	}
+
+	@Test public void testMyGameStateKeyMatchesCompactGameState() {
+		for (int seed = 0; seed < 50; seed++) {
+			var random = new Random(seed);
+			GameState compact = randomGame(new CompactGameStateFactory(), seed, 1 + seed % 5);
+			GameState mine = randomGame(new MyGameStateFactory(), seed, 1 + seed % 5);
+			int mrX = generateMrXLocation(seed);
+			while (true) {
+				// the incremental key matches the key computed from the board
+				assertThat(StateKey.of(mine)).isEqualTo(StateKey.of(mine, mrX));
+				// and the compact engine's key
+				assertThat(StateKey.of(mine)).isEqualTo(StateKey.of(compact));
+				if (!mine.getWinner().isEmpty()) break;
+				var moves = mine.getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				if (move.commencedBy().isMrX())
+					mrX = move.accept(new Move.FunctionalVisitor<>(m -> m.destination,
+							m -> m.destination2));
+				compact = compact.advance(move);
+				mine = mine.advance(move);
+			}
+		}
+	}
+
+	@Test public void testNumberedDetectivesArePartOfTheKey() {
+		var synthetic = new GameSetup(SyntheticMap.generate(300, 4), STANDARD24MOVES);
+		GameState compact = SyntheticMap.build(new CompactGameStateFactory(), synthetic, 12, 4);
+		GameState mine = SyntheticMap.build(new MyGameStateFactory(), synthetic, 12, 4);
+		var random = new Random(4);
+		for (int ply = 0; ply < 40 && compact.getWinner().isEmpty()
+				&& mine.getWinner().isEmpty(); ply++) {
+			int mrX = mrXLocation(compact);
+			// every detective counts, not only the five colours, whoever is left to move
+			assertThat(SearchState.of(mine, mrX).getPlayers()).isEqualTo(compact.getPlayers());
+			assertThat(StateKey.of(mine, mrX)).isEqualTo(StateKey.of(compact));
+			assertThat(StateKey.of(SearchState.of(mine, mrX))).isEqualTo(StateKey.of(compact));
+			// at the start of the detectives' round every detective is found by its moves
+			if (mine.getAvailableMoves().stream().map(Move::commencedBy).distinct().count() == 12)
+				assertThat(StateKey.of(new OnlyColours(mine), mrX)).isEqualTo(StateKey.of(compact));
+			var moves = compact.getAvailableMoves().asList();
+			Move move = moves.get(random.nextInt(moves.size()));
+			compact = compact.advance(move);
+			mine = mine.advance(move);
+		}
+		// a board that cannot locate a numbered detective is rejected
+		Board start = new OnlyColours(SyntheticMap.build(new MyGameStateFactory(), synthetic,
+				12, 4));
+		assertThatThrownBy(() -> SearchState.of(start, 1))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> StateKey.of(start, 1))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	// a board that, like the coursework's, locates only the five colours
+	private static final class OnlyColours implements Board {
+		private final Board board;
+		OnlyColours(Board board) { this.board = board; }
+		@Override public GameSetup getSetup() { return board.getSetup(); }
+		@Override public ImmutableSet<Piece> getPlayers() { return board.getPlayers(); }
+		@Override public Optional<Integer> getDetectiveLocation(Detective detective) {
+			return board.getDetectiveLocation(detective);
+		}
+		@Override public Optional<TicketBoard> getPlayerTickets(Piece piece) {
+			return board.getPlayerTickets(piece);
+		}
+		@Override public ImmutableList<LogEntry> getMrXTravelLog() {
+			return board.getMrXTravelLog();
+		}
+		@Override public ImmutableSet<Piece> getWinner() { return board.getWinner(); }
+		@Override public ImmutableSet<Move> getAvailableMoves() {
+			return board.getAvailableMoves();
+		}
+	}
+
+	@Test public void testKeyIsStableAcrossRuns() {
+		GameState state = new CompactGameStateFactory().build(setup,
+				new Player(MRX, defaultMrXTickets(), 86),
+				ImmutableList.of(new Player(RED, defaultDetectiveTickets(), 116),
+						new Player(BLUE, defaultDetectiveTickets(), 108)));
+		// keys may be persisted, changing how they are derived must be deliberate
+		assertThat(StateKey.of(state)).isEqualTo(0x0E006FD5E73946E4L);
+	}
+
+	@Test public void testAnyBoardHasSameKey() {
+		GameState state = randomGame(new CompactGameStateFactory(), 0, 5);
+		assertThat(StateKey.of(new ImmutableBoard(state))).isEqualTo(StateKey.of(state));
+		state = state.advance(state.getAvailableMoves().asList().get(0));
+		var board = new ImmutableBoard(state);
+		// the detectives' view of the board does not know where MrX is
+		assertThatThrownBy(() -> StateKey.of(board)).isInstanceOf(IllegalArgumentException.class);
+		assertThat(StateKey.of(board, mrXLocation(state))).isEqualTo(StateKey.of(state));
+	}
+
+	// an exact description of a position, hashed independently of StateKey
+	private static long fingerprint(SearchState state, Iterable<Move> moves) {
+		long hash = 0x9E3779B97F4A7C15L;
+		hash = fold(hash, state.logSize());
+		for (Piece piece : state.getPlayers()) {
+			hash = fold(hash, state.location(piece));
+			for (Ticket t : Ticket.values()) hash = fold(hash, state.ticketCount(piece, t));
+		}
+		long movers = 0;
+		int index = 0;
+		for (Piece piece : state.getPlayers()) {
+			for (Move move : moves)
+				if (move.commencedBy() == piece) {
+					movers |= 1L << index;
+					break;
+				}
+			index++;
+		}
+		return fold(hash, movers);
+	}
+
+	private static long fold(long hash, long value) {
+		long z = (hash ^ value) * 0xC2B2AE3D27D4EB4FL;
+		z = (z ^ (z >>> 29)) * 0x165667B19E3779F9L;
+		return z ^ (z >>> 32);
+	}
+
+	@Test public void testNoCollisionsOverMillionsOfPlayoutStates() {
+		int states = 1 << 21;
+		// open addressing from key to fingerprint, at most half full
+		long[] keys = new long[states * 2];
+		long[] fingerprints = new long[states * 2];
+		boolean[] used = new boolean[states * 2];
+		int mask = keys.length - 1;
+		int seen = 0;
+		int distinct = 0;
+		int collisions = 0;
+		for (int seed = 0; seen < states; seed++) {
+			var random = new Random(seed);
+			SearchState state = SearchState.of(randomGame(new CompactGameStateFactory(),
+					seed, 1 + seed % 5));
+			while (seen < states) {
+				var moves = state.getAvailableMoves();
+				long key = state.key();
+				long fingerprint = fingerprint(state, moves);
+				seen++;
+				int slot = (int) key & mask;
+				while (used[slot] && keys[slot] != key) slot = (slot + 1) & mask;
+				if (!used[slot]) {
+					used[slot] = true;
+					keys[slot] = key;
+					fingerprints[slot] = fingerprint;
+					distinct++;
+				} else if (fingerprints[slot] != fingerprint) collisions++;
+				if (moves.isEmpty()) break;
+				state.make(moves.asList().get(random.nextInt(moves.size())));
+			}
+		}
+		assertThat(collisions).isZero();
+		assertThat(distinct).isGreaterThan(states / 2);
+	}
+
+}
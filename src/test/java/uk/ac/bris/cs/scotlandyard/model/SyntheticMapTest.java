@@ -0,0 +1,126 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.NumberedDetective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests the graphs of {@link SyntheticMap} and games with many detectives on them
+ */
+public class SyntheticMapTest {
+
+	private static GameSetup setup;
+
+	@BeforeClass public static void setUp() {
+		setup = new GameSetup(SyntheticMap.generate(5000, 1), ScotlandYard.STANDARD24MOVES);
+	}
+
+	@Test public void testSameSeedGeneratesSameGraph() {
+		assertThat(SyntheticMap.generate(1000, 7)).isEqualTo(SyntheticMap.generate(1000, 7));
+		assertThat(SyntheticMap.generate(1000, 7)).isNotEqualTo(SyntheticMap.generate(1000, 8));
+	}
+
+	@Test public void testGraphIsConnected() {
+		var graph = setup.graph;
+		assertThat(graph.nodes()).hasSize(5000).contains(1, 5000);
+		Set<Integer> seen = new HashSet<>();
+		var queue = new ArrayDeque<Integer>();
+		queue.add(1);
+		seen.add(1);
+		while (!queue.isEmpty())
+			for (int next : graph.adjacentNodes(queue.poll()))
+				if (seen.add(next)) queue.add(next);
+		assertThat(seen).hasSize(5000);
+	}
+
+	@Test public void testDensitiesMatchRequested() {
+		var graph = SyntheticMap.generate(20000, 2.5, 1, 0.25, 0.01, 3);
+		int[] counts = new int[Transport.values().length];
+		for (var edge : graph.edges())
+			for (Transport t : graph.edgeValue(edge).orElseThrow()) counts[t.ordinal()]++;
+		assertThat(counts[Transport.TAXI.ordinal()] / 20000.0).isCloseTo(2.5, within(0.01));
+		assertThat(counts[Transport.BUS.ordinal()] / 20000.0).isCloseTo(1, within(0.01));
+		assertThat(counts[Transport.UNDERGROUND.ordinal()] / 20000.0)
+				.isCloseTo(0.25, within(0.01));
+		assertThat(counts[Transport.FERRY.ordinal()] / 20000.0).isCloseTo(0.01, within(0.001));
+	}
+
+	@Test public void testRejectsDisconnectedDensity() {
+		assertThatThrownBy(() -> SyntheticMap.generate(100, 0.5, 1, 1, 1, 0))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testNumberedDetectivesAreInternedAndDistinct() throws Exception {
+		var detectives = SyntheticMap.detectives(63);
+		assertThat(detectives).hasSize(63).doesNotHaveDuplicates();
+		assertThat(detectives.subList(0, 5)).containsExactly(Detective.values());
+		assertThat(detectives.get(5)).isSameAs(NumberedDetective.of(NumberedDetective.FIRST));
+		assertThat(detectives.stream().map(StateKey::piece).distinct()).hasSize(63);
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new ObjectOutputStream(bytes)) { out.writeObject(detectives.get(40)); }
+		try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			assertThat(in.readObject()).isSameAs(detectives.get(40));
+		}
+		assertThatThrownBy(() -> NumberedDetective.of(5))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testGameWithManyDetectivesPlaysOut() {
+		for (int seed = 0; seed < 5; seed++) {
+			var random = new Random(seed);
+			GameState state = SyntheticMap.build(new CompactGameStateFactory(), setup, 63, seed);
+			SearchState search = SearchState.of(state);
+			while (state.getWinner().isEmpty()) {
+				SearchStateTest.assertSameBoard(state, search);
+				var moves = state.getAvailableMoves().asList();
+				Move move = moves.get(random.nextInt(moves.size()));
+				state = state.advance(move);
+				search.make(move);
+			}
+			SearchStateTest.assertSameBoard(state, search);
+		}
+	}
+
+	@Test public void testFactoriesAgreeWithManyDetectives() {
+		var random = new Random(0);
+		GameState compact = SyntheticMap.build(new CompactGameStateFactory(), setup, 40, 0);
+		GameState mine = SyntheticMap.build(new MyGameStateFactory(), setup, 40, 0);
+		// MyGameState cannot finish a game yet, a few rounds are enough
+		for (int ply = 0; ply < 100 && compact.getWinner().isEmpty(); ply++) {
+			assertThat(mine.getAvailableMoves())
+					.containsExactlyInAnyOrderElementsOf(compact.getAvailableMoves());
+			assertThat(StateKey.of(mine)).isEqualTo(StateKey.of(compact));
+			var moves = compact.getAvailableMoves().asList();
+			Move move = moves.get(random.nextInt(moves.size()));
+			compact = compact.advance(move);
+			mine = mine.advance(move);
+		}
+	}
+
+	@Test public void testTooManyDetectivesForCompactGame() {
+		assertThatThrownBy(() -> SyntheticMap.build(new CompactGameStateFactory(), setup, 64, 0))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+}